@@ -0,0 +1,27 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * entry point of benchmarks.jar; takes the usual JMH command line options
+ * unless given otherwise, results are also written to jmh-result.json for tracking across versions
+ * example: java -jar benchmark/target/benchmarks.jar SplitFinding -p numLeaves=16
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception{
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")){
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        if (!arguments.contains("-rff")){
+            arguments.add("-rff");
+            arguments.add("jmh-result.json");
+        }
+        Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+}
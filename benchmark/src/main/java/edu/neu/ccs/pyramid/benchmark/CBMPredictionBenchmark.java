@@ -0,0 +1,78 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.cbm.CBM;
+import edu.neu.ccs.pyramid.multilabel_classification.cbm.LRCBMOptimizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * prediction with a CBM of logistic regression components, initialized by one M step
+ * compares row by row prediction with block prediction of the whole data set
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CBMPredictionBenchmark {
+    @Param({"5000"})
+    public int numDataPoints;
+
+    @Param({"100"})
+    public int numFeatures;
+
+    @Param({"10"})
+    public int numClasses;
+
+    @Param({"5", "20"})
+    public int numComponents;
+
+    @Param({"dynamic", "hard"})
+    public String predictMode;
+
+    private MultiLabelClfDataSet dataSet;
+    private CBM cbm;
+
+    @Setup
+    public void setup(){
+        dataSet = SyntheticData.multiLabel(numDataPoints, numFeatures, numClasses);
+        cbm = CBM.getBuilder()
+                .setNumClasses(numClasses)
+                .setNumFeatures(numFeatures)
+                .setNumComponents(numComponents)
+                .setMultiClassClassifierType("lr")
+                .setBinaryClassifierType("lr")
+                .build();
+        cbm.setPredictMode(predictMode);
+        cbm.setAllowEmpty(true);
+        LRCBMOptimizer optimizer = new LRCBMOptimizer(cbm, dataSet);
+        optimizer.initialize();
+    }
+
+    @Benchmark
+    public void rows(Blackhole blackhole){
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            blackhole.consume(cbm.predict(dataSet.getRow(i)));
+        }
+    }
+
+    @Benchmark
+    public MultiLabel[] blocks(){
+        return cbm.predict(dataSet);
+    }
+}
@@ -0,0 +1,77 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import edu.neu.ccs.pyramid.dataset.BinaryFormat;
+import edu.neu.ccs.pyramid.dataset.DataSetType;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.TRECFormat;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * loading a multi-label data set saved once in the trec format and in the binary format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataSetLoadingBenchmark {
+    @Param({"10000", "50000"})
+    public int numDataPoints;
+
+    @Param({"100"})
+    public int numFeatures;
+
+    @Param({"10"})
+    public int numClasses;
+
+    private File folder;
+    private File trecFile;
+    private File binaryFile;
+
+    @Setup
+    public void setup() throws Exception{
+        MultiLabelClfDataSet dataSet = SyntheticData.multiLabel(numDataPoints, numFeatures, numClasses);
+        folder = Files.createTempDirectory("pyramid_benchmark").toFile();
+        trecFile = new File(folder, "data.trec");
+        binaryFile = new File(folder, "data.bin");
+        TRECFormat.save(dataSet, trecFile);
+        BinaryFormat.save(dataSet, binaryFile);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception{
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public MultiLabelClfDataSet trecSparse() throws Exception{
+        return TRECFormat.loadMultiLabelClfDataSet(trecFile, DataSetType.ML_CLF_SPARSE, true);
+    }
+
+    @Benchmark
+    public MultiLabelClfDataSet trecCompressed() throws Exception{
+        return TRECFormat.loadMultiLabelClfDataSet(trecFile, DataSetType.ML_CLF_COMPRESSED, true);
+    }
+
+    @Benchmark
+    public MultiLabelClfDataSet binary() throws Exception{
+        return BinaryFormat.loadMultiLabelClfDataSet(binaryFile);
+    }
+}
@@ -0,0 +1,81 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.ScoreMatrix;
+import edu.neu.ccs.pyramid.multilabel_classification.imlgb.IMLGBConfig;
+import edu.neu.ccs.pyramid.multilabel_classification.imlgb.IMLGBTrainer;
+import edu.neu.ccs.pyramid.multilabel_classification.imlgb.IMLGradientBoosting;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * scoring a data set with a trained multi-label boosting model, one tree per label per iteration
+ * compares row by row scoring with block scoring, on the tree objects and on the compiled flat arrays
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EnsembleScoringBenchmark {
+    @Param({"10000"})
+    public int numDataPoints;
+
+    @Param({"100"})
+    public int numFeatures;
+
+    @Param({"10"})
+    public int numClasses;
+
+    @Param({"10", "50"})
+    public int numIterations;
+
+    @Param({"8"})
+    public int numLeaves;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private MultiLabelClfDataSet dataSet;
+    private IMLGradientBoosting boosting;
+
+    @Setup
+    public void setup(){
+        dataSet = SyntheticData.multiLabel(numDataPoints, numFeatures, numClasses);
+        boosting = new IMLGradientBoosting(numClasses);
+        IMLGBConfig config = new IMLGBConfig.Builder(dataSet)
+                .numLeaves(numLeaves).learningRate(0.1).useHistogram(true).build();
+        IMLGBTrainer trainer = new IMLGBTrainer(config, boosting);
+        for (int i=0;i<numIterations;i++){
+            trainer.iterate();
+        }
+        if (compiled){
+            boosting.compile();
+        }
+    }
+
+    @Benchmark
+    public void rows(Blackhole blackhole){
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            blackhole.consume(boosting.predictClassScores(dataSet.getRow(i)));
+        }
+    }
+
+    @Benchmark
+    public ScoreMatrix blocks(){
+        return boosting.predictClassScores(dataSet);
+    }
+}
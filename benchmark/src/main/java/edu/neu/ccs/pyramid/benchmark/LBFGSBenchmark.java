@@ -0,0 +1,72 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticLoss;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.optimization.LBFGS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * L-BFGS iterations on the logistic loss, starting from a fresh model in every invocation
+ * each iteration evaluates the loss and its gradient at least once, through the line search
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LBFGSBenchmark {
+    @Param({"10000", "50000"})
+    public int numDataPoints;
+
+    @Param({"100"})
+    public int numFeatures;
+
+    @Param({"2", "10"})
+    public int numClasses;
+
+    @Param({"10"})
+    public int numIterations;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private MultiLabelClfDataSet dataSet;
+    private double[][] targetDistributions;
+    private LBFGS optimizer;
+
+    @Setup
+    public void setup(){
+        dataSet = SyntheticData.multiLabel(numDataPoints, numFeatures, numClasses);
+        targetDistributions = SyntheticData.targetDistributions(dataSet);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset(){
+        LogisticRegression logisticRegression = new LogisticRegression(numClasses, numFeatures);
+        LogisticLoss loss = new LogisticLoss(logisticRegression, dataSet, targetDistributions, 1, parallel);
+        optimizer = new LBFGS(loss);
+    }
+
+    @Benchmark
+    public LBFGS iterate(){
+        for (int i=0;i<numIterations;i++){
+            optimizer.iterate();
+        }
+        return optimizer;
+    }
+}
@@ -0,0 +1,68 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.regression.regression_tree.AverageOutputCalculator;
+import edu.neu.ccs.pyramid.regression.regression_tree.BinnedDataSet;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeConfig;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeTrainer;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * growing one regression tree, which is dominated by split finding
+ * compares the interval splitter on raw feature values with the histogram splitter on a pre-binned copy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SplitFindingBenchmark {
+    @Param({"10000", "50000"})
+    public int numDataPoints;
+
+    @Param({"20", "200"})
+    public int numFeatures;
+
+    @Param({"2", "16"})
+    public int numLeaves;
+
+    private MultiLabelClfDataSet dataSet;
+    private BinnedDataSet binnedDataSet;
+    private double[] labels;
+    private double[] weights;
+    private RegTreeConfig regTreeConfig;
+
+    @Setup
+    public void setup(){
+        dataSet = SyntheticData.multiLabel(numDataPoints, numFeatures, 2);
+        labels = SyntheticData.binaryTargets(dataSet);
+        weights = SyntheticData.ones(numDataPoints);
+        regTreeConfig = new RegTreeConfig().setMaxNumLeaves(numLeaves)
+                .setMinDataPerLeaf(1).setNumSplitIntervals(100);
+        binnedDataSet = BinnedDataSet.build(dataSet, 100);
+    }
+
+    @Benchmark
+    public RegressionTree interval(){
+        return RegTreeTrainer.fit(regTreeConfig, dataSet, null, labels, weights, new AverageOutputCalculator());
+    }
+
+    @Benchmark
+    public RegressionTree histogram(){
+        return RegTreeTrainer.fit(regTreeConfig, dataSet, binnedDataSet, labels, weights, new AverageOutputCalculator());
+    }
+}
@@ -0,0 +1,62 @@
+package edu.neu.ccs.pyramid.benchmark;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.simulation.MultiLabelSynthesizer;
+
+import java.util.Arrays;
+
+/**
+ * synthetic inputs shared by the benchmarks
+ */
+class SyntheticData {
+
+    /**
+     * dense features uniform in [-1,1], labels from random linear separators with one flipped label per data point
+     */
+    static MultiLabelClfDataSet multiLabel(int numDataPoints, int numFeatures, int numClasses){
+        return MultiLabelSynthesizer.flipOne(numDataPoints, numFeatures, numClasses);
+    }
+
+    /**
+     * +1/-1 regression targets from the first label, as seen by a tree fitting gradients
+     */
+    static double[] binaryTargets(MultiLabelClfDataSet dataSet){
+        MultiLabel[] multiLabels = dataSet.getMultiLabels();
+        double[] targets = new double[dataSet.getNumDataPoints()];
+        for (int i=0;i<targets.length;i++){
+            if (multiLabels[i].matchClass(0)){
+                targets[i] = 1;
+            } else {
+                targets[i] = -1;
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * multi-class soft targets, uniform over the matched labels of each data point (or over all labels if none)
+     */
+    static double[][] targetDistributions(MultiLabelClfDataSet dataSet){
+        int numClasses = dataSet.getNumClasses();
+        MultiLabel[] multiLabels = dataSet.getMultiLabels();
+        double[][] targets = new double[dataSet.getNumDataPoints()][numClasses];
+        for (int i=0;i<targets.length;i++){
+            int numMatched = multiLabels[i].getMatchedLabels().size();
+            if (numMatched==0){
+                Arrays.fill(targets[i], 1.0/numClasses);
+            } else {
+                for (int l: multiLabels[i].getMatchedLabels()){
+                    targets[i][l] = 1.0/numMatched;
+                }
+            }
+        }
+        return targets;
+    }
+
+    static double[] ones(int length){
+        double[] weights = new double[length];
+        Arrays.fill(weights, 1);
+        return weights;
+    }
+}
@@ -7,6 +7,7 @@ import edu.neu.ccs.pyramid.configuration.Config;
 import edu.neu.ccs.pyramid.dataset.*;
 import edu.neu.ccs.pyramid.elasticsearch.ESIndex;
 import edu.neu.ccs.pyramid.elasticsearch.FeatureLoader;
+import edu.neu.ccs.pyramid.elasticsearch.LocalFeatureLoader;
 import edu.neu.ccs.pyramid.feature.*;
 import edu.neu.ccs.pyramid.feature_extraction.NgramEnumerator;
 import edu.neu.ccs.pyramid.feature_extraction.NgramTemplate;
@@ -109,6 +110,12 @@ public class App1 {
             String[] ports = config.getString("index.ports").split(Pattern.quote(","));
             builder.addHostsAndPorts(hosts,ports);
         }
+        if (config.containsKey("index.phraseCountBlockSize")){
+            builder.setPhraseCountBlockSize(config.getInt("index.phraseCountBlockSize"));
+        }
+        if (config.containsKey("index.matchBitsetBlockSize")){
+            builder.setMatchBitsetBlockSize(config.getInt("index.matchBitsetBlockSize"));
+        }
         ESIndex index = builder.build();
         logger.info("index loaded");
         logger.info("there are "+index.getNumDocs()+" documents in the index.");
@@ -228,12 +235,23 @@ public class App1 {
         List<Integer> slops = config.getIntegers("train.feature.ngram.slop");
         boolean inorder = config.getBoolean("train.feature.ngram.inOrder");
         boolean allowDuplicates = config.getBoolean("train.feature.ngram.allowDuplicateWords");
+        // setting a sketch width, even 0, switches to packed counting of true document frequencies
+        boolean packedCounting = config.containsKey("train.feature.ngram.sketchWidth");
+        int sketchWidth = 0;
+        if (packedCounting){
+            sketchWidth = config.getInt("train.feature.ngram.sketchWidth");
+        }
         for (String field: fields){
             for (int n: ns){
                 for (int slop:slops){
                     logger.info("gathering "+n+ "-grams from field "+field+" with slop "+slop+" and minDf "+minDf+ ", (actual frequency threshold = "+minDFrequency+")");
                     NgramTemplate template = new NgramTemplate(field,n,slop);
-                    Multiset<Ngram> ngrams = NgramEnumerator.gatherNgram(index, ids, template, minDFrequency);
+                    Multiset<Ngram> ngrams;
+                    if (packedCounting){
+                        ngrams = NgramEnumerator.gatherNgram(index, ids, template, minDFrequency, sketchWidth);
+                    } else {
+                        ngrams = NgramEnumerator.gatherNgram(index, ids, template, minDFrequency);
+                    }
                     logger.info("gathered "+ngrams.elementSet().size()+ " ngrams");
                     int newCounter = 0;
                     for (Multiset.Entry<Ngram> entry: ngrams.entrySet()){
@@ -350,6 +368,13 @@ public class App1 {
         FeatureLoader.MatchScoreType matchScoreType;
         Map<String, float[]> fieldLength=null;
 
+        // features can be extracted from a Lucene snapshot of the index instead of the cluster
+        LocalFeatureLoader localFeatureLoader = null;
+        if (config.containsKey("index.localSnapshot") && !config.getStrings("index.localSnapshot").isEmpty()){
+            List<File> shardFolders = config.getStrings("index.localSnapshot").stream().map(File::new).collect(Collectors.toList());
+            localFeatureLoader = new LocalFeatureLoader(shardFolders);
+        }
+
         switch (matchScoreTypeString){
             case "es_original":
                 matchScoreType= FeatureLoader.MatchScoreType.ES_ORIGINAL;
@@ -364,6 +389,10 @@ public class App1 {
                 matchScoreType= FeatureLoader.MatchScoreType.TFIFL;
                 fieldLength = new HashMap<>();
                 for (String field: config.getStrings("train.feature.ngram.extractionFields")){
+                    if (localFeatureLoader!=null){
+                        fieldLength.put(field, localFeatureLoader.loadFloatField(idTranslator, field+"_field_length"));
+                        continue;
+                    }
 
                     float[] arr = new float[idTranslator.numData()];
                     for (int i=0;i<idTranslator.numData();i++){
@@ -379,7 +408,12 @@ public class App1 {
                 throw new IllegalArgumentException("unknown ngramMatchScoreType");
         }
 
-        FeatureLoader.loadFeatures(index, dataSet, featureList, idTranslator, matchScoreType, docFilter, fieldLength);
+        if (localFeatureLoader!=null){
+            localFeatureLoader.loadFeatures(dataSet, featureList, idTranslator, matchScoreType, fieldLength);
+            localFeatureLoader.close();
+        } else {
+            FeatureLoader.loadFeatures(index, dataSet, featureList, idTranslator, matchScoreType, docFilter, fieldLength);
+        }
 
         dataSet.setIdTranslator(idTranslator);
         dataSet.setLabelTranslator(labelTranslator);
@@ -168,6 +168,8 @@ public class App2 {
         boolean earlyStop = config.getBoolean("train.earlyStop");
         CheckPoint checkPoint;
 
+        // optional, so that configs written before incremental training keep working
+        boolean incremental = config.containsKey("train.incremental") && config.getBoolean("train.incremental");
         if (config.getBoolean("train.warmStart")){
             checkPoint = (CheckPoint) Serialization.deserialize(new File(output, "checkpoint"));
             boosting = checkPoint.boosting;
@@ -180,7 +182,12 @@ public class App2 {
             accuracy = checkPoint.accuracy;
             startTime = checkPoint.trainingTime.get(trainingTime.size()-1).getSecond();
         } else {
-            boosting  = new IMLGradientBoosting(numClasses);
+            if (incremental){
+                logger.info("loading the existing model for incremental training");
+                boosting = IMLGradientBoosting.deserialize(new File(output,modelName));
+            } else {
+                boosting  = new IMLGradientBoosting(numClasses);
+            }
             earlyStoppers = new ArrayList<>();
             terminators = new ArrayList<>();
             trainingTime = new ArrayList<>();
@@ -205,11 +212,32 @@ public class App2 {
             }
             shouldStop = new boolean[allTrainData.getNumClasses()];
             numLabelsLeftToTrain = numClasses;
+            int[] numInitialTrees = new int[numClasses];
+            if (incremental){
+                // score the whole training set once with the existing model and only keep training labels whose loss moved
+                IMLGBConfig fullConfig = new IMLGBConfig.Builder(allTrainData)
+                        .learningRate(learningRate)
+                        .minDataPerLeaf(minDataPerLeaf)
+                        .numLeaves(numLeaves)
+                        .numSplitIntervals(config.getInt("train.numSplitIntervals"))
+                        .usePrior(config.getBoolean("train.usePrior"))
+                        .numActiveFeatures(config.getInt("train.numActiveFeatures"))
+                        .build();
+                IMLGBTrainer fullTrainer = new IMLGBTrainer(fullConfig, boosting);
+                numLabelsLeftToTrain = fullTrainer.stopUnchangedLabels(config.getDouble("train.incremental.lossTolerance"));
+                System.arraycopy(fullTrainer.getShouldStop(), 0, shouldStop, 0, numClasses);
+                for (int l=0;l<numClasses;l++){
+                    // the prior is not counted, consistent with cutTail
+                    numInitialTrees[l] = boosting.getRegressors(l).size()-boosting.getNumPriors(l);
+                }
+                logger.info("the number of labels to be trained incrementally = "+numLabelsLeftToTrain);
+            }
             checkPoint = new CheckPoint();
             checkPoint.boosting = boosting;
             checkPoint.earlyStoppers = earlyStoppers;
             checkPoint.terminators = terminators;
             checkPoint.shouldStop = shouldStop;
+            checkPoint.numInitialTrees = numInitialTrees;
             // this is not a pointer, has to be updated
             checkPoint.numLabelsLeftToTrain = numLabelsLeftToTrain;
             checkPoint.lastIter = 0;
@@ -280,7 +308,11 @@ public class App2 {
                             logger.info("training for label "+l+" ("+allTrainData.getLabelTranslator().toExtLabel(l)+") should stop now");
                             logger.info("the best number of training iterations for the label is "+earlyStopper.getBestIteration());
                             if (i!=earlyStopper.getBestIteration()){
-                                boosting.cutTail(l, earlyStopper.getBestIteration());
+                                int numTreesToKeep = earlyStopper.getBestIteration();
+                                if (checkPoint.numInitialTrees!=null){
+                                    numTreesToKeep += checkPoint.numInitialTrees[l];
+                                }
+                                boosting.cutTail(l, numTreesToKeep);
                                 logger.info("roll back the model for this label to iteration "+earlyStopper.getBestIteration());
                             }
 
@@ -320,6 +352,13 @@ public class App2 {
         logger.info("training done");
         logger.info(stopWatch.toString());
 
+        if (incremental){
+            // an extra scoring pass over the training set, only paid by incremental runs
+            logger.info("recording the training loss of each label for future incremental training");
+            boosting.setTrainLabelLosses(boosting.labelLosses(allTrainData));
+            boosting.serialize(new File(output,modelName));
+        }
+
         File outputdir = new File(config.getString("output.folder"));
         outputdir.mkdirs();
 
@@ -867,6 +906,10 @@ public class App2 {
         private int lastIter;
         private List<Pair<Integer,Double>> trainingTime;
         private List<Pair<Integer,Double>> accuracy;
+        /**
+         * number of trees of each label before this training started, excluding the prior
+         */
+        private int[] numInitialTrees;
 
         public int getLastIter() {
             return lastIter;
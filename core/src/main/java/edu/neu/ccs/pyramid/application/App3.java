@@ -51,7 +51,7 @@ public class App3 {
         Config app1Config = new Config();
         String[] same = {"output.folder","output.trainFolder","output.testFolder","output.validFolder","output.log",
                 "train.feature.useInitialFeatures","train.feature.categFeature.filter",
-                "train.feature.categFeature.percentThreshold","train.feature.ngram.n","train.feature.ngram.minDf","train.feature.ngram.slop",
+                "train.feature.categFeature.percentThreshold","train.feature.ngram.n","train.feature.ngram.minDf","train.feature.ngram.slop","train.feature.ngram.sketchWidth",
                 "train.feature.missingValue",
                 "train.feature.addExternalNgrams","train.feature.externalNgramFile","train.feature.analyzer",
                 "train.feature.ngram.allowDuplicateWords","train.feature.ngram.inOrder",
@@ -60,7 +60,7 @@ public class App3 {
                 "train.feature.useCodeDescription", "train.feature.codeDesc.File", "train.feature.codeDesc.analyzer",
                 "train.feature.codeDesc.matchField", "train.feature.codeDesc.minMatchPercentage","test.considerNewLabel","valid.considerNewLabel","train.label.minDF",
                 "index.indexName","index.clusterName","index.documentType","index.clientType",
-                "index.hosts","index.ports","train.label.field","train.label.filterByPrefix","train.label.filter.prefix",
+                "index.hosts","index.ports","index.localSnapshot","index.phraseCountBlockSize","index.matchBitsetBlockSize","train.label.field","train.label.filterByPrefix","train.label.filter.prefix",
                 "train.feature.featureFieldPrefix","train.feature.ngram.extractionFields",
                 "train.splitQuery","test.splitQuery","valid.splitQuery",
                 "train.feature.ngram.matchScoreType","createTrainSet","createTestSet","createValidSet",
@@ -76,7 +76,7 @@ public class App3 {
 
     private static Config createApp2Config(Config config){
         Config app2Config = new Config();
-        String[] same = {"output.folder","output.log", "train","test","tune","predict.target","train.warmStart","train.usePrior",
+        String[] same = {"output.folder","output.log", "train","test","tune","predict.target","train.warmStart","train.incremental","train.incremental.lossTolerance","train.usePrior",
         "train.numIterations","train.numLeaves","train.learningRate","train.minDataPerLeaf",
         "train.numSplitIntervals","train.batchSize", "train.minibatchLifeSpan", "train.fullScanInterval", "train.numActiveFeatures",
                 "train.showTrainProgress","train.showValidProgress", "train.showProgress.sampleSize",
@@ -455,6 +455,11 @@ public class CBMEN {
         optimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         optimizer.setMulticlassUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         optimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+        int fullEStepInterval = 1;
+        if (config.containsKey("train.fullEStepInterval")){
+            fullEStepInterval = config.getInt("train.fullEStepInterval");
+        }
+        optimizer.setFullEStepInterval(fullEStepInterval);
         optimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
 //
 
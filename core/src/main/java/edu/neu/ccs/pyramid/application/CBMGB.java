@@ -436,6 +436,11 @@ public class CBMGB {
         cbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         cbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         cbmOptimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+        int fullEStepInterval = 1;
+        if (config.containsKey("train.fullEStepInterval")){
+            fullEStepInterval = config.getInt("train.fullEStepInterval");
+        }
+        cbmOptimizer.setFullEStepInterval(fullEStepInterval);
         cbmOptimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
         cbmOptimizer.setSmoothingStrength(config.getDouble("train.smoothStrength"));
         cbmOptimizer.setShrinkage(config.getDouble("train.shrinkage"));
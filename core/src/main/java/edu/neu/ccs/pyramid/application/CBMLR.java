@@ -434,6 +434,11 @@ public class CBMLR {
         lrcbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         lrcbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         lrcbmOptimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+        int fullEStepInterval = 1;
+        if (config.containsKey("train.fullEStepInterval")){
+            fullEStepInterval = config.getInt("train.fullEStepInterval");
+        }
+        lrcbmOptimizer.setFullEStepInterval(fullEStepInterval);
         lrcbmOptimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
         lrcbmOptimizer.setSmoothingStrength(config.getDouble("train.smoothStrength"));
 
@@ -83,6 +83,17 @@ public interface Classifier extends Serializable{
             return logs;
         }
 
+        /**
+         * writes the log class probabilities into a buffer owned by the caller
+         * classifiers used in per-row hot loops should override this method to avoid allocation
+         * @param vector
+         * @param logProbs size = num classes
+         */
+        default void predictLogClassProbs(Vector vector, double[] logProbs){
+            double[] result = predictLogClassProbs(vector);
+            System.arraycopy(result, 0, logProbs, 0, result.length);
+        }
+
         /**
          * in some cases, this can be implemented more efficiently
          * @param vector
@@ -101,6 +112,35 @@ public interface Classifier extends Serializable{
                     .collect(Collectors.toList());
         }
 
+        /**
+         * log class probabilities of a block of consecutive rows
+         * classifiers that can score a block at once should override this method
+         * @param dataSet
+         * @param fromRow inclusive
+         * @param toRow exclusive
+         * @return [row-fromRow][class]
+         */
+        default double[][] predictLogClassProbs(DataSet dataSet, int fromRow, int toRow){
+            double[][] logProbs = new double[toRow-fromRow][];
+            for (int i=fromRow;i<toRow;i++){
+                logProbs[i-fromRow] = predictLogClassProbs(dataSet.getRow(i));
+            }
+            return logProbs;
+        }
+
+        /**
+         * block version of {@link #predictLogClassProbs(Vector, double[])}
+         * @param dataSet
+         * @param fromRow inclusive
+         * @param toRow exclusive
+         * @param logProbs [row-fromRow][class], filled in place
+         */
+        default void predictLogClassProbs(DataSet dataSet, int fromRow, int toRow, double[][] logProbs){
+            for (int i=fromRow;i<toRow;i++){
+                predictLogClassProbs(dataSet.getRow(i), logProbs[i-fromRow]);
+            }
+        }
+
         /**
          * by default, probabilities can be used for classification.
          * classifier should override this method if
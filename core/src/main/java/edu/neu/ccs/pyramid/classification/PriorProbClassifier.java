@@ -98,6 +98,13 @@ public class PriorProbClassifier implements Classifier.ProbabilityEstimator {
         return this.probs;
     }
 
+    @Override
+    public void predictLogClassProbs(Vector vector, double[] logProbs){
+        for (int k=0;k<numClasses;k++){
+            logProbs[k] = Math.log(probs[k]);
+        }
+    }
+
     public double[] getClassProbs(){
         return this.probs;
     }
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.classification.lkboost;
 
 import edu.neu.ccs.pyramid.classification.Classifier;
+import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.optimization.gradient_boosting.Ensemble;
@@ -10,6 +11,9 @@ import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.mahout.math.Vector;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
 
 /**
@@ -39,6 +43,27 @@ public class LKBoost extends GradientBoosting implements Classifier.ProbabilityE
         return this.numClasses;
     }
 
+    /**
+     * block scoring
+     * @param dataSet
+     * @return predicted classes
+     */
+    @Override
+    public int[] predict(DataSet dataSet){
+        int numDataPoints = dataSet.getNumDataPoints();
+        int[] predictions = new int[numDataPoints];
+        int numBlocks = (numDataPoints+Ensemble.BLOCK_SIZE-1)/Ensemble.BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*Ensemble.BLOCK_SIZE;
+            int toRow = Math.min(numDataPoints, fromRow+Ensemble.BLOCK_SIZE);
+            double[][] scores = scores(dataSet, fromRow, toRow);
+            for (int i=fromRow;i<toRow;i++){
+                predictions[i] = ArgMax.argMax(scores[i-fromRow]);
+            }
+        });
+        return predictions;
+    }
+
     /**
      *
      * @param vector
@@ -68,6 +93,49 @@ public class LKBoost extends GradientBoosting implements Classifier.ProbabilityE
     @Override
     public double[] predictLogClassProbs(Vector vector) {
         double[] scoreVector = this.predictClassScores(vector);
+        return logProbs(scoreVector);
+    }
+
+    /**
+     * block scoring
+     * @param dataSet
+     * @return
+     */
+    @Override
+    public List<double[]> predictClassProbs(DataSet dataSet){
+        int numDataPoints = dataSet.getNumDataPoints();
+        double[][] probs = new double[numDataPoints][];
+        int numBlocks = (numDataPoints+Ensemble.BLOCK_SIZE-1)/Ensemble.BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*Ensemble.BLOCK_SIZE;
+            int toRow = Math.min(numDataPoints, fromRow+Ensemble.BLOCK_SIZE);
+            double[][] logProbs = predictLogClassProbs(dataSet, fromRow, toRow);
+            for (int i=fromRow;i<toRow;i++){
+                probs[i] = Arrays.stream(logProbs[i-fromRow]).map(Math::exp).toArray();
+            }
+        });
+        return Arrays.asList(probs);
+    }
+
+    @Override
+    public double[][] predictLogClassProbs(DataSet dataSet, int fromRow, int toRow){
+        double[][] scores = scores(dataSet, fromRow, toRow);
+        double[][] logProbs = new double[toRow-fromRow][];
+        for (int i=0;i<scores.length;i++){
+            logProbs[i] = logProbs(scores[i]);
+        }
+        return logProbs;
+    }
+
+    @Override
+    public void predictLogClassProbs(DataSet dataSet, int fromRow, int toRow, double[][] logProbs){
+        double[][] blockLogProbs = predictLogClassProbs(dataSet, fromRow, toRow);
+        for (int i=0;i<blockLogProbs.length;i++){
+            System.arraycopy(blockLogProbs[i], 0, logProbs[i], 0, numClasses);
+        }
+    }
+
+    private double[] logProbs(double[] scoreVector){
         double[] logProbVector = new double[this.numClasses];
         double logDenominator = MathUtil.logSumExp(scoreVector);
         for (int k=0;k<this.numClasses;k++){
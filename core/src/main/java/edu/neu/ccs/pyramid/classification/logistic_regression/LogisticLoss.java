@@ -12,12 +12,13 @@ import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
 /**
  * Created by Rainicy on 10/24/15.
  */
-public class LogisticLoss implements Optimizable.ByGradientValue {
+public class LogisticLoss implements Optimizable.ByBatchGradient {
     private static final Logger logger = LogManager.getLogger();
     private LogisticRegression logisticRegression;
     private DataSet dataSet;
@@ -30,7 +31,7 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
     private int numParameters;
     private int numClasses;
 
-    // size = num classes * num data
+    // size = num classes * num data; only allocated for the column gradient
     private double[][] logProbabilityMatrix;
     // also store probabilities to avoid doing exponentiation
     private double[][] probabilityMatrix;
@@ -39,6 +40,11 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
     private boolean isValueCacheValid;
     private boolean isProbabilityCacheValid;
     private boolean isParallel = false;
+    /**
+     * if true, the gradient is accumulated in one pass over rows, into one shard per thread;
+     * otherwise, by one pass over a feature column per parameter
+     */
+    private boolean rowGradient = true;
     private double priorGaussianVariance;
 
     // for elasticnet
@@ -57,12 +63,7 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
         this.dataSet = dataSet;
         this.weights = weights;
         this.priorGaussianVariance = priorGaussianVariance;
-        this.empiricalCounts = new DenseVector(numParameters);
-        this.predictedCounts = new DenseVector(numParameters);
         this.numClasses = targetDistributions[0].length;
-        this.logProbabilityMatrix = new double[numClasses][dataSet.getNumDataPoints()];
-        this.probabilityMatrix = new double[numClasses][dataSet.getNumDataPoints()];
-        this.updateEmpricalCounts();
         this.isValueCacheValid=false;
         this.isGradientCacheValid=false;
         this.isProbabilityCacheValid=false;
@@ -80,12 +81,7 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
         this.weights = weights;
         this.regularization = regularization;
         this.l1Ratio = l1Ratio;
-        this.empiricalCounts = new DenseVector(numParameters);
-        this.predictedCounts = new DenseVector(numParameters);
         this.numClasses = targetDistributions[0].length;
-        this.logProbabilityMatrix = new double[numClasses][dataSet.getNumDataPoints()];
-        this.probabilityMatrix = new double[numClasses][dataSet.getNumDataPoints()];
-        this.updateEmpricalCounts();
         this.isValueCacheValid=false;
         this.isGradientCacheValid=false;
         this.isProbabilityCacheValid=false;
@@ -119,6 +115,14 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
     }
 
 
+    /**
+     * the column gradient keeps num classes * num data probabilities and the empirical counts, allocated on first use;
+     * the row gradient and its values keep neither
+     */
+    public void setRowGradient(boolean rowGradient) {
+        this.rowGradient = rowGradient;
+    }
+
     public void setParameters(Vector parameters) {
         this.logisticRegression.getWeights().setWeightVector(parameters);
         this.isValueCacheValid=false;
@@ -156,8 +160,11 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
     }
 
 
+    /**
+     * with the row gradient, probabilities are computed on the fly and not stored
+     */
     private double kl(){
-        if (!isProbabilityCacheValid){
+        if (!rowGradient && !isProbabilityCacheValid){
             updateClassProbMatrix();
         }
         IntStream intStream;
@@ -173,9 +180,14 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
         if (weights[dataPointIndex]==0){
             return 0;
         }
-        double[] predicted = new double[numClasses];
-        for (int k=0;k<numClasses;k++){
-            predicted[k] = logProbabilityMatrix[k][dataPointIndex];
+        double[] predicted;
+        if (isProbabilityCacheValid){
+            predicted = new double[numClasses];
+            for (int k=0;k<numClasses;k++){
+                predicted[k] = logProbabilityMatrix[k][dataPointIndex];
+            }
+        } else {
+            predicted = logisticRegression.predictLogClassProbs(dataSet.getRow(dataPointIndex));
         }
         return weights[dataPointIndex]* KLDivergence.klGivenPLogQ(targetDistributions[dataPointIndex], predicted);
     }
@@ -235,9 +247,18 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
             }
             return this.gradient;
         }
-        updateClassProbMatrix();
-        updatePredictedCounts();
-        updateGradient();
+        if (rowGradient){
+            updateGradientByRows();
+        } else {
+            if (empiricalCounts==null){
+                this.empiricalCounts = new DenseVector(numParameters);
+                this.predictedCounts = new DenseVector(numParameters);
+                updateEmpricalCounts();
+            }
+            updateClassProbMatrix();
+            updatePredictedCounts();
+            updateGradient();
+        }
         this.isGradientCacheValid = true;
         if (logger.isDebugEnabled()){
             logger.debug("time spent on getGradient = "+stopWatch);
@@ -250,6 +271,137 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
         this.gradient = this.predictedCounts.minus(empiricalCounts).plus(penaltyGradient());
     }
 
+    /**
+     * predicted minus empirical counts, plus the penalty gradient, in one row-major pass
+     * probabilities are taken from the cache if the column path left it valid at the same parameters;
+     * otherwise they are computed on the fly and not stored
+     */
+    private void updateGradientByRows(){
+        StopWatch stopWatch = new StopWatch();
+        if (logger.isDebugEnabled()){
+            stopWatch.start();
+        }
+        int numDataPoints = dataSet.getNumDataPoints();
+        int numShards = 1;
+        if (isParallel){
+            numShards = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), numDataPoints));
+        }
+        int shardSize = (numDataPoints+numShards-1)/numShards;
+        boolean useCachedProbs = isProbabilityCacheValid;
+        IntStream intStream = IntStream.range(0, numShards);
+        if (isParallel){
+            intStream = intStream.parallel();
+        }
+        double[] counts = intStream.mapToObj(shard -> accumulateCounts(shard*shardSize,
+                Math.min(numDataPoints, (shard+1)*shardSize), useCachedProbs))
+                .reduce((shard1, shard2) -> {
+                    for (int i=0;i<shard1.length;i++){
+                        shard1[i] += shard2[i];
+                    }
+                    return shard1;
+                }).get();
+
+        int stride = numParameters/numClasses;
+        Vector weightsVector = this.logisticRegression.getWeights().getAllWeights();
+        for (int i=0;i<numParameters;i++){
+            // no penalty on bias
+            if (i%stride!=0){
+                counts[i] += weightsVector.getQuick(i)/priorGaussianVariance;
+            }
+        }
+        this.gradient = new DenseVector(counts, true);
+        if (logger.isDebugEnabled()){
+            logger.debug("time spent on updateGradientByRows = "+stopWatch);
+        }
+    }
+
+    /**
+     * gradient shard of rows in [fromRow, toRow), without penalty
+     */
+    private double[] accumulateCounts(int fromRow, int toRow, boolean useCachedProbs){
+        double[] counts = new double[numParameters];
+        double[] diffs = new double[numClasses];
+        for (int i=fromRow;i<toRow;i++){
+            accumulateCounts(i, useCachedProbs, diffs, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * add the gradient of one data point, without penalty
+     * @param diffs buffer of size numClasses
+     */
+    private void accumulateCounts(int dataPointIndex, boolean useCachedProbs, double[] diffs, double[] counts){
+        double weight = weights[dataPointIndex];
+        if (weight==0){
+            return;
+        }
+        // bias of class k is at k*stride, feature j at k*stride+j+1
+        int stride = numParameters/numClasses;
+        Vector row = dataSet.getRow(dataPointIndex);
+        if (useCachedProbs){
+            for (int k=0;k<numClasses;k++){
+                diffs[k] = probabilityMatrix[k][dataPointIndex];
+            }
+        } else {
+            double[] logProbs = logisticRegression.predictLogClassProbs(row);
+            for (int k=0;k<numClasses;k++){
+                diffs[k] = Math.exp(logProbs[k]);
+            }
+        }
+        double[] targets = targetDistributions[dataPointIndex];
+        for (int k=0;k<numClasses;k++){
+            diffs[k] = weight*(diffs[k]-targets[k]);
+            counts[k*stride] += diffs[k];
+        }
+        if (row.isDense()){
+            for (int j=0;j<row.size();j++){
+                double featureValue = row.getQuick(j);
+                if (featureValue!=0){
+                    for (int k=0;k<numClasses;k++){
+                        counts[k*stride+j+1] += diffs[k]*featureValue;
+                    }
+                }
+            }
+        } else {
+            for (Vector.Element element: row.nonZeroes()){
+                int position = element.index()+1;
+                double featureValue = element.get();
+                for (int k=0;k<numClasses;k++){
+                    counts[k*stride+position] += diffs[k]*featureValue;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getNumDataPoints() {
+        return dataSet.getNumDataPoints();
+    }
+
+    /**
+     * computed row by row on the given data points only; caches are neither used nor updated
+     */
+    @Override
+    public Vector getBatchGradient(int[] dataIndices) {
+        double[] counts = new double[numParameters];
+        double[] diffs = new double[numClasses];
+        for (int i: dataIndices){
+            accumulateCounts(i, false, diffs, counts);
+        }
+        int numDataPoints = dataSet.getNumDataPoints();
+        int stride = numParameters/numClasses;
+        Vector weightsVector = this.logisticRegression.getWeights().getAllWeights();
+        for (int i=0;i<numParameters;i++){
+            counts[i] /= dataIndices.length;
+            // no penalty on bias
+            if (i%stride!=0){
+                counts[i] += weightsVector.getQuick(i)/(priorGaussianVariance*numDataPoints);
+            }
+        }
+        return new DenseVector(counts, true);
+    }
+
     private Vector penaltyGradient(){
         Vector weightsVector = this.logisticRegression.getWeights().getAllWeights();
         Vector penalty = new DenseVector(weightsVector.size());
@@ -357,6 +509,10 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
     private void updateClassProbMatrix(){
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
+        if (probabilityMatrix==null){
+            this.logProbabilityMatrix = new double[numClasses][dataSet.getNumDataPoints()];
+            this.probabilityMatrix = new double[numClasses][dataSet.getNumDataPoints()];
+        }
         IntStream intStream;
         if (isParallel){
             intStream = IntStream.range(0,dataSet.getNumDataPoints()).parallel();
@@ -131,6 +131,17 @@ public class LogisticRegression implements Classifier.ProbabilityEstimator, Clas
         return logProbVector;
     }
 
+    @Override
+    public void predictLogClassProbs(Vector vector, double[] logProbs){
+        for (int k=0;k<this.numClasses;k++){
+            logProbs[k] = predictClassScore(vector, k);
+        }
+        double logDenominator = MathUtil.logSumExp(logProbs);
+        for (int k=0;k<this.numClasses;k++) {
+            logProbs[k] -= logDenominator;
+        }
+    }
+
     /**
      * logLikelihood for each datapoint.
      * @param vector
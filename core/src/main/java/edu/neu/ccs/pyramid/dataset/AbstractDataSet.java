@@ -109,6 +109,39 @@ abstract class AbstractDataSet implements DataSet{
         return sb.toString();
     }
 
+    /**
+     * bulk set feature values, one sparse vector per data point
+     * cells which are not in the entries keep their values
+     * @param rows
+     */
+    void fill(SparseEntries rows){
+        fill(rows, rows.transpose(numFeatures));
+    }
+
+    /**
+     * the default sets values one by one; subclasses fill their own storage without per-cell locking
+     * @param rows entries by data point
+     * @param columns the same entries by feature
+     */
+    void fill(SparseEntries rows, SparseEntries columns){
+        checkRows(rows);
+        for (int i=0;i<numDataPoints;i++){
+            for (int p=rows.getStart(i);p<rows.getEnd(i);p++){
+                setFeatureValue(i, rows.getIndex(p), rows.getValue(p));
+            }
+        }
+    }
+
+    void checkRows(SparseEntries rows){
+        if (rows.getNumVectors()!=numDataPoints){
+            throw new IllegalArgumentException("rows.getNumVectors()!=numDataPoints");
+        }
+        rows.checkIndices(numFeatures);
+        if ((!this.hasMissingValue()) && rows.hasNaN()){
+            throw new IllegalArgumentException("missing value is not allowed in this data set");
+        }
+    }
+
     @Override
     public void setIdTranslator(IdTranslator idTranslator) {
         this.idTranslator = idTranslator;
@@ -0,0 +1,420 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import edu.neu.ccs.pyramid.feature.FeatureList;
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * columnar binary format, loaded as memory mapped data sets without parsing
+ * internally, binaryFile is a directory with several files in it
+ *
+ * matrix.bin:
+ * header, see {@link #HEADER_SIZE}
+ * row offsets (long[numDataPoints+1]), row feature indices (int[numNonZeros]), row values (float[numNonZeros])
+ * column offsets (long[numFeatures+1]), column data indices (int[numNonZeros]), column values (float[numNonZeros])
+ * labels: int[numDataPoints] for classification, double[numDataPoints] for regression,
+ * label offsets (int[numDataPoints+1]) and sorted labels (int[]) for multi-label classification
+ *
+ * ids.bin and label_names.bin: external ids and labels, in the order of internal ones
+ * feature_list.ser: serialized feature list
+ */
+public class BinaryFormat {
+    private static final String MATRIX_FILE_NAME = "matrix.bin";
+    private static final String ID_FILE_NAME = "ids.bin";
+    private static final String LABEL_NAME_FILE_NAME = "label_names.bin";
+    private static final String FEATURE_LIST_FILE_NAME = "feature_list.ser";
+
+    private static final int MAGIC = 0x50594d44;
+    private static final int VERSION = 1;
+    /**
+     * magic, version, type, numDataPoints, numFeatures, missingValue, numClasses, unused (int each), numNonZeros (long)
+     */
+    static final int HEADER_SIZE = 40;
+
+    private static final int TYPE_FEATURES_ONLY = 0;
+    private static final int TYPE_CLF = 1;
+    private static final int TYPE_REG = 2;
+    private static final int TYPE_ML_CLF = 3;
+
+    private static final int BUFFER_SIZE = 1<<16;
+
+    public static void save(DataSet dataSet, String binaryFile) throws IOException {
+        save(dataSet, new File(binaryFile));
+    }
+
+    /**
+     * values are stored as float
+     * rows and columns are written in a single pass each
+     * @param dataSet any data set
+     * @param binaryFile
+     * @throws IOException
+     */
+    public static void save(DataSet dataSet, File binaryFile) throws IOException {
+        if (!binaryFile.exists()){
+            binaryFile.mkdirs();
+        }
+        int numDataPoints = dataSet.getNumDataPoints();
+        int numFeatures = dataSet.getNumFeatures();
+        long[] rowOffsets = new long[numDataPoints+1];
+        for (int i=0;i<numDataPoints;i++){
+            rowOffsets[i+1] = rowOffsets[i] + countNonZeros(dataSet.getRow(i));
+        }
+        long[] columnOffsets = new long[numFeatures+1];
+        for (int j=0;j<numFeatures;j++){
+            columnOffsets[j+1] = columnOffsets[j] + countNonZeros(dataSet.getColumn(j));
+        }
+        long numNonZeros = rowOffsets[numDataPoints];
+        if (columnOffsets[numFeatures]!=numNonZeros){
+            throw new IllegalArgumentException("rows and columns of the data set do not match");
+        }
+
+        int type = TYPE_FEATURES_ONLY;
+        int numClasses = 0;
+        if (dataSet instanceof ClfDataSet){
+            type = TYPE_CLF;
+            numClasses = ((ClfDataSet) dataSet).getNumClasses();
+        } else if (dataSet instanceof RegDataSet){
+            type = TYPE_REG;
+        } else if (dataSet instanceof MultiLabelClfDataSet){
+            type = TYPE_ML_CLF;
+            numClasses = ((MultiLabelClfDataSet) dataSet).getNumClasses();
+        }
+
+        long rowValuesOffset = HEADER_SIZE + 8L*(numDataPoints+1) + 4L*numNonZeros;
+        long columnValuesOffset = rowValuesOffset + 4L*numNonZeros + 8L*(numFeatures+1) + 4L*numNonZeros;
+        File matrixFile = new File(binaryFile, MATRIX_FILE_NAME);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(matrixFile, "rw")){
+            // remove stale content
+            randomAccessFile.setLength(0);
+        }
+        // three streams at different positions, so that indices and values are written together
+        try (DataOutputStream first = openAt(matrixFile, 0);
+             DataOutputStream second = openAt(matrixFile, rowValuesOffset);
+             DataOutputStream third = openAt(matrixFile, columnValuesOffset)){
+            first.writeInt(MAGIC);
+            first.writeInt(VERSION);
+            first.writeInt(type);
+            first.writeInt(numDataPoints);
+            first.writeInt(numFeatures);
+            first.writeInt(dataSet.hasMissingValue() ? 1 : 0);
+            first.writeInt(numClasses);
+            first.writeInt(0);
+            first.writeLong(numNonZeros);
+            for (long offset: rowOffsets){
+                first.writeLong(offset);
+            }
+            for (int i=0;i<numDataPoints;i++){
+                Vector row = dataSet.getRow(i);
+                for (int featureIndex: sortedNonZeroIndices(row)){
+                    first.writeInt(featureIndex);
+                    second.writeFloat((float) row.getQuick(featureIndex));
+                }
+            }
+            for (long offset: columnOffsets){
+                second.writeLong(offset);
+            }
+            for (int j=0;j<numFeatures;j++){
+                Vector column = dataSet.getColumn(j);
+                for (int dataIndex: sortedNonZeroIndices(column)){
+                    second.writeInt(dataIndex);
+                    third.writeFloat((float) column.getQuick(dataIndex));
+                }
+            }
+            writeLabels(dataSet, type, third);
+        }
+
+        writeIds(dataSet, binaryFile);
+        if (type==TYPE_CLF){
+            writeLabelNames(((ClfDataSet) dataSet).getLabelTranslator(), numClasses, binaryFile);
+        }
+        if (type==TYPE_ML_CLF){
+            writeLabelNames(((MultiLabelClfDataSet) dataSet).getLabelTranslator(), numClasses, binaryFile);
+        }
+        writeFeatureList(dataSet, binaryFile);
+    }
+
+    public static DataSet load(String binaryFile) throws IOException, ClassNotFoundException {
+        return load(new File(binaryFile));
+    }
+
+    /**
+     * feature values are mapped, not read; labels, ids and feature list are loaded on-heap
+     * @param binaryFile
+     * @return a {@link MappedClfDataSet}, {@link MappedRegDataSet}, {@link MappedMLClfDataSet}
+     * or {@link MappedDataSet}, depending on the saved data set
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static DataSet load(File binaryFile) throws IOException, ClassNotFoundException {
+        File matrixFile = new File(binaryFile, MATRIX_FILE_NAME);
+        int type;
+        int numDataPoints;
+        int numFeatures;
+        boolean missingValue;
+        int numClasses;
+        long numNonZeros;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(matrixFile)))){
+            if (in.readInt()!=MAGIC){
+                throw new IllegalArgumentException(matrixFile+" is not a binary data set");
+            }
+            int version = in.readInt();
+            if (version!=VERSION){
+                throw new IllegalArgumentException("unsupported version "+version);
+            }
+            type = in.readInt();
+            numDataPoints = in.readInt();
+            numFeatures = in.readInt();
+            missingValue = in.readInt()==1;
+            numClasses = in.readInt();
+            in.readInt();
+            numNonZeros = in.readLong();
+        }
+
+        IdTranslator idTranslator = loadIds(numDataPoints, binaryFile);
+        long labelsOffset = HEADER_SIZE + 8L*(numDataPoints+1) + 8L*numNonZeros
+                + 8L*(numFeatures+1) + 8L*numNonZeros;
+        MappedDataSet dataSet;
+        switch (type){
+            case TYPE_CLF:
+                MappedClfDataSet clfDataSet = new MappedClfDataSet(matrixFile, numDataPoints, numFeatures,
+                        missingValue, numNonZeros, idTranslator, numClasses);
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(matrixFile, "r");
+                     FileChannel channel = randomAccessFile.getChannel()){
+                    MappedArray labels = new MappedArray(channel, labelsOffset, numDataPoints, 4);
+                    for (int i=0;i<numDataPoints;i++){
+                        clfDataSet.setLabel(i, labels.getInt(i));
+                    }
+                }
+                clfDataSet.setLabelTranslator(loadLabelNames(numClasses, binaryFile));
+                dataSet = clfDataSet;
+                break;
+            case TYPE_REG:
+                MappedRegDataSet regDataSet = new MappedRegDataSet(matrixFile, numDataPoints, numFeatures,
+                        missingValue, numNonZeros, idTranslator);
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(matrixFile, "r");
+                     FileChannel channel = randomAccessFile.getChannel()){
+                    MappedArray labels = new MappedArray(channel, labelsOffset, numDataPoints, 8);
+                    for (int i=0;i<numDataPoints;i++){
+                        regDataSet.setLabel(i, labels.getDouble(i));
+                    }
+                }
+                dataSet = regDataSet;
+                break;
+            case TYPE_ML_CLF:
+                MappedMLClfDataSet mlClfDataSet = new MappedMLClfDataSet(matrixFile, numDataPoints, numFeatures,
+                        missingValue, numNonZeros, idTranslator, numClasses);
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(matrixFile, "r");
+                     FileChannel channel = randomAccessFile.getChannel()){
+                    MappedArray labelOffsets = new MappedArray(channel, labelsOffset, numDataPoints+1, 4);
+                    int numLabels = labelOffsets.getInt(numDataPoints);
+                    MappedArray labels = new MappedArray(channel, labelsOffset+4L*(numDataPoints+1), numLabels, 4);
+                    for (int i=0;i<numDataPoints;i++){
+                        for (int p=labelOffsets.getInt(i);p<labelOffsets.getInt(i+1);p++){
+                            mlClfDataSet.addLabel(i, labels.getInt(p));
+                        }
+                    }
+                }
+                mlClfDataSet.setLabelTranslator(loadLabelNames(numClasses, binaryFile));
+                dataSet = mlClfDataSet;
+                break;
+            case TYPE_FEATURES_ONLY:
+                dataSet = new MappedDataSet(matrixFile, numDataPoints, numFeatures,
+                        missingValue, numNonZeros, idTranslator);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown data set type "+type);
+        }
+        loadFeatureList(dataSet, binaryFile);
+        return dataSet;
+    }
+
+    public static ClfDataSet loadClfDataSet(String binaryFile) throws IOException, ClassNotFoundException {
+        return loadClfDataSet(new File(binaryFile));
+    }
+
+    public static ClfDataSet loadClfDataSet(File binaryFile) throws IOException, ClassNotFoundException {
+        DataSet dataSet = load(binaryFile);
+        if (!(dataSet instanceof ClfDataSet)){
+            throw new IllegalArgumentException(binaryFile+" is not a classification data set");
+        }
+        return (ClfDataSet) dataSet;
+    }
+
+    public static RegDataSet loadRegDataSet(String binaryFile) throws IOException, ClassNotFoundException {
+        return loadRegDataSet(new File(binaryFile));
+    }
+
+    public static RegDataSet loadRegDataSet(File binaryFile) throws IOException, ClassNotFoundException {
+        DataSet dataSet = load(binaryFile);
+        if (!(dataSet instanceof RegDataSet)){
+            throw new IllegalArgumentException(binaryFile+" is not a regression data set");
+        }
+        return (RegDataSet) dataSet;
+    }
+
+    public static MultiLabelClfDataSet loadMultiLabelClfDataSet(String binaryFile) throws IOException, ClassNotFoundException {
+        return loadMultiLabelClfDataSet(new File(binaryFile));
+    }
+
+    public static MultiLabelClfDataSet loadMultiLabelClfDataSet(File binaryFile) throws IOException, ClassNotFoundException {
+        DataSet dataSet = load(binaryFile);
+        if (!(dataSet instanceof MultiLabelClfDataSet)){
+            throw new IllegalArgumentException(binaryFile+" is not a multi-label classification data set");
+        }
+        return (MultiLabelClfDataSet) dataSet;
+    }
+
+    //========================== PRIVATE ============================
+
+    private static DataOutputStream openAt(File file, long position) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(position);
+        // closing the stream closes the channel and the file
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(randomAccessFile.getChannel()), BUFFER_SIZE));
+    }
+
+    /**
+     * zeros are not stored; NaNs are
+     */
+    private static int countNonZeros(Vector vector){
+        int count = 0;
+        for (Vector.Element element: vector.nonZeroes()){
+            if (element.get()!=0){
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private static int[] sortedNonZeroIndices(Vector vector){
+        int[] indices = new int[countNonZeros(vector)];
+        int position = 0;
+        for (Vector.Element element: vector.nonZeroes()){
+            if (element.get()!=0){
+                indices[position] = element.index();
+                position += 1;
+            }
+        }
+        // random access vectors iterate in hash order
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private static void writeLabels(DataSet dataSet, int type, DataOutputStream out) throws IOException {
+        int numDataPoints = dataSet.getNumDataPoints();
+        switch (type){
+            case TYPE_CLF:
+                int[] clfLabels = ((ClfDataSet) dataSet).getLabels();
+                for (int i=0;i<numDataPoints;i++){
+                    out.writeInt(clfLabels[i]);
+                }
+                break;
+            case TYPE_REG:
+                double[] regLabels = ((RegDataSet) dataSet).getLabels();
+                for (int i=0;i<numDataPoints;i++){
+                    out.writeDouble(regLabels[i]);
+                }
+                break;
+            case TYPE_ML_CLF:
+                MultiLabel[] multiLabels = ((MultiLabelClfDataSet) dataSet).getMultiLabels();
+                int offset = 0;
+                out.writeInt(offset);
+                for (int i=0;i<numDataPoints;i++){
+                    offset += multiLabels[i].getMatchedLabels().size();
+                    out.writeInt(offset);
+                }
+                for (int i=0;i<numDataPoints;i++){
+                    for (int label: multiLabels[i].getMatchedLabelsOrdered()){
+                        out.writeInt(label);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void writeIds(DataSet dataSet, File binaryFile) throws IOException {
+        IdTranslator idTranslator = dataSet.getIdTranslator();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(binaryFile, ID_FILE_NAME)), BUFFER_SIZE))){
+            for (int i=0;i<dataSet.getNumDataPoints();i++){
+                String extId = idTranslator.toExtId(i);
+                if (extId==null){
+                    extId = ""+i;
+                }
+                out.writeUTF(extId);
+            }
+        }
+    }
+
+    private static IdTranslator loadIds(int numDataPoints, File binaryFile) throws IOException {
+        File file = new File(binaryFile, ID_FILE_NAME);
+        if (!file.exists()){
+            return IdTranslator.newDefaultIdTranslator(numDataPoints);
+        }
+        IdTranslator idTranslator = new IdTranslator();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))){
+            for (int i=0;i<numDataPoints;i++){
+                idTranslator.addDataWithoutCheck(i, in.readUTF());
+            }
+        }
+        return idTranslator;
+    }
+
+    private static void writeLabelNames(LabelTranslator labelTranslator, int numClasses, File binaryFile) throws IOException {
+        if (labelTranslator==null){
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(binaryFile, LABEL_NAME_FILE_NAME))))){
+            for (int k=0;k<numClasses;k++){
+                out.writeUTF(labelTranslator.toExtLabel(k));
+            }
+        }
+    }
+
+    private static LabelTranslator loadLabelNames(int numClasses, File binaryFile) throws IOException {
+        File file = new File(binaryFile, LABEL_NAME_FILE_NAME);
+        if (!file.exists()){
+            return LabelTranslator.newDefaultLabelTranslator(numClasses);
+        }
+        String[] extLabels = new String[numClasses];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            for (int k=0;k<numClasses;k++){
+                extLabels[k] = in.readUTF();
+            }
+        }
+        return new LabelTranslator(extLabels);
+    }
+
+    private static void writeFeatureList(DataSet dataSet, File binaryFile) throws IOException {
+        File file = new File(binaryFile, FEATURE_LIST_FILE_NAME);
+        try (
+                FileOutputStream fileOutputStream = new FileOutputStream(file);
+                BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(bufferedOutputStream);
+        ){
+            objectOutputStream.writeObject(dataSet.getFeatureList());
+        }
+    }
+
+    private static void loadFeatureList(DataSet dataSet, File binaryFile) throws IOException, ClassNotFoundException {
+        File file = new File(binaryFile, FEATURE_LIST_FILE_NAME);
+        if (file.exists()){
+            FeatureList featureList;
+            try(
+                    FileInputStream fileInputStream = new FileInputStream(file);
+                    BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
+                    ObjectInputStream objectInputStream = new ObjectInputStream(bufferedInputStream);
+            ){
+                featureList = (FeatureList)objectInputStream.readObject();
+            }
+            dataSet.setFeatureList(featureList);
+        }
+    }
+}
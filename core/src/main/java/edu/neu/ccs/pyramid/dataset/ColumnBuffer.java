@@ -0,0 +1,164 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.list.DoubleArrayList;
+import org.apache.mahout.math.list.IntArrayList;
+
+/**
+ * collects feature values column by column from many threads, then fills a data set in one bulk step
+ * each feature has its own primitive buffer, created on first write and guarded by one of a few striped locks;
+ * threads writing different features rarely wait for each other, unlike the synchronized
+ * {@link SparseDataSet#setFeatureValue}
+ * a feature may be written several times; later values override earlier ones
+ */
+public class ColumnBuffer {
+    private static final int NUM_STRIPES = 64;
+
+    private final int numDataPoints;
+    private final int numFeatures;
+    private final Object[] locks;
+    private final IntArrayList[] dataIndices;
+    private final DoubleArrayList[] values;
+
+    public ColumnBuffer(int numDataPoints, int numFeatures) {
+        this.numDataPoints = numDataPoints;
+        this.numFeatures = numFeatures;
+        this.locks = new Object[NUM_STRIPES];
+        for (int s=0;s<NUM_STRIPES;s++){
+            locks[s] = new Object();
+        }
+        this.dataIndices = new IntArrayList[numFeatures];
+        this.values = new DoubleArrayList[numFeatures];
+    }
+
+    public int getNumDataPoints() {
+        return numDataPoints;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * thread-safe
+     * @param dataPointIndex
+     * @param featureIndex
+     * @param featureValue
+     */
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue){
+        checkDataPointIndex(dataPointIndex);
+        synchronized (lockOf(featureIndex)){
+            column(featureIndex);
+            dataIndices[featureIndex].add(dataPointIndex);
+            values[featureIndex].add(featureValue);
+        }
+    }
+
+    /**
+     * thread-safe; only non-zeros of the column are taken
+     * @param featureIndex
+     * @param column a vector over data points
+     */
+    public void setColumn(int featureIndex, Vector column){
+        if (column.size()!=numDataPoints){
+            throw new IllegalArgumentException("column.size()!=numDataPoints");
+        }
+        synchronized (lockOf(featureIndex)){
+            column(featureIndex);
+            for (Vector.Element element: column.nonZeroes()){
+                dataIndices[featureIndex].add(element.index());
+                values[featureIndex].add(element.get());
+            }
+        }
+    }
+
+    /**
+     * thread-safe; appends entries collected elsewhere, e.g. by one thread for one part of the data set
+     * @param featureIndex
+     * @param dataPointIndices
+     * @param featureValues same size as dataPointIndices
+     */
+    public void addEntries(int featureIndex, IntArrayList dataPointIndices, DoubleArrayList featureValues){
+        if (dataPointIndices.size()!=featureValues.size()){
+            throw new IllegalArgumentException("dataPointIndices.size()!=featureValues.size()");
+        }
+        for (int p=0;p<dataPointIndices.size();p++){
+            checkDataPointIndex(dataPointIndices.getQuick(p));
+        }
+        synchronized (lockOf(featureIndex)){
+            column(featureIndex);
+            dataIndices[featureIndex].addAllOf(dataPointIndices);
+            values[featureIndex].addAllOf(featureValues);
+        }
+    }
+
+    /**
+     * set all buffered values into the data set; other cells keep their values
+     * should be called after all writers finish
+     * data sets in this package are filled without per-cell locking
+     * @param dataSet a data set with the same dimensions
+     */
+    public void fill(DataSet dataSet){
+        if (dataSet.getNumDataPoints()!=numDataPoints){
+            throw new IllegalArgumentException("dataSet.getNumDataPoints()!=numDataPoints");
+        }
+        if (dataSet.getNumFeatures()!=numFeatures){
+            throw new IllegalArgumentException("dataSet.getNumFeatures()!=numFeatures");
+        }
+        SparseEntries columns = toEntries();
+        if (dataSet instanceof AbstractDataSet){
+            ((AbstractDataSet) dataSet).fill(columns.transpose(numDataPoints), columns);
+        } else {
+            for (int j=0;j<numFeatures;j++){
+                for (int p=columns.getStart(j);p<columns.getEnd(j);p++){
+                    dataSet.setFeatureValue(columns.getIndex(p), j, columns.getValue(p));
+                }
+            }
+        }
+    }
+
+    //========================== PRIVATE ============================
+
+    private Object lockOf(int featureIndex){
+        if (featureIndex<0||featureIndex>=numFeatures){
+            throw new IllegalArgumentException("featureIndex "+featureIndex+" is out of range [0,"+numFeatures+")");
+        }
+        return locks[featureIndex%NUM_STRIPES];
+    }
+
+    private void checkDataPointIndex(int dataPointIndex){
+        if (dataPointIndex<0||dataPointIndex>=numDataPoints){
+            throw new IllegalArgumentException("dataPointIndex "+dataPointIndex+" is out of range [0,"+numDataPoints+")");
+        }
+    }
+
+    /**
+     * create the buffer of the feature if absent; called with the lock held
+     */
+    private void column(int featureIndex){
+        if (dataIndices[featureIndex]==null){
+            dataIndices[featureIndex] = new IntArrayList();
+            values[featureIndex] = new DoubleArrayList();
+        }
+    }
+
+    /**
+     * entries by feature
+     */
+    private SparseEntries toEntries(){
+        int[] offsets = new int[numFeatures+1];
+        for (int j=0;j<numFeatures;j++){
+            int size = dataIndices[j]==null ? 0 : dataIndices[j].size();
+            offsets[j+1] = offsets[j] + size;
+        }
+        int[] indices = new int[offsets[numFeatures]];
+        double[] entryValues = new double[offsets[numFeatures]];
+        for (int j=0;j<numFeatures;j++){
+            if (dataIndices[j]!=null){
+                System.arraycopy(dataIndices[j].elements(), 0, indices, offsets[j], dataIndices[j].size());
+                System.arraycopy(values[j].elements(), 0, entryValues, offsets[j], values[j].size());
+            }
+        }
+        return new SparseEntries(offsets, indices, entryValues);
+    }
+}
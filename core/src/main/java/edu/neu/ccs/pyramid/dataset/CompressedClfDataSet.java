@@ -0,0 +1,69 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.util.Arrays;
+
+/**
+ * immutable features, mutable labels
+ */
+public class CompressedClfDataSet extends CompressedDataSet implements ClfDataSet {
+    private int numClasses;
+    private int[] labels;
+    private LabelTranslator labelTranslator;
+
+    /**
+     * copy feature values, labels and translators of the data set
+     * @param dataSet
+     */
+    public CompressedClfDataSet(ClfDataSet dataSet) {
+        super(dataSet);
+        this.numClasses = dataSet.getNumClasses();
+        this.labels = Arrays.copyOf(dataSet.getLabels(), dataSet.getNumDataPoints());
+        this.labelTranslator = dataSet.getLabelTranslator();
+    }
+
+    @Override
+    public int getNumClasses() {
+        return this.numClasses;
+    }
+
+    @Override
+    public int[] getLabels() {
+        return this.labels;
+    }
+
+    @Override
+    public void setLabel(int dataPointIndex, int label) {
+        if (label<0||label>=this.numClasses){
+            throw new IllegalArgumentException("label<0||label>=this.numClasses");
+        }
+        this.labels[dataPointIndex]=label;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("number of classes = ").append(this.numClasses).append("\n");
+        sb.append(super.toString());
+        sb.append("labels = ").append(Arrays.toString(labels));
+        return sb.toString();
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("compressed sparse classification").append("\n");
+        sb.append("number of classes = ").append(this.numClasses);
+        return sb.toString();
+    }
+
+    @Override
+    public LabelTranslator getLabelTranslator() {
+        return labelTranslator;
+    }
+
+    @Override
+    public void setLabelTranslator(LabelTranslator labelTranslator) {
+        this.labelTranslator = labelTranslator;
+    }
+}
@@ -0,0 +1,141 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+
+/**
+ * immutable sparse data set backed by primitive arrays
+ * feature values are stored twice, in compressed sparse row (CSR) and compressed sparse column (CSC) layouts,
+ * as float; rows and columns are returned as light-weight read-only views over these arrays
+ * built once from an existing data set, e.g., a loaded {@link SparseDataSet}
+ */
+public class CompressedDataSet extends AbstractDataSet implements DataSet{
+    /**
+     * entries of row i are in [rowOffsets[i], rowOffsets[i+1])
+     */
+    private int[] rowOffsets;
+    private int[] rowFeatureIndices;
+    private float[] rowValues;
+
+    /**
+     * entries of column j are in [columnOffsets[j], columnOffsets[j+1])
+     */
+    private int[] columnOffsets;
+    private int[] columnDataIndices;
+    private float[] columnValues;
+
+    /**
+     * copy feature values, id translator and feature list of the data set
+     * @param dataSet
+     */
+    public CompressedDataSet(DataSet dataSet) {
+        super(dataSet.getNumDataPoints(), dataSet.getNumFeatures(), dataSet.hasMissingValue(), dataSet.getIdTranslator());
+        this.featureList = dataSet.getFeatureList();
+        buildRows(dataSet);
+        buildColumns();
+    }
+
+    @Override
+    public Density density() {
+        return Density.SPARSE_COMPRESSED;
+    }
+
+    @Override
+    public Vector getColumn(int featureIndex) {
+        return new CompressedVector(numDataPoints, columnDataIndices, columnValues,
+                columnOffsets[featureIndex], columnOffsets[featureIndex+1]);
+    }
+
+    @Override
+    public Vector getRow(int dataPointIndex) {
+        return new CompressedVector(numFeatures, rowFeatureIndices, rowValues,
+                rowOffsets[dataPointIndex], rowOffsets[dataPointIndex+1]);
+    }
+
+    @Override
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue) {
+        throw new UnsupportedOperationException("compressed data set is immutable");
+    }
+
+    @Override
+    public boolean isDense() {
+        return false;
+    }
+
+    /**
+     *
+     * @return number of stored values
+     */
+    public int getNumNonZeros(){
+        return rowValues.length;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("number of non-zeros = ").append(getNumNonZeros()).append("\n");
+        return sb.toString();
+    }
+
+    //========================== PRIVATE ============================
+
+    private void buildRows(DataSet dataSet){
+        this.rowOffsets = new int[numDataPoints+1];
+        for (int i=0;i<numDataPoints;i++){
+            int count = 0;
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                if (element.get()!=0){
+                    count += 1;
+                }
+            }
+            rowOffsets[i+1] = rowOffsets[i] + count;
+        }
+        int numNonZeros = rowOffsets[numDataPoints];
+        this.rowFeatureIndices = new int[numNonZeros];
+        this.rowValues = new float[numNonZeros];
+        for (int i=0;i<numDataPoints;i++){
+            int start = rowOffsets[i];
+            int end = rowOffsets[i+1];
+            int position = start;
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                if (element.get()!=0){
+                    rowFeatureIndices[position] = element.index();
+                    position += 1;
+                }
+            }
+            // random access vectors iterate in hash order
+            Arrays.sort(rowFeatureIndices, start, end);
+            Vector row = dataSet.getRow(i);
+            for (int p=start;p<end;p++){
+                rowValues[p] = (float) row.get(rowFeatureIndices[p]);
+            }
+        }
+    }
+
+    /**
+     * transpose the rows; data indices within each column come out sorted
+     */
+    private void buildColumns(){
+        int numNonZeros = rowFeatureIndices.length;
+        this.columnOffsets = new int[numFeatures+1];
+        for (int featureIndex: rowFeatureIndices){
+            columnOffsets[featureIndex+1] += 1;
+        }
+        for (int j=0;j<numFeatures;j++){
+            columnOffsets[j+1] += columnOffsets[j];
+        }
+        this.columnDataIndices = new int[numNonZeros];
+        this.columnValues = new float[numNonZeros];
+        int[] positions = Arrays.copyOf(columnOffsets, numFeatures);
+        for (int i=0;i<numDataPoints;i++){
+            for (int p=rowOffsets[i];p<rowOffsets[i+1];p++){
+                int j = rowFeatureIndices[p];
+                columnDataIndices[positions[j]] = i;
+                columnValues[positions[j]] = rowValues[p];
+                positions[j] += 1;
+            }
+        }
+    }
+}
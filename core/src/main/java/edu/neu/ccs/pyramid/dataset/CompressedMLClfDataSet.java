@@ -0,0 +1,76 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * immutable features, mutable labels
+ */
+public class CompressedMLClfDataSet extends CompressedDataSet implements MultiLabelClfDataSet {
+    private int numClasses;
+    private MultiLabel[] multiLabels;
+    private LabelTranslator labelTranslator;
+
+    /**
+     * copy feature values, labels and translators of the data set
+     * @param dataSet
+     */
+    public CompressedMLClfDataSet(MultiLabelClfDataSet dataSet) {
+        super(dataSet);
+        this.numClasses = dataSet.getNumClasses();
+        this.multiLabels = new MultiLabel[numDataPoints];
+        MultiLabel[] original = dataSet.getMultiLabels();
+        for (int i=0;i<numDataPoints;i++){
+            this.multiLabels[i] = original[i].copy();
+        }
+        this.labelTranslator = dataSet.getLabelTranslator();
+    }
+
+    @Override
+    public int getNumClasses() {
+        return this.numClasses;
+    }
+
+    @Override
+    public MultiLabel[] getMultiLabels() {
+        return this.multiLabels;
+    }
+
+    @Override
+    public void addLabel(int dataPointIndex, int classIndex) {
+        this.multiLabels[dataPointIndex].addLabel(classIndex);
+    }
+
+    @Override
+    public void setLabels(int dataPointIndex, MultiLabel multiLabel) {
+        multiLabels[dataPointIndex] = multiLabel;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("numClasses=").append(numClasses).append("\n");
+        sb.append(super.toString());
+        sb.append("labels").append("\n");
+        for (int i=0;i<numDataPoints;i++){
+            sb.append(i).append(":").append(multiLabels[i]).append(",");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("compressed sparse multi-label classification").append("\n");
+        sb.append("number of classes = ").append(this.numClasses);
+        return sb.toString();
+    }
+
+    @Override
+    public LabelTranslator getLabelTranslator() {
+        return labelTranslator;
+    }
+
+    @Override
+    public void setLabelTranslator(LabelTranslator labelTranslator) {
+        this.labelTranslator = labelTranslator;
+    }
+}
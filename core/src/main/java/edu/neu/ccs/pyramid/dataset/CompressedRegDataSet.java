@@ -0,0 +1,45 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.util.Arrays;
+
+/**
+ * immutable features, mutable labels
+ */
+public class CompressedRegDataSet extends CompressedDataSet implements RegDataSet{
+    private double[] labels;
+
+    /**
+     * copy feature values, labels and translators of the data set
+     * @param dataSet
+     */
+    public CompressedRegDataSet(RegDataSet dataSet) {
+        super(dataSet);
+        this.labels = Arrays.copyOf(dataSet.getLabels(), dataSet.getNumDataPoints());
+    }
+
+    @Override
+    public double[] getLabels() {
+        return this.labels;
+    }
+
+    @Override
+    public void setLabel(int dataPointIndex, double label) {
+        this.labels[dataPointIndex]=label;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.toString());
+        sb.append("labels = ").append(Arrays.toString(labels));
+        return sb.toString();
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("compressed sparse regression");
+        return sb.toString();
+    }
+}
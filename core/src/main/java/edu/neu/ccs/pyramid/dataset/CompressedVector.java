@@ -0,0 +1,25 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * read-only sparse vector view over a slice of the primitive arrays of a {@link CompressedDataSet}
+ */
+class CompressedVector extends SortedSliceVector {
+    private final int[] indices;
+    private final float[] values;
+
+    CompressedVector(int size, int[] indices, float[] values, int start, int end) {
+        super(size, start, end);
+        this.indices = indices;
+        this.values = values;
+    }
+
+    @Override
+    int indexAt(long position) {
+        return indices[(int)position];
+    }
+
+    @Override
+    double valueAt(long position) {
+        return values[(int)position];
+    }
+}
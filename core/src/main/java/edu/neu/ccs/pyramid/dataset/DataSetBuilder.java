@@ -54,6 +54,25 @@ public class DataSetBuilder {
             case SPARSE_SEQUENTIAL:
                 dataSet = new SequentialSparseDataSet(numDataPoints,numFeatures,missingValue);
                 break;
+            // compressed data sets are immutable and can only be built from filled data sets
+            case SPARSE_COMPRESSED:
+                dataSet = new SparseDataSet(numDataPoints,numFeatures,missingValue);
+                break;
+        }
+        return dataSet;
+    }
+
+    /**
+     * build the data set and fill it with the buffered feature values in one bulk step
+     * for {@link Density#SPARSE_COMPRESSED}, the filled data set is compressed
+     * @param columnBuffer written by many threads
+     * @return
+     */
+    public DataSet build(ColumnBuffer columnBuffer){
+        DataSet dataSet = build();
+        columnBuffer.fill(dataSet);
+        if (density==Density.SPARSE_COMPRESSED){
+            dataSet = new CompressedDataSet(dataSet);
         }
         return dataSet;
     }
@@ -5,6 +5,7 @@ import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
 import java.io.IOException;
+import java.util.stream.IntStream;
 
 /**
  * Created by chengli on 8/7/14.
@@ -52,6 +53,28 @@ class DenseDataSet extends AbstractDataSet implements DataSet{
     }
 
 
+    /**
+     * rows and columns are filled in parallel, each by a single thread
+     * @param rows
+     * @param columns
+     */
+    @Override
+    void fill(SparseEntries rows, SparseEntries columns) {
+        checkRows(rows);
+        IntStream.range(0, numDataPoints).parallel().forEach(i -> {
+            DenseVector row = featureRows[i];
+            for (int p=rows.getStart(i);p<rows.getEnd(i);p++){
+                row.setQuick(rows.getIndex(p), rows.getValue(p));
+            }
+        });
+        IntStream.range(0, numFeatures).parallel().forEach(j -> {
+            DenseVector column = featureColumns[j];
+            for (int p=columns.getStart(j);p<columns.getEnd(j);p++){
+                column.setQuick(columns.getIndex(p), columns.getValue(p));
+            }
+        });
+    }
+
     @Override
     public boolean isDense() {
         return true;
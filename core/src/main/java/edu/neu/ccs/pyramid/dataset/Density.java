@@ -4,5 +4,9 @@ package edu.neu.ccs.pyramid.dataset;
  * Created by chengli on 3/6/17.
  */
 public enum Density {
-    DENSE, SPARSE_RANDOM, SPARSE_SEQUENTIAL
+    DENSE, SPARSE_RANDOM, SPARSE_SEQUENTIAL,
+    /**
+     * immutable, see {@link CompressedDataSet} and {@link MappedDataSet}
+     */
+    SPARSE_COMPRESSED
 }
@@ -50,6 +50,10 @@ public class IdTranslator implements Serializable {
         extToInt.put(extId, intId);
     }
 
+    public boolean containsExtId(String extId){
+        return extToInt.containsKey(extId);
+    }
+
     public int toIntId(String extId){
         return extToInt.get(extId);
     }
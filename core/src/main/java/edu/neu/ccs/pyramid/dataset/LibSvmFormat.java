@@ -11,6 +11,17 @@ import java.util.stream.Collectors;
  * Created by chengli on 10/28/14.
  */
 public class LibSvmFormat {
+    /**
+     * features are 1-based
+     */
+    private static final ParallelTextParser.LineParser SINGLE_LABEL_PARSER = (line, chunk) -> {
+        // sometimes, they use more than one spaces
+        int start = ParallelTextParser.skipWhitespace(line, 0);
+        int end = ParallelTextParser.tokenEnd(line, start);
+        chunk.setLabel(Double.parseDouble(line.substring(start, end)));
+        ParallelTextParser.parseFeatures(line, end, 1, chunk);
+        return true;
+    };
 
     public static void save(ClfDataSet dataSet, String libSvmFile){
         File matrixFile = new File(libSvmFile);
@@ -108,14 +119,21 @@ public class LibSvmFormat {
 
     public static ClfDataSet loadClfDataSet(String libSvmFile,
                                             int numFeatures, int numClasses, boolean dense) throws IOException, ClassNotFoundException {
-        LabelTranslator labelTranslator = loadLabelTranslator(libSvmFile);
+        ParallelTextParser.Result result = ParallelTextParser.parse(new File(libSvmFile), SINGLE_LABEL_PARSER);
+        // labels are translated after parsing, so the file is only read once
+        Set<Integer> oldLabels = new HashSet<>();
+        for (int i=0;i<result.getNumRows();i++){
+            oldLabels.add((int)result.getLabel(i));
+        }
+        List<String> labelStrings = oldLabels.stream().sorted().map(label -> ""+label).collect(Collectors.toList());
+        LabelTranslator labelTranslator = new LabelTranslator(labelStrings);
         System.out.println(labelTranslator);
 
         if (labelTranslator.getNumClasses()!=numClasses){
             throw new RuntimeException("labelTranslator.getNumClasses()!=numClasse");
         }
 
-        int numDataPoints = getNumDataPoints(libSvmFile);
+        int numDataPoints = result.getNumRows();
 
         ClfDataSet dataSet = ClfDataSetBuilder.getBuilder()
                 .numDataPoints(numDataPoints)
@@ -123,30 +141,10 @@ public class LibSvmFormat {
                 .numClasses(numClasses)
                 .dense(dense)
                 .build();
-        try (BufferedReader br = new BufferedReader(new FileReader(libSvmFile));
-        ) {
-            String line = null;
-            int dataIndex = 0;
-            while ((line=br.readLine())!=null){
-                // sometimes, they use more than one spaces
-                String[] lineSplit = line.split("\\s+");
-                int extIntLabel = (int)Double.parseDouble(lineSplit[0]);
-                String extLabel = ""+extIntLabel;
-                int label = labelTranslator.toIntLabel(extLabel);
-                dataSet.setLabel(dataIndex,label);
-                for (int i=1;i<lineSplit.length;i++){
-                    String pair = lineSplit[i];
-                    // ignore things after #
-                    if (pair.startsWith("#")){
-                        break;
-                    }
-                    String[] pairSplit = pair.split(":");
-                    int featureIndex = Integer.parseInt(pairSplit[0])-1;
-                    double featureValue = Double.parseDouble(pairSplit[1]);
-                    dataSet.setFeatureValue(dataIndex, featureIndex,featureValue);
-                }
-                dataIndex += 1;
-            }
+        result.fillFeatures(dataSet);
+        for (int i=0;i<numDataPoints;i++){
+            String extLabel = ""+(int)result.getLabel(i);
+            dataSet.setLabel(i,labelTranslator.toIntLabel(extLabel));
         }
         dataSet.setLabelTranslator(labelTranslator);
         return dataSet;
@@ -155,36 +153,17 @@ public class LibSvmFormat {
 
     public static RegDataSet loadRegDataSet(String libSvmFile,
                                             int numFeatures, boolean dense) throws IOException, ClassNotFoundException {
-        int numDataPoints = getNumDataPoints(libSvmFile);
+        ParallelTextParser.Result result = ParallelTextParser.parse(new File(libSvmFile), SINGLE_LABEL_PARSER);
+        int numDataPoints = result.getNumRows();
 
         RegDataSet dataSet = RegDataSetBuilder.getBuilder()
                 .numDataPoints(numDataPoints)
                 .numFeatures(numFeatures)
                 .dense(dense)
                 .build();
-        try (BufferedReader br = new BufferedReader(new FileReader(libSvmFile));
-        ) {
-            String line = null;
-            int dataIndex = 0;
-            while ((line=br.readLine())!=null){
-                // sometimes, they use more than one spaces
-                String[] lineSplit = line.split("\\s+");
-                double label = Double.parseDouble(lineSplit[0]);
-
-                dataSet.setLabel(dataIndex,label);
-                for (int i=1;i<lineSplit.length;i++){
-                    String pair = lineSplit[i];
-                    // ignore things after #
-                    if (pair.startsWith("#")){
-                        break;
-                    }
-                    String[] pairSplit = pair.split(":");
-                    int featureIndex = Integer.parseInt(pairSplit[0])-1;
-                    double featureValue = Double.parseDouble(pairSplit[1]);
-                    dataSet.setFeatureValue(dataIndex, featureIndex,featureValue);
-                }
-                dataIndex += 1;
-            }
+        result.fillFeatures(dataSet);
+        for (int i=0;i<numDataPoints;i++){
+            dataSet.setLabel(i,result.getLabel(i));
         }
         return dataSet;
     }
@@ -225,7 +204,14 @@ public class LibSvmFormat {
 
     public static MultiLabelClfDataSet loadMultiLabelClfDataSet(String libSvmFile,
                                                                 boolean dense, int numFeatures, int numClasses) throws IOException, ClassNotFoundException {
-        int numDatapoints = getNumDataPoints(libSvmFile);
+        // labels and features are 1-based
+        ParallelTextParser.Result result = ParallelTextParser.parse(new File(libSvmFile), (line, chunk) -> {
+            int end = ParallelTextParser.tokenEnd(line, 0);
+            ParallelTextParser.parseLabels(line, 0, end, 1, chunk);
+            ParallelTextParser.parseFeatures(line, end, 1, chunk);
+            return true;
+        });
+        int numDatapoints = result.getNumRows();
 //        int numClasses = getNumClasses(libSvmFile);
 //        int numFeatures = getnumFeatures(libSvmFile);
 
@@ -236,33 +222,8 @@ public class LibSvmFormat {
         MultiLabelClfDataSet dataSet = new MLClfDataSetBuilder().numClasses(numClasses)
                 .numFeatures(numFeatures).numDataPoints(numDatapoints).
                         density(Density.SPARSE_RANDOM).build();
-
-        try (BufferedReader br = new BufferedReader(new FileReader(libSvmFile));
-        ) {
-            String line = null;
-            int lineCount = 0;
-            while ((line=br.readLine()) != null) {
-                String[] lineInfo = line.split(" ");
-                // adding labels
-                String labels = lineInfo[0];
-                for (String label : labels.split(",")) {
-                    int l = Integer.parseInt(label);
-                    dataSet.addLabel(lineCount, l-1);
-//                    dataSet.addLabel(lineCount, l);
-                }
-                // adding feature
-                for (int i=1; i<lineInfo.length; i++) {
-                    String[] featureValue = lineInfo[i].split(":");
-                    int feature = Integer.parseInt(featureValue[0]);
-                    double value = Double.parseDouble(featureValue[1]);
-                    dataSet.setFeatureValue(lineCount, feature-1, value);
-                }
-                lineCount++;
-            }
-            br.close();
-        }
-
-
+        result.fillFeatures(dataSet);
+        result.fillMultiLabels(dataSet);
         return dataSet;
     }
 
@@ -64,9 +64,28 @@ public class MLClfDataSetBuilder {
             case SPARSE_SEQUENTIAL:
                 dataSet = new SequentialSparseMLClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
                 break;
+            // compressed data sets are immutable and can only be built from filled data sets
+            case SPARSE_COMPRESSED:
+                dataSet = new SparseMLClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
+                break;
         }
 
         return dataSet;
     }
 
+    /**
+     * build the data set and fill it with the buffered feature values in one bulk step
+     * for {@link Density#SPARSE_COMPRESSED}, the filled data set is compressed
+     * labels are added afterwards
+     * @param columnBuffer written by many threads
+     * @return
+     */
+    public MultiLabelClfDataSet build(ColumnBuffer columnBuffer){
+        MultiLabelClfDataSet dataSet = build();
+        columnBuffer.fill(dataSet);
+        if (density==Density.SPARSE_COMPRESSED){
+            dataSet = new CompressedMLClfDataSet(dataSet);
+        }
+        return dataSet;
+    }
 }
@@ -0,0 +1,66 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * read-only primitive array backed by a memory mapped section of a file
+ * a single mapped buffer is limited to 2GB, so the section is mapped in chunks
+ * absolute reads do not change buffer states; the array can be shared by threads
+ */
+class MappedArray {
+    /**
+     * number of elements per chunk; at most 1GB per chunk
+     */
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L<<CHUNK_SHIFT)-1;
+
+    private final ByteBuffer[] chunks;
+    private final int elementShift;
+    private final long length;
+
+    /**
+     *
+     * @param channel
+     * @param offset position of the first element in the file
+     * @param length number of elements
+     * @param elementSize 4 or 8 bytes
+     * @throws IOException
+     */
+    MappedArray(FileChannel channel, long offset, long length, int elementSize) throws IOException {
+        if (elementSize!=4 && elementSize!=8){
+            throw new IllegalArgumentException("elementSize should be 4 or 8");
+        }
+        this.elementShift = elementSize==4 ? 2 : 3;
+        this.length = length;
+        int numChunks = (int)((length+CHUNK_MASK)>>>CHUNK_SHIFT);
+        this.chunks = new ByteBuffer[numChunks];
+        for (int c=0;c<numChunks;c++){
+            long start = ((long)c)<<CHUNK_SHIFT;
+            long end = Math.min(length, start+(1L<<CHUNK_SHIFT));
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset+(start<<elementShift), (end-start)<<elementShift);
+        }
+    }
+
+    long length(){
+        return length;
+    }
+
+    int getInt(long index){
+        return chunks[(int)(index>>>CHUNK_SHIFT)].getInt(((int)(index&CHUNK_MASK))<<elementShift);
+    }
+
+    float getFloat(long index){
+        return chunks[(int)(index>>>CHUNK_SHIFT)].getFloat(((int)(index&CHUNK_MASK))<<elementShift);
+    }
+
+    long getLong(long index){
+        return chunks[(int)(index>>>CHUNK_SHIFT)].getLong(((int)(index&CHUNK_MASK))<<elementShift);
+    }
+
+    double getDouble(long index){
+        return chunks[(int)(index>>>CHUNK_SHIFT)].getDouble(((int)(index&CHUNK_MASK))<<elementShift);
+    }
+}
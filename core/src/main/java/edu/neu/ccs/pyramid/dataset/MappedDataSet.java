@@ -0,0 +1,113 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * immutable sparse data set read zero-copy from a memory mapped file written by {@link BinaryFormat}
+ * feature values stay off-heap, in the same compressed sparse row and column layouts as {@link CompressedDataSet};
+ * processes mapping the same file share its pages in the OS page cache
+ * Java serialization only stores the file path; the file is mapped again after deserialization
+ */
+public class MappedDataSet extends AbstractDataSet implements DataSet{
+    private static final long serialVersionUID = 1L;
+
+    private File matrixFile;
+    private long numNonZeros;
+
+    private transient MappedArray rowOffsets;
+    private transient MappedArray rowFeatureIndices;
+    private transient MappedArray rowValues;
+    private transient MappedArray columnOffsets;
+    private transient MappedArray columnDataIndices;
+    private transient MappedArray columnValues;
+
+    MappedDataSet(File matrixFile, int numDataPoints, int numFeatures, boolean missingValue,
+                  long numNonZeros, IdTranslator idTranslator) throws IOException {
+        super(numDataPoints, numFeatures, missingValue, idTranslator);
+        this.matrixFile = matrixFile;
+        this.numNonZeros = numNonZeros;
+        map();
+    }
+
+    @Override
+    public Density density() {
+        return Density.SPARSE_COMPRESSED;
+    }
+
+    @Override
+    public Vector getColumn(int featureIndex) {
+        return new MappedVector(numDataPoints, columnDataIndices, columnValues,
+                columnOffsets.getLong(featureIndex), columnOffsets.getLong(featureIndex+1));
+    }
+
+    @Override
+    public Vector getRow(int dataPointIndex) {
+        return new MappedVector(numFeatures, rowFeatureIndices, rowValues,
+                rowOffsets.getLong(dataPointIndex), rowOffsets.getLong(dataPointIndex+1));
+    }
+
+    @Override
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue) {
+        throw new UnsupportedOperationException("mapped data set is immutable");
+    }
+
+    @Override
+    public boolean isDense() {
+        return false;
+    }
+
+    /**
+     *
+     * @return number of stored values
+     */
+    public long getNumNonZeros(){
+        return numNonZeros;
+    }
+
+    public File getMatrixFile() {
+        return matrixFile;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("number of non-zeros = ").append(numNonZeros).append("\n");
+        sb.append("matrix file = ").append(matrixFile.getAbsolutePath()).append("\n");
+        return sb.toString();
+    }
+
+    //========================== PRIVATE ============================
+
+    /**
+     * the mapping stays valid after the channel is closed
+     */
+    private void map() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(matrixFile, "r");
+             FileChannel channel = randomAccessFile.getChannel()){
+            long offset = BinaryFormat.HEADER_SIZE;
+            this.rowOffsets = new MappedArray(channel, offset, numDataPoints+1, 8);
+            offset += 8L*(numDataPoints+1);
+            this.rowFeatureIndices = new MappedArray(channel, offset, numNonZeros, 4);
+            offset += 4L*numNonZeros;
+            this.rowValues = new MappedArray(channel, offset, numNonZeros, 4);
+            offset += 4L*numNonZeros;
+            this.columnOffsets = new MappedArray(channel, offset, numFeatures+1, 8);
+            offset += 8L*(numFeatures+1);
+            this.columnDataIndices = new MappedArray(channel, offset, numNonZeros, 4);
+            offset += 4L*numNonZeros;
+            this.columnValues = new MappedArray(channel, offset, numNonZeros, 4);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        map();
+    }
+}
@@ -0,0 +1,45 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * immutable off-heap features, mutable on-heap labels
+ */
+public class MappedRegDataSet extends MappedDataSet implements RegDataSet{
+    private static final long serialVersionUID = 1L;
+    private double[] labels;
+
+    MappedRegDataSet(File matrixFile, int numDataPoints, int numFeatures, boolean missingValue,
+                     long numNonZeros, IdTranslator idTranslator) throws IOException {
+        super(matrixFile, numDataPoints, numFeatures, missingValue, numNonZeros, idTranslator);
+        this.labels = new double[numDataPoints];
+    }
+
+    @Override
+    public double[] getLabels() {
+        return this.labels;
+    }
+
+    @Override
+    public void setLabel(int dataPointIndex, double label) {
+        this.labels[dataPointIndex]=label;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.toString());
+        sb.append("labels = ").append(Arrays.toString(labels));
+        return sb.toString();
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("mapped sparse regression");
+        return sb.toString();
+    }
+}
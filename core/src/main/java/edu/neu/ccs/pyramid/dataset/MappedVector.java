@@ -0,0 +1,26 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * read-only sparse vector view over a slice of the mapped arrays of a {@link MappedDataSet}
+ * values are read from off-heap memory on demand; nothing is copied
+ */
+class MappedVector extends SortedSliceVector {
+    private final MappedArray indices;
+    private final MappedArray values;
+
+    MappedVector(int size, MappedArray indices, MappedArray values, long start, long end) {
+        super(size, start, end);
+        this.indices = indices;
+        this.values = values;
+    }
+
+    @Override
+    int indexAt(long position) {
+        return indices.getInt(position);
+    }
+
+    @Override
+    double valueAt(long position) {
+        return values.getFloat(position);
+    }
+}
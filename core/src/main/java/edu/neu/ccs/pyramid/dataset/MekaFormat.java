@@ -321,34 +321,10 @@ public class MekaFormat {
         dataSet.setLabelTranslator(labelTranslator);
 
         // create feature matrix
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        String line;
-        int dataCount = 0;
-        while((line=br.readLine()) != null) {
-            if ((line.startsWith("{")) && (line.endsWith("}"))) {
-                line = line.substring(1,line.length()-1);
-                String[] indexValues = line.split(",");
-                for (String indexValue : indexValues) {
-                    String[] indexValuePair = indexValue.split(" ");
-                    String index = indexValuePair[0];
-                    String value = indexValuePair[1];
-                    if (labelMap.containsKey(index)) {
-                        double valueDouble = Double.parseDouble(value);
-                        if (valueDouble == 1.0) {
-                            dataSet.addLabel(dataCount, Integer.parseInt(index));
-                        }
-                    } else if (featureMap.containsKey(index)) {
-                        double valueDouble = Double.parseDouble(value);
-                        int indexInt = Integer.parseInt(index);
-                        dataSet.setFeatureValue(dataCount,indexInt-numClasses,valueDouble);
-                    } else {
-                        throw new RuntimeException("Index not found in the line: " + line);
-                    }
-                }
-                dataCount++;
-            }
-        }
-        br.close();
+        ParallelTextParser.Result result = ParallelTextParser.parse(file,
+                sparseLineParser(labelMap, featureMap, 0, numClasses));
+        result.fillFeatures(dataSet);
+        result.fillMultiLabels(dataSet);
         return dataSet;
     }
 
@@ -417,35 +393,49 @@ public class MekaFormat {
         dataSet.setLabelTranslator(labelTranslator);
 
         // create feature matrix
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        String line;
-        int dataCount = 0;
-        while((line=br.readLine()) != null) {
-            if ((line.startsWith("{")) && (line.endsWith("}"))) {
-                line = line.substring(1,line.length()-1);
-                String[] indexValues = line.split(", ");
-                for (String indexValue : indexValues) {
-                    String[] indexValuePair = indexValue.split(" ");
-                    String index = indexValuePair[0];
-                    String value = indexValuePair[1];
-                    if (labelMap.containsKey(index)) {
-                        double valueDouble = Double.parseDouble(value);
-                        if (valueDouble == 1.0) {
-                            dataSet.addLabel(dataCount, Integer.parseInt(index)-numFeatures);
-                        }
-                    } else if (featureMap.containsKey(index)) {
-                        double valueDouble = Double.parseDouble(value);
-                        int indexInt = Integer.parseInt(index);
-                        dataSet.setFeatureValue(dataCount,indexInt,valueDouble);
-                    } else {
-                        throw new RuntimeException("Index:" +index + " not found in the line: " + line);
+        ParallelTextParser.Result result = ParallelTextParser.parse(file,
+                sparseLineParser(labelMap, featureMap, numFeatures, 0));
+        result.fillFeatures(dataSet);
+        result.fillMultiLabels(dataSet);
+        return dataSet;
+    }
+
+    /**
+     * sparse data lines look like {index value, index value}; other lines are skipped
+     * labels are kept only if their values are 1
+     * @param labelMap attributes which are labels
+     * @param featureMap attributes which are features
+     * @param firstLabel attribute index of the first label
+     * @param firstFeature attribute index of the first feature
+     * @return
+     */
+    private static ParallelTextParser.LineParser sparseLineParser(Map<String, String> labelMap, Map<String, String> featureMap,
+                                                                  int firstLabel, int firstFeature){
+        return (line, chunk) -> {
+            if (!((line.startsWith("{")) && (line.endsWith("}")))) {
+                return false;
+            }
+            String[] indexValues = line.substring(1,line.length()-1).split(",");
+            for (String indexValue : indexValues) {
+                String trimmed = indexValue.trim();
+                if (trimmed.isEmpty()){
+                    continue;
+                }
+                String[] indexValuePair = trimmed.split(" ");
+                String index = indexValuePair[0];
+                double value = Double.parseDouble(indexValuePair[1]);
+                if (labelMap.containsKey(index)) {
+                    if (value == 1.0) {
+                        chunk.addLabel(Integer.parseInt(index)-firstLabel);
                     }
+                } else if (featureMap.containsKey(index)) {
+                    chunk.addFeature(Integer.parseInt(index)-firstFeature, value);
+                } else {
+                    throw new RuntimeException("Index:" +index + " not found in the line: " + line);
                 }
-                dataCount++;
             }
-        }
-        br.close();
-        return dataSet;
+            return true;
+        };
     }
 
     public static void save(MultiLabelClfDataSet dataSet, String mekaFile, String dataName) throws IOException {
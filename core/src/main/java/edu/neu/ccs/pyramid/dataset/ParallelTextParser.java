@@ -0,0 +1,316 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import org.apache.mahout.math.list.DoubleArrayList;
+import org.apache.mahout.math.list.IntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * parses a line based text file on the fork-join pool
+ * the file is split into byte ranges at line boundaries; each range is parsed by one task into its own primitive buffers;
+ * the buffers are concatenated in file order, and data sets are filled in one bulk step, see {@link AbstractDataSet#fill}
+ */
+class ParallelTextParser {
+    private static final int CHUNK_SIZE = 1<<25;
+
+    interface LineParser {
+        /**
+         *
+         * @param line without the line separator
+         * @param chunk receives the labels and features of the line
+         * @return whether the line is a data point; lines which are not should not add anything
+         */
+        boolean parse(String line, Chunk chunk);
+    }
+
+    static Result parse(File file, LineParser lineParser) throws IOException {
+        return parse(file, lineParser, CHUNK_SIZE);
+    }
+
+    static Result parse(File file, LineParser lineParser, int chunkSize) throws IOException {
+        List<long[]> ranges = split(file, chunkSize);
+        List<Chunk> chunks;
+        try {
+            chunks = ranges.parallelStream().map(range -> parse(file, range, lineParser))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+        return new Result(chunks);
+    }
+
+    /**
+     * skip spaces and tabs
+     * @return position of the next non-whitespace character, or the line length
+     */
+    static int skipWhitespace(String line, int position){
+        while (position<line.length() && Character.isWhitespace(line.charAt(position))){
+            position += 1;
+        }
+        return position;
+    }
+
+    /**
+     *
+     * @return position after the token starting at the position
+     */
+    static int tokenEnd(String line, int position){
+        while (position<line.length() && !Character.isWhitespace(line.charAt(position))){
+            position += 1;
+        }
+        return position;
+    }
+
+    /**
+     * parse whitespace separated index:value pairs; things after # are ignored
+     * @param line
+     * @param position where pairs start
+     * @param firstIndex index of the first feature in the file, 0 or 1
+     * @param chunk
+     */
+    static void parseFeatures(String line, int position, int firstIndex, Chunk chunk){
+        int start = skipWhitespace(line, position);
+        while (start<line.length()){
+            if (line.charAt(start)=='#'){
+                break;
+            }
+            int end = tokenEnd(line, start);
+            int colon = line.indexOf(':', start);
+            if (colon<0||colon>=end){
+                throw new IllegalArgumentException("illegal feature "+line.substring(start,end));
+            }
+            int featureIndex = Integer.parseInt(line.substring(start, colon))-firstIndex;
+            double featureValue = Double.parseDouble(line.substring(colon+1, end));
+            chunk.addFeature(featureIndex, featureValue);
+            start = skipWhitespace(line, end);
+        }
+    }
+
+    /**
+     * parse comma separated labels, ignoring empty ones
+     */
+    static void parseLabels(String line, int start, int end, int firstLabel, Chunk chunk){
+        int position = start;
+        while (position<end){
+            int comma = line.indexOf(',', position);
+            if (comma<0||comma>end){
+                comma = end;
+            }
+            if (comma>position){
+                chunk.addLabel(Integer.parseInt(line.substring(position, comma))-firstLabel);
+            }
+            position = comma+1;
+        }
+    }
+
+    //========================== PRIVATE ============================
+
+    /**
+     * each range except the first starts right after a line separator
+     */
+    private static List<long[]> split(File file, int chunkSize) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        long length = file.length();
+        byte[] buffer = new byte[8192];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")){
+            long start = 0;
+            while (start<length){
+                long end = Math.min(length, start+chunkSize);
+                if (end<length){
+                    randomAccessFile.seek(end);
+                    boolean found = false;
+                    int read;
+                    while (!found && (read = randomAccessFile.read(buffer))>0){
+                        for (int b=0;b<read;b++){
+                            if (buffer[b]=='\n'){
+                                end += b+1;
+                                found = true;
+                                break;
+                            }
+                        }
+                        if (!found){
+                            end += read;
+                        }
+                    }
+                }
+                ranges.add(new long[]{start, end});
+                start = end;
+            }
+        }
+        return ranges;
+    }
+
+    private static Chunk parse(File file, long[] range, LineParser lineParser){
+        byte[] bytes = new byte[(int)(range[1]-range[0])];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()){
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+            while (byteBuffer.hasRemaining()){
+                if (channel.read(byteBuffer, range[0]+byteBuffer.position())<0){
+                    throw new IOException("unexpected end of file "+file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Chunk chunk = new Chunk();
+        int start = 0;
+        while (start<bytes.length){
+            int end = start;
+            while (end<bytes.length && bytes[end]!='\n'){
+                end += 1;
+            }
+            int lineEnd = end;
+            if (lineEnd>start && bytes[lineEnd-1]=='\r'){
+                lineEnd -= 1;
+            }
+            String line = new String(bytes, start, lineEnd-start, StandardCharsets.UTF_8);
+            try {
+                if (lineParser.parse(line, chunk)){
+                    chunk.endRow();
+                }
+            } catch (RuntimeException e){
+                throw new IllegalArgumentException("cannot parse line: "+line, e);
+            }
+            start = end+1;
+        }
+        return chunk;
+    }
+
+    /**
+     * thread-confined buffers of one byte range
+     */
+    static class Chunk {
+        private int numRows;
+        private IntArrayList featureOffsets = new IntArrayList();
+        private IntArrayList featureIndices = new IntArrayList();
+        private DoubleArrayList featureValues = new DoubleArrayList();
+        private DoubleArrayList labels = new DoubleArrayList();
+        private IntArrayList labelOffsets = new IntArrayList();
+        private IntArrayList multiLabels = new IntArrayList();
+        private double label;
+
+        private Chunk() {
+            featureOffsets.add(0);
+            labelOffsets.add(0);
+        }
+
+        void addFeature(int featureIndex, double featureValue){
+            featureIndices.add(featureIndex);
+            featureValues.add(featureValue);
+        }
+
+        /**
+         * for single label data
+         */
+        void setLabel(double label){
+            this.label = label;
+        }
+
+        /**
+         * for multi-label data
+         */
+        void addLabel(int label){
+            multiLabels.add(label);
+        }
+
+        private void endRow(){
+            numRows += 1;
+            featureOffsets.add(featureIndices.size());
+            labels.add(label);
+            labelOffsets.add(multiLabels.size());
+            label = 0;
+        }
+    }
+
+    /**
+     * all data points of the file, in file order
+     */
+    static class Result {
+        private int numRows;
+        private SparseEntries features;
+        private double[] labels;
+        private int[] labelOffsets;
+        private int[] multiLabels;
+
+        private Result(List<Chunk> chunks) {
+            int numChunks = chunks.size();
+            int[] rowStarts = new int[numChunks+1];
+            int[] featureStarts = new int[numChunks+1];
+            int[] labelStarts = new int[numChunks+1];
+            for (int c=0;c<numChunks;c++){
+                Chunk chunk = chunks.get(c);
+                rowStarts[c+1] = rowStarts[c] + chunk.numRows;
+                featureStarts[c+1] = featureStarts[c] + chunk.featureIndices.size();
+                labelStarts[c+1] = labelStarts[c] + chunk.multiLabels.size();
+            }
+            this.numRows = rowStarts[numChunks];
+            int[] featureOffsets = new int[numRows+1];
+            int[] featureIndices = new int[featureStarts[numChunks]];
+            double[] featureValues = new double[featureStarts[numChunks]];
+            this.labels = new double[numRows];
+            this.labelOffsets = new int[numRows+1];
+            this.multiLabels = new int[labelStarts[numChunks]];
+            // chunks are copied to disjoint ranges
+            IntStream.range(0, numChunks).parallel().forEach(c -> {
+                Chunk chunk = chunks.get(c);
+                for (int r=0;r<chunk.numRows;r++){
+                    featureOffsets[rowStarts[c]+r+1] = featureStarts[c] + chunk.featureOffsets.getQuick(r+1);
+                    labelOffsets[rowStarts[c]+r+1] = labelStarts[c] + chunk.labelOffsets.getQuick(r+1);
+                }
+                System.arraycopy(chunk.featureIndices.elements(), 0, featureIndices, featureStarts[c], chunk.featureIndices.size());
+                System.arraycopy(chunk.featureValues.elements(), 0, featureValues, featureStarts[c], chunk.featureValues.size());
+                System.arraycopy(chunk.labels.elements(), 0, labels, rowStarts[c], chunk.numRows);
+                System.arraycopy(chunk.multiLabels.elements(), 0, multiLabels, labelStarts[c], chunk.multiLabels.size());
+            });
+            this.features = new SparseEntries(featureOffsets, featureIndices, featureValues);
+        }
+
+        int getNumRows() {
+            return numRows;
+        }
+
+        double getLabel(int row){
+            return labels[row];
+        }
+
+        /**
+         * bulk fill, without per-cell locking for data sets in this package
+         * @param dataSet an empty data set with the same number of data points
+         */
+        void fillFeatures(DataSet dataSet){
+            if (dataSet.getNumDataPoints()!=numRows){
+                throw new IllegalArgumentException("the data set has "+dataSet.getNumDataPoints()
+                        +" data points, but the file has "+numRows);
+            }
+            if (dataSet instanceof AbstractDataSet){
+                ((AbstractDataSet) dataSet).fill(features);
+            } else {
+                for (int i=0;i<numRows;i++){
+                    for (int p=features.getStart(i);p<features.getEnd(i);p++){
+                        dataSet.setFeatureValue(i, features.getIndex(p), features.getValue(p));
+                    }
+                }
+            }
+        }
+
+        void fillMultiLabels(MultiLabelClfDataSet dataSet){
+            for (int i=0;i<numRows;i++){
+                for (int p=labelOffsets[i];p<labelOffsets[i+1];p++){
+                    dataSet.addLabel(i, multiLabels[p]);
+                }
+            }
+        }
+    }
+}
@@ -16,6 +16,14 @@ public class ScoreMatrix {
         this.m[dataPointIndex][classIndex] = (float)score;
     }
 
+    public int getNumDataPoints(){
+        return m.length;
+    }
+
+    public int getNumClasses(){
+        return m.length==0 ? 0 : m[0].length;
+    }
+
     public float[] getScoresForData(int dataPointIndex){
         return m[dataPointIndex];
     }
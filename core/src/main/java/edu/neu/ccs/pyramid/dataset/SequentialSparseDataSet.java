@@ -3,6 +3,8 @@ package edu.neu.ccs.pyramid.dataset;
 import org.apache.mahout.math.SequentialAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
+import java.util.stream.IntStream;
+
 
 /**
  * Created by Rainicy on 1/3/16.
@@ -55,6 +57,28 @@ public class SequentialSparseDataSet extends AbstractDataSet implements DataSet{
     }
 
 
+    /**
+     * rows and columns are filled in parallel, each by a single thread
+     * @param rows
+     * @param columns
+     */
+    @Override
+    void fill(SparseEntries rows, SparseEntries columns) {
+        checkRows(rows);
+        IntStream.range(0, numDataPoints).parallel().forEach(i -> {
+            SequentialAccessSparseVector row = featureRows[i];
+            for (int p=rows.getStart(i);p<rows.getEnd(i);p++){
+                row.setQuick(rows.getIndex(p), rows.getValue(p));
+            }
+        });
+        IntStream.range(0, numFeatures).parallel().forEach(j -> {
+            SequentialAccessSparseVector column = featureColumns[j];
+            for (int p=columns.getStart(j);p<columns.getEnd(j);p++){
+                column.setQuick(columns.getIndex(p), columns.getValue(p));
+            }
+        });
+    }
+
     @Override
     public boolean isDense() {
         return false;
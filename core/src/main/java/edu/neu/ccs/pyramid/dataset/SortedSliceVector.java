@@ -0,0 +1,230 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import org.apache.mahout.math.AbstractVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.OrderedIntDoubleMapping;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * read-only sparse vector view over the positions [start, end) of an index array and a value array
+ * indices in the slice are sorted, so iteration is sequential and random access is a binary search
+ * subclasses only read the arrays at a position
+ */
+abstract class SortedSliceVector extends AbstractVector {
+    private final long start;
+    private final long end;
+
+    SortedSliceVector(int size, long start, long end) {
+        super(size);
+        this.start = start;
+        this.end = end;
+    }
+
+    abstract int indexAt(long position);
+
+    abstract double valueAt(long position);
+
+    @Override
+    public double getQuick(int index) {
+        long low = start;
+        long high = end-1;
+        while (low<=high){
+            long middle = (low+high)>>>1;
+            int middleIndex = indexAt(middle);
+            if (middleIndex<index){
+                low = middle+1;
+            } else if (middleIndex>index){
+                high = middle-1;
+            } else {
+                return valueAt(middle);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void setQuick(int index, double value) {
+        throw new UnsupportedOperationException("data set is immutable");
+    }
+
+    @Override
+    public void incrementQuick(int index, double increment) {
+        throw new UnsupportedOperationException("data set is immutable");
+    }
+
+    @Override
+    public void mergeUpdates(OrderedIntDoubleMapping updates) {
+        throw new UnsupportedOperationException("data set is immutable");
+    }
+
+    @Override
+    public Vector like() {
+        return new SequentialAccessSparseVector(size());
+    }
+
+    @Override
+    public Vector like(int cardinality) {
+        return new SequentialAccessSparseVector(cardinality);
+    }
+
+    /**
+     * a mutable on-heap copy
+     */
+    @Override
+    public Vector clone() {
+        SequentialAccessSparseVector copy = new SequentialAccessSparseVector(size(), (int)(end-start));
+        for (long p=start;p<end;p++){
+            copy.setQuick(indexAt(p), valueAt(p));
+        }
+        return copy;
+    }
+
+    @Override
+    protected Matrix matrixLike(int rows, int columns) {
+        return new SparseRowMatrix(rows, columns);
+    }
+
+    @Override
+    public boolean isDense() {
+        return false;
+    }
+
+    @Override
+    public boolean isSequentialAccess() {
+        return true;
+    }
+
+    @Override
+    public int getNumNondefaultElements() {
+        return (int)(end-start);
+    }
+
+    @Override
+    public int getNumNonZeroElements() {
+        int count = 0;
+        for (long p=start;p<end;p++){
+            if (valueAt(p)!=0){
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public double getLookupCost() {
+        return Math.max(1, Math.log(end-start)/Math.log(2));
+    }
+
+    @Override
+    public double getIteratorAdvanceCost() {
+        return 1;
+    }
+
+    @Override
+    public boolean isAddConstantTime() {
+        return false;
+    }
+
+    @Override
+    protected Iterator<Element> iterateNonZero() {
+        return new NonZeroIterator();
+    }
+
+    @Override
+    protected Iterator<Element> iterator() {
+        return new AllIterator();
+    }
+
+    private final class NonZeroIterator implements Iterator<Element> {
+        private final ReadOnlyElement element = new ReadOnlyElement();
+        private long position = start;
+
+        @Override
+        public boolean hasNext() {
+            return position<end;
+        }
+
+        @Override
+        public Element next() {
+            if (position>=end){
+                throw new NoSuchElementException();
+            }
+            element.position = position;
+            position += 1;
+            return element;
+        }
+    }
+
+    private final class AllIterator implements Iterator<Element> {
+        private final ReadOnlyElement element = new ReadOnlyElement();
+        private final ZeroElement zeroElement = new ZeroElement();
+        private int index = 0;
+        private long position = start;
+
+        @Override
+        public boolean hasNext() {
+            return index<size();
+        }
+
+        @Override
+        public Element next() {
+            if (index>=size()){
+                throw new NoSuchElementException();
+            }
+            Element next;
+            if (position<end && indexAt(position)==index){
+                element.position = position;
+                position += 1;
+                next = element;
+            } else {
+                zeroElement.index = index;
+                next = zeroElement;
+            }
+            index += 1;
+            return next;
+        }
+    }
+
+    private final class ReadOnlyElement implements Element {
+        private long position;
+
+        @Override
+        public double get() {
+            return valueAt(position);
+        }
+
+        @Override
+        public int index() {
+            return indexAt(position);
+        }
+
+        @Override
+        public void set(double value) {
+            throw new UnsupportedOperationException("data set is immutable");
+        }
+    }
+
+    private static final class ZeroElement implements Element {
+        private int index;
+
+        @Override
+        public double get() {
+            return 0;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void set(double value) {
+            throw new UnsupportedOperationException("data set is immutable");
+        }
+    }
+}
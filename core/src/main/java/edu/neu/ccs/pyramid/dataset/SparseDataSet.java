@@ -6,6 +6,8 @@ import edu.neu.ccs.pyramid.feature.FeatureList;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
+import java.util.stream.IntStream;
+
 /**
  * Created by chengli on 8/4/14.
  */
@@ -69,6 +71,28 @@ public class SparseDataSet extends AbstractDataSet implements DataSet{
     }
 
 
+    /**
+     * rows and columns are filled in parallel, each by a single thread
+     * @param rows
+     * @param columns
+     */
+    @Override
+    void fill(SparseEntries rows, SparseEntries columns) {
+        checkRows(rows);
+        IntStream.range(0, numDataPoints).parallel().forEach(i -> {
+            RandomAccessSparseVector row = featureRows[i];
+            for (int p=rows.getStart(i);p<rows.getEnd(i);p++){
+                row.setQuick(rows.getIndex(p), rows.getValue(p));
+            }
+        });
+        IntStream.range(0, numFeatures).parallel().forEach(j -> {
+            RandomAccessSparseVector column = featureColumns[j];
+            for (int p=columns.getStart(j);p<columns.getEnd(j);p++){
+                column.setQuick(columns.getIndex(p), columns.getValue(p));
+            }
+        });
+    }
+
     @Override
     public boolean isDense() {
         return false;
@@ -0,0 +1,86 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * sparse vectors packed in primitive arrays, for bulk filling data sets
+ * entries of vector i are in [offsets[i], offsets[i+1]), in insertion order
+ */
+class SparseEntries {
+    private final int[] offsets;
+    private final int[] indices;
+    private final double[] values;
+
+    SparseEntries(int[] offsets, int[] indices, double[] values) {
+        this.offsets = offsets;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     *
+     * @return number of vectors
+     */
+    int getNumVectors(){
+        return offsets.length-1;
+    }
+
+    int getStart(int vectorIndex){
+        return offsets[vectorIndex];
+    }
+
+    int getEnd(int vectorIndex){
+        return offsets[vectorIndex+1];
+    }
+
+    int getIndex(int position){
+        return indices[position];
+    }
+
+    double getValue(int position){
+        return values[position];
+    }
+
+    void checkIndices(int size){
+        for (int index: indices){
+            if (index<0||index>=size){
+                throw new IllegalArgumentException("index "+index+" is out of range [0,"+size+")");
+            }
+        }
+    }
+
+    boolean hasNaN(){
+        for (double value: values){
+            if (Double.isNaN(value)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * counting sort by index; the relative order of entries is kept,
+     * so repeated indices resolve the same way in both layouts
+     * @param size number of vectors after transposing
+     */
+    SparseEntries transpose(int size){
+        int[] transposedOffsets = new int[size+1];
+        for (int index: indices){
+            transposedOffsets[index+1] += 1;
+        }
+        for (int j=0;j<size;j++){
+            transposedOffsets[j+1] += transposedOffsets[j];
+        }
+        int[] transposedIndices = new int[indices.length];
+        double[] transposedValues = new double[values.length];
+        int[] positions = new int[size];
+        System.arraycopy(transposedOffsets, 0, positions, 0, size);
+        for (int i=0;i<getNumVectors();i++){
+            for (int p=offsets[i];p<offsets[i+1];p++){
+                int j = indices[p];
+                transposedIndices[positions[j]] = i;
+                transposedValues[positions[j]] = values[p];
+                positions[j] += 1;
+            }
+        }
+        return new SparseEntries(transposedOffsets, transposedIndices, transposedValues);
+    }
+}
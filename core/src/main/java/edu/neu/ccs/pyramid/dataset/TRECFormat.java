@@ -10,7 +10,6 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -117,7 +116,7 @@ public class TRECFormat {
     public static ClfDataSet loadClfDataSet(File trecFile, DataSetType dataSetType,
                                             boolean loadSettings) throws IOException, ClassNotFoundException {
         boolean legalArg = ((dataSetType == DataSetType.CLF_DENSE)
-                ||(dataSetType==DataSetType.CLF_SPARSE));
+                ||(dataSetType==DataSetType.CLF_SPARSE)||(dataSetType==DataSetType.CLF_COMPRESSED));
         if (!legalArg){
             throw new IllegalArgumentException("illegal data set type");
         }
@@ -129,7 +128,7 @@ public class TRECFormat {
         if (dataSetType==DataSetType.CLF_DENSE){
             dataSet = new DenseClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
         }
-        if (dataSetType==DataSetType.CLF_SPARSE){
+        if (dataSetType==DataSetType.CLF_SPARSE || dataSetType==DataSetType.CLF_COMPRESSED){
             dataSet = new SparseClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
         }
         fillClfDataSet(dataSet,trecFile);
@@ -138,6 +137,9 @@ public class TRECFormat {
             loadIdTranslator(dataSet,trecFile);
             loadLabelTranslator(dataSet,trecFile);
         }
+        if (dataSetType==DataSetType.CLF_COMPRESSED){
+            dataSet = new CompressedClfDataSet(dataSet);
+        }
 
         return dataSet;
     }
@@ -145,7 +147,8 @@ public class TRECFormat {
     public static MultiLabelClfDataSet loadMultiLabelClfDataSet(File trecFile, DataSetType dataSetType,
                                             boolean loadSettings) throws IOException, ClassNotFoundException {
         boolean legalArg = ((dataSetType == DataSetType.ML_CLF_DENSE)
-                ||(dataSetType==DataSetType.ML_CLF_SPARSE)||(dataSetType == DataSetType.ML_CLF_SEQ_SPARSE));
+                ||(dataSetType==DataSetType.ML_CLF_SPARSE)||(dataSetType == DataSetType.ML_CLF_SEQ_SPARSE)
+                ||(dataSetType==DataSetType.ML_CLF_COMPRESSED));
         if (!legalArg){
             throw new IllegalArgumentException("illegal data set type");
         }
@@ -157,7 +160,7 @@ public class TRECFormat {
         if (dataSetType==DataSetType.ML_CLF_DENSE){
             dataSet = new DenseMLClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
         }
-        if (dataSetType==DataSetType.ML_CLF_SPARSE){
+        if (dataSetType==DataSetType.ML_CLF_SPARSE || dataSetType==DataSetType.ML_CLF_COMPRESSED){
             dataSet = new SparseMLClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
         }
         if (dataSetType==DataSetType.ML_CLF_SEQ_SPARSE) {
@@ -169,6 +172,9 @@ public class TRECFormat {
             loadIdTranslator(dataSet, trecFile);
             loadLabelTranslator(dataSet, trecFile);
         }
+        if (dataSetType==DataSetType.ML_CLF_COMPRESSED){
+            dataSet = new CompressedMLClfDataSet(dataSet);
+        }
 
         return dataSet;
     }
@@ -195,7 +201,7 @@ public class TRECFormat {
     public static RegDataSet loadRegDataSet(File trecFile, DataSetType dataSetType,
                                             boolean loadSettings) throws IOException, ClassNotFoundException {
         boolean legalArg = ((dataSetType == DataSetType.REG_DENSE)
-                ||(dataSetType==DataSetType.REG_SPARSE));
+                ||(dataSetType==DataSetType.REG_SPARSE)||(dataSetType==DataSetType.REG_COMPRESSED));
         if (!legalArg){
             throw new IllegalArgumentException("illegal data set type");
         }
@@ -206,7 +212,7 @@ public class TRECFormat {
         if (dataSetType==DataSetType.REG_DENSE){
             dataSet = new DenseRegDataSet(numDataPoints,numFeatures,missingValue);
         }
-        if (dataSetType==DataSetType.REG_SPARSE){
+        if (dataSetType==DataSetType.REG_SPARSE || dataSetType==DataSetType.REG_COMPRESSED){
             dataSet = new SparseRegDataSet(numDataPoints,numFeatures,missingValue);
         }
         fillRegDataSet(dataSet, trecFile);
@@ -214,6 +220,9 @@ public class TRECFormat {
             loadFeatureList(dataSet, trecFile);
             loadIdTranslator(dataSet, trecFile);
         }
+        if (dataSetType==DataSetType.REG_COMPRESSED){
+            dataSet = new CompressedRegDataSet(dataSet);
+        }
 
         return dataSet;
     }
@@ -337,97 +346,45 @@ public class TRECFormat {
 
     private static void fillClfDataSet(ClfDataSet dataSet, File trecFile) throws IOException {
         File matrixFile = new File(trecFile, TREC_MATRIX_FILE_NAME);
-        try (BufferedReader br = new BufferedReader(new FileReader(matrixFile));
-        ) {
-            String line = null;
-            int dataIndex = 0;
-            while ((line=br.readLine())!=null){
-                String[] lineSplit = line.split("\\s+");
-                int label = Integer.parseInt(lineSplit[0]);
-                dataSet.setLabel(dataIndex,label);
-                for (int i=1;i<lineSplit.length;i++){
-                    String pair = lineSplit[i];
-                    // ignore things after #
-                    if (pair.startsWith("#")){
-                        break;
-                    }
-                    String[] pairSplit = pair.split(":");
-                    int featureIndex = Integer.parseInt(pairSplit[0]);
-                    double featureValue = Double.parseDouble(pairSplit[1]);
-                    dataSet.setFeatureValue(dataIndex, featureIndex,featureValue);
-                }
-                dataIndex += 1;
-            }
+        ParallelTextParser.Result result = ParallelTextParser.parse(matrixFile, (line, chunk) -> {
+            int start = ParallelTextParser.skipWhitespace(line, 0);
+            int end = ParallelTextParser.tokenEnd(line, start);
+            chunk.setLabel(Integer.parseInt(line.substring(start, end)));
+            ParallelTextParser.parseFeatures(line, end, 0, chunk);
+            return true;
+        });
+        result.fillFeatures(dataSet);
+        for (int i=0;i<result.getNumRows();i++){
+            dataSet.setLabel(i, (int)result.getLabel(i));
         }
     }
 
     private static void fillMultiLabelClfDataSet(MultiLabelClfDataSet dataSet, File trecFile) throws IOException {
         File matrixFile = new File(trecFile, TREC_MATRIX_FILE_NAME);
-        try (BufferedReader br = new BufferedReader(new FileReader(matrixFile));
-        ) {
-            String line = null;
-            int dataIndex = 0;
-            while ((line=br.readLine())!=null){
-                String[] lineSplit = line.split("\\s+");
-                // the line is not just a space
-                if (lineSplit.length>=1){
-                    String multiLabelString = null;
-                    try {
-                        multiLabelString = lineSplit[0];
-                    } catch (Exception e) {
-                        System.out.println("load data error happens");
-                        System.out.println("line number: " + dataIndex);
-                        System.out.println("line: " + line);
-                    }
-                    String[] multiLabelSplit = multiLabelString.split(Pattern.quote(","));
-                    for (String label: multiLabelSplit){
-                        if (label.equals("")) {
-                            continue;
-                        }
-                        dataSet.addLabel(dataIndex,Integer.parseInt(label));
-                    }
-                }
-
-                for (int i=1;i<lineSplit.length;i++){
-                    String pair = lineSplit[i];
-                    // ignore things after #
-                    if (pair.startsWith("#")){
-                        break;
-                    }
-                    String[] pairSplit = pair.split(":");
-                    int featureIndex = Integer.parseInt(pairSplit[0]);
-                    double featureValue = Double.parseDouble(pairSplit[1]);
-                    dataSet.setFeatureValue(dataIndex, featureIndex,featureValue);
-                }
-                dataIndex += 1;
-            }
-        }
+        ParallelTextParser.Result result = ParallelTextParser.parse(matrixFile, (line, chunk) -> {
+            // the label field is empty if the line starts with a space
+            int end = ParallelTextParser.tokenEnd(line, 0);
+            ParallelTextParser.parseLabels(line, 0, end, 0, chunk);
+            ParallelTextParser.parseFeatures(line, end, 0, chunk);
+            return true;
+        });
+        result.fillFeatures(dataSet);
+        result.fillMultiLabels(dataSet);
     }
 
 
     private static void fillRegDataSet(RegDataSet dataSet, File trecFile) throws IOException {
         File matrixFile = new File(trecFile, TREC_MATRIX_FILE_NAME);
-        try (BufferedReader br = new BufferedReader(new FileReader(matrixFile));
-        ) {
-            String line = null;
-            int dataIndex = 0;
-            while ((line=br.readLine())!=null){
-                String[] lineSplit = line.split("\\s+");
-                double label = Double.parseDouble(lineSplit[0]);
-                dataSet.setLabel(dataIndex,label);
-                for (int i=1;i<lineSplit.length;i++){
-                    String pair = lineSplit[i];
-                    // ignore things after #
-                    if (pair.startsWith("#")){
-                        break;
-                    }
-                    String[] pairSplit = pair.split(":");
-                    int featureIndex = Integer.parseInt(pairSplit[0]);
-                    double featureValue = Double.parseDouble(pairSplit[1]);
-                    dataSet.setFeatureValue(dataIndex, featureIndex,featureValue);
-                }
-                dataIndex += 1;
-            }
+        ParallelTextParser.Result result = ParallelTextParser.parse(matrixFile, (line, chunk) -> {
+            int start = ParallelTextParser.skipWhitespace(line, 0);
+            int end = ParallelTextParser.tokenEnd(line, start);
+            chunk.setLabel(Double.parseDouble(line.substring(start, end)));
+            ParallelTextParser.parseFeatures(line, end, 0, chunk);
+            return true;
+        });
+        result.fillFeatures(dataSet);
+        for (int i=0;i<result.getNumRows();i++){
+            dataSet.setLabel(i, result.getLabel(i));
         }
     }
 
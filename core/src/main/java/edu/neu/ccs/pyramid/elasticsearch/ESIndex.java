@@ -6,8 +6,10 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.URLEncoder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -16,7 +18,12 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
+import edu.neu.ccs.pyramid.esplugins.InternalMatchBitsets;
+import edu.neu.ccs.pyramid.esplugins.InternalPhraseCounts;
+import edu.neu.ccs.pyramid.esplugins.MatchBitsetAggregationBuilder;
+import edu.neu.ccs.pyramid.esplugins.PhraseCountAggregationBuilder;
 import edu.neu.ccs.pyramid.esplugins.PhraseCountQueryBuilder;
+import edu.neu.ccs.pyramid.esplugins.PhraseCountQueryPlugin;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,6 +37,11 @@ import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsRespon
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.termvectors.MultiTermVectorsItemResponse;
+import org.elasticsearch.action.termvectors.MultiTermVectorsRequestBuilder;
+import org.elasticsearch.action.termvectors.MultiTermVectorsResponse;
+import org.elasticsearch.action.termvectors.TermVectorsRequest;
 import org.elasticsearch.action.termvectors.TermVectorsResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
@@ -41,6 +53,7 @@ import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.IdsQueryBuilder;
 import org.elasticsearch.index.query.MatchQueryBuilder;
 import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.SpanNearQueryBuilder;
 import org.elasticsearch.index.query.SpanNotQueryBuilder;
@@ -54,10 +67,6 @@ import org.elasticsearch.script.Script;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-
 import edu.neu.ccs.pyramid.feature.Ngram;
 import edu.neu.ccs.pyramid.feature.SpanNotNgram;
 
@@ -78,11 +87,23 @@ public class ESIndex implements AutoCloseable{
     String clusterName;
     String bodyField;
 
-    //todo should have different caches for different fields
     /**
-     * concurrent LRU cache for termvectors
+     * concurrent cache for termvectors of all fields, bounded by bytes
+     */
+    TermVectorCache termVectorCache;
+    /**
+     * number of documents in one multi term vectors request
+     */
+    int termVectorBatchSize;
+    int maxInFlightTermVectorRequests;
+    /**
+     * number of ngrams counted per phrase_counts request; 0 means one query per ngram
+     */
+    int phraseCountBlockSize;
+    /**
+     * number of membership features tested per match_bitsets request; 0 means one query per feature
      */
-    LoadingCache<String,Map<Integer,String>> termVectorCache;
+    int matchBitsetBlockSize;
 
 
     public int getNumDocs() {
@@ -129,6 +150,22 @@ public class ESIndex implements AutoCloseable{
         return bodyField;
     }
 
+    public int getTermVectorBatchSize() {
+        return termVectorBatchSize;
+    }
+
+    public int getMaxInFlightTermVectorRequests() {
+        return maxInFlightTermVectorRequests;
+    }
+
+    public int getPhraseCountBlockSize() {
+        return phraseCountBlockSize;
+    }
+
+    public int getMatchBitsetBlockSize() {
+        return matchBitsetBlockSize;
+    }
+
     /**
      *
      * @return terms stemmed
@@ -617,10 +654,17 @@ public class ESIndex implements AutoCloseable{
 //        return termVector;
 //    }
 
+    /**
+     * served from the term vector cache if possible
+     */
     public Map<Integer,String> getTermVectorFromIndex(String field, String id){
-        Map<Integer,String> map = null;
+        Map<Integer,String> map = termVectorCache.get(field, id);
+        if (map!=null){
+            return map;
+        }
         try {
             map = getTermVectorWithException(field, id);
+            termVectorCache.put(field, id, map);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -638,7 +682,81 @@ public class ESIndex implements AutoCloseable{
                 .setSelectedFields(field).
                         execute().actionGet();
 
+        return toTermVector(response, field);
+    }
+
+    /**
+     * term vectors of many documents, fetched with multi term vectors requests of termVectorBatchSize documents;
+     * at most maxInFlightTermVectorRequests requests are sent before the earliest response is read
+     * cached documents are not fetched again
+     * @param field
+     * @param ids
+     * @return id to (position to term); documents without the field or failed to fetch have empty term vectors
+     */
+    public Map<String,Map<Integer,String>> getTermVectors(String field, List<String> ids){
+        StopWatch stopWatch=null;
+        if(logger.isDebugEnabled()){
+            stopWatch = new StopWatch();
+            stopWatch.start();
+        }
+        Map<String,Map<Integer,String>> termVectors = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id: ids){
+            Map<Integer,String> termVector = termVectorCache.get(field, id);
+            if (termVector==null){
+                missing.add(id);
+            } else {
+                termVectors.put(id, termVector);
+            }
+        }
+
+        Deque<ActionFuture<MultiTermVectorsResponse>> inFlight = new ArrayDeque<>();
+        for (int start=0;start<missing.size();start+=termVectorBatchSize){
+            if (inFlight.size()==maxInFlightTermVectorRequests){
+                addTermVectors(field, inFlight.poll().actionGet(), termVectors);
+            }
+            MultiTermVectorsRequestBuilder request = client.prepareMultiTermVectors();
+            for (String id: missing.subList(start, Math.min(start+termVectorBatchSize, missing.size()))){
+                request.add(new TermVectorsRequest(indexName, documentType, id)
+                        .offsets(false).positions(true).payloads(false)
+                        .fieldStatistics(false).termStatistics(false)
+                        .selectedFields(field));
+            }
+            inFlight.add(request.execute());
+        }
+        while (!inFlight.isEmpty()){
+            addTermVectors(field, inFlight.poll().actionGet(), termVectors);
+        }
+
+        if(logger.isDebugEnabled()){
+            logger.debug("time spent on getTermVectors for "+ids.size()+" docs ("+missing.size()+" not cached) = "+stopWatch);
+        }
+        return termVectors;
+    }
+
+    private void addTermVectors(String field, MultiTermVectorsResponse response, Map<String,Map<Integer,String>> termVectors){
+        for (MultiTermVectorsItemResponse item: response){
+            if (item.isFailed()){
+                logger.warn("failed to get term vector of doc "+item.getId()+": "+item.getFailure().getCause());
+                termVectors.put(item.getId(), new HashMap<>());
+                continue;
+            }
+            Map<Integer,String> termVector;
+            try {
+                termVector = toTermVector(item.getResponse(), field);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            termVectorCache.put(field, item.getId(), termVector);
+            termVectors.put(item.getId(), termVector);
+        }
+    }
+
+    private static Map<Integer,String> toTermVector(TermVectorsResponse response, String field) throws IOException {
         Map<Integer,String> map = new HashMap<>();
+        if (!response.isExists()){
+            return map;
+        }
         Terms terms = response.getFields().terms(field);
         if (terms==null){
             return map;
@@ -1060,6 +1178,71 @@ public class ESIndex implements AutoCloseable{
     }
 
 
+    /**
+     * phrase frequencies of a block of ngrams in all documents matching the filter, with one request;
+     * the counts are the same as spanNearFrequency
+     * only documents containing the first term of some ngram are collected
+     * requires the phrase_counts aggregation of the phrase-count-plugin
+     */
+    public InternalPhraseCounts phraseCounts(List<Ngram> ngrams, String filterQuery){
+        PhraseCountAggregationBuilder aggregation = new PhraseCountAggregationBuilder(PhraseCountAggregationBuilder.NAME);
+        for (Ngram ngram: ngrams){
+            if (ngram.getTerms().length == 0) {
+                throw new IllegalArgumentException("No term for span");
+            }
+            aggregation.addPhrase(ngram.getField(), ngram.getSlop(), ngram.isInOrder(), ngram.getTerms());
+        }
+
+        SearchResponse response = client.prepareSearch(indexName).setSize(0)
+                .setTrackScores(false).setFetchSource(false).setExplain(false)
+                .setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.wrapperQuery(filterQuery))
+                        .filter(aggregation.firstTermsQuery()))
+                .addAggregation(aggregation)
+                .execute().actionGet();
+
+        return response.getAggregations().get(PhraseCountAggregationBuilder.NAME);
+    }
+
+    /**
+     * memberships of a block of filters, without fetching hits;
+     * the bitset of each filter is over the ids of the result, which follow the index order
+     */
+    public InternalMatchBitsets matchBitsets(List<QueryBuilder> filters, String filterQuery){
+        MatchBitsetAggregationBuilder aggregation = new MatchBitsetAggregationBuilder(MatchBitsetAggregationBuilder.NAME);
+        for (QueryBuilder filter: filters){
+            aggregation.addFilter(filter);
+        }
+
+        SearchResponse response = client.prepareSearch(indexName).setSize(0)
+                .setTrackScores(false).setFetchSource(false).setExplain(false)
+                .setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.wrapperQuery(filterQuery)))
+                .addAggregation(aggregation)
+                .execute().actionGet();
+
+        return response.getAggregations().get(MatchBitsetAggregationBuilder.NAME);
+    }
+
+    /**
+     * the query of {@link #spanNear(Ngram, String, int)}, for use as a filter
+     */
+    public static QueryBuilder spanNearFilter(Ngram ngram){
+        if (ngram.getTerms().length == 0) {
+            throw new IllegalArgumentException("no terms for span");
+        }
+        String field = ngram.getField();
+        int slop = ngram.getSlop();
+        if (ngram.getTerms().length == 1){
+            return QueryBuilders.matchPhraseQuery(field, ngram.getTerms()[0]).slop(slop);
+        }
+        SpanNearQueryBuilder queryBuilder = QueryBuilders.spanNearQuery(new SpanTermQueryBuilder(field, ngram.getTerms()[0]), slop);
+        for (int i = 1; i < ngram.getTerms().length; i++){
+            queryBuilder.addClause(new SpanTermQueryBuilder(field, ngram.getTerms()[i]));
+        }
+        queryBuilder.inOrder(ngram.isInOrder());
+        return queryBuilder;
+    }
+
+
     public SearchResponse spanNot(SpanNotNgram ngram, String[] ids){
         Ngram include = ngram.getInclude();
         String field1 = include.getField();
@@ -1466,7 +1649,15 @@ public class ESIndex implements AutoCloseable{
         private String bodyField = "body";
         private List<String> hosts = new ArrayList<>();
         private List<Integer> ports = new ArrayList<>();
-        private int termVectorCacheSize = 10000;
+        /**
+         * rough size of a cached term vector, used to convert a cache size in documents to bytes
+         */
+        private static final long BYTES_PER_CACHED_TERM_VECTOR = 4096;
+        private long termVectorCacheBytes = 0;
+        private int termVectorBatchSize = 200;
+        private int maxInFlightTermVectorRequests = 4;
+        private int phraseCountBlockSize = 0;
+        private int matchBitsetBlockSize = 0;
 
 
 
@@ -1508,11 +1699,66 @@ public class ESIndex implements AutoCloseable{
             return this;
         }
 
+        /**
+         * the cache evicts term vectors once their estimated size exceeds this bound
+         * default is 0, which disables the term vector cache
+         */
+        public Builder setTermVectorCacheBytes(long termVectorCacheBytes) {
+            if (termVectorCacheBytes<0){
+                throw new IllegalArgumentException("termVectorCacheBytes should be non-negative");
+            }
+            this.termVectorCacheBytes = termVectorCacheBytes;
+            return this;
+        }
+
+        /**
+         * @deprecated the cache is bounded by bytes, use {@link #setTermVectorCacheBytes(long)};
+         * the number of documents is converted to bytes assuming about 4KB per term vector
+         */
+        @Deprecated
         public Builder setTermVectorCacheSize(int termVectorCacheSize) {
-            this.termVectorCacheSize = termVectorCacheSize;
+            return setTermVectorCacheBytes(termVectorCacheSize*BYTES_PER_CACHED_TERM_VECTOR);
+        }
+
+        public Builder setTermVectorBatchSize(int termVectorBatchSize) {
+            if (termVectorBatchSize<1){
+                throw new IllegalArgumentException("termVectorBatchSize should be positive");
+            }
+            this.termVectorBatchSize = termVectorBatchSize;
+            return this;
+        }
+
+        public Builder setMaxInFlightTermVectorRequests(int maxInFlightTermVectorRequests) {
+            if (maxInFlightTermVectorRequests<1){
+                throw new IllegalArgumentException("maxInFlightTermVectorRequests should be positive");
+            }
+            this.maxInFlightTermVectorRequests = maxInFlightTermVectorRequests;
+            return this;
+        }
+
+
+        /**
+         * if positive, ngram frequencies are loaded in blocks of this size with the phrase_counts aggregation
+         */
+        public Builder setPhraseCountBlockSize(int phraseCountBlockSize) {
+            if (phraseCountBlockSize<0){
+                throw new IllegalArgumentException("phraseCountBlockSize should be non-negative");
+            }
+            this.phraseCountBlockSize = phraseCountBlockSize;
             return this;
         }
 
+        /**
+         * if positive, categorical features and binary ngrams are loaded in blocks of this size
+         * with the match_bitsets aggregation
+         */
+        public Builder setMatchBitsetBlockSize(int matchBitsetBlockSize) {
+            if (matchBitsetBlockSize<0){
+                throw new IllegalArgumentException("matchBitsetBlockSize should be non-negative");
+            }
+            this.matchBitsetBlockSize = matchBitsetBlockSize;
+            return this;
+        }
 
         public ESIndex build() throws Exception {
             boolean legal = (clientType.equals("node"))||(clientType.equals("transport"));
@@ -1537,7 +1783,7 @@ public class ESIndex implements AutoCloseable{
                         .put("node.data", false)
                         .build();
 
-                esIndex.client = new PreBuiltTransportClient(settings);
+                esIndex.client = new PreBuiltTransportClient(settings, PhraseCountQueryPlugin.class);
                 //TODO Check ?
                 ((TransportClient)esIndex.client)
                         .addTransportAddress(new InetSocketTransportAddress(new InetSocketAddress("127.0.0.1",
@@ -1546,7 +1792,7 @@ public class ESIndex implements AutoCloseable{
                 Settings settings = Settings.builder()
                         .put("cluster.name", clusterName).build();
 
-                esIndex.client = new PreBuiltTransportClient(settings);
+                esIndex.client = new PreBuiltTransportClient(settings, PhraseCountQueryPlugin.class);
                 for (int i=0;i<this.hosts.size();i++){
                     ((TransportClient)esIndex.client)
                             .addTransportAddress(new InetSocketTransportAddress(new InetSocketAddress(this.hosts.get(i),
@@ -1555,14 +1801,11 @@ public class ESIndex implements AutoCloseable{
             }
             esIndex.numDocs = esIndex.fetchNumDocs();
 
-            esIndex.termVectorCache = CacheBuilder.newBuilder()
-                    .maximumSize(this.termVectorCacheSize)
-                    .build(new CacheLoader<String, Map<Integer, String>>() {
-                        @Override
-                        public Map<Integer, String> load(String id) throws Exception {
-                            return esIndex.getTermVectorFromIndex(id);
-                        }
-                    });
+            esIndex.termVectorCache = new TermVectorCache(this.termVectorCacheBytes);
+            esIndex.termVectorBatchSize = this.termVectorBatchSize;
+            esIndex.maxInFlightTermVectorRequests = this.maxInFlightTermVectorRequests;
+            esIndex.phraseCountBlockSize = this.phraseCountBlockSize;
+            esIndex.matchBitsetBlockSize = this.matchBitsetBlockSize;
 
             return esIndex;
         }
@@ -1,13 +1,20 @@
 package edu.neu.ccs.pyramid.elasticsearch;
 
 import edu.neu.ccs.pyramid.dataset.*;
+import edu.neu.ccs.pyramid.esplugins.InternalMatchBitsets;
+import edu.neu.ccs.pyramid.esplugins.InternalPhraseCounts;
 import edu.neu.ccs.pyramid.feature.*;
 import edu.neu.ccs.pyramid.util.ProgressBar;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.FixedBitSet;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
 import org.elasticsearch.search.SearchHit;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -19,35 +26,154 @@ import java.util.stream.IntStream;
 public class FeatureLoader {
 
 
+    /**
+     * features are retrieved in parallel into per-feature buffers,
+     * which fill the data set in one bulk step at the end
+     * with a positive phrase count block size on the index, ngram frequencies (FREQUENCY and TFIFL)
+     * are retrieved one block of ngrams per request
+     * with a positive match bitset block size on the index, categorical features and binary ngrams
+     * are retrieved one block of features per request, as bitsets
+     */
     public static void loadFeatures(ESIndex index, DataSet dataSet, FeatureList features,
                                     IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
                                     Map<String, float[]> fieldLength){
+        int numDataPoints = dataSet.getNumDataPoints();
+        ColumnBuffer columnBuffer = new ColumnBuffer(numDataPoints, dataSet.getNumFeatures());
+        boolean byBlock = index.getPhraseCountBlockSize()>0
+                && (matchScoreType==MatchScoreType.FREQUENCY || matchScoreType==MatchScoreType.TFIFL);
+        List<Ngram> blockNgrams = new ArrayList<>();
+        if (byBlock){
+            for (Feature feature: features.getAll()){
+                if (feature instanceof Ngram){
+                    blockNgrams.add((Ngram)feature);
+                }
+            }
+            int blockSize = index.getPhraseCountBlockSize();
+            int numBlocks = (blockNgrams.size()+blockSize-1)/blockSize;
+            IntStream.range(0,numBlocks).parallel()
+                    .forEach(b -> loadNgramBlock(index, columnBuffer,
+                            blockNgrams.subList(b*blockSize, Math.min((b+1)*blockSize, blockNgrams.size())),
+                            idTranslator, matchScoreType, docFilter, fieldLength, numDataPoints));
+        }
+        boolean byBitset = index.getMatchBitsetBlockSize()>0;
+        List<Feature> bitsetFeatures = new ArrayList<>();
+        if (byBitset){
+            for (Feature feature: features.getAll()){
+                if (isMembership(feature, matchScoreType)){
+                    bitsetFeatures.add(feature);
+                }
+            }
+            int blockSize = index.getMatchBitsetBlockSize();
+            int numBlocks = (bitsetFeatures.size()+blockSize-1)/blockSize;
+            IntStream.range(0,numBlocks).parallel()
+                    .forEach(b -> loadBitsetBlock(index, columnBuffer,
+                            bitsetFeatures.subList(b*blockSize, Math.min((b+1)*blockSize, bitsetFeatures.size())),
+                            idTranslator, docFilter, numDataPoints));
+        }
 //        ProgressBar progressBar = new ProgressBar(features.size());
         IntStream.range(0,features.size())
         		.parallel()
                 .forEach(i-> {
                     Feature feature = features.get(i);
+                    if (byBlock && feature instanceof Ngram){
+                        return;
+                    }
+                    if (byBitset && isMembership(feature, matchScoreType)){
+                        return;
+                    }
+                    Vector column;
                     if (feature instanceof CategoricalFeature){
-                        loadCategoricalFeature(index,dataSet,(CategoricalFeature)feature,idTranslator, docFilter);
+                        column = categoricalColumn(index,(CategoricalFeature)feature,idTranslator, docFilter, numDataPoints);
                     } else if (feature instanceof Ngram){
-                        loadNgramFeature(index, dataSet, (Ngram)feature, idTranslator, matchScoreType, docFilter, fieldLength);
+                        column = ngramColumn(index, (Ngram)feature, idTranslator, matchScoreType, docFilter, fieldLength, numDataPoints);
                     } else if (feature instanceof CodeDescription) {
-                        loadCodeDesFeature(index, dataSet, feature, idTranslator, docFilter);
+                        column = codeDesColumn(index, feature, idTranslator, docFilter, numDataPoints);
                     } else {
-                        loadNumericalFeature(index,dataSet,feature,idTranslator);
+                        column = numericalColumn(index,feature,idTranslator, numDataPoints);
                     }
+                    columnBuffer.setColumn(feature.getIndex(), column);
 
 //                    progressBar.incrementAndPrint();
                 }
                 );
+        columnBuffer.fill(dataSet);
 //        System.out.println();
     }
 
+    /**
+     * frequencies of a block of ngrams from one phrase_counts request
+     */
+    private static void loadNgramBlock(ESIndex index, ColumnBuffer columnBuffer, List<Ngram> ngrams,
+                                       IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
+                                       Map<String, float[]> fieldLength, int numDataPoints){
+        InternalPhraseCounts phraseCounts = index.phraseCounts(ngrams, docFilter);
+        int[] algorithmIds = Arrays.stream(phraseCounts.getIds()).mapToInt(idTranslator::toIntId).toArray();
+        for (int p=0;p<ngrams.size();p++){
+            Ngram feature = ngrams.get(p);
+            Vector column = new RandomAccessSparseVector(numDataPoints);
+            int[] rows = phraseCounts.getRows(p);
+            float[] counts = phraseCounts.getCounts(p);
+            for (int i=0;i<rows.length;i++){
+                int algorithmId = algorithmIds[rows[i]];
+                float score = counts[i];
+                if (matchScoreType==MatchScoreType.TFIFL){
+                    double s = score/fieldLength.get(feature.getField())[algorithmId];
+                    column.set(algorithmId,s);
+                } else {
+                    column.set(algorithmId,score);
+                }
+            }
+            columnBuffer.setColumn(feature.getIndex(), column);
+        }
+    }
+
+    /**
+     * features whose values only depend on whether the document matches
+     */
+    private static boolean isMembership(Feature feature, MatchScoreType matchScoreType){
+        return (feature instanceof CategoricalFeature)
+                || (feature instanceof Ngram && matchScoreType==MatchScoreType.BINARY);
+    }
+
+    /**
+     * memberships of a block of categorical features and binary ngrams from one match_bitsets request;
+     * the document ids are translated once per block, and each feature only walks its bitset
+     */
+    private static void loadBitsetBlock(ESIndex index, ColumnBuffer columnBuffer, List<Feature> features,
+                                        IdTranslator idTranslator, String docFilter, int numDataPoints){
+        List<QueryBuilder> filters = new ArrayList<>(features.size());
+        for (Feature feature: features){
+            if (feature instanceof CategoricalFeature){
+                CategoricalFeature categoricalFeature = (CategoricalFeature)feature;
+                filters.add(new TermQueryBuilder(categoricalFeature.getVariableName(), categoricalFeature.getCategory()));
+            } else {
+                filters.add(ESIndex.spanNearFilter((Ngram)feature));
+            }
+        }
+        InternalMatchBitsets bitsets = index.matchBitsets(filters, docFilter);
+        int[] algorithmIds = Arrays.stream(bitsets.getIds()).mapToInt(idTranslator::toIntId).toArray();
+        for (int f=0;f<features.size();f++){
+            Vector column = new RandomAccessSparseVector(numDataPoints);
+            FixedBitSet matches = bitsets.getMatches(f);
+            for (int row = InternalMatchBitsets.nextRow(matches, 0); row != DocIdSetIterator.NO_MORE_DOCS;
+                 row = InternalMatchBitsets.nextRow(matches, row+1)){
+                column.set(algorithmIds[row],1);
+            }
+            columnBuffer.setColumn(features.get(f).getIndex(), column);
+        }
+    }
+
     public static void loadCategoricalFeature(ESIndex index, DataSet dataSet, CategoricalFeature feature,
                                               IdTranslator idTranslator, String docFilter){
+        Vector column = categoricalColumn(index, feature, idTranslator, docFilter, dataSet.getNumDataPoints());
+        setColumn(dataSet, feature.getIndex(), column);
+    }
+
+    private static Vector categoricalColumn(ESIndex index, CategoricalFeature feature,
+                                            IdTranslator idTranslator, String docFilter, int numDataPoints){
 //        String[] dataIndexIds = idTranslator.getAllExtIds();
         String variableName = feature.getVariableName();
-        int featureIndex = feature.getIndex();
+        Vector column = new RandomAccessSparseVector(numDataPoints);
 
         List<String> matchedIds = null;
         try {
@@ -57,7 +183,7 @@ public class FeatureLoader {
         }
         for (String matchedId: matchedIds){
             int algorithmId = idTranslator.toIntId(matchedId);
-            dataSet.setFeatureValue(algorithmId,featureIndex,1);
+            column.set(algorithmId,1);
         }
 
 //        List<String> docMissingField = index.docsWithFieldMissing(variableName,dataIndexIds);
@@ -65,62 +191,69 @@ public class FeatureLoader {
 //            int algorithmId = idTranslator.toIntId(extId);
 //            dataSet.setFeatureValue(algorithmId,featureIndex,Double.NaN);
 //        }
-
+        return column;
 
     }
 
     public static void loadNgramFeature(ESIndex index, DataSet dataSet, Ngram feature,
                                         IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
                                         Map<String, float[]> fieldLength){
+        Vector column = ngramColumn(index, feature, idTranslator, matchScoreType, docFilter, fieldLength,
+                dataSet.getNumDataPoints());
+        setColumn(dataSet, feature.getIndex(), column);
+    }
+
+    private static Vector ngramColumn(ESIndex index, Ngram feature,
+                                      IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
+                                      Map<String, float[]> fieldLength, int numDataPoints){
+        Vector column = new RandomAccessSparseVector(numDataPoints);
         switch (matchScoreType){
             case ES_ORIGINAL:
-                loadNgramFeatureOriginal(index, dataSet, feature, idTranslator, docFilter);
+                loadNgramFeatureOriginal(index, column, feature, idTranslator, docFilter);
                 break;
             case BINARY:
-                loadNgramFeatureBinary(index, dataSet, feature, idTranslator, docFilter);
+                loadNgramFeatureBinary(index, column, feature, idTranslator, docFilter);
                 break;
             case FREQUENCY:
-                loadNgramFeatureFrequency(index, dataSet, feature, idTranslator, docFilter);
+                loadNgramFeatureFrequency(index, column, feature, idTranslator, docFilter);
                 break;
             case TFIFL:
-                loadNgramFeatureTFIFL(index, dataSet, feature, idTranslator, docFilter, fieldLength);
+                loadNgramFeatureTFIFL(index, column, feature, idTranslator, docFilter, fieldLength);
         }
+        return column;
     }
 
 
-    private static void loadNgramFeatureOriginal(ESIndex index, DataSet dataSet, Ngram feature,
+    private static void loadNgramFeatureOriginal(ESIndex index, Vector column, Ngram feature,
                                                  IdTranslator idTranslator, String docFilter){
-        int featureIndex = feature.getIndex();
         SearchResponse response = index.spanNear(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit hit: hits){
             String indexId = hit.getId();
             float score = hit.getScore();
             int algorithmId = idTranslator.toIntId(indexId);
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            column.set(algorithmId,score);
         }
     }
 
-    private static void loadNgramFeatureFrequency(ESIndex index, DataSet dataSet, Ngram feature,
+    private static void loadNgramFeatureFrequency(ESIndex index, Vector column, Ngram feature,
                                                   IdTranslator idTranslator, String docFilter){
-        int featureIndex = feature.getIndex();
         SearchResponse response = index.spanNearFrequency(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit hit: hits){
             String indexId = hit.getId();
             float score = hit.getScore();
             int algorithmId = idTranslator.toIntId(indexId);
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            column.set(algorithmId,score);
         }
     }
 
     // term frequency inverse field length
     // field storing the length of the body field should be called body_field_length
     // todo avoid repeated retrieval of the same field length
-    private static void loadNgramFeatureTFIFL(ESIndex index, DataSet dataSet, Ngram feature,
+    private static void loadNgramFeatureTFIFL(ESIndex index, Vector column, Ngram feature,
                                               IdTranslator idTranslator, String docFilter,
                                               Map<String, float[]> fieldLength){
-        int featureIndex = feature.getIndex();
         SearchResponse response = index.spanNearFrequency(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         String field = feature.getField();
@@ -131,13 +264,19 @@ public class FeatureLoader {
             float docLength = fieldLength.get(field)[algorithmId];
             double s = score/docLength;
 
-            dataSet.setFeatureValue(algorithmId,featureIndex,s);
+            column.set(algorithmId,s);
         }
     }
 
     public static void loadNgramFeatureBinary(ESIndex index, DataSet dataSet, Ngram feature,
                                               IdTranslator idTranslator, String docFilter){
-        int featureIndex = feature.getIndex();
+        Vector column = new RandomAccessSparseVector(dataSet.getNumDataPoints());
+        loadNgramFeatureBinary(index, column, feature, idTranslator, docFilter);
+        setColumn(dataSet, feature.getIndex(), column);
+    }
+
+    private static void loadNgramFeatureBinary(ESIndex index, Vector column, Ngram feature,
+                                               IdTranslator idTranslator, String docFilter){
         SearchResponse response = index.spanNear(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit hit: hits){
@@ -147,7 +286,7 @@ public class FeatureLoader {
             if (score>0){
                 score=1;
             }
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            column.set(algorithmId,score);
         }
     }
 
@@ -184,25 +323,31 @@ public class FeatureLoader {
 
     public static void loadNumericalFeature(ESIndex index, DataSet dataSet, Feature feature,
                                               IdTranslator idTranslator){
+        Vector column = numericalColumn(index, feature, idTranslator, dataSet.getNumDataPoints());
+        setColumn(dataSet, feature.getIndex(), column);
+    }
+
+    private static Vector numericalColumn(ESIndex index, Feature feature,
+                                          IdTranslator idTranslator, int numDataPoints){
         String[] dataIndexIds = idTranslator.getAllExtIds();
         String variableName = feature.getName();
-        int featureIndex = feature.getIndex();
+        Vector column = new RandomAccessSparseVector(numDataPoints);
         String source = feature.getSettings().get("source");
         if (source.equals("field")){
             Arrays.stream(dataIndexIds).forEach(id -> {
                 int algorithmId = idTranslator.toIntId(id);
                 //may return NaN
                 double value = index.getFloatField(id,variableName);
-                dataSet.setFeatureValue(algorithmId, featureIndex, value);
+                column.set(algorithmId, value);
             });
         }
+        return column;
     }
 
 
-    private static void loadCodeDesFeature(ESIndex index, DataSet dataSet, Feature feature,
-                                           IdTranslator idTranslator, String docFilter){
-        String[] dataIndexIds = idTranslator.getAllExtIds();
-        int featureIndex = feature.getIndex();
+    private static Vector codeDesColumn(ESIndex index, Feature feature,
+                                        IdTranslator idTranslator, String docFilter, int numDataPoints){
+        Vector column = new RandomAccessSparseVector(numDataPoints);
         CodeDescription codeDescription = (CodeDescription)(feature);
         SearchResponse response = index.minimumShouldMatch(codeDescription.getDescription(), codeDescription.getField(), codeDescription.getPercentage(), idTranslator.numData(), docFilter);
         SearchHit[] hits = response.getHits().getHits();
@@ -210,9 +355,18 @@ public class FeatureLoader {
             String indexId = hit.getId();
             float score = hit.getScore();
             int algorithmId = idTranslator.toIntId(indexId);
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            column.set(algorithmId,score);
         }
+        return column;
+    }
 
+    /**
+     * copy the non-zeros of the column into the data set
+     */
+    private static void setColumn(DataSet dataSet, int featureIndex, Vector column){
+        for (Vector.Element element: column.nonZeroes()){
+            dataSet.setFeatureValue(element.index(), featureIndex, element.get());
+        }
     }
 
 
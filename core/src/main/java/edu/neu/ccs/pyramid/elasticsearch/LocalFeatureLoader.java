@@ -0,0 +1,393 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import edu.neu.ccs.pyramid.dataset.ColumnBuffer;
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.IdTranslator;
+import edu.neu.ccs.pyramid.esplugins.CustomSpanTermQuery;
+import edu.neu.ccs.pyramid.esplugins.PhraseCountQuery;
+import edu.neu.ccs.pyramid.feature.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.apache.mahout.math.list.DoubleArrayList;
+import org.apache.mahout.math.list.IntArrayList;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * loads features from a Lucene snapshot of the index, without round trips to the elasticsearch cluster
+ * the snapshot is given by the Lucene folders of the shards, e.g. nodes/0/indices/{index uuid}/{shard}/index
+ * all features are evaluated in one pass: segments of all shards are processed in parallel,
+ * and within a segment each feature walks its postings once;
+ * values follow {@link FeatureLoader}, using the default similarity of Lucene (BM25) as elasticsearch does
+ * documents not in the id translator are skipped; this replaces the doc filter of {@link FeatureLoader},
+ * assuming the id translator was built from the same filter
+ * the snapshot does not hold the mapping, so the text that elasticsearch analyzes (single-term ngrams as match_phrase,
+ * code description terms as match) is analyzed with the analyzer set for the field,
+ * by default the standard analyzer of elasticsearch; other terms are used as given, as in the cluster queries
+ */
+public class LocalFeatureLoader implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+    /**
+     * number of features evaluated by one task on one segment
+     */
+    private static final int FEATURE_BLOCK_SIZE = 1024;
+    private static final String SOURCE_FIELD = "_source";
+    private static final String UID_FIELD = "_uid";
+
+    private List<DirectoryReader> readers;
+    private List<IndexSearcher> searchers;
+    /**
+     * stored field holding the document id; elasticsearch stores type#id in _uid
+     */
+    private String idField = UID_FIELD;
+    /**
+     * elasticsearch's default analyzer: standard, without stop words
+     */
+    private Analyzer defaultAnalyzer = new StandardAnalyzer(CharArraySet.EMPTY_SET);
+    private Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
+
+    public LocalFeatureLoader(List<File> shardFolders) throws IOException {
+        if (shardFolders.isEmpty()){
+            throw new IllegalArgumentException("no shard is given");
+        }
+        this.readers = new ArrayList<>();
+        this.searchers = new ArrayList<>();
+        for (File shardFolder: shardFolders){
+            DirectoryReader reader = DirectoryReader.open(FSDirectory.open(shardFolder.toPath()));
+            readers.add(reader);
+            searchers.add(new IndexSearcher(reader));
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug("opened "+shardFolders.size()+" shards with "+getNumDocs()+" documents");
+        }
+    }
+
+    public void setIdField(String idField) {
+        this.idField = idField;
+    }
+
+    /**
+     * the search analyzer of the field in the mapping, when it is not the standard analyzer
+     */
+    public void setAnalyzer(String field, Analyzer analyzer) {
+        fieldAnalyzers.put(field, analyzer);
+    }
+
+    public int getNumDocs(){
+        return readers.stream().mapToInt(IndexReader::numDocs).sum();
+    }
+
+    /**
+     * see {@link FeatureLoader#loadFeatures}
+     * @param fieldLength only used for {@link FeatureLoader.MatchScoreType#TFIFL}, field to lengths by data point
+     */
+    public void loadFeatures(DataSet dataSet, FeatureList features, IdTranslator idTranslator,
+                             FeatureLoader.MatchScoreType matchScoreType, Map<String, float[]> fieldLength){
+        int numFeatures = features.size();
+        List<Segment> segments = segments(idTranslator);
+        List<Weight[]> weights = new ArrayList<>();
+        for (IndexSearcher searcher: searchers){
+            weights.add(weights(searcher, features, matchScoreType));
+        }
+        List<Feature> fieldFeatures = new ArrayList<>();
+        for (Feature feature: features.getAll()){
+            if (isFieldFeature(feature)){
+                fieldFeatures.add(feature);
+            }
+        }
+
+        ColumnBuffer columnBuffer = new ColumnBuffer(dataSet.getNumDataPoints(), dataSet.getNumFeatures());
+        int numBlocks = (numFeatures+FEATURE_BLOCK_SIZE-1)/FEATURE_BLOCK_SIZE;
+        IntStream.range(0, segments.size()*numBlocks).parallel().forEach(task -> {
+            Segment segment = segments.get(task/numBlocks);
+            int block = task%numBlocks;
+            Weight[] shardWeights = weights.get(segment.shard);
+            int from = block*FEATURE_BLOCK_SIZE;
+            int to = Math.min(numFeatures, from+FEATURE_BLOCK_SIZE);
+            IntArrayList dataPointIndices = new IntArrayList();
+            DoubleArrayList values = new DoubleArrayList();
+            try {
+                for (int j=from;j<to;j++){
+                    if (shardWeights[j]==null){
+                        continue;
+                    }
+                    Feature feature = features.get(j);
+                    dataPointIndices.clear();
+                    values.clear();
+                    collect(shardWeights[j], segment, feature, matchScoreType, fieldLength, dataPointIndices, values);
+                    if (!dataPointIndices.isEmpty()){
+                        columnBuffer.addEntries(feature.getIndex(), dataPointIndices, values);
+                    }
+                }
+                if (block==0 && !fieldFeatures.isEmpty()){
+                    collectFields(segment, fieldFeatures, columnBuffer);
+                }
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+        columnBuffer.fill(dataSet);
+    }
+
+    /**
+     * value of a numerical field by data point, NaN if missing; see {@link ESIndex#getFloatField}
+     */
+    public float[] loadFloatField(IdTranslator idTranslator, String field){
+        float[] values = new float[idTranslator.numData()];
+        Arrays.fill(values, Float.NaN);
+        segments(idTranslator).parallelStream().forEach(segment -> {
+            LeafReader reader = segment.context.reader();
+            try {
+                for (int doc=0;doc<segment.dataPointIndices.length;doc++){
+                    int dataPointIndex = segment.dataPointIndices[doc];
+                    if (dataPointIndex>=0){
+                        Object value = source(reader, doc).get(field);
+                        if (value!=null){
+                            values[dataPointIndex] = Float.parseFloat(value.toString());
+                        }
+                    }
+                }
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DirectoryReader reader: readers){
+            reader.close();
+        }
+        defaultAnalyzer.close();
+    }
+
+    //========================== PRIVATE ============================
+
+    /**
+     * a segment of a shard with the data point index of each document, -1 for deleted or filtered out documents
+     */
+    private static class Segment {
+        private int shard;
+        private LeafReaderContext context;
+        private int[] dataPointIndices;
+    }
+
+    private List<Segment> segments(IdTranslator idTranslator){
+        List<Segment> segments = new ArrayList<>();
+        for (int s=0;s<readers.size();s++){
+            for (LeafReaderContext context: readers.get(s).leaves()){
+                Segment segment = new Segment();
+                segment.shard = s;
+                segment.context = context;
+                segments.add(segment);
+            }
+        }
+        Set<String> fieldsToLoad = Collections.singleton(idField);
+        segments.parallelStream().forEach(segment -> {
+            LeafReader reader = segment.context.reader();
+            Bits liveDocs = reader.getLiveDocs();
+            int[] dataPointIndices = new int[reader.maxDoc()];
+            Arrays.fill(dataPointIndices, -1);
+            try {
+                for (int doc=0;doc<reader.maxDoc();doc++){
+                    if (liveDocs!=null && !liveDocs.get(doc)){
+                        continue;
+                    }
+                    String id = reader.document(doc, fieldsToLoad).get(idField);
+                    if (id==null){
+                        continue;
+                    }
+                    if (idField.equals(UID_FIELD)){
+                        id = id.substring(id.indexOf('#')+1);
+                    }
+                    if (idTranslator.containsExtId(id)){
+                        dataPointIndices[doc] = idTranslator.toIntId(id);
+                    }
+                }
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+            segment.dataPointIndices = dataPointIndices;
+        });
+        return segments;
+    }
+
+    /**
+     * one weight per feature; null for features read from fields
+     */
+    private Weight[] weights(IndexSearcher searcher, FeatureList features,
+                                    FeatureLoader.MatchScoreType matchScoreType){
+        Weight[] weights = new Weight[features.size()];
+        IntStream.range(0, features.size()).parallel().forEach(j -> {
+            Feature feature = features.get(j);
+            Query query = query(feature, matchScoreType);
+            if (query!=null){
+                boolean needsScores = !(feature instanceof CategoricalFeature)
+                        && !(feature instanceof Ngram && matchScoreType==FeatureLoader.MatchScoreType.BINARY);
+                try {
+                    weights[j] = searcher.createNormalizedWeight(query, needsScores);
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        return weights;
+    }
+
+    /**
+     * the Lucene query behind the elasticsearch query used by {@link FeatureLoader}
+     */
+    private Query query(Feature feature, FeatureLoader.MatchScoreType matchScoreType){
+        if (feature instanceof CategoricalFeature){
+            CategoricalFeature categoricalFeature = (CategoricalFeature) feature;
+            return new TermQuery(new Term(categoricalFeature.getVariableName(), categoricalFeature.getCategory()));
+        }
+        if (feature instanceof Ngram){
+            Ngram ngram = (Ngram) feature;
+            String[] terms = ngram.getTerms();
+            if (terms.length==0){
+                throw new IllegalArgumentException("no terms for span");
+            }
+            String field = ngram.getField();
+            if (matchScoreType==FeatureLoader.MatchScoreType.FREQUENCY || matchScoreType==FeatureLoader.MatchScoreType.TFIFL){
+                // the plugin query builder splits on whitespace and lowercases
+                List<CustomSpanTermQuery> clauses = new ArrayList<>();
+                for (String term: String.join(" ", terms).trim().split("\\s+")){
+                    clauses.add(new CustomSpanTermQuery(new Term(field, term.toLowerCase(Locale.ROOT))));
+                }
+                return new PhraseCountQuery(clauses.toArray(new CustomSpanTermQuery[clauses.size()]), ngram.getSlop(),
+                        ngram.isInOrder(), false);
+            }
+            if (terms.length==1){
+                // match_phrase
+                Query query = new QueryBuilder(analyzer(field)).createPhraseQuery(field, terms[0], ngram.getSlop());
+                return query==null ? new MatchNoDocsQuery() : query;
+            }
+            SpanQuery[] clauses = new SpanQuery[terms.length];
+            for (int i=0;i<terms.length;i++){
+                clauses[i] = new SpanTermQuery(new Term(field, terms[i]));
+            }
+            return new SpanNearQuery(clauses, ngram.getSlop(), ngram.isInOrder());
+        }
+        if (feature instanceof CodeDescription){
+            CodeDescription codeDescription = (CodeDescription) feature;
+            List<String> terms = codeDescription.getDescription();
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            QueryBuilder matchBuilder = new QueryBuilder(analyzer(codeDescription.getField()));
+            for (String term: terms){
+                // match with the default or operator
+                Query match = matchBuilder.createBooleanQuery(codeDescription.getField(), term);
+                builder.add(new ConstantScoreQuery(match==null ? new MatchNoDocsQuery() : match),
+                        BooleanClause.Occur.SHOULD);
+            }
+            // same rounding as the percentage of minimum_should_match
+            builder.setMinimumNumberShouldMatch(codeDescription.getPercentage()*terms.size()/100);
+            return builder.build();
+        }
+        return null;
+    }
+
+    private Analyzer analyzer(String field){
+        return fieldAnalyzers.getOrDefault(field, defaultAnalyzer);
+    }
+
+    private static boolean isFieldFeature(Feature feature){
+        return !(feature instanceof CategoricalFeature) && !(feature instanceof Ngram)
+                && !(feature instanceof CodeDescription) && "field".equals(feature.getSettings().get("source"));
+    }
+
+    private static void collect(Weight weight, Segment segment, Feature feature,
+                                FeatureLoader.MatchScoreType matchScoreType, Map<String, float[]> fieldLength,
+                                IntArrayList dataPointIndices, DoubleArrayList values) throws IOException {
+        Scorer scorer = weight.scorer(segment.context);
+        if (scorer==null){
+            return;
+        }
+        DocIdSetIterator iterator = scorer.iterator();
+        for (int doc=iterator.nextDoc();doc!=DocIdSetIterator.NO_MORE_DOCS;doc=iterator.nextDoc()){
+            int dataPointIndex = segment.dataPointIndices[doc];
+            if (dataPointIndex<0){
+                continue;
+            }
+            double value;
+            if (feature instanceof CategoricalFeature){
+                value = 1;
+            } else if (feature instanceof Ngram){
+                switch (matchScoreType){
+                    case BINARY:
+                        value = 1;
+                        break;
+                    case TFIFL:
+                        value = scorer.score()/fieldLength.get(((Ngram) feature).getField())[dataPointIndex];
+                        break;
+                    default:
+                        value = scorer.score();
+                }
+            } else {
+                value = scorer.score();
+            }
+            dataPointIndices.add(dataPointIndex);
+            values.add(value);
+        }
+    }
+
+    /**
+     * numerical features read from the source, one source parse per document; missing values are NaN
+     */
+    private static void collectFields(Segment segment, List<Feature> fieldFeatures, ColumnBuffer columnBuffer) throws IOException {
+        LeafReader reader = segment.context.reader();
+        for (int doc=0;doc<segment.dataPointIndices.length;doc++){
+            int dataPointIndex = segment.dataPointIndices[doc];
+            if (dataPointIndex<0){
+                continue;
+            }
+            Map<String, Object> source = source(reader, doc);
+            for (Feature feature: fieldFeatures){
+                Object value = source.get(feature.getName());
+                double featureValue = value==null ? Double.NaN : Float.parseFloat(value.toString());
+                columnBuffer.setFeatureValue(dataPointIndex, feature.getIndex(), featureValue);
+            }
+        }
+    }
+
+    private static Map<String, Object> source(LeafReader reader, int doc) throws IOException {
+        Document document = reader.document(doc, Collections.singleton(SOURCE_FIELD));
+        BytesRef bytes = document.getBinaryValue(SOURCE_FIELD);
+        if (bytes==null){
+            return Collections.emptyMap();
+        }
+        // the source keeps the content type it was indexed with
+        XContentType contentType = XContentFactory.xContentType(bytes.bytes, bytes.offset, bytes.length);
+        if (contentType==null){
+            throw new IOException("unknown content type of the source of doc "+doc);
+        }
+        return XContentHelper.convertToMap(new BytesArray(bytes.bytes, bytes.offset, bytes.length), false, contentType).v2();
+    }
+}
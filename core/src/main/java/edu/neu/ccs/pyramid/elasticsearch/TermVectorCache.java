@@ -0,0 +1,129 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.neu.ccs.pyramid.util.TermDictionary;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * concurrent cache for term vectors, bounded by the bytes the term vectors take rather than by the number of documents
+ * terms are interned to ids shared by all documents and fields;
+ * a cached term vector is an int array of (position, term id) pairs sorted by position
+ * the term dictionary counts against the same budget: it may take up to a quarter of it,
+ * and once it outgrows that share, the dictionary and all cached term vectors are dropped together
+ * a cache of 0 bytes keeps nothing
+ */
+class TermVectorCache {
+    /**
+     * rough size of a cache entry besides its arrays: key object, array headers and the cache node
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+    private final long maxVectorBytes;
+    private final long maxDictionaryBytes;
+    private volatile Generation generation;
+
+    TermVectorCache(long maxBytes) {
+        this.maxDictionaryBytes = maxBytes/4;
+        this.maxVectorBytes = maxBytes-maxDictionaryBytes;
+        this.generation = new Generation(maxVectorBytes);
+    }
+
+    /**
+     *
+     * @return position to term, or null if the document is not cached
+     */
+    Map<Integer,String> get(String field, String id){
+        if (maxVectorBytes==0){
+            return null;
+        }
+        Generation current = generation;
+        int[] termVector = current.cache.getIfPresent(key(field, id));
+        if (termVector==null){
+            return null;
+        }
+        return decode(current.dictionary, termVector);
+    }
+
+    void put(String field, String id, Map<Integer,String> termVector){
+        if (maxVectorBytes==0){
+            return;
+        }
+        Generation current = generation;
+        current.cache.put(key(field, id), encode(current.dictionary, termVector));
+        if (current.dictionary.getNumBytes()>maxDictionaryBytes){
+            synchronized (this){
+                if (generation==current){
+                    generation = new Generation(maxVectorBytes);
+                }
+            }
+        }
+    }
+
+    long size(){
+        return generation.cache.size();
+    }
+
+    /**
+     *
+     * @return estimated bytes taken by the cached term vectors and the term dictionary
+     */
+    long getNumBytes(){
+        Generation current = generation;
+        long bytes = current.dictionary.getNumBytes();
+        for (Map.Entry<String,int[]> entry: current.cache.asMap().entrySet()){
+            bytes += weight(entry.getKey(), entry.getValue());
+        }
+        return bytes;
+    }
+
+    int getNumTerms(){
+        return generation.dictionary.size();
+    }
+
+    int[] encode(Map<Integer,String> termVector){
+        return encode(generation.dictionary, termVector);
+    }
+
+    private static int[] encode(TermDictionary dictionary, Map<Integer,String> termVector){
+        int[] positions = termVector.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int[] encoded = new int[2*positions.length];
+        for (int i=0;i<positions.length;i++){
+            encoded[2*i] = positions[i];
+            encoded[2*i+1] = dictionary.intern(termVector.get(positions[i]));
+        }
+        return encoded;
+    }
+
+    private static Map<Integer,String> decode(TermDictionary dictionary, int[] termVector){
+        Map<Integer,String> map = new HashMap<>();
+        for (int i=0;i<termVector.length;i+=2){
+            map.put(termVector[i], dictionary.getTerm(termVector[i+1]));
+        }
+        return map;
+    }
+
+    private static String key(String field, String id){
+        return field+'\u0000'+id;
+    }
+
+    private static int weight(String key, int[] termVector){
+        return ENTRY_OVERHEAD+2*key.length()+4*termVector.length;
+    }
+
+    /**
+     * a dictionary and the term vectors encoded with it, replaced as a unit
+     */
+    private static class Generation {
+        private final TermDictionary dictionary = new TermDictionary();
+        private final Cache<String,int[]> cache;
+
+        Generation(long maxBytes) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher((String key, int[] termVector) -> weight(key, termVector))
+                    .build();
+        }
+    }
+}
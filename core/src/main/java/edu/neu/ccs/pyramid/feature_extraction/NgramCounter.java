@@ -0,0 +1,203 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import edu.neu.ccs.pyramid.util.CountMinSketch;
+import edu.neu.ccs.pyramid.util.TermDictionary;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * document frequencies of ngrams over a stream of term vectors
+ * terms are interned to ids and an ngram of at most MAX_N terms is packed into a long;
+ * each thread counts into its own primitive hash map, and the maps are merged when the counts are read
+ *
+ * with a count-min sketch, a first pass over the documents fills the sketch, and the counting pass
+ * skips ngrams whose estimated document frequency is below minDf;
+ * the sketch never underestimates, so the ngrams that survive still get exact counts
+ */
+public class NgramCounter {
+    public static final int MAX_N = 3;
+    private static final int BITS_PER_TERM = 21;
+    /**
+     * ids are stored shifted by one so that no term is packed as 0
+     */
+    private static final int MAX_NUM_TERMS = (1<<BITS_PER_TERM)-1;
+    private final TermDictionary dictionary = new TermDictionary();
+    private final int[][] positionTemplates;
+    private final boolean splitAtGaps;
+    private final Map<Thread,OpenLongIntHashMap> shards = new ConcurrentHashMap<>();
+    private CountMinSketch sketch;
+    private int minDf;
+
+    /**
+     *
+     * @param positionTemplates relative positions of the terms of an ngram, starting from 0
+     * @param splitAtGaps if true, ngrams do not cross positions missing from the term vector (e.g. removed stop words);
+     *                    if false, the terms are used in position order as one sequence
+     */
+    public NgramCounter(List<List<Integer>> positionTemplates, boolean splitAtGaps) {
+        this.positionTemplates = new int[positionTemplates.size()][];
+        for (int t=0;t<positionTemplates.size();t++){
+            List<Integer> template = positionTemplates.get(t);
+            if (template.size()>MAX_N){
+                throw new IllegalArgumentException("ngrams longer than "+MAX_N+" cannot be packed into longs");
+            }
+            this.positionTemplates[t] = template.stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.splitAtGaps = splitAtGaps;
+    }
+
+    /**
+     * contiguous ngrams of length n
+     */
+    public NgramCounter(int n) {
+        this(contiguous(n), true);
+    }
+
+    /**
+     * ngrams estimated below minDf by the sketch are not counted
+     * the sketch is filled by calling sketch on all documents before calling count
+     */
+    public void setSketch(CountMinSketch sketch, int minDf) {
+        this.sketch = sketch;
+        this.minDf = minDf;
+    }
+
+    /**
+     * first pass; each ngram is added once per document
+     */
+    public void sketch(Map<Integer,String> termVector){
+        if (sketch==null){
+            throw new IllegalStateException("no sketch is set");
+        }
+        for (long key: keys(termVector)){
+            sketch.add(key);
+        }
+    }
+
+    /**
+     * each ngram is counted once per document
+     */
+    public void count(Map<Integer,String> termVector){
+        OpenLongIntHashMap shard = shards.computeIfAbsent(Thread.currentThread(), thread -> new OpenLongIntHashMap());
+        for (long key: keys(termVector)){
+            if (sketch==null || sketch.estimate(key)>=minDf){
+                shard.adjustOrPutValue(key, 1, 1);
+            }
+        }
+    }
+
+    /**
+     * should be called after all counting is done
+     * @return ngram string (terms separated by space) to document frequency, for ngrams with document frequency >= minDf
+     */
+    public Map<String,Integer> getCounts(int minDf){
+        List<OpenLongIntHashMap> maps = new ArrayList<>(shards.values());
+        Map<String,Integer> counts = new HashMap<>();
+        if (maps.isEmpty()){
+            return counts;
+        }
+        OpenLongIntHashMap merged = maps.get(0);
+        for (int s=1;s<maps.size();s++){
+            OpenLongIntHashMap shard = maps.get(s);
+            shard.forEachPair((key, count) -> {
+                merged.adjustOrPutValue(key, count, count);
+                return true;
+            });
+            shard.clear();
+        }
+        merged.forEachPair((key, count) -> {
+            if (count>=minDf){
+                counts.put(toNgram(key), count);
+            }
+            return true;
+        });
+        shards.clear();
+        return counts;
+    }
+
+    public int getNumTerms(){
+        return dictionary.size();
+    }
+
+    /**
+     * distinct packed ngrams of one document
+     */
+    long[] keys(Map<Integer,String> termVector){
+        int[] positions = termVector.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int[] termIds = new int[positions.length];
+        for (int i=0;i<positions.length;i++){
+            termIds[i] = intern(termVector.get(positions[i]));
+        }
+        LongArrayList keys = new LongArrayList();
+        int start = 0;
+        for (int i=1;i<=positions.length;i++){
+            if (i==positions.length || (splitAtGaps && positions[i]!=positions[i-1]+1)){
+                addKeys(termIds, start, i, keys);
+                start = i;
+            }
+        }
+        long[] sorted = Arrays.copyOf(keys.elements(), keys.size());
+        Arrays.sort(sorted);
+        int numDistinct = 0;
+        for (int i=0;i<sorted.length;i++){
+            if (i==0 || sorted[i]!=sorted[i-1]){
+                sorted[numDistinct] = sorted[i];
+                numDistinct += 1;
+            }
+        }
+        return Arrays.copyOf(sorted, numDistinct);
+    }
+
+    /**
+     *
+     * @param start inclusive
+     * @param end exclusive
+     */
+    private void addKeys(int[] termIds, int start, int end, LongArrayList keys){
+        for (int i=start;i<end;i++){
+            for (int[] template: positionTemplates){
+                if (i+template[template.length-1]<end){
+                    long key = 0;
+                    for (int offset: template){
+                        key = (key<<BITS_PER_TERM) | (termIds[i+offset]+1);
+                    }
+                    keys.add(key);
+                }
+            }
+        }
+    }
+
+    String toNgram(long key){
+        List<String> terms = new ArrayList<>(MAX_N);
+        while (key!=0){
+            terms.add(0, dictionary.getTerm((int)(key & MAX_NUM_TERMS)-1));
+            key >>>= BITS_PER_TERM;
+        }
+        return String.join(" ", terms);
+    }
+
+    private int intern(String term){
+        int termId = dictionary.intern(term);
+        if (termId>=MAX_NUM_TERMS){
+            throw new RuntimeException("more than "+MAX_NUM_TERMS+" distinct terms; ngrams cannot be packed into longs");
+        }
+        return termId;
+    }
+
+    private static List<List<Integer>> contiguous(int n){
+        List<Integer> template = new ArrayList<>();
+        for (int i=0;i<n;i++){
+            template.add(i);
+        }
+        List<List<Integer>> templates = new ArrayList<>();
+        templates.add(template);
+        return templates;
+    }
+}
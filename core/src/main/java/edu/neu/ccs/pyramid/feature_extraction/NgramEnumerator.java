@@ -4,9 +4,15 @@ import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.Multiset;
 import edu.neu.ccs.pyramid.elasticsearch.ESIndex;
 import edu.neu.ccs.pyramid.feature.Ngram;
+import edu.neu.ccs.pyramid.util.CountMinSketch;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -14,24 +20,67 @@ import java.util.stream.Collectors;
  * Created by chengli on 1/15/15.
  */
 public class NgramEnumerator {
+    private static final int SKETCH_DEPTH = 4;
+    /**
+     * fetches the next chunk of term vectors in the background; threads are reused across calls
+     */
+    private static final ExecutorService FETCHER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "term-vector-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template){
         Multiset<Ngram> multiset = ConcurrentHashMultiset.create();
         String field = template.getField();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            Map<Integer,String> termVector = index.getTermVectorFromIndex(field, id);
-            add(termVector,multiset,template);
-        });
+        forEachTermVector(index, field, ids, termVector -> add(termVector,multiset,template));
         return multiset;
     }
 
+    /**
+     * an ngram is counted once per document for each position template that produces it,
+     * so with slop > 0 the count can be higher than the document frequency
+     */
     public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template, int minDF){
         Multiset<Ngram> multiset = ConcurrentHashMultiset.create();
         String field = template.getField();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            Map<Integer,String> termVector = index.getTermVectorFromIndex(field, id);
-            add(termVector,multiset,template);
-        });
+        forEachTermVector(index, field, ids, termVector -> add(termVector,multiset,template));
+        return filter(multiset, minDF);
+    }
+
+    /**
+     * ngrams up to NgramCounter.MAX_N terms are counted as packed term ids; each ngram is counted once per document
+     * across all position templates of the template, so the count is a true document frequency.
+     * Longer ngrams are counted as in {@link #gatherNgram(ESIndex, String[], NgramTemplate, int)},
+     * once per document for each position template that produces it
+     * @param sketchWidth if positive, a count-min sketch of this width prunes ngrams below minDF before exact counting;
+     *                    the sketch needs its own pass, so every term vector is fetched twice unless the term vector cache
+     *                    of the index holds them (see ESIndex.Builder#setTermVectorCacheBytes);
+     *                    0 means no pruning and a single pass
+     */
+    public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template, int minDF, int sketchWidth){
+        if (template.getN()<=NgramCounter.MAX_N){
+            NgramCounter counter = new NgramCounter(template.getPositionTemplate(), false);
+            Map<String,Integer> counts = count(index, template.getField(), ids, counter, minDF, sketchWidth);
+            Multiset<Ngram> filtered = ConcurrentHashMultiset.create();
+            for (Map.Entry<String,Integer> entry: counts.entrySet()){
+                Ngram ngram = new Ngram();
+                ngram.setNgram(entry.getKey());
+                ngram.setSlop(template.getSlop());
+                ngram.setField(template.getField());
+                ngram.setInOrder(true);
+                filtered.add(ngram,entry.getValue());
+            }
+            return filtered;
+        }
+
+        Multiset<Ngram> multiset = ConcurrentHashMultiset.create();
+        String field = template.getField();
+        forEachTermVector(index, field, ids, termVector -> add(termVector,multiset,template));
+        return filter(multiset, minDF);
+    }
+
+    private static Multiset<Ngram> filter(Multiset<Ngram> multiset, int minDF){
         Multiset<Ngram> filtered = ConcurrentHashMultiset.create();
         for (Multiset.Entry entry: multiset.entrySet()){
             Ngram ngram = (Ngram)entry.getElement();
@@ -54,16 +103,29 @@ public class NgramEnumerator {
      */
     public static List<String> gatherNgrams(ESIndex index,String field,
                                      String[] ids, int n, int minDf) throws Exception{
+        return gatherNgrams(index, field, ids, n, minDf, 0);
+    }
+
+    /**
+     * gather ngrams with document frequency >= threshold
+     * ngrams up to NgramCounter.MAX_N terms are counted as packed term ids
+     * @param sketchWidth if positive, a count-min sketch of this width prunes ngrams below minDf before exact counting;
+     *                    every term vector is then fetched twice unless the term vector cache of the index holds them;
+     *                    0 means no pruning and a single pass
+     */
+    public static List<String> gatherNgrams(ESIndex index,String field,
+                                     String[] ids, int n, int minDf, int sketchWidth) throws Exception{
+        if (n<=NgramCounter.MAX_N){
+            NgramCounter counter = new NgramCounter(n);
+            return new ArrayList<>(count(index, field, ids, counter, minDf, sketchWidth).keySet());
+        }
+
         Map<String,Integer> counts = new ConcurrentHashMap<>();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            Map<Integer,String> termVector = index.getTermVectorFromIndex(field, id);
+        forEachTermVector(index, field, ids, termVector -> {
             Map<String, Integer> localCount = NgramEnumerator.getNgramCounts(termVector,n);
-            for (Map.Entry<String, Integer> entry: localCount.entrySet()){
-                String ngram = entry.getKey();
-                int oldCount = counts.getOrDefault(ngram,0);
+            for (String ngram: localCount.keySet()){
                 //document count += 1
-                int newCount = oldCount + 1;
-                counts.put(ngram,newCount);
+                counts.merge(ngram,1,Integer::sum);
             }
         });
         return counts.entrySet().parallelStream().filter(entry -> entry.getValue()>=minDf)
@@ -71,6 +133,43 @@ public class NgramEnumerator {
 
     }
 
+    private static Map<String,Integer> count(ESIndex index, String field, String[] ids, NgramCounter counter,
+                                             int minDf, int sketchWidth){
+        if (sketchWidth>0){
+            counter.setSketch(new CountMinSketch(sketchWidth, SKETCH_DEPTH), minDf);
+            forEachTermVector(index, field, ids, counter::sketch);
+        }
+        forEachTermVector(index, field, ids, counter::count);
+        return counter.getCounts(minDf);
+    }
+
+    /**
+     * term vectors are fetched in chunks with batched requests, and the next chunk is fetched
+     * while the term vectors of the current chunk are processed in parallel
+     */
+    private static void forEachTermVector(ESIndex index, String field, String[] ids, Consumer<Map<Integer,String>> consumer){
+        List<String> idList = Arrays.asList(ids);
+        int chunkSize = index.getTermVectorBatchSize()*index.getMaxInFlightTermVectorRequests();
+        Future<Map<String,Map<Integer,String>>> next = FETCHER.submit(() ->
+                index.getTermVectors(field, idList.subList(0, Math.min(chunkSize, ids.length))));
+        try {
+            for (int start=0;start<ids.length;start+=chunkSize){
+                List<String> chunk = idList.subList(start, Math.min(start+chunkSize, ids.length));
+                Map<String,Map<Integer,String>> termVectors = next.get();
+                int nextStart = start+chunkSize;
+                if (nextStart<ids.length){
+                    next = FETCHER.submit(() ->
+                            index.getTermVectors(field, idList.subList(nextStart, Math.min(nextStart+chunkSize, ids.length))));
+                }
+                chunk.parallelStream().map(termVectors::get).forEach(consumer);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            next.cancel(true);
+        }
+    }
+
     /**
      * ngram counts in one doc
      * @param termVector
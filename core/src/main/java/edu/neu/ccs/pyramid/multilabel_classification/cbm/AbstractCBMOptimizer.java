@@ -4,7 +4,6 @@ import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
 import edu.neu.ccs.pyramid.clustering.bm.BM;
 import edu.neu.ccs.pyramid.clustering.bm.BMSelector;
 import edu.neu.ccs.pyramid.dataset.*;
-import edu.neu.ccs.pyramid.util.ArgMax;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import edu.neu.ccs.pyramid.util.Pair;
 import org.apache.commons.lang3.time.StopWatch;
@@ -12,8 +11,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.mahout.math.Vector;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -49,6 +48,17 @@ public abstract class AbstractCBMOptimizer {
 
     protected boolean parallelBinaryUpdates =true;
 
+    // every fullEStepInterval E steps, all components of all data points are re-evaluated;
+    // in between, each data point only re-evaluates its active components
+    // set interval = 1 to always re-evaluate all components
+    protected int fullEStepInterval = 1;
+
+    // components of each data point whose gammas are at least skipDataThreshold, plus its largest one
+    // format [#data][#active components]; null until the first full E step
+    private int[][] activeComponents;
+
+    private int numEStepsSinceRefresh;
+
     public AbstractCBMOptimizer(CBM cbm, MultiLabelClfDataSet dataSet) {
         this.cbm = cbm;
         this.dataSet = dataSet;
@@ -101,8 +111,16 @@ public abstract class AbstractCBMOptimizer {
         this.skipDataThreshold = skipDataThreshold;
     }
 
+    public void setFullEStepInterval(int fullEStepInterval) {
+        if (fullEStepInterval<1){
+            throw new IllegalArgumentException("fullEStepInterval must be at least 1");
+        }
+        this.fullEStepInterval = fullEStepInterval;
+    }
+
     public void initialize(){
         gammas = BMSelector.selectGammas(dataSet.getNumClasses(),dataSet.getMultiLabels(), cbm.getNumComponents());
+        activeComponents = null;
         if (logger.isDebugEnabled()){
             logger.debug("performing M step");
         }
@@ -122,6 +140,7 @@ public abstract class AbstractCBMOptimizer {
                 gammas[i][k] = value;
             }
         }
+        activeComponents = null;
         System.out.println("performing random M step");
         mStep();
     }
@@ -149,8 +168,65 @@ public abstract class AbstractCBMOptimizer {
 
 
     protected void updateGamma() {
-        IntStream.range(0, dataSet.getNumDataPoints()).parallel()
-                .forEach(this::updateGamma);
+        CBMPosteriorEngine engine = cbm.getPosteriorEngine();
+        int blockSize = engine.getBlockSize();
+        int numDataPoints = dataSet.getNumDataPoints();
+        int numBlocks = (numDataPoints+blockSize-1)/blockSize;
+        boolean full = activeComponents==null || numEStepsSinceRefresh+1>=fullEStepInterval;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*blockSize;
+            int toRow = Math.min(numDataPoints, fromRow+blockSize);
+            if (full){
+                engine.posteriorMembership(dataSet, fromRow, toRow, gammas);
+            } else {
+                engine.posteriorMembership(dataSet, fromRow, toRow, gammas, activeComponents);
+            }
+        });
+        if (full){
+            activeComponents = new int[numDataPoints][];
+            numEStepsSinceRefresh = 0;
+        } else {
+            numEStepsSinceRefresh += 1;
+        }
+        IntStream.range(0, numDataPoints).parallel().forEach(n -> updateActiveComponents(n, full));
+        if (logger.isDebugEnabled()){
+            long numActive = Arrays.stream(activeComponents).mapToLong(a->a.length).sum();
+            logger.debug((full ? "full" : "sparse")+" E step, average number of active components = "+((double) numActive/numDataPoints));
+        }
+    }
+
+    /**
+     * a component stays active if its gamma is at least skipDataThreshold; the largest one is always active
+     * after a sparse E step, inactive components cannot become active until the next full E step
+     */
+    private void updateActiveComponents(int n, boolean full){
+        double[] gamma = gammas[n];
+        int[] candidates = full ? null : activeComponents[n];
+        int numCandidates = full ? gamma.length : candidates.length;
+        int maxComponent = full ? 0 : candidates[0];
+        int count = 0;
+        for (int j=0;j<numCandidates;j++){
+            int k = full ? j : candidates[j];
+            if (gamma[k]>gamma[maxComponent]){
+                maxComponent = k;
+            }
+            if (gamma[k]>=skipDataThreshold){
+                count += 1;
+            }
+        }
+        if (gamma[maxComponent]<skipDataThreshold){
+            count += 1;
+        }
+        int[] active = new int[count];
+        int position = 0;
+        for (int j=0;j<numCandidates;j++){
+            int k = full ? j : candidates[j];
+            if (gamma[k]>=skipDataThreshold || k==maxComponent){
+                active[position] = k;
+                position += 1;
+            }
+        }
+        activeComponents[n] = active;
     }
 
     protected void updateGamma(int n) {
@@ -178,62 +254,77 @@ public abstract class AbstractCBMOptimizer {
         if (logger.isDebugEnabled()){
             logger.debug("start updateBinaryClassifiers");
         }
-        IntStream.range(0, cbm.numComponents).forEach(this::updateBinaryClassifiers);
+        ComponentRows[] componentRows = computeComponentRows();
+        IntStream.range(0, cbm.numComponents).forEach(k -> updateBinaryClassifiers(k, componentRows[k]));
         if (logger.isDebugEnabled()){
             logger.debug("finish updateBinaryClassifiers");
         }
     }
 
-    //todo pay attention to parallelism
-    protected void updateBinaryClassifiers(int component){
-
-        if (logger.isDebugEnabled()){
-            logger.debug("computing active dataset for component " +component);
+    /**
+     * data points of each component with gammas at least skipDataThreshold, plus the one with the largest gamma,
+     * collected in one pass over the rows of gammas
+     */
+    private ComponentRows[] computeComponentRows(){
+        int numComponents = cbm.numComponents;
+        int numDataPoints = dataSet.getNumDataPoints();
+        int[] counts = new int[numComponents];
+        int[] maxIndices = new int[numComponents];
+        double[] weightedTotals = new double[numComponents];
+        for (int i=0;i<numDataPoints;i++){
+            double[] gamma = gammas[i];
+            for (int k=0;k<numComponents;k++){
+                double v = gamma[k];
+                weightedTotals[k] += v;
+                if (v>= skipDataThreshold){
+                    counts[k] += 1;
+                }
+                if (v>gammas[maxIndices[k]][k]){
+                    maxIndices[k] = i;
+                }
+            }
         }
-
-        // skip small gammas
-        List<Double> activeGammasList = new ArrayList<>();
-        List<Integer> activeIndices = new ArrayList<>();
-        double[] gammasForComponent = IntStream.range(0, dataSet.getNumDataPoints()).mapToDouble(i->gammas[i][component]).toArray();
-        int maxIndex = ArgMax.argMax(gammasForComponent);
-
-        double weightedTotal = 0;
-        double thresholdedWeightedTotal = 0;
-        int counter = 0;
-        for (int i=0;i<dataSet.getNumDataPoints();i++){
-            double v = gammas[i][component];
-            weightedTotal += v;
-            if (v>= skipDataThreshold || i==maxIndex){
-                activeGammasList.add(v);
-                activeIndices.add(i);
-                thresholdedWeightedTotal += v;
-                counter += 1;
+        ComponentRows[] componentRows = new ComponentRows[numComponents];
+        for (int k=0;k<numComponents;k++){
+            int size = counts[k] + (gammas[maxIndices[k]][k]>=skipDataThreshold ? 0 : 1);
+            componentRows[k] = new ComponentRows(size, weightedTotals[k]);
+        }
+        for (int i=0;i<numDataPoints;i++){
+            double[] gamma = gammas[i];
+            for (int k=0;k<numComponents;k++){
+                if (gamma[k]>= skipDataThreshold || i==maxIndices[k]){
+                    componentRows[k].add(i, gamma[k]);
+                }
             }
         }
+        return componentRows;
+    }
 
-        //todo deal with empty components
-
-
+    //todo pay attention to parallelism
+    protected void updateBinaryClassifiers(int component){
+        updateBinaryClassifiers(component, computeComponentRows()[component]);
+    }
 
-        double[] activeGammas = activeGammasList.stream().mapToDouble(a->a).toArray();
+    private void updateBinaryClassifiers(int component, ComponentRows componentRows){
 
         if (logger.isDebugEnabled()){
-            logger.debug("number of active data  = "+ counter);
-            logger.debug("total weight  = "+weightedTotal);
-            logger.debug("total weight of active data  = "+thresholdedWeightedTotal);
-            logger.debug("creating active dataset");
+            logger.debug("computing active dataset for component " +component);
         }
 
+        //todo deal with empty components
+
+        MultiLabelClfDataSet activeDataSet = DataSetUtil.sampleData(dataSet,
+                Arrays.stream(componentRows.indices).boxed().collect(Collectors.toList()));
+        double[] activeGammas = componentRows.gammas;
 
-        MultiLabelClfDataSet activeDataSet = DataSetUtil.sampleData(dataSet, activeIndices);
-        int activeFeatures = (int) IntStream.range(0, activeDataSet.getNumFeatures()).filter(j->activeDataSet.getColumn(j).getNumNonZeroElements()>0).count();
         if (logger.isDebugEnabled()){
+            logger.debug("number of active data  = "+ componentRows.size);
+            logger.debug("total weight  = "+componentRows.weightedTotal);
+            logger.debug("total weight of active data  = "+Arrays.stream(componentRows.gammas).sum());
             logger.debug("active dataset created");
-            logger.debug("number of active features = "+activeFeatures);
         }
 
-        // to please lambda
-        final double totalWeight = weightedTotal;
+        final double totalWeight = componentRows.weightedTotal;
         if (parallelBinaryUpdates){
             IntStream.range(0, cbm.numLabels).parallel()
                     .forEach(l-> skipOrUpdateBinaryClassifier(component,l, activeDataSet, activeGammas, totalWeight));
@@ -244,7 +335,6 @@ public abstract class AbstractCBMOptimizer {
 
     }
 
-
     protected void skipOrUpdateBinaryClassifier(int component, int label, MultiLabelClfDataSet activeDataSet,
                                                 double[] activeGammas, double totalWeight){
         StopWatch stopWatch = new StopWatch();
@@ -252,33 +342,17 @@ public abstract class AbstractCBMOptimizer {
 
         double effectivePositives = effectivePositives(component, label);
 
-        double nonSmoothedPositiveProb = effectivePositives/totalWeight;
-
-        // smooth the component-wise label fraction with global label fraction
-
-        double smoothedPositiveProb = (effectivePositives+smoothingStrength*positiveCounts[label])/(totalWeight+smoothingStrength*dataSet.getNumDataPoints());
-
         StringBuilder sb = new StringBuilder();
         sb.append("for component ").append(component).append(", label ").append(label);
         sb.append(", weighted positives = ").append(effectivePositives);
         sb.append(", non-smoothed positive fraction = "+(effectivePositives/totalWeight));
         sb.append(", global positive fraction = "+((double)positiveCounts[label]/dataSet.getNumDataPoints()));
-        sb.append(", smoothed positive fraction = "+smoothedPositiveProb);
 
-
-//        if (positiveProb==0){
-//            positiveProb=1.0E-50;
-//        }
-
-        // it be happen that p >1 for numerical reasons
-        if (smoothedPositiveProb>=1){
-            smoothedPositiveProb=1;
-        }
-
-        if (nonSmoothedPositiveProb<skipLabelThreshold || nonSmoothedPositiveProb>1-skipLabelThreshold){
-            double[] probs = {1-smoothedPositiveProb, smoothedPositiveProb};
+        double[] probs = priorProbs(effectivePositives, totalWeight, positiveCounts[label], dataSet.getNumDataPoints(),
+                smoothingStrength, skipLabelThreshold);
+        if (probs!=null){
             cbm.binaryClassifiers[component][label] = new PriorProbClassifier(probs);
-            sb.append(", skip, use prior = ").append(smoothedPositiveProb);
+            sb.append(", skip, use prior = ").append(probs[1]);
             sb.append(", time spent = ").append(stopWatch.toString());
             if (logger.isDebugEnabled()){
                 logger.debug(sb.toString());
@@ -292,6 +366,25 @@ public abstract class AbstractCBMOptimizer {
         updateBinaryClassifier(component, label, activeDataSet, activeGammas);
     }
 
+    /**
+     * if the fraction of positives in the component is below skipLabelThreshold or above 1-skipLabelThreshold,
+     * the binary classifier is replaced by a prior: the component-wise fraction smoothed with the global one
+     * @return the probabilities of the prior, or null if the classifier should be trained
+     */
+    static double[] priorProbs(double effectivePositives, double totalWeight, int positiveCount, int numDataPoints,
+                               double smoothingStrength, double skipLabelThreshold){
+        double nonSmoothedPositiveProb = effectivePositives/totalWeight;
+        if (!(nonSmoothedPositiveProb<skipLabelThreshold || nonSmoothedPositiveProb>1-skipLabelThreshold)){
+            return null;
+        }
+        double smoothedPositiveProb = (effectivePositives+smoothingStrength*positiveCount)/(totalWeight+smoothingStrength*numDataPoints);
+        // it be happen that p >1 for numerical reasons
+        if (smoothedPositiveProb>=1){
+            smoothedPositiveProb=1;
+        }
+        return new double[]{1-smoothedPositiveProb, smoothedPositiveProb};
+    }
+
     abstract protected void updateBinaryClassifier(int component, int label, MultiLabelClfDataSet activeDataset, double[] activeGammas);
 
     protected abstract void updateMultiClassClassifier();
@@ -330,6 +423,28 @@ public abstract class AbstractCBMOptimizer {
         return gammas;
     }
 
+    /**
+     * data points of one component, in increasing order, with their gammas
+     */
+    private static class ComponentRows {
+        private int[] indices;
+        private double[] gammas;
+        private int size;
+        private double weightedTotal;
+
+        private ComponentRows(int capacity, double weightedTotal) {
+            this.indices = new int[capacity];
+            this.gammas = new double[capacity];
+            this.weightedTotal = weightedTotal;
+        }
+
+        private void add(int index, double gamma){
+            indices[size] = index;
+            gammas[size] = gamma;
+            size += 1;
+        }
+    }
+
     private void checkGamma(){
         for (int i=0;i<gammas.length;i++){
             for (int k=0;k<gammas[0].length;k++){
@@ -45,6 +45,31 @@ public class BMDistribution {
         }
     }
 
+    /**
+     * from pre-computed component and label probabilities, e.g., by block scoring
+     * @param cbm
+     * @param logProportions log(z=k)
+     * @param logClassProbs log p(y_l|z=k), num components * num classes * 2
+     */
+    BMDistribution(CBM cbm, double[] logProportions, double[][][] logClassProbs) {
+        this.numLabels = cbm.numLabels;
+        this.numComponents = cbm.numComponents;
+        this.logProportions = logProportions;
+        this.logClassProbs = logClassProbs;
+    }
+
+    /**
+     * empty buffer, to be filled in place by {@link CBMPosteriorEngine}
+     * @param numComponents
+     * @param numLabels
+     */
+    BMDistribution(int numComponents, int numLabels) {
+        this.numLabels = numLabels;
+        this.numComponents = numComponents;
+        this.logProportions = new double[numComponents];
+        this.logClassProbs = new double[numComponents][numLabels][2];
+    }
+
     public double[] getLogProportions() {
         return logProportions;
     }
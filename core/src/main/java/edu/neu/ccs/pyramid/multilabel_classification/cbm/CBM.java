@@ -4,6 +4,7 @@ import edu.neu.ccs.pyramid.classification.lkboost.LKBoost;
 import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
 import edu.neu.ccs.pyramid.classification.Classifier.ProbabilityEstimator;
@@ -38,6 +39,11 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
 
     private String predictMode = "dynamic";
 
+    /**
+     * reusable buffers for posterior computations, created on first use
+     */
+    private transient CBMPosteriorEngine posteriorEngine;
+
     private List<MultiLabel> support;
 
     // parameters
@@ -197,27 +203,60 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
         }
 
 
-        // new a BMMPredictor
-        CBMPredictor CBMPredictor = new CBMPredictor(computeBM(vector));
-        CBMPredictor.setNumSamples(numSample);
-        CBMPredictor.setAllowEmpty(allowEmpty);
-        // samples methods
         switch (predictMode) {
             //todo fix
 //            case "sampling":
 //                return CBMPredictor.predictBySampling();
             case "dynamic":
-                return CBMPredictor.predictByDynamic();
+            case "hard":
+                CBMPosteriorEngine engine = getPosteriorEngine();
+                return engine.predict(engine.computeBM(vector), predictMode, allowEmpty);
 //            case "greedy":
 //                return CBMPredictor.predictByGreedy();
-            case "hard":
-                return CBMPredictor.predictByHardAssignment();
             default:
                 throw new RuntimeException("Unknown predictMode: " + predictMode);
         }
 
     }
 
+    /**
+     * for dynamic and hard prediction, component and label classifiers score blocks of rows at once;
+     * other modes predict row by row
+     * @param dataSet
+     * @return
+     */
+    @Override
+    public MultiLabel[] predict(MultiLabelClfDataSet dataSet) {
+        if (!predictMode.equals("dynamic") && !predictMode.equals("hard")){
+            return MultiLabelClassifier.ClassProbEstimator.super.predict(dataSet);
+        }
+        CBMPosteriorEngine engine = getPosteriorEngine();
+        int blockSize = engine.getBlockSize();
+        int numDataPoints = dataSet.getNumDataPoints();
+        MultiLabel[] predictions = new MultiLabel[numDataPoints];
+        int numBlocks = (numDataPoints+blockSize-1)/blockSize;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*blockSize;
+            int toRow = Math.min(numDataPoints, fromRow+blockSize);
+            BMDistribution[] bmDistributions = engine.computeBM(dataSet, fromRow, toRow);
+            for (int i=fromRow;i<toRow;i++){
+                predictions[i] = engine.predict(bmDistributions[i-fromRow], predictMode, allowEmpty);
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * batched posterior computations with reusable per-thread buffers
+     * @return
+     */
+    public CBMPosteriorEngine getPosteriorEngine() {
+        if (posteriorEngine==null){
+            posteriorEngine = new CBMPosteriorEngine(this);
+        }
+        return posteriorEngine;
+    }
+
     private MultiLabel predictBySupport(Vector vector) {
 //        List<Double> supportLogProbs = predictLogAssignmentProbs(vector, support);
 //        MultiLabel pred = new MultiLabel();
@@ -240,8 +279,7 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
      */
     public double[] predictClassProbs(Vector vector){
         //todo threshold
-        BMDistribution bmDistribution = new BMDistribution(this, vector, 0.1);
-        return bmDistribution.marginals();
+        return getPosteriorEngine().predictClassProbs(vector, 0.1);
     }
 
     /**
@@ -0,0 +1,344 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.Classifier.ProbabilityEstimator;
+import edu.neu.ccs.pyramid.classification.Classifier.ScoreEstimator;
+import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.util.ArgSort;
+import edu.neu.ccs.pyramid.util.MathUtil;
+import org.apache.mahout.math.Vector;
+
+/**
+ * computes component proportions and per-label log probabilities of a CBM for blocks of rows
+ * into reusable per-thread buffers, instead of allocating a num components * num labels * 2 array per row
+ *
+ * distributions returned by this engine are owned by the calling thread and
+ * are overwritten by its next call; copy anything that needs to be kept
+ */
+public class CBMPosteriorEngine {
+    /**
+     * maximum number of consecutive rows scored together
+     */
+    private static final int MAX_BLOCK_SIZE = 64;
+    /**
+     * maximum number of doubles in the log probabilities of a block, per thread
+     */
+    private static final int MAX_BUFFER_SIZE = 1<<20;
+    /**
+     * see {@link ShortCircuitPosterior}
+     */
+    private static final double SKIP_THRESHOLD = 30;
+
+    private CBM cbm;
+    private int numComponents;
+    private int numLabels;
+    private int blockSize;
+    private ThreadLocal<Buffers> buffers;
+
+    public CBMPosteriorEngine(CBM cbm) {
+        this.cbm = cbm;
+        this.numComponents = cbm.numComponents;
+        this.numLabels = cbm.numLabels;
+        this.blockSize = Math.max(1, Math.min(MAX_BLOCK_SIZE, MAX_BUFFER_SIZE/(numComponents*numLabels*2)));
+        this.buffers = ThreadLocal.withInitial(Buffers::new);
+    }
+
+    /**
+     * number of consecutive rows that {@link #computeBM(DataSet, int, int)} can score at once
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * same as {@link CBM#computeBM(Vector)}, but into the buffer of the calling thread
+     * @param x
+     * @return a buffer overwritten by the next call on this thread
+     */
+    public BMDistribution computeBM(Vector x){
+        Buffers local = buffers.get();
+        BMDistribution bmDistribution = local.single;
+        cbm.multiClassClassifier.predictLogClassProbs(x, bmDistribution.logProportions);
+        for (int k=0;k<numComponents;k++){
+            for (int l=0;l<numLabels;l++){
+                cbm.binaryClassifiers[k][l].predictLogClassProbs(x, bmDistribution.logClassProbs[k][l]);
+            }
+        }
+        return bmDistribution;
+    }
+
+    /**
+     * score rows [fromRow, toRow) classifier by classifier, so that classifiers with block scoring can use it
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive, at most fromRow + block size
+     * @return [row-fromRow], buffers overwritten by the next call on this thread
+     */
+    public BMDistribution[] computeBM(DataSet dataSet, int fromRow, int toRow){
+        checkBlock(fromRow, toRow);
+        Buffers local = buffers.get();
+        cbm.multiClassClassifier.predictLogClassProbs(dataSet, fromRow, toRow, local.proportionRows);
+        for (int k=0;k<numComponents;k++){
+            for (int l=0;l<numLabels;l++){
+                for (int i=0;i<toRow-fromRow;i++){
+                    local.labelRows[i] = local.rows[i].logClassProbs[k][l];
+                }
+                cbm.binaryClassifiers[k][l].predictLogClassProbs(dataSet, fromRow, toRow, local.labelRows);
+            }
+        }
+        return local.rows;
+    }
+
+    /**
+     * E-step for rows [fromRow, toRow): gammas[n] = p(z|x_n,y_n)
+     * proportions are scored as a block; per-label probabilities are computed row by row
+     * with the same component skipping and short circuits as {@link ShortCircuitPosterior}
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive, at most fromRow + block size
+     * @param gammas [num data points][num components], filled in place
+     */
+    public void posteriorMembership(MultiLabelClfDataSet dataSet, int fromRow, int toRow, double[][] gammas){
+        checkBlock(fromRow, toRow);
+        Buffers local = buffers.get();
+        cbm.multiClassClassifier.predictLogClassProbs(dataSet, fromRow, toRow, local.proportionRows);
+        double[] logNumerator = local.logNumerator;
+        for (int n=fromRow;n<toRow;n++){
+            Vector x = dataSet.getRow(n);
+            MultiLabel y = dataSet.getMultiLabels()[n];
+            double[] logProportions = local.proportionRows[n-fromRow];
+            logNumerators(x, y, local.allComponents, numComponents, logProportions, ArgSort.argSortDescending(logProportions),
+                    logNumerator, local.labelProbs);
+            double logDenominator = MathUtil.logSumExp(logNumerator);
+            for (int k=0;k<numComponents;k++){
+                gammas[n][k] = Math.exp(logNumerator[k]-logDenominator);
+            }
+        }
+    }
+
+    /**
+     * sparse E-step for rows [fromRow, toRow): only the active components of each row are re-evaluated;
+     * they share the mass they had before, and all other gammas stay frozen
+     * if the multi-class classifier has scores, only the scores of the active components are computed,
+     * since the normalization of the proportions cancels out
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive
+     * @param gammas [num data points][num components], updated in place
+     * @param activeComponents [num data points][], components to re-evaluate for each row
+     */
+    public void posteriorMembership(MultiLabelClfDataSet dataSet, int fromRow, int toRow, double[][] gammas,
+                                    int[][] activeComponents){
+        Buffers local = buffers.get();
+        double[] allLogProportions = local.single.logProportions;
+        double[] logProportions = local.activeLogProportions;
+        double[] logNumerator = local.logNumerator;
+        for (int n=fromRow;n<toRow;n++){
+            Vector x = dataSet.getRow(n);
+            MultiLabel y = dataSet.getMultiLabels()[n];
+            int[] components = activeComponents[n];
+            if (cbm.multiClassClassifier instanceof ScoreEstimator){
+                for (int j=0;j<components.length;j++){
+                    logProportions[j] = ((ScoreEstimator) cbm.multiClassClassifier).predictClassScore(x, components[j]);
+                }
+            } else {
+                cbm.multiClassClassifier.predictLogClassProbs(x, allLogProportions);
+                for (int j=0;j<components.length;j++){
+                    logProportions[j] = allLogProportions[components[j]];
+                }
+            }
+            double activeMass = 0;
+            for (int k: components){
+                activeMass += gammas[n][k];
+            }
+            sortDescending(logProportions, components.length, local.order);
+            logNumerators(x, y, components, components.length, logProportions, local.order, logNumerator, local.labelProbs);
+            double logDenominator = logSumExp(logNumerator, components.length);
+            for (int j=0;j<components.length;j++){
+                gammas[n][components[j]] = activeMass*Math.exp(logNumerator[j]-logDenominator);
+            }
+        }
+    }
+
+    /**
+     * logNumerator[j] = log p(z=components[j]|x) + log p(y|x,z=components[j]) for j < length,
+     * visiting components in decreasing proportions;
+     * components far below the current max keep only their proportion, as in {@link ShortCircuitPosterior}
+     * @param logProportions log proportions of the components, possibly shifted by a constant
+     * @param order the first length positions, by decreasing log proportion
+     */
+    private void logNumerators(Vector x, MultiLabel y, int[] components, int length, double[] logProportions,
+                               int[] order, double[] logNumerator, double[] labelProbs){
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j=0;j<length;j++){
+            logNumerator[j] = logProportions[j];
+        }
+        for (int i=0;i<length;i++){
+            int j = order[i];
+            if (logProportions[j]>max-SKIP_THRESHOLD){
+                double s = logProportions[j] + logYGivenComponent(x, y, components[j], logProportions[j], max, labelProbs);
+                logNumerator[j] = s;
+                if (s>max){
+                    max = s;
+                }
+            }
+        }
+    }
+
+    /**
+     * order[0, length) = positions of values[0, length) by decreasing value;
+     * insertion sort, since few components are active
+     */
+    private static void sortDescending(double[] values, int length, int[] order){
+        for (int i=0;i<length;i++){
+            int j = i;
+            while (j>0 && values[order[j-1]]<values[i]){
+                order[j] = order[j-1];
+                j -= 1;
+            }
+            order[j] = i;
+        }
+    }
+
+    private static double logSumExp(double[] values, int length){
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i=0;i<length;i++){
+            max = Math.max(max, values[i]);
+        }
+        if (max==Double.NEGATIVE_INFINITY){
+            return max;
+        }
+        double sum = 0;
+        for (int i=0;i<length;i++){
+            sum += Math.exp(values[i]-max);
+        }
+        return max+Math.log(sum);
+    }
+
+    /**
+     * same as {@link ShortCircuitPosterior}: the sum only decreases, so stop once the component is useless
+     */
+    private double logYGivenComponent(Vector x, MultiLabel y, int k, double logProportion, double max, double[] labelProbs){
+        ProbabilityEstimator[] classifiers = cbm.binaryClassifiers[k];
+        double sum = 0;
+        // try the most likely short circuits first: positive label and prior
+        for (int l: y.getMatchedLabels()){
+            if (classifiers[l] instanceof PriorProbClassifier){
+                classifiers[l].predictLogClassProbs(x, labelProbs);
+                sum += labelProbs[1];
+                if (sum + logProportion < max - SKIP_THRESHOLD){
+                    return sum;
+                }
+            }
+        }
+        // the rest of the prior classifiers, then the standard ones
+        for (int pass=0;pass<2;pass++){
+            boolean prior = pass==0;
+            for (int l=0;l<numLabels;l++){
+                if ((classifiers[l] instanceof PriorProbClassifier)==prior){
+                    classifiers[l].predictLogClassProbs(x, labelProbs);
+                    if (y.matchClass(l)){
+                        sum += labelProbs[1];
+                    } else {
+                        sum += labelProbs[0];
+                    }
+                    if (sum + logProportion < max - SKIP_THRESHOLD){
+                        return sum;
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * same as {@link CBM#predictClassProbs(Vector)}: marginals over the components with proportion at least threshold
+     * @param x
+     * @param threshold
+     * @return a new array of size num labels
+     */
+    public double[] predictClassProbs(Vector x, double threshold){
+        Buffers local = buffers.get();
+        double[] logProportions = local.single.logProportions;
+        double[] labelProbs = local.labelProbs;
+        cbm.multiClassClassifier.predictLogClassProbs(x, logProportions);
+        double logThreshold = Math.log(threshold);
+        double[] marginals = new double[numLabels];
+        for (int k=0;k<numComponents;k++){
+            if (logProportions[k]>=logThreshold){
+                double proportion = Math.exp(logProportions[k]);
+                for (int l=0;l<numLabels;l++){
+                    cbm.binaryClassifiers[k][l].predictLogClassProbs(x, labelProbs);
+                    marginals[l] += proportion*Math.exp(labelProbs[1]);
+                }
+            }
+        }
+        return marginals;
+    }
+
+    /**
+     * predict with the reusable {@link CBMPredictor} of the calling thread
+     * @param bmDistribution
+     * @param predictMode dynamic or hard
+     * @param allowEmpty
+     * @return
+     */
+    MultiLabel predict(BMDistribution bmDistribution, String predictMode, boolean allowEmpty){
+        CBMPredictor predictor = buffers.get().predictor;
+        predictor.reset(bmDistribution);
+        predictor.setAllowEmpty(allowEmpty);
+        switch (predictMode) {
+            case "dynamic":
+                return predictor.predictByDynamic();
+            case "hard":
+                return predictor.predictByHardAssignment();
+            default:
+                throw new IllegalArgumentException("Unknown predictMode: " + predictMode);
+        }
+    }
+
+    private void checkBlock(int fromRow, int toRow){
+        if (toRow-fromRow>blockSize){
+            throw new IllegalArgumentException("block of "+(toRow-fromRow)+" rows exceeds the block size "+blockSize);
+        }
+    }
+
+    private class Buffers {
+        private BMDistribution single;
+        private BMDistribution[] rows;
+        // views of rows[i].logProportions
+        private double[][] proportionRows;
+        // views of rows[i].logClassProbs[k][l] for the current classifier
+        private double[][] labelRows;
+        private double[] labelProbs;
+        private double[] logNumerator;
+        // log proportions of the active components of a row, and their order, for the sparse E-step
+        private double[] activeLogProportions;
+        private int[] order;
+        // 0, 1, ..., num components - 1
+        private int[] allComponents;
+        private CBMPredictor predictor;
+
+        private Buffers() {
+            this.single = new BMDistribution(numComponents, numLabels);
+            this.rows = new BMDistribution[blockSize];
+            this.proportionRows = new double[blockSize][];
+            for (int i=0;i<blockSize;i++){
+                rows[i] = new BMDistribution(numComponents, numLabels);
+                proportionRows[i] = rows[i].logProportions;
+            }
+            this.labelRows = new double[blockSize][];
+            this.labelProbs = new double[2];
+            this.logNumerator = new double[numComponents];
+            this.activeLogProportions = new double[numComponents];
+            this.order = new int[numComponents];
+            this.allComponents = new int[numComponents];
+            for (int k=0;k<numComponents;k++){
+                allComponents[k] = k;
+            }
+            this.predictor = new CBMPredictor(numComponents, numLabels);
+        }
+    }
+}
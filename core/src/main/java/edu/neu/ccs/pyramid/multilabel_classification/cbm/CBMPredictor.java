@@ -68,18 +68,39 @@ public class CBMPredictor {
 
 
     public CBMPredictor(BMDistribution bmDistribution) {
-        this.numClusters = bmDistribution.numComponents;
-        this.numLabels = bmDistribution.numLabels;
+        this(bmDistribution.numComponents, bmDistribution.numLabels);
+        reset(bmDistribution);
+    }
+
+    /**
+     * empty predictor, to be filled by {@link #reset(BMDistribution)}
+     * @param numClusters
+     * @param numLabels
+     */
+    CBMPredictor(int numClusters, int numLabels) {
+        this.numClusters = numClusters;
+        this.numLabels = numLabels;
         this.logisticProb = new double[numClusters];
-        this.logisticLogProb = bmDistribution.logProportions;
+        this.logisticLogProb = new double[numClusters];
         this.probs = new double[numClusters][numLabels][2];
         this.logProbs = new double[numClusters][numLabels][2];
+    }
 
+    /**
+     * copy the distribution of a new data point into the caches, so that the predictor can be reused
+     * @param bmDistribution must have the same number of components and labels
+     */
+    void reset(BMDistribution bmDistribution) {
+        if (bmDistribution.numComponents!=numClusters || bmDistribution.numLabels!=numLabels){
+            throw new IllegalArgumentException("the distribution has "+bmDistribution.numComponents+" components and "
+                    +bmDistribution.numLabels+" labels; the predictor expects "+numClusters+" and "+numLabels);
+        }
         for (int k=0; k<numClusters; k++) {
+            this.logisticLogProb[k] = bmDistribution.logProportions[k];
             this.logisticProb[k] = Math.exp(this.logisticLogProb[k]);
             for (int l = 0; l < numLabels; l++) {
-                logProbs[k][l] = bmDistribution.logClassProbs[k][l];
                 for (int i=0; i<2; i++) {
+                    logProbs[k][l][i] = bmDistribution.logClassProbs[k][l][i];
                     probs[k][l][i] = Math.exp(logProbs[k][l][i]);
                 }
             }
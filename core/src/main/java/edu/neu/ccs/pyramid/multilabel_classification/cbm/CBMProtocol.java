@@ -0,0 +1,165 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * messages between {@link DistributedCBMOptimizer} and {@link CBMWorker}
+ *
+ * every request starts with a command; the worker answers every request before reading the next one
+ * the M step is sent as batches of items, each item starting with its command: updates of classifiers
+ * and loss evaluations of the classifiers being optimized, so that one round trip serves many classifiers
+ * double arrays are sent as a length followed by the raw values, objects as a length followed by java serialization
+ * weights and gradients of the M step are sent as changes, see {@link #writeChanges(DataOutputStream, double[], double[])}
+ */
+final class CBMProtocol {
+    /**
+     * worker to coordinator, once after connecting: num data points, num features, multi-labels of the shard
+     */
+    static final int HELLO = 0;
+    /**
+     * coordinator: worker index, num components, skipDataThreshold, fullEStepInterval; worker: OK
+     */
+    static final int INIT = 1;
+    /**
+     * coordinator: gammas of the shard, row by row; worker: statistics
+     * statistics: weighted total of each component, weighted positives of each component and label,
+     * largest gamma of each component
+     */
+    static final int SET_GAMMAS = 2;
+    /**
+     * coordinator: nothing; worker: statistics after its E step
+     */
+    static final int E_STEP = 3;
+    /**
+     * batch item: component, label, probabilities
+     */
+    static final int SET_PRIOR = 4;
+    /**
+     * batch item: component, label, whether relative to the last weights sent, changes of the weights
+     */
+    static final int SET_BINARY = 5;
+    /**
+     * batch item: whether relative to the last weights sent, changes of the weights
+     */
+    static final int SET_MULTI_CLASS = 6;
+    /**
+     * batch item: component, label, with gradient, whether relative to the last weights sent, changes of the weights;
+     * answer: data part of the loss [and the changes of its gradient from zero]
+     */
+    static final int BINARY_LOSS = 7;
+    /**
+     * batch item: with gradient, whether relative to the last weights sent, changes of the weights;
+     * answer: data part of the loss [and the changes of its gradient from zero]
+     */
+    static final int MULTI_CLASS_LOSS = 8;
+    /**
+     * coordinator: nothing; worker: OK, then disconnects
+     */
+    static final int SHUTDOWN = 9;
+    /**
+     * coordinator: number of items, then the items; worker: applies the updates in order,
+     * then answers the loss items in order, then OK
+     */
+    static final int BATCH = 10;
+    /**
+     * batch item: index of the worker holding the row with the largest gamma of each component, over all workers;
+     * only that worker keeps the row in the binary losses of the component when its gamma is below skipDataThreshold
+     */
+    static final int SET_MAX_ROWS = 11;
+
+    static final int OK = 100;
+
+    private CBMProtocol() {
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException{
+        out.writeInt(values.length);
+        ByteBuffer buffer = ByteBuffer.allocate(8*values.length);
+        buffer.asDoubleBuffer().put(values);
+        out.write(buffer.array());
+    }
+
+    static double[] readDoubles(DataInputStream in) throws IOException{
+        int length = in.readInt();
+        byte[] bytes = new byte[8*length];
+        in.readFully(bytes);
+        double[] values = new double[length];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * the entries of values that differ from base, as a count followed by the indices and the values,
+     * or -1 followed by all values when that is shorter
+     * @param base null for zeros
+     */
+    static void writeChanges(DataOutputStream out, double[] values, double[] base) throws IOException{
+        int numChanges = 0;
+        for (int i=0;i<values.length;i++){
+            if (values[i]!=(base==null ? 0 : base[i])){
+                numChanges += 1;
+            }
+        }
+        if (12L*numChanges>=8L*values.length){
+            out.writeInt(-1);
+            writeDoubles(out, values);
+            return;
+        }
+        out.writeInt(numChanges);
+        ByteBuffer buffer = ByteBuffer.allocate(12*numChanges);
+        for (int i=0;i<values.length;i++){
+            if (values[i]!=(base==null ? 0 : base[i])){
+                buffer.putInt(i);
+                buffer.putDouble(values[i]);
+            }
+        }
+        out.write(buffer.array());
+    }
+
+    /**
+     * see {@link #writeChanges(DataOutputStream, double[], double[])}
+     * @param base null for zeros; not modified
+     */
+    static double[] readChanges(DataInputStream in, double[] base, int length) throws IOException{
+        int numChanges = in.readInt();
+        if (numChanges==-1){
+            return readDoubles(in);
+        }
+        double[] values = base==null ? new double[length] : base.clone();
+        byte[] bytes = new byte[12*numChanges];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int c=0;c<numChanges;c++){
+            int index = buffer.getInt();
+            values[index] = buffer.getDouble();
+        }
+        return values;
+    }
+
+    static void writeObject(DataOutputStream out, Serializable object) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)){
+            objectOutputStream.writeObject(object);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    static Object readObject(DataInputStream in) throws IOException{
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+            return objectInputStream.readObject();
+        } catch (ClassNotFoundException e){
+            throw new IOException(e);
+        }
+    }
+
+    static void expect(DataInputStream in, int expected) throws IOException{
+        int received = in.readInt();
+        if (received!=expected){
+            throw new IOException("expected message "+expected+", received "+received);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticLoss;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.util.Serialization;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * worker of {@link DistributedCBMOptimizer}
+ * owns a shard of the training rows, keeps a copy of the model, runs the E step on its rows
+ * and computes the data part of the losses and gradients of the M step
+ *
+ * usage: CBMWorker host port shard, where shard is a serialized MultiLabelClfDataSet
+ */
+public class CBMWorker {
+    private static final Logger logger = LogManager.getLogger();
+    private MultiLabelClfDataSet shard;
+    private CBM cbm;
+    private LRCBMOptimizer localOptimizer;
+    private double skipDataThreshold;
+    private int workerIndex;
+    // whether the row with the largest gamma of each component over all workers is in this shard
+    private boolean[] holdsMaxRow;
+
+    // losses of the classifiers being optimized, key -1 for the multi-class classifier
+    // an entry is dropped when its classifier is set, all of them when the gammas change
+    private Map<Integer, LogisticLoss> losses = new ConcurrentHashMap<>();
+    // the last weights received for each classifier being optimized, the base of the next changes
+    private Map<Integer, double[]> receivedWeights = new HashMap<>();
+
+    public CBMWorker(MultiLabelClfDataSet shard) {
+        this.shard = shard;
+    }
+
+    public static void main(String[] args) throws Exception{
+        if (args.length!=3){
+            throw new IllegalArgumentException("usage: CBMWorker host port shard");
+        }
+        MultiLabelClfDataSet shard = (MultiLabelClfDataSet) Serialization.deserialize(args[2]);
+        new CBMWorker(shard).run(args[0], Integer.parseInt(args[1]));
+    }
+
+    /**
+     * connect to the coordinator and serve its requests until it shuts the worker down
+     */
+    public void run(String host, int port) throws IOException{
+        try (Socket socket = new Socket(host, port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))){
+            socket.setTcpNoDelay(true);
+            out.writeInt(CBMProtocol.HELLO);
+            out.writeInt(shard.getNumDataPoints());
+            out.writeInt(shard.getNumFeatures());
+            CBMProtocol.writeObject(out, shard.getMultiLabels());
+            out.flush();
+            boolean running = true;
+            while (running){
+                int command = in.readInt();
+                switch (command){
+                    case CBMProtocol.INIT:
+                        init(in.readInt(), in.readInt(), in.readDouble(), in.readInt());
+                        out.writeInt(CBMProtocol.OK);
+                        break;
+                    case CBMProtocol.SET_GAMMAS:
+                        setGammas(CBMProtocol.readDoubles(in));
+                        CBMProtocol.writeDoubles(out, statistics());
+                        break;
+                    case CBMProtocol.E_STEP:
+                        localOptimizer.updateGamma();
+                        invalidateLoss();
+                        CBMProtocol.writeDoubles(out, statistics());
+                        break;
+                    case CBMProtocol.BATCH:
+                        batch(in, out);
+                        out.writeInt(CBMProtocol.OK);
+                        break;
+                    case CBMProtocol.SHUTDOWN:
+                        out.writeInt(CBMProtocol.OK);
+                        running = false;
+                        break;
+                    default:
+                        throw new IOException("unknown command "+command);
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private void init(int workerIndex, int numComponents, double skipDataThreshold, int fullEStepInterval){
+        this.workerIndex = workerIndex;
+        this.holdsMaxRow = new boolean[numComponents];
+        this.cbm = CBM.getBuilder()
+                .setNumClasses(shard.getNumClasses())
+                .setNumComponents(numComponents)
+                .setNumFeatures(shard.getNumFeatures())
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+        this.skipDataThreshold = skipDataThreshold;
+        this.localOptimizer = new LRCBMOptimizer(cbm, shard);
+        localOptimizer.setSkipDataThreshold(skipDataThreshold);
+        localOptimizer.setFullEStepInterval(fullEStepInterval);
+        if (logger.isDebugEnabled()){
+            logger.debug("worker initialized with "+shard.getNumDataPoints()+" data points");
+        }
+    }
+
+    private void setGammas(double[] values){
+        int numComponents = cbm.getNumComponents();
+        double[][] gammas = new double[shard.getNumDataPoints()][numComponents];
+        for (int i=0;i<gammas.length;i++){
+            System.arraycopy(values, i*numComponents, gammas[i], 0, numComponents);
+        }
+        localOptimizer.gammas = gammas;
+        invalidateLoss();
+    }
+
+    /**
+     * weighted total of each component, then weighted positives of each component and label,
+     * then the largest gamma of each component
+     * format [#components + #components * #labels + #components]
+     */
+    private double[] statistics(){
+        int numComponents = cbm.getNumComponents();
+        int numLabels = cbm.getNumClasses();
+        double[][] gammas = localOptimizer.getGammas();
+        double[] statistics = new double[numComponents+numComponents*numLabels+numComponents];
+        Arrays.fill(statistics, numComponents+numComponents*numLabels, statistics.length, Double.NEGATIVE_INFINITY);
+        for (int i=0;i<gammas.length;i++){
+            MultiLabel multiLabel = shard.getMultiLabels()[i];
+            for (int k=0;k<numComponents;k++){
+                statistics[k] += gammas[i][k];
+                for (int l: multiLabel.getMatchedLabels()){
+                    statistics[numComponents+k*numLabels+l] += gammas[i][k];
+                }
+                int maxPosition = numComponents+numComponents*numLabels+k;
+                statistics[maxPosition] = Math.max(statistics[maxPosition], gammas[i][k]);
+            }
+        }
+        return statistics;
+    }
+
+    private void invalidateLoss(){
+        losses.clear();
+    }
+
+    /**
+     * apply the updates in order, then evaluate the losses in parallel and answer them in order
+     * the classifiers of a batch are distinct, so each loss is used by one thread
+     */
+    private void batch(DataInputStream in, DataOutputStream out) throws IOException{
+        int size = in.readInt();
+        List<LossRequest> requests = new ArrayList<>();
+        for (int i=0;i<size;i++){
+            int command = in.readInt();
+            switch (command){
+                case CBMProtocol.SET_PRIOR: {
+                    int component = in.readInt();
+                    int label = in.readInt();
+                    cbm.binaryClassifiers[component][label] = new PriorProbClassifier(CBMProtocol.readDoubles(in));
+                    losses.remove(key(component, label));
+                    break;
+                }
+                case CBMProtocol.SET_MAX_ROWS: {
+                    double[] workers = CBMProtocol.readDoubles(in);
+                    for (int k=0;k<workers.length;k++){
+                        holdsMaxRow[k] = workers[k]==workerIndex;
+                    }
+                    invalidateLoss();
+                    break;
+                }
+                case CBMProtocol.SET_BINARY: {
+                    int component = in.readInt();
+                    int label = in.readInt();
+                    Vector weights = new DenseVector(readWeights(in, key(component, label), 2), true);
+                    receivedWeights.remove(key(component, label));
+                    if (!(cbm.binaryClassifiers[component][label] instanceof LogisticRegression)){
+                        cbm.binaryClassifiers[component][label] = new LogisticRegression(2, shard.getNumFeatures());
+                    }
+                    ((LogisticRegression) cbm.binaryClassifiers[component][label]).getWeights().setWeightVector(weights);
+                    losses.remove(key(component, label));
+                    break;
+                }
+                case CBMProtocol.SET_MULTI_CLASS:
+                    ((LogisticRegression) cbm.multiClassClassifier).getWeights()
+                            .setWeightVector(new DenseVector(readWeights(in, -1, cbm.getNumComponents()), true));
+                    receivedWeights.remove(-1);
+                    losses.remove(-1);
+                    break;
+                case CBMProtocol.BINARY_LOSS: {
+                    int component = in.readInt();
+                    int label = in.readInt();
+                    boolean withGradient = in.readBoolean();
+                    double[] weights = readWeights(in, key(component, label), 2);
+                    receivedWeights.put(key(component, label), weights);
+                    requests.add(new LossRequest(component, label, withGradient, weights));
+                    break;
+                }
+                case CBMProtocol.MULTI_CLASS_LOSS: {
+                    boolean withGradient = in.readBoolean();
+                    double[] weights = readWeights(in, -1, cbm.getNumComponents());
+                    receivedWeights.put(-1, weights);
+                    requests.add(new LossRequest(-1, -1, withGradient, weights));
+                    break;
+                }
+                default:
+                    throw new IOException("unknown batch item "+command);
+            }
+        }
+        requests.parallelStream().forEach(this::evaluate);
+        for (LossRequest request: requests){
+            out.writeDouble(request.value);
+            if (request.withGradient){
+                CBMProtocol.writeChanges(out, request.gradient, null);
+            }
+        }
+    }
+
+    /**
+     * weights sent as changes, from the last weights received for the classifier or from zeros
+     * @param key -1 for the multi-class classifier
+     */
+    private double[] readWeights(DataInputStream in, int key, int numClasses) throws IOException{
+        boolean relative = in.readBoolean();
+        double[] base = relative ? receivedWeights.get(key) : null;
+        if (relative && base==null){
+            throw new IOException("no weights received before for classifier "+key);
+        }
+        return CBMProtocol.readChanges(in, base, numClasses*(shard.getNumFeatures()+1));
+    }
+
+    private int key(int component, int label){
+        return component*cbm.getNumClasses()+label;
+    }
+
+    private void evaluate(LossRequest request){
+        int key = request.component==-1 ? -1 : key(request.component, request.label);
+        LogisticLoss loss = losses.get(key);
+        if (loss==null){
+            loss = request.component==-1 ? multiClassLoss() : binaryLoss(request.component, request.label);
+            losses.put(key, loss);
+        }
+        loss.setParameters(new DenseVector(request.weights, true));
+        request.value = loss.getValue();
+        if (request.withGradient){
+            Vector gradient = loss.getGradient();
+            request.gradient = new double[gradient.size()];
+            for (int i=0;i<request.gradient.length;i++){
+                request.gradient[i] = gradient.getQuick(i);
+            }
+        }
+    }
+
+    /**
+     * gammas of the component as weights; small gammas are skipped, except for the largest one over all workers
+     * if it is in this shard
+     * the prior is left to the coordinator
+     */
+    private LogisticLoss binaryLoss(int component, int label){
+        double[][] gammas = localOptimizer.getGammas();
+        int numDataPoints = shard.getNumDataPoints();
+        int maxIndex = 0;
+        for (int i=0;i<numDataPoints;i++){
+            if (gammas[i][component]>gammas[maxIndex][component]){
+                maxIndex = i;
+            }
+        }
+        double[] weights = new double[numDataPoints];
+        double[][] targets = new double[numDataPoints][2];
+        for (int i=0;i<numDataPoints;i++){
+            double v = gammas[i][component];
+            if (v>=skipDataThreshold || (i==maxIndex && holdsMaxRow[component])){
+                weights[i] = v;
+            }
+            targets[i][shard.getMultiLabels()[i].matchClass(label) ? 1 : 0] = 1;
+        }
+        return new LogisticLoss(new LogisticRegression(2, shard.getNumFeatures()), shard, weights, targets,
+                Double.POSITIVE_INFINITY, true);
+    }
+
+    private LogisticLoss multiClassLoss(){
+        return new LogisticLoss(new LogisticRegression(cbm.getNumComponents(), shard.getNumFeatures()), shard,
+                localOptimizer.getGammas(), Double.POSITIVE_INFINITY, true);
+    }
+
+    private static class LossRequest {
+        private int component;
+        private int label;
+        private boolean withGradient;
+        private double[] weights;
+        private double value;
+        private double[] gradient;
+
+        private LossRequest(int component, int label, boolean withGradient, double[] weights) {
+            this.component = component;
+            this.label = label;
+            this.withGradient = withGradient;
+            this.weights = weights;
+        }
+    }
+}
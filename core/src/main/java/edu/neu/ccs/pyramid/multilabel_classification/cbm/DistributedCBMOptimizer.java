@@ -0,0 +1,575 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.classification.logistic_regression.Weights;
+import edu.neu.ccs.pyramid.clustering.bm.BMSelector;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.optimization.LBFGS;
+import edu.neu.ccs.pyramid.optimization.Optimizable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * data-parallel training of a CBM with LR base learners, without Spark
+ * same E and M steps as {@link LRCBMOptimizer}; the rows are split among {@link CBMWorker} processes
+ *
+ * each worker keeps a copy of the model and the gammas of its rows and runs the E step locally;
+ * the coordinator holds the model and runs LBFGS for each classifier,
+ * sending only the weights of that classifier and receiving the data part of the loss and its gradient from each worker;
+ * weights are sent as their changes since the previous evaluation of the classifier, and gradients as their non-zeros
+ * the binary classifiers are optimized concurrently, and their pending loss evaluations are sent together,
+ * so a round trip to the workers serves many classifiers instead of one
+ * the decision between a prior and a classifier uses the weighted label counts summed over the workers,
+ * and, as in the single-process optimizer, only the row with the largest gamma of a component over all workers
+ * is kept in its binary losses when its gamma is below skipDataThreshold
+ *
+ * usage: create the optimizer, start workers with host and {@link #getPort()}, call {@link #acceptWorkers(int)},
+ * then {@link #initialize()} and {@link #iterate()} as with other CBM optimizers, and {@link #close()} at the end
+ */
+public class DistributedCBMOptimizer implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+    private CBM cbm;
+    private ServerSocket serverSocket;
+    private List<Connection> workers;
+
+    private int numFeatures;
+    private int numDataPoints;
+    // number of positives for all labels
+    private int[] positiveCounts;
+    // weighted total of each component
+    private double[] weightedTotals;
+    // format [#components][#labels]
+    private double[][] effectivePositives;
+    // index of the worker holding the row with the largest gamma of each component
+    private int[] maxRowWorkers;
+
+    // regularization for multiClassClassifier
+    private double priorVarianceMultiClass =1;
+    // regularization for binary logisticRegression
+    private double priorVarianceBinary =1;
+    private int multiclassUpdatesPerIter = 20;
+    private int binaryUpdatesPerIter = 20;
+    private double smoothingStrength =0.0001;
+    // see AbstractCBMOptimizer
+    private double skipLabelThreshold = 1E-5;
+    private double skipDataThreshold = 1E-5;
+    private int fullEStepInterval = 1;
+    // number of binary classifiers optimized at the same time
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param cbm with lr binary and multi-class classifiers
+     * @param port 0 for any free port
+     */
+    public DistributedCBMOptimizer(CBM cbm, int port) throws IOException {
+        if (!cbm.getBinaryClassifierType().equals("lr") || !cbm.getMultiClassClassifierType().equals("lr")){
+            throw new IllegalArgumentException("only lr binary and multi-class classifiers are supported");
+        }
+        this.cbm = cbm;
+        this.serverSocket = new ServerSocket(port);
+        this.workers = new ArrayList<>();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void setPriorVarianceMultiClass(double priorVarianceMultiClass) {
+        this.priorVarianceMultiClass = priorVarianceMultiClass;
+    }
+
+    public void setPriorVarianceBinary(double priorVarianceBinary) {
+        this.priorVarianceBinary = priorVarianceBinary;
+    }
+
+    public void setMulticlassUpdatesPerIter(int multiclassUpdatesPerIter) {
+        this.multiclassUpdatesPerIter = multiclassUpdatesPerIter;
+    }
+
+    public void setBinaryUpdatesPerIter(int binaryUpdatesPerIter) {
+        this.binaryUpdatesPerIter = binaryUpdatesPerIter;
+    }
+
+    public void setSmoothingStrength(double smoothingStrength) {
+        this.smoothingStrength = smoothingStrength;
+    }
+
+    public void setSkipLabelThreshold(double skipLabelThreshold) {
+        this.skipLabelThreshold = skipLabelThreshold;
+    }
+
+    /**
+     * takes effect for workers accepted afterwards
+     */
+    public void setSkipDataThreshold(double skipDataThreshold) {
+        this.skipDataThreshold = skipDataThreshold;
+    }
+
+    /**
+     * takes effect for workers accepted afterwards
+     */
+    public void setFullEStepInterval(int fullEStepInterval) {
+        if (fullEStepInterval<1){
+            throw new IllegalArgumentException("fullEStepInterval must be at least 1");
+        }
+        this.fullEStepInterval = fullEStepInterval;
+    }
+
+    /**
+     * number of binary classifiers optimized at the same time; at most that many loss evaluations go in one batch
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency<1){
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * block until the given number of workers have connected
+     * the order of the rows is the order in which workers connect
+     */
+    public void acceptWorkers(int numWorkers) throws IOException {
+        for (int w=0;w<numWorkers;w++){
+            Socket socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+            Connection connection = new Connection(socket);
+            CBMProtocol.expect(connection.in, CBMProtocol.HELLO);
+            connection.numDataPoints = connection.in.readInt();
+            int workerFeatures = connection.in.readInt();
+            connection.multiLabels = (MultiLabel[]) CBMProtocol.readObject(connection.in);
+            if (workers.isEmpty()){
+                numFeatures = workerFeatures;
+            } else if (workerFeatures!=numFeatures){
+                throw new IOException("worker has "+workerFeatures+" features, expected "+numFeatures);
+            }
+            connection.out.writeInt(CBMProtocol.INIT);
+            connection.out.writeInt(workers.size());
+            connection.out.writeInt(cbm.getNumComponents());
+            connection.out.writeDouble(skipDataThreshold);
+            connection.out.writeInt(fullEStepInterval);
+            connection.out.flush();
+            CBMProtocol.expect(connection.in, CBMProtocol.OK);
+            workers.add(connection);
+            if (logger.isDebugEnabled()){
+                logger.debug("worker "+w+" connected with "+connection.numDataPoints+" data points");
+            }
+        }
+        numDataPoints = workers.stream().mapToInt(c->c.numDataPoints).sum();
+        positiveCounts = new int[cbm.getNumClasses()];
+        for (Connection connection: workers){
+            for (MultiLabel multiLabel: connection.multiLabels){
+                for (int l: multiLabel.getMatchedLabels()){
+                    positiveCounts[l] += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * gammas from a Bernoulli mixture on the labels of all workers, then an M step
+     */
+    public void initialize() throws IOException {
+        MultiLabel[] multiLabels = new MultiLabel[numDataPoints];
+        int offset = 0;
+        for (Connection connection: workers){
+            System.arraycopy(connection.multiLabels, 0, multiLabels, offset, connection.numDataPoints);
+            offset += connection.numDataPoints;
+        }
+        double[][] gammas = BMSelector.selectGammas(cbm.getNumClasses(), multiLabels, cbm.getNumComponents());
+        int numComponents = cbm.getNumComponents();
+        offset = 0;
+        for (Connection connection: workers){
+            double[] shardGammas = new double[connection.numDataPoints*numComponents];
+            for (int i=0;i<connection.numDataPoints;i++){
+                System.arraycopy(gammas[offset+i], 0, shardGammas, i*numComponents, numComponents);
+            }
+            offset += connection.numDataPoints;
+            connection.out.writeInt(CBMProtocol.SET_GAMMAS);
+            CBMProtocol.writeDoubles(connection.out, shardGammas);
+            connection.out.flush();
+        }
+        collectStatistics();
+        mStep();
+    }
+
+    public void iterate() throws IOException {
+        eStep();
+        mStep();
+    }
+
+    private void eStep() throws IOException {
+        if (logger.isDebugEnabled()){
+            logger.debug("start E step");
+        }
+        for (Connection connection: workers){
+            connection.out.writeInt(CBMProtocol.E_STEP);
+            connection.out.flush();
+        }
+        collectStatistics();
+        if (logger.isDebugEnabled()){
+            logger.debug("finish E step");
+        }
+    }
+
+    private void collectStatistics() throws IOException {
+        int numComponents = cbm.getNumComponents();
+        int numLabels = cbm.getNumClasses();
+        weightedTotals = new double[numComponents];
+        effectivePositives = new double[numComponents][numLabels];
+        maxRowWorkers = new int[numComponents];
+        double[] maxGammas = new double[numComponents];
+        Arrays.fill(maxGammas, Double.NEGATIVE_INFINITY);
+        for (int w=0;w<workers.size();w++){
+            double[] statistics = CBMProtocol.readDoubles(workers.get(w).in);
+            for (int k=0;k<numComponents;k++){
+                weightedTotals[k] += statistics[k];
+                for (int l=0;l<numLabels;l++){
+                    effectivePositives[k][l] += statistics[numComponents+k*numLabels+l];
+                }
+                // ties go to the first row, as in the single-process optimizer
+                double maxGamma = statistics[numComponents+numComponents*numLabels+k];
+                if (maxGamma>maxGammas[k]){
+                    maxGammas[k] = maxGamma;
+                    maxRowWorkers[k] = w;
+                }
+            }
+        }
+    }
+
+    private void mStep() throws IOException {
+        if (logger.isDebugEnabled()){
+            logger.debug("start M step");
+        }
+        List<Item> updates = new ArrayList<>();
+        updates.add(new Item(CBMProtocol.SET_MAX_ROWS, -1, -1, false,
+                Arrays.stream(maxRowWorkers).asDoubleStream().toArray(), null));
+        List<DistributedLoss> losses = new ArrayList<>();
+        for (int k=0;k<cbm.getNumComponents();k++){
+            for (int l=0;l<cbm.getNumClasses();l++){
+                double[] probs = AbstractCBMOptimizer.priorProbs(effectivePositives[k][l], weightedTotals[k],
+                        positiveCounts[l], numDataPoints, smoothingStrength, skipLabelThreshold);
+                if (probs!=null){
+                    cbm.binaryClassifiers[k][l] = new PriorProbClassifier(probs);
+                    updates.add(new Item(CBMProtocol.SET_PRIOR, k, l, false, probs, null));
+                    continue;
+                }
+                if (cbm.binaryClassifiers[k][l] == null || cbm.binaryClassifiers[k][l] instanceof PriorProbClassifier){
+                    cbm.binaryClassifiers[k][l] = new LogisticRegression(2, numFeatures);
+                }
+                losses.add(new DistributedLoss((LogisticRegression) cbm.binaryClassifiers[k][l], k, l, priorVarianceBinary));
+            }
+        }
+        optimize(losses, binaryUpdatesPerIter, updates, concurrency);
+        LogisticRegression multiClass = (LogisticRegression) cbm.multiClassClassifier;
+        optimize(Collections.singletonList(new DistributedLoss(multiClass, -1, -1, priorVarianceMultiClass)),
+                multiclassUpdatesPerIter, new ArrayList<>(), 1);
+        if (logger.isDebugEnabled()){
+            logger.debug("finish M step");
+        }
+    }
+
+    /**
+     * run LBFGS on the losses with the given number of threads, same settings as RidgeLogisticOptimizer
+     * this thread sends the pending requests of all of them as one batch, waits for the answers, and repeats
+     * until every optimization has finished and its weights have been sent, together with the given updates
+     */
+    private void optimize(List<DistributedLoss> losses, int maxIteration, List<Item> updates, int numThreads) throws IOException {
+        BlockingQueue<Item> queue = new LinkedBlockingQueue<>(updates);
+        AtomicInteger remaining = new AtomicInteger(losses.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, losses.size())));
+        List<Future<?>> futures = new ArrayList<>();
+        for (DistributedLoss loss: losses){
+            loss.queue = queue;
+            futures.add(executor.submit(() -> {
+                try {
+                    LBFGS lbfgs = new LBFGS(loss);
+                    lbfgs.getTerminator().setAbsoluteEpsilon(0.1);
+                    lbfgs.getTerminator().setMaxIteration(maxIteration);
+                    lbfgs.optimize();
+                    int command = loss.component==-1 ? CBMProtocol.SET_MULTI_CLASS : CBMProtocol.SET_BINARY;
+                    queue.add(new Item(command, loss.component, loss.label, false, toArray(loss.getParameters()), loss.sent));
+                } finally {
+                    remaining.decrementAndGet();
+                }
+            }));
+        }
+        List<Item> batch = new ArrayList<>();
+        try {
+            while (true){
+                // read before draining: once it is zero, every request is already in the queue
+                boolean finished = remaining.get()==0;
+                queue.drainTo(batch);
+                if (!batch.isEmpty()){
+                    send(batch);
+                    batch.clear();
+                } else if (finished){
+                    break;
+                } else {
+                    Item item = queue.poll(10, TimeUnit.MILLISECONDS);
+                    if (item!=null){
+                        batch.add(item);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e){
+            queue.drainTo(batch);
+            for (Item item: batch){
+                item.done.completeExceptionally(e);
+            }
+            executor.shutdownNow();
+            throw e;
+        } catch (InterruptedException e){
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during M step");
+        }
+        executor.shutdown();
+        for (Future<?> future: futures){
+            try {
+                future.get();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted during M step");
+            } catch (ExecutionException e){
+                if (e.getCause() instanceof UncheckedIOException){
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * one batch to every worker; the loss items are summed over the workers and completed
+     */
+    private void send(List<Item> batch) throws IOException {
+        for (Connection connection: workers){
+            connection.out.writeInt(CBMProtocol.BATCH);
+            connection.out.writeInt(batch.size());
+            for (Item item: batch){
+                item.writeTo(connection.out);
+            }
+            connection.out.flush();
+        }
+        for (Connection connection: workers){
+            for (Item item: batch){
+                if (item.isLoss()){
+                    item.value += connection.in.readDouble();
+                    if (item.withGradient){
+                        double[] workerGradient = CBMProtocol.readChanges(connection.in, null, item.values.length);
+                        if (item.gradient==null){
+                            item.gradient = workerGradient;
+                        } else {
+                            for (int i=0;i<workerGradient.length;i++){
+                                item.gradient[i] += workerGradient[i];
+                            }
+                        }
+                    }
+                }
+            }
+            CBMProtocol.expect(connection.in, CBMProtocol.OK);
+        }
+        for (Item item: batch){
+            item.done.complete(null);
+        }
+    }
+
+    /**
+     * shut down the workers and stop listening
+     */
+    @Override
+    public void close() throws IOException {
+        for (Connection connection: workers){
+            connection.out.writeInt(CBMProtocol.SHUTDOWN);
+            connection.out.flush();
+        }
+        for (Connection connection: workers){
+            CBMProtocol.expect(connection.in, CBMProtocol.OK);
+            connection.socket.close();
+        }
+        workers.clear();
+        serverSocket.close();
+    }
+
+    private static double[] toArray(Vector vector){
+        double[] values = new double[vector.size()];
+        for (int i=0;i<values.length;i++){
+            values[i] = vector.getQuick(i);
+        }
+        return values;
+    }
+
+    private static class Connection {
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private int numDataPoints;
+        private MultiLabel[] multiLabels;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    /**
+     * loss of one classifier summed over the workers, plus the gaussian prior computed here
+     * component = -1 for the multi-class classifier
+     */
+    private class DistributedLoss implements Optimizable.ByGradientValue {
+        private LogisticRegression logisticRegression;
+        private int component;
+        private int label;
+        private double priorGaussianVariance;
+        private boolean[] isBias;
+        private double value;
+        private Vector gradient;
+        private boolean isValueCacheValid;
+        private boolean isGradientCacheValid;
+        // requests to the workers, sent by the thread running the M step
+        private BlockingQueue<Item> queue;
+        // the weights in the last request, which the workers also keep; null before the first one
+        private double[] sent;
+
+        private DistributedLoss(LogisticRegression logisticRegression, int component, int label, double priorGaussianVariance) {
+            this.logisticRegression = logisticRegression;
+            this.component = component;
+            this.label = label;
+            this.priorGaussianVariance = priorGaussianVariance;
+            Weights weights = logisticRegression.getWeights();
+            this.isBias = new boolean[weights.totalSize()];
+            for (int j: weights.getAllBiasPositions()){
+                isBias[j] = true;
+            }
+        }
+
+        @Override
+        public Vector getParameters() {
+            return logisticRegression.getWeights().getAllWeights();
+        }
+
+        @Override
+        public void setParameters(Vector parameters) {
+            logisticRegression.getWeights().setWeightVector(parameters);
+            this.isValueCacheValid = false;
+            this.isGradientCacheValid = false;
+        }
+
+        @Override
+        public double getValue() {
+            if (!isValueCacheValid){
+                evaluate(false);
+            }
+            return value;
+        }
+
+        @Override
+        public Vector getGradient() {
+            if (!isGradientCacheValid){
+                evaluate(true);
+            }
+            return gradient;
+        }
+
+        private void evaluate(boolean withGradient){
+            double[] weights = toArray(getParameters());
+            int command = component==-1 ? CBMProtocol.MULTI_CLASS_LOSS : CBMProtocol.BINARY_LOSS;
+            Item item = new Item(command, component, label, withGradient, weights, sent);
+            sent = weights;
+            queue.add(item);
+            try {
+                item.done.get();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("interrupted during M step"));
+            } catch (ExecutionException e){
+                if (e.getCause() instanceof IOException){
+                    throw new UncheckedIOException((IOException) e.getCause());
+                }
+                throw new RuntimeException(e.getCause());
+            }
+            double[] counts = item.gradient;
+            double square = 0;
+            for (int i=0;i<weights.length;i++){
+                if (!isBias[i]){
+                    square += weights[i]*weights[i];
+                    if (withGradient){
+                        counts[i] += weights[i]/priorGaussianVariance;
+                    }
+                }
+            }
+            this.value = item.value + square/(2*priorGaussianVariance);
+            this.isValueCacheValid = true;
+            if (withGradient){
+                this.gradient = new DenseVector(counts, true);
+                this.isGradientCacheValid = true;
+            }
+        }
+    }
+
+    /**
+     * an item of a batch: an update of a classifier, or a loss evaluation answered by every worker
+     */
+    private static class Item {
+        private int command;
+        private int component;
+        private int label;
+        private boolean withGradient;
+        private double[] values;
+        // for weights, the last weights sent for the classifier; values are sent as changes from them
+        private double[] base;
+        // summed over the workers
+        private double value;
+        private double[] gradient;
+        private CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Item(int command, int component, int label, boolean withGradient, double[] values, double[] base) {
+            this.command = command;
+            this.component = component;
+            this.label = label;
+            this.withGradient = withGradient;
+            this.values = values;
+            this.base = base;
+        }
+
+        private boolean isLoss(){
+            return command==CBMProtocol.BINARY_LOSS || command==CBMProtocol.MULTI_CLASS_LOSS;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(command);
+            if (command==CBMProtocol.SET_PRIOR || command==CBMProtocol.SET_MAX_ROWS){
+                if (command==CBMProtocol.SET_PRIOR){
+                    out.writeInt(component);
+                    out.writeInt(label);
+                }
+                CBMProtocol.writeDoubles(out, values);
+                return;
+            }
+            if (command!=CBMProtocol.SET_MULTI_CLASS && command!=CBMProtocol.MULTI_CLASS_LOSS){
+                out.writeInt(component);
+                out.writeInt(label);
+            }
+            if (isLoss()){
+                out.writeBoolean(withGradient);
+            }
+            out.writeBoolean(base!=null);
+            CBMProtocol.writeChanges(out, values, base);
+        }
+    }
+}
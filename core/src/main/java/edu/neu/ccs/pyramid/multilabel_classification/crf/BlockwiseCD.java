@@ -7,7 +7,6 @@ import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,9 +39,6 @@ public class BlockwiseCD {
     private int[] parameterToL2;
     private int[] parameterToClass;
     private int[] parameterToFeature;
-    // whether the support combination contains the label;
-    // size num combination* num classes
-    private boolean[][] comContainsLabel;
     private boolean isParallel = true;
 
     // numDataPoints by numClasses;
@@ -59,9 +55,7 @@ public class BlockwiseCD {
 
     private int numData;
 
-    //for each label pair (index), map to the list of matched combinations (index)
-    // number of pairs * variable length
-    private List<List<Integer>> labelPairToCombination;
+    private CombinationIndex combinationIndex;
 
 
     // for each combination, store the sum of probabilities over all data points
@@ -99,13 +93,9 @@ public class BlockwiseCD {
         this.combScoreMatrix = new double[numData][numSupport];
         this.combProbMatrix = new double[numData][numSupport];
         this.empiricalCounts = new double[numParameters];
+        this.combinationIndex = cmlcrf.getCombinationIndex();
         this.initCache();
         this.updateEmpiricalCounts();
-        this.labelPairToCombination = new ArrayList<>();
-        for (int i=0;i< numWeightsForLabelPairs;i++){
-            labelPairToCombination.add(new ArrayList<>());
-        }
-        this.mapPairToCombination();
         this.combProbSums = new double[numSupport];
 
         Map<MultiLabel,Integer> map = new HashMap<>();
@@ -280,9 +270,7 @@ public class BlockwiseCD {
 
     private double calGradientForLabelPair(int pos) {
         double count = 0.0;
-        for (int matched: labelPairToCombination.get(pos)){
-            count -= combProbSums[matched];
-        }
+        count -= combinationIndex.sumOverCombinations(pos, combProbSums);
 
         count += this.empiricalCounts[pos+numWeightsForFeatures];
         return count;
@@ -290,16 +278,10 @@ public class BlockwiseCD {
 
     private double calHessiansForLabelPair(int pos) {
         double count = 0.0;
-        for (int matched : labelPairToCombination.get(pos)) {
-            count -= combProbSums[matched];
-        }
+        count -= combinationIndex.sumOverCombinations(pos, combProbSums);
 
         for (int i=0; i<numData; i++) {
-            double[] probs = this.combProbMatrix[i];
-            double matchedSum = 0.0;
-            for (int matched : labelPairToCombination.get(pos)) {
-                matchedSum += probs[matched];
-            }
+            double matchedSum = combinationIndex.sumOverCombinations(pos, combProbMatrix[i]);
             count += Math.pow(matchedSum,2);
         }
         return count;
@@ -446,14 +428,6 @@ public class BlockwiseCD {
             parameterToFeature[i] = cmlcrf.getWeights().getFeatureIndex(i);
         }
 
-        comContainsLabel = new boolean[numSupport][numClasses];
-        for (int num=0; num< numSupport; num++) {
-            for (int l=0; l<numClasses; l++) {
-                if (supportedCombinations.get(num).matchClass(l)) {
-                    comContainsLabel[num][l] = true;
-                }
-            }
-        }
     }
 
     /**
@@ -524,35 +498,6 @@ public class BlockwiseCD {
     }
 
 
-    private void mapPairToCombination(){
-        IntStream.range(0, numWeightsForLabelPairs).parallel().forEach(this::mapPairToCombination);
-    }
-
-    private void mapPairToCombination(int position) {
-        List<Integer> list = labelPairToCombination.get(position);
-        int l1 = parameterToL1[position];
-        int l2 = parameterToL2[position];
-        int featureCase = position % 4;
-        for (int c=0; c< numSupport; c++) {
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0:
-                    if (!comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 1;mapPairToCombination
-                case 3: if (comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-    }
-
     private void updateCombProbSums(int combinationIndex){
         double sum =0;
         for (int i=0;i<dataSet.getNumDataPoints();i++){
@@ -47,6 +47,11 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
     // Since it doesn't depend on features, it can be re-used by all data points
     private double[] combinationLabelPartScores;
 
+    /**
+     * rebuilt from supportCombinations after deserialization
+     */
+    private transient CombinationIndex combinationIndex;
+
     private boolean considerPair = true;
 
     private double lossStrength = 1;
@@ -70,6 +75,7 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
 //        System.out.println("support combinations: " + supportCombinations);
 //        System.out.println("size of support " + this.numSupports);
 
+        this.combinationIndex = new CombinationIndex(numClasses, supportCombinations);
         this.combinationLabelPartScores = new double[supportCombinations.size()];
         updateCombLabelPartScores();
 //        System.out.println("done with updating combined label part scores.");
@@ -86,6 +92,7 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
         //todo
         this.supportCombinations = supportCombinations;
         this.numSupports = supportCombinations.size();
+        this.combinationIndex = new CombinationIndex(numClasses, supportCombinations);
 
 
         this.combinationLabelPartScores = new double[supportCombinations.size()];
@@ -148,11 +155,7 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
 
     // todo fix: handle separately
     private double predictCombinationScore(int labelComIndex, double[] classScores){
-        MultiLabel label = supportCombinations.get(labelComIndex);
-        double score = 0.0;
-        for (Integer l: label.getMatchedLabels()){
-            score += classScores[l];
-        }
+        double score = combinationIndex.sumLabelScores(labelComIndex, classScores);
         if (considerPair){
             score += combinationLabelPartScores[labelComIndex];
         }
@@ -198,37 +201,29 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
     /**
      * the part of score which depends only on labels
      * for each label pair, exactly one feature function returns 1
+     * @param pairWeights from {@link #getLabelPairWeights()}
      * @return
      */
-    double computeLabelPartScore(int labelComIndex){
-        MultiLabel label = supportCombinations.get(labelComIndex);
-        double score = 0;
-        int pos = this.weights.getNumWeightsForFeatures();
-        boolean[] matches = new boolean[numClasses];
-        for (int match: label.getMatchedLabels()){
-            matches[match] = true;
-        }
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                if (!matches[l1] && !matches[l2]) {
-                    score += this.weights.getWeightForIndex(pos);
-                } else if (matches[l1] && !matches[l2]) {
-                    score += this.weights.getWeightForIndex(pos + 1);
-                } else if (!matches[l1] && matches[l2]) {
-                    score += this.weights.getWeightForIndex(pos + 2);
-                } else {
-                    score += this.weights.getWeightForIndex(pos + 3);
-                }
-                pos += 4;
-            }
-        }
-
-        return score;
+    double computeLabelPartScore(int labelComIndex, double[] pairWeights){
+        return combinationIndex.sumPairWeights(labelComIndex, pairWeights);
     }
 
     void updateCombLabelPartScores(){
+        double[] pairWeights = getLabelPairWeights();
         IntStream.range(0, supportCombinations.size()).parallel()
-                .forEach(c -> combinationLabelPartScores[c]=computeLabelPartScore(c));
+                .forEach(c -> combinationLabelPartScores[c]=combinationIndex.sumPairWeights(c, pairWeights));
+    }
+
+    /**
+     * @return a copy of the label pair weights; get it once for many combinations
+     */
+    double[] getLabelPairWeights(){
+        int offset = weights.getNumWeightsForFeatures();
+        double[] pairWeights = new double[weights.getNumWeightsForLabels()];
+        for (int p=0;p<pairWeights.length;p++){
+            pairWeights[p] = weights.getWeightForIndex(offset+p);
+        }
+        return pairWeights;
     }
 
 
@@ -261,11 +256,7 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
     public double[] calClassProbs(double[] assignmentProbs){
         double[] classProbs = new double[numClasses];
         for (int a=0;a< numSupports;a++){
-            MultiLabel assignment = supportCombinations.get(a);
-            double prob = assignmentProbs[a];
-            for (Integer label:assignment.getMatchedLabels()){
-                classProbs[label] += prob;
-            }
+            combinationIndex.addToLabels(a, assignmentProbs[a], classProbs);
         }
         return classProbs;
     }
@@ -296,6 +287,10 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
         return supportCombinations;
     }
 
+    public CombinationIndex getCombinationIndex() {
+        return combinationIndex;
+    }
+
 
     @Override
     public MultiLabel predict(Vector vector) {
@@ -334,6 +329,11 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
         return getWeights().toString();
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.combinationIndex = new CombinationIndex(numClasses, supportCombinations);
+    }
+
     public static CMLCRF deserialize(File file) throws Exception {
         try (
                 FileInputStream fileInputStream = new FileInputStream(file);
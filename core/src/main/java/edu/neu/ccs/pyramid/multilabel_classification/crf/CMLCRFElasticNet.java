@@ -36,9 +36,6 @@ public class CMLCRFElasticNet {
     private int[] parameterToL2;
     private int[] parameterToClass;
     private int[] parameterToFeature;
-    // whether the support combination contains the label;
-    // size num combination* num classes
-    private boolean[][] comContainsLabel;
     private boolean isParallel = true;
     private boolean isValueCacheValid = false;
 
@@ -62,13 +59,7 @@ public class CMLCRFElasticNet {
     private double l1Ratio;
     private double regularization;
     private int numFeature;
-    // label-lable features
-    // size = numSupport * (for each support, label-label feature is non-zero index, starting from 0)
-    private List<List<Integer>> combinationToLabelPair;
-
-    //for each label pair (index), map to the list of matched combinations (index)
-    // number of pairs * variable length
-    private List<List<Integer>> labelPairToCombination;
+    private CombinationIndex combinationIndex;
 
     // for each combination, store the sum of probabilities over all data points
     // size = num combinations
@@ -97,18 +88,9 @@ public class CMLCRFElasticNet {
         this.isValueCacheValid = false;
         this.empiricalCounts = new DenseVector(numParameters);
         this.predictedCounts = new DenseVector(numParameters);
+        this.combinationIndex = cmlcrf.getCombinationIndex();
         this.initCache();
         this.updateEmpiricalCounts();
-        this.combinationToLabelPair = new ArrayList<>(numSupport);
-        for (int i=0;i< numSupport;i++) {
-            combinationToLabelPair.add(new LinkedList<>());
-        }
-        this.labelPairToCombination = new ArrayList<>(numWeightsForLabelPairs);
-        for (int i=0;i< numWeightsForLabelPairs;i++){
-            labelPairToCombination.add(new ArrayList<>());
-        }
-        this.mapCombinattionToPair();
-        this.mapPairToCombination();
 
 
         this.combProbSums = new double[numSupport];
@@ -166,12 +148,13 @@ public class CMLCRFElasticNet {
 
     private DataSet expandData(int l) {
         SequentialSparseDataSet newData = new SequentialSparseDataSet(numData, numParameters, false);
-        MultiLabel label = supportedCombinations.get(l);
-        List<Integer> labelPairForL = combinationToLabelPair.get(l);
+        int[] labelsForL = combinationIndex.getLabels(l);
+        // label-label features, non-zero index starting from 0
+        int[] labelPairForL = combinationIndex.getPairFeatures(l);
         // TODO: parallelism
         for (int i=0; i<numData; i++) {
             // add feature-label feature
-            for (int y : label.getMatchedLabels()) {
+            for (int y : labelsForL) {
                 // set bias as 1
                 newData.setFeatureValue(i, (numFeature+1)*y, 1.0);
                 for (Vector.Element element : dataSet.getRow(i).nonZeroes()) {
@@ -262,78 +245,9 @@ public class CMLCRFElasticNet {
             parameterToFeature[i] = cmlcrf.getWeights().getFeatureIndex(i);
         }
 
-        comContainsLabel = new boolean[numSupport][numClasses];
-        for (int num=0; num< numSupport; num++) {
-            for (int l=0; l<numClasses; l++) {
-                if (supportedCombinations.get(num).matchClass(l)) {
-                    comContainsLabel[num][l] = true;
-                }
-            }
-        }
-
-    }
-
-    private void mapPairToCombination(){
-        IntStream.range(0, numWeightsForLabelPairs).parallel().forEach(this::mapPairToCombination);
-    }
-
 
-    private void mapPairToCombination(int position) {
-        List<Integer> list = labelPairToCombination.get(position);
-        int l1 = parameterToL1[position];
-        int l2 = parameterToL2[position];
-        int featureCase = position % 4;
-        for (int c=0; c< numSupport; c++) {
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0:
-                    if (!comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 1;mapPairToCombination
-                case 3: if (comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
     }
 
-    private void mapCombinattionToPair() {
-        IntStream.range(0, numSupport).forEach(this::mapCombinattionToPair);
-    }
-
-    private void mapCombinattionToPair(int s) {
-        for (int position=0; position<numWeightsForLabelPairs; position++){
-            int l1 = parameterToL1[position];
-            int l2 = parameterToL2[position];
-            int featureCase = position % 4;
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0: if (!comContainsLabel[s][l1] && !comContainsLabel[s][l2]) combinationToLabelPair.get(s).add(position);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (comContainsLabel[s][l1] && !comContainsLabel[s][l2]) combinationToLabelPair.get(s).add(position);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!comContainsLabel[s][l1] && comContainsLabel[s][l2]) combinationToLabelPair.get(s).add(position);
-                    break;
-                // l1 = 1; l2 = 1;
-                case 3: if (comContainsLabel[s][l1] && comContainsLabel[s][l2]) combinationToLabelPair.get(s).add(position);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-
-    }
-
-
-
-
     /**
      * @return negative log-likelihood
      */
@@ -462,9 +376,7 @@ public class CMLCRFElasticNet {
     private double calPredictedLabelPairCounts(int parameterIndex) {
         double count = 0.0;
         int pos = parameterIndex - numWeightsForFeatures;
-        for (int matched : labelPairToCombination.get(pos)) {
-            count += combProbSums[matched];
-        }
+        count += combinationIndex.sumOverCombinations(pos, combProbSums);
 
         return count;
     }
@@ -11,7 +11,6 @@ import org.apache.logging.log4j.Logger;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,8 +40,6 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
     private int[] parameterToL2;
     private int[] parameterToClass;
     private int[] parameterToFeature;
-    // whether the support combination contains the label;
-    private boolean[][] labelInSupported;
     private boolean isParallel = true;
     private boolean isGradientCacheValid = false;
     private boolean isValueCacheValid = false;
@@ -61,9 +58,7 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
 
     private int numData;
 
-    //for each label pair (index), map to the list of matched combinations (index)
-    // number of pairs * variable length
-    private List<List<Integer>> labelPairToCombination;
+    private CombinationIndex combinationIndex;
 
     // if true, regularize all weights
     // todo
@@ -101,14 +96,10 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
         this.isGradientCacheValid = false;
         this.isValueCacheValid = false;
         this.empiricalCounts = new double[numParameters];
+        this.combinationIndex = cmlcrf.getCombinationIndex();
         this.initCache();
         this.updateEmpiricalCounts();
         this.gradient = new DenseVector(numParameters);
-        this.labelPairToCombination = new ArrayList<>();
-        for (int i=0;i< numWeightsForLabelPairs;i++){
-            labelPairToCombination.add(new ArrayList<>());
-        }
-        this.mapPairToCombination();
         this.combProbSums = new double[numSupport];
         this.lossMatrix = new double[numSupport][numSupport];
         for (int k=0;k<numSupport;k++){
@@ -214,16 +205,7 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
     private double calGradientForLabelPair(int parameterIndex) {
         double count = 0.0;
         int pos = parameterIndex - numWeightsForFeatures;
-        for (int matched: labelPairToCombination.get(pos)){
-            count += combProbSums[matched];
-        }
-
-//        for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-//            double[] probs = this.combProbMatrix[i];
-//            for (int matched: labelPairToCombination.get(pos)){
-//                count += probs[matched];
-//            }
-//        }
+        count += combinationIndex.sumOverCombinations(pos, combProbSums);
         count -= this.empiricalCounts[parameterIndex];
         if (regularizeAll){
             count += cmlcrf.getWeights().getWeightForIndex(parameterIndex)/gaussianPriorVariance;
@@ -368,14 +350,6 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
             parameterToFeature[i] = cmlcrf.getWeights().getFeatureIndex(i);
         }
 
-        labelInSupported = new boolean[numSupport][numClasses];
-        for (int num=0; num< numSupport; num++) {
-            for (int l=0; l<numClasses; l++) {
-                if (supportedCombinations.get(num).matchClass(l)) {
-                    labelInSupported[num][l] = true;
-                }
-            }
-        }
     }
 
     /**
@@ -516,34 +490,6 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
 //                .sum();
 //    }
 
-    private void mapPairToCombination(){
-        IntStream.range(0, numWeightsForLabelPairs).parallel().forEach(this::mapPairToCombination);
-    }
-
-    private void mapPairToCombination(int position) {
-        List<Integer> list = labelPairToCombination.get(position);
-        int l1 = parameterToL1[position];
-        int l2 = parameterToL2[position];
-        int featureCase = position % 4;
-        for (int c=0; c< numSupport; c++) {
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0: if (!labelInSupported[c][l1] && !labelInSupported[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (labelInSupported[c][l1] && !labelInSupported[c][l2]) list.add(c);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!labelInSupported[c][l1] && labelInSupported[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 1;
-                case 3: if (labelInSupported[c][l1] && labelInSupported[c][l2]) list.add(c);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-    }
-
     private void updateCombProbSums(int combinationIndex){
         double sum =0;
         for (int i=0;i<dataSet.getNumDataPoints();i++){
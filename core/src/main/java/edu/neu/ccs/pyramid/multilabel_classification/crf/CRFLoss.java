@@ -16,7 +16,7 @@ import java.util.stream.IntStream;
 /**
  * Created by Rainicy on 12/13/15.
  */
-public class CRFLoss implements Optimizable.ByGradientValue {
+public class CRFLoss implements Optimizable.ByBatchGradient {
     private static final Logger logger = LogManager.getLogger();
     private CMLCRF cmlcrf;
     private List<MultiLabel> supportedCombinations;
@@ -34,9 +34,6 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     private int[] parameterToL2;
     private int[] parameterToClass;
     private int[] parameterToFeature;
-    // whether the support combination contains the label;
-    // size num combination* num classes
-    private boolean[][] comContainsLabel;
     private boolean isParallel = true;
     private boolean isGradientCacheValid = false;
     private boolean isValueCacheValid = false;
@@ -55,9 +52,7 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 
     private int numData;
 
-    //for each label pair (index), map to the list of matched combinations (index)
-    // number of pairs * variable length
-    private List<List<Integer>> labelPairToCombination;
+    private CombinationIndex combinationIndex;
 
     // if true, regularize all weights
     private boolean regularizeAll = false;
@@ -69,6 +64,9 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     // for each data point, store the position of the true combination in the support list
     private int[] labelComIndices;
 
+    // for each combination, the number of data points labeled with it
+    private double[] comCounts;
+
 
 
 
@@ -90,15 +88,8 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         this.isGradientCacheValid = false;
         this.isValueCacheValid = false;
         this.empiricalCounts = new double[numParameters];
+        this.combinationIndex = cmlcrf.getCombinationIndex();
         this.initCache();
-        this.updateEmpiricalCounts();
-        this.gradient = new DenseVector(numParameters);
-        this.labelPairToCombination = new ArrayList<>();
-        for (int i=0;i< numWeightsForLabelPairs;i++){
-            labelPairToCombination.add(new ArrayList<>());
-        }
-        this.mapPairToCombination();
-        this.combProbSums = new double[numSupport];
 
         Map<MultiLabel,Integer> map = new HashMap<>();
         for (int s=0;s< numSupport;s++){
@@ -108,6 +99,9 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         for (int i=0;i<dataSet.getNumDataPoints();i++){
             labelComIndices[i] = map.get(dataSet.getMultiLabels()[i]);
         }
+        this.updateEmpiricalCounts();
+        this.gradient = new DenseVector(numParameters);
+        this.combProbSums = new double[numSupport];
     }
 
     public void setRegularizeAll(boolean regularizeAll) {
@@ -189,16 +183,7 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     private double calGradientForLabelPair(int parameterIndex) {
         double count = 0.0;
         int pos = parameterIndex - numWeightsForFeatures;
-        for (int matched: labelPairToCombination.get(pos)){
-            count += combProbSums[matched];
-        }
-
-//        for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-//            double[] probs = this.combProbMatrix[i];
-//            for (int matched: labelPairToCombination.get(pos)){
-//                count += probs[matched];
-//            }
-//        }
+        count += combinationIndex.sumOverCombinations(pos, combProbSums);
         count -= this.empiricalCounts[parameterIndex];
         if (regularizeAll){
             count += cmlcrf.getWeights().getWeightForIndex(parameterIndex)/gaussianPriorVariance;
@@ -244,6 +229,11 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 
 
     private void updateEmpiricalCounts(){
+        // number of data points with each combination
+        this.comCounts = new double[numSupport];
+        for (int i=0;i<numData;i++){
+            comCounts[labelComIndices[i]] += 1;
+        }
         IntStream intStream;
         if (isParallel){
             intStream = IntStream.range(0, numParameters).parallel();
@@ -264,30 +254,8 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 
 
     private double calEmpiricalCountForLabelPair(int parameterIndex) {
-        double empiricalCount = 0.0;
-        int start = parameterIndex - numWeightsForFeatures;
-        int l1 = parameterToL1[start];
-        int l2 = parameterToL2[start];
-        int featureCase = start % 4;
-        for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-            MultiLabel label = dataSet.getMultiLabels()[i];
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0: if (!label.matchClass(l1) && !label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (label.matchClass(l1) && !label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!label.matchClass(l1) && label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                // l1 = 1; l2 = 1;
-                case 3: if (label.matchClass(l1) && label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-        return empiricalCount;
+        int pos = parameterIndex - numWeightsForFeatures;
+        return combinationIndex.sumOverCombinations(pos, comCounts);
     }
 
 
@@ -338,15 +306,6 @@ public class CRFLoss implements Optimizable.ByGradientValue {
             parameterToClass[i] = cmlcrf.getWeights().getClassIndex(i);
             parameterToFeature[i] = cmlcrf.getWeights().getFeatureIndex(i);
         }
-
-        comContainsLabel = new boolean[numSupport][numClasses];
-        for (int num=0; num< numSupport; num++) {
-            for (int l=0; l<numClasses; l++) {
-                if (supportedCombinations.get(num).matchClass(l)) {
-                    comContainsLabel[num][l] = true;
-                }
-            }
-        }
     }
 
     /**
@@ -405,6 +364,58 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     }
 
 
+    @Override
+    public int getNumDataPoints() {
+        return numData;
+    }
+
+    /**
+     * computed row by row on the given data points only; caches are neither used nor updated
+     */
+    @Override
+    public Vector getBatchGradient(int[] dataIndices) {
+        double[] gradient = new double[numParameters];
+        // bias of class k is at k*stride, feature j at k*stride+j+1
+        int stride = numWeightsForFeatures/numClasses;
+        for (int i: dataIndices){
+            Vector row = dataSet.getRow(i);
+            double[] combProbs = cmlcrf.predictCombinationProbs(cmlcrf.predictCombinationScores(cmlcrf.predictClassScores(row)));
+            double[] classProbs = cmlcrf.calClassProbs(combProbs);
+            double[] diffs = new double[numClasses];
+            for (int k=0;k<numClasses;k++){
+                diffs[k] = classProbs[k] - (dataSet.getMultiLabels()[i].matchClass(k) ? 1 : 0);
+                gradient[k*stride] += diffs[k];
+            }
+            for (Vector.Element element: row.nonZeroes()){
+                int position = element.index()+1;
+                double featureValue = element.get();
+                for (int k=0;k<numClasses;k++){
+                    gradient[k*stride+position] += diffs[k]*featureValue;
+                }
+            }
+            if (cmlcrf.considerPair()){
+                for (int pos=0;pos<numWeightsForLabelPairs;pos++){
+                    gradient[numWeightsForFeatures+pos] += combinationIndex.sumOverCombinations(pos, combProbs);
+                }
+                combinationIndex.addToPairFeatures(labelComIndices[i], -1, gradient, numWeightsForFeatures);
+            }
+        }
+
+        for (int parameterIndex=0;parameterIndex<numParameters;parameterIndex++){
+            gradient[parameterIndex] /= dataIndices.length;
+            boolean regularize;
+            if (parameterIndex<numWeightsForFeatures){
+                regularize = regularizeAll || parameterToFeature[parameterIndex]!=-1;
+            } else {
+                regularize = regularizeAll && cmlcrf.considerPair();
+            }
+            if (regularize){
+                gradient[parameterIndex] += cmlcrf.getWeights().getWeightForIndex(parameterIndex)/(gaussianPriorVariance*numData);
+            }
+        }
+        return new DenseVector(gradient, true);
+    }
+
     @Override
     public Vector getParameters() {
         return cmlcrf.getWeights().getAllWeights();
@@ -483,35 +494,6 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 //                .sum();
 //    }
 
-    private void mapPairToCombination(){
-        IntStream.range(0, numWeightsForLabelPairs).parallel().forEach(this::mapPairToCombination);
-    }
-
-    private void mapPairToCombination(int position) {
-        List<Integer> list = labelPairToCombination.get(position);
-        int l1 = parameterToL1[position];
-        int l2 = parameterToL2[position];
-        int featureCase = position % 4;
-        for (int c=0; c< numSupport; c++) {
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0:
-                    if (!comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 1;mapPairToCombination
-                case 3: if (comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-    }
-
     private void updateCombProbSums(int combinationIndex){
         double sum =0;
         for (int i=0;i<dataSet.getNumDataPoints();i++){
@@ -0,0 +1,289 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * immutable primitive index over the support combinations of a CMLCRF, built once per model
+ * so that scoring and gradients do not go through MultiLabel.getMatchedLabels()
+ *
+ * label pair features are numbered as in Weights, without the offset of the feature weights:
+ * for each label pair l1<l2 (in the order of the double loop), 4 consecutive positions for
+ * (l1=0,l2=0), (l1=1,l2=0), (l1=0,l2=1), (l1=1,l2=1)
+ *
+ * only combination -> matched labels and its inverse, label -> combinations, are stored, in compressed sparse row format;
+ * the label pair features of a combination and the combinations of a label pair feature are derived from them,
+ * so the memory grows with the number of matched labels over the support, not with the number of label pairs
+ */
+public class CombinationIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int numClasses;
+    private final int numCombinations;
+    private final int numLabelPairs;
+
+    /**
+     * matched labels of combination c, in ascending order, are labels[labelOffsets[c]] ... labels[labelOffsets[c+1]-1]
+     */
+    private final int[] labelOffsets;
+    private final int[] labels;
+
+    /**
+     * combinations matching label l, in ascending order, are combinations[combinationOffsets[l]] ... combinations[combinationOffsets[l+1]-1]
+     */
+    private final int[] combinationOffsets;
+    private final int[] combinations;
+
+    /**
+     * index of the first label pair (l1, l1+1)
+     */
+    private final int[] pairStarts;
+
+    public CombinationIndex(int numClasses, List<MultiLabel> supportCombinations) {
+        long numPairFeatures = 4L*numClasses*(numClasses-1)/2;
+        if (numPairFeatures>Integer.MAX_VALUE){
+            throw new IllegalArgumentException("too many label pair features for "+numClasses+" classes: "+numPairFeatures);
+        }
+        this.numClasses = numClasses;
+        this.numCombinations = supportCombinations.size();
+        this.numLabelPairs = numClasses*(numClasses-1)/2;
+        this.pairStarts = new int[numClasses];
+        for (int l1=1;l1<numClasses;l1++){
+            pairStarts[l1] = pairStarts[l1-1] + numClasses-l1;
+        }
+
+        this.labelOffsets = new int[numCombinations+1];
+        int[][] matched = new int[numCombinations][];
+        long numEntries = 0;
+        for (int c=0;c<numCombinations;c++){
+            matched[c] = supportCombinations.get(c).getMatchedLabels().stream().mapToInt(Integer::intValue).sorted().toArray();
+            numEntries += matched[c].length;
+            if (numEntries>Integer.MAX_VALUE){
+                throw new IllegalArgumentException("too many matched labels in the support combinations");
+            }
+            labelOffsets[c+1] = labelOffsets[c] + matched[c].length;
+        }
+        this.labels = new int[labelOffsets[numCombinations]];
+        int[] counts = new int[numClasses];
+        for (int c=0;c<numCombinations;c++){
+            System.arraycopy(matched[c], 0, labels, labelOffsets[c], matched[c].length);
+            for (int l: matched[c]){
+                counts[l] += 1;
+            }
+        }
+
+        this.combinationOffsets = new int[numClasses+1];
+        for (int l=0;l<numClasses;l++){
+            combinationOffsets[l+1] = combinationOffsets[l] + counts[l];
+        }
+        this.combinations = new int[labels.length];
+        int[] next = Arrays.copyOf(combinationOffsets, numClasses);
+        for (int c=0;c<numCombinations;c++){
+            for (int l: matched[c]){
+                combinations[next[l]] = c;
+                next[l] += 1;
+            }
+        }
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    public int getNumCombinations() {
+        return numCombinations;
+    }
+
+    public int getNumLabelPairs() {
+        return numLabelPairs;
+    }
+
+    public int getNumPairFeatures() {
+        return 4*numLabelPairs;
+    }
+
+    public int getNumLabels(int combination){
+        return labelOffsets[combination+1] - labelOffsets[combination];
+    }
+
+    /**
+     * @return a copy of the matched labels, in ascending order
+     */
+    public int[] getLabels(int combination){
+        return Arrays.copyOfRange(labels, labelOffsets[combination], labelOffsets[combination+1]);
+    }
+
+    public boolean contains(int combination, int label){
+        return Arrays.binarySearch(labels, labelOffsets[combination], labelOffsets[combination+1], label)>=0;
+    }
+
+    /**
+     * sum of the class scores over the matched labels
+     */
+    public double sumLabelScores(int combination, double[] classScores){
+        double score = 0;
+        for (int j=labelOffsets[combination];j<labelOffsets[combination+1];j++){
+            score += classScores[labels[j]];
+        }
+        return score;
+    }
+
+    /**
+     * add value to the entries of the matched labels
+     */
+    public void addToLabels(int combination, double value, double[] classValues){
+        for (int j=labelOffsets[combination];j<labelOffsets[combination+1];j++){
+            classValues[labels[j]] += value;
+        }
+    }
+
+    /**
+     * @param pair index of the label pair, 0 <= pair < numLabelPairs
+     * @return the active label pair feature
+     */
+    public int getPairFeature(int combination, int pair){
+        int l1 = firstLabel(pair);
+        int l2 = l1+1+pair-pairStarts[l1];
+        return 4*pair + (contains(combination, l1) ? 1 : 0) + (contains(combination, l2) ? 2 : 0);
+    }
+
+    /**
+     * @return the active label pair features, one per label pair, in ascending order
+     */
+    public int[] getPairFeatures(int combination){
+        int[] pairFeatures = new int[numLabelPairs];
+        addToPairFeatures(combination, (feature, pair) -> pairFeatures[pair] = feature);
+        return pairFeatures;
+    }
+
+    /**
+     * sum of the weights of the active label pair features
+     * @param pairWeights weights of all label pair features, size = numPairFeatures
+     */
+    public double sumPairWeights(int combination, double[] pairWeights){
+        double[] score = new double[1];
+        addToPairFeatures(combination, (feature, pair) -> score[0] += pairWeights[feature]);
+        return score[0];
+    }
+
+    /**
+     * add value to the entries of the active label pair features
+     * @param pairValues size = numPairFeatures, starting at offset
+     */
+    public void addToPairFeatures(int combination, double value, double[] pairValues, int offset){
+        addToPairFeatures(combination, (feature, pair) -> pairValues[offset+feature] += value);
+    }
+
+    public int getNumCombinations(int pairFeature){
+        int[] count = new int[1];
+        forEachCombination(pairFeature, c -> count[0] += 1);
+        return count[0];
+    }
+
+    /**
+     * @return the combinations activating the label pair feature, in ascending order
+     */
+    public int[] getCombinations(int pairFeature){
+        int[] result = new int[getNumCombinations(pairFeature)];
+        int[] position = new int[1];
+        forEachCombination(pairFeature, c -> result[position[0]++] = c);
+        return result;
+    }
+
+    /**
+     * sum of the combination values over the combinations activating the label pair feature,
+     * in ascending order of the combinations
+     */
+    public double sumOverCombinations(int pairFeature, double[] combinationValues){
+        int pair = pairFeature/4;
+        int featureCase = pairFeature%4;
+        int l1 = firstLabel(pair);
+        int l2 = l1+1+pair-pairStarts[l1];
+        double sum = 0;
+        switch (featureCase){
+            case 0:
+                for (int c=0;c<numCombinations;c++){
+                    if (!contains(c, l1) && !contains(c, l2)){
+                        sum += combinationValues[c];
+                    }
+                }
+                break;
+            case 1:
+                for (int j=combinationOffsets[l1];j<combinationOffsets[l1+1];j++){
+                    if (!contains(combinations[j], l2)){
+                        sum += combinationValues[combinations[j]];
+                    }
+                }
+                break;
+            case 2:
+                for (int j=combinationOffsets[l2];j<combinationOffsets[l2+1];j++){
+                    if (!contains(combinations[j], l1)){
+                        sum += combinationValues[combinations[j]];
+                    }
+                }
+                break;
+            default:
+                for (int j=combinationOffsets[l1];j<combinationOffsets[l1+1];j++){
+                    if (contains(combinations[j], l2)){
+                        sum += combinationValues[combinations[j]];
+                    }
+                }
+        }
+        return sum;
+    }
+
+    //========================== PRIVATE ============================
+
+    private interface PairFeatureConsumer {
+        void accept(int feature, int pair);
+    }
+
+    /**
+     * visit the active label pair features in ascending order, walking the matched labels along the double loop
+     */
+    private void addToPairFeatures(int combination, PairFeatureConsumer consumer){
+        int start = labelOffsets[combination];
+        int end = labelOffsets[combination+1];
+        int pair = 0;
+        int j1 = start;
+        for (int l1=0; l1<numClasses; l1++) {
+            boolean match1 = j1<end && labels[j1]==l1;
+            if (match1){
+                j1 += 1;
+            }
+            int j2 = j1;
+            for (int l2=l1+1; l2<numClasses; l2++) {
+                boolean match2 = j2<end && labels[j2]==l2;
+                if (match2){
+                    j2 += 1;
+                }
+                consumer.accept(4*pair + (match1 ? 1 : 0) + (match2 ? 2 : 0), pair);
+                pair += 1;
+            }
+        }
+    }
+
+    private void forEachCombination(int pairFeature, IntConsumer consumer){
+        int pair = pairFeature/4;
+        int featureCase = pairFeature%4;
+        int l1 = firstLabel(pair);
+        int l2 = l1+1+pair-pairStarts[l1];
+        for (int c=0;c<numCombinations;c++){
+            int cCase = (contains(c, l1) ? 1 : 0) + (contains(c, l2) ? 2 : 0);
+            if (cCase==featureCase){
+                consumer.accept(c);
+            }
+        }
+    }
+
+    /**
+     * l1 of the label pair
+     */
+    private int firstLabel(int pair){
+        int position = Arrays.binarySearch(pairStarts, pair);
+        return position>=0 ? position : -position-2;
+    }
+}
@@ -9,7 +9,6 @@ import org.apache.logging.log4j.Logger;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
 
@@ -18,7 +17,7 @@ import java.util.stream.IntStream;
  * to be minimized
  * Created by chengli on 9/26/16.
  */
-public class KLLoss implements Optimizable.ByGradientValue {
+public class KLLoss implements Optimizable.ByBatchGradient {
     private static final Logger logger = LogManager.getLogger();
     private CMLCRF cmlcrf;
     private List<MultiLabel> supportedCombinations;
@@ -36,9 +35,6 @@ public class KLLoss implements Optimizable.ByGradientValue {
     private int[] parameterToL2;
     private int[] parameterToClass;
     private int[] parameterToFeature;
-    // whether the support combination contains the label;
-    // size num combination* num classes
-    private boolean[][] comContainsLabel;
     private boolean isParallel = true;
     private boolean isGradientCacheValid = false;
     private boolean isValueCacheValid = false;
@@ -57,9 +53,7 @@ public class KLLoss implements Optimizable.ByGradientValue {
 
     private int numData;
 
-    //for each label pair (index), map to the list of matched combinations (index)
-    // number of pairs * variable length
-    private List<List<Integer>> labelPairToCombination;
+    private CombinationIndex combinationIndex;
 
     // if true, regularize all weights
     private boolean regularizeAll = true;
@@ -75,6 +69,10 @@ public class KLLoss implements Optimizable.ByGradientValue {
     // size = num data * num classes
     private double[][] targetMarginals;
 
+    // for each combination, the sum of target probabilities over all data points
+    // size = num combinations
+    private double[] targetSums;
+
 
 
 
@@ -100,10 +98,9 @@ public class KLLoss implements Optimizable.ByGradientValue {
         this.empiricalCounts = new double[numParameters];
         this.gradient = new DenseVector(numParameters);
         this.combProbSums = new double[numSupport];
+        this.combinationIndex = cmlcrf.getCombinationIndex();
         this.initTargetMarginals();
         this.mapParameters();
-        this.initComContainsLabel();
-        this.mapPairToCombination();
         this.initEmpiricalCounts();
 
 
@@ -188,9 +185,7 @@ public class KLLoss implements Optimizable.ByGradientValue {
     private double calGradientForLabelPair(int parameterIndex) {
         double gradient = 0.0;
         int pos = parameterIndex - numWeightsForFeatures;
-        for (int matched: labelPairToCombination.get(pos)){
-            gradient += combProbSums[matched];
-        }
+        gradient += combinationIndex.sumOverCombinations(pos, combProbSums);
         gradient -= this.empiricalCounts[parameterIndex];
         if (regularizeAll){
             gradient += cmlcrf.getWeights().getWeightForIndex(parameterIndex)/gaussianPriorVariance;
@@ -236,6 +231,13 @@ public class KLLoss implements Optimizable.ByGradientValue {
 
 
     private void initEmpiricalCounts(){
+        // sum of the target probabilities of each combination over all data points
+        this.targetSums = new double[numSupport];
+        for (int i=0;i<numData;i++){
+            for (int c=0;c<numSupport;c++){
+                targetSums[c] += targetDistribution[i][c];
+            }
+        }
         IntStream intStream;
         if (isParallel){
             intStream = IntStream.range(0, numParameters).parallel();
@@ -256,15 +258,8 @@ public class KLLoss implements Optimizable.ByGradientValue {
 
 
     private double calEmpiricalCountForLabelPair(int parameterIndex) {
-        double empiricalCount = 0.0;
         int pos = parameterIndex - numWeightsForFeatures;
-        List<Integer> comIndices = labelPairToCombination.get(pos);
-        for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-            for (int matchedCom: comIndices){
-               empiricalCount += targetDistribution[i][matchedCom];
-            }
-        }
-        return empiricalCount;
+        return combinationIndex.sumOverCombinations(pos, targetSums);
     }
 
 
@@ -313,17 +308,6 @@ public class KLLoss implements Optimizable.ByGradientValue {
 
     }
 
-    private void initComContainsLabel(){
-        comContainsLabel = new boolean[numSupport][numClasses];
-        for (int num=0; num< numSupport; num++) {
-            for (int l=0; l<numClasses; l++) {
-                if (supportedCombinations.get(num).matchClass(l)) {
-                    comContainsLabel[num][l] = true;
-                }
-            }
-        }
-    }
-
     /**
      * @return negative log-likelihood
      */
@@ -368,6 +352,58 @@ public class KLLoss implements Optimizable.ByGradientValue {
     }
 
 
+    @Override
+    public int getNumDataPoints() {
+        return numData;
+    }
+
+    /**
+     * computed row by row on the given data points only; caches are neither used nor updated
+     */
+    @Override
+    public Vector getBatchGradient(int[] dataIndices) {
+        double[] gradient = new double[numParameters];
+        // bias of class k is at k*stride, feature j at k*stride+j+1
+        int stride = numWeightsForFeatures/numClasses;
+        for (int i: dataIndices){
+            Vector row = dataSet.getRow(i);
+            double[] combProbs = cmlcrf.predictCombinationProbs(cmlcrf.predictCombinationScores(cmlcrf.predictClassScores(row)));
+            double[] classProbs = cmlcrf.calClassProbs(combProbs);
+            double[] diffs = new double[numClasses];
+            for (int k=0;k<numClasses;k++){
+                diffs[k] = classProbs[k] - (targetMarginals[i][k]);
+                gradient[k*stride] += diffs[k];
+            }
+            for (Vector.Element element: row.nonZeroes()){
+                int position = element.index()+1;
+                double featureValue = element.get();
+                for (int k=0;k<numClasses;k++){
+                    gradient[k*stride+position] += diffs[k]*featureValue;
+                }
+            }
+            if (cmlcrf.considerPair()){
+                for (int pos=0;pos<numWeightsForLabelPairs;pos++){
+                    gradient[numWeightsForFeatures+pos] += combinationIndex.sumOverCombinations(pos, combProbs)
+                            - combinationIndex.sumOverCombinations(pos, targetDistribution[i]);
+                }
+            }
+        }
+
+        for (int parameterIndex=0;parameterIndex<numParameters;parameterIndex++){
+            gradient[parameterIndex] /= dataIndices.length;
+            boolean regularize;
+            if (parameterIndex<numWeightsForFeatures){
+                regularize = regularizeAll || parameterToFeature[parameterIndex]!=-1;
+            } else {
+                regularize = regularizeAll && cmlcrf.considerPair();
+            }
+            if (regularize){
+                gradient[parameterIndex] += cmlcrf.getWeights().getWeightForIndex(parameterIndex)/(gaussianPriorVariance*numData);
+            }
+        }
+        return new DenseVector(gradient, true);
+    }
+
     @Override
     public Vector getParameters() {
         return cmlcrf.getWeights().getAllWeights();
@@ -449,38 +485,6 @@ public class KLLoss implements Optimizable.ByGradientValue {
     }
 
 
-    private void mapPairToCombination(){
-        this.labelPairToCombination = new ArrayList<>();
-        for (int i=0;i< numWeightsForLabelPairs;i++){
-            labelPairToCombination.add(new ArrayList<>());
-        }
-        IntStream.range(0, numWeightsForLabelPairs).parallel().forEach(this::mapPairToCombination);
-    }
-
-    private void mapPairToCombination(int position) {
-        List<Integer> list = labelPairToCombination.get(position);
-        int l1 = parameterToL1[position];
-        int l2 = parameterToL2[position];
-        int featureCase = position % 4;
-        for (int c=0; c< numSupport; c++) {
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0: if (!comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 1;
-                case 3: if (comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-    }
-
     private void updateCombProbSums(int combinationIndex){
         double sum =0;
         for (int i=0;i<dataSet.getNumDataPoints();i++){
@@ -502,11 +506,7 @@ public class KLLoss implements Optimizable.ByGradientValue {
     private void initTargMarginals(int dataPoint){
         double[] joint = targetDistribution[dataPoint];
         for (int c=0;c<joint.length;c++){
-            MultiLabel multiLabel = supportedCombinations.get(c);
-            double prob = joint[c];
-            for (int l:multiLabel.getMatchedLabels()){
-                targetMarginals[dataPoint][l] += prob;
-            }
+            combinationIndex.addToLabels(c, joint[c], targetMarginals[dataPoint]);
         }
     }
 }
@@ -0,0 +1,202 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.multilabel_classification.PluginPredictor;
+import org.apache.mahout.math.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * exact argmax and top-K combinations of a CMLCRF without scoring every support combination
+ *
+ * the score of a combination with g labels is at most (sum of the g largest class scores) + (its label part score);
+ * combinations are grouped by size, each group sorted by label part score,
+ * and visited in the order of this bound until no remaining combination can enter the top K
+ *
+ * the groups are built from the current weights; create a new predictor after the weights change
+ */
+public class PrunedPredictor implements PluginPredictor<CMLCRF> {
+    private static final long serialVersionUID = 1L;
+    private CMLCRF crf;
+    private CombinationIndex combinationIndex;
+    /**
+     * label part score of each combination; all 0 if label pairs are not considered
+     */
+    private double[] labelPartScores;
+    /**
+     * combinations with g labels, sorted by label part score, descending
+     */
+    private int[][] groups;
+
+    private AtomicLong numVisited = new AtomicLong();
+    private AtomicLong numPredictions = new AtomicLong();
+
+    public PrunedPredictor(CMLCRF crf) {
+        this.crf = crf;
+        this.combinationIndex = crf.getCombinationIndex();
+        int numSupports = crf.getNumSupports();
+        this.labelPartScores = new double[numSupports];
+        if (crf.considerPair()){
+            double[] pairWeights = crf.getLabelPairWeights();
+            for (int c=0;c<numSupports;c++){
+                labelPartScores[c] = crf.computeLabelPartScore(c, pairWeights);
+            }
+        }
+        List<List<Integer>> members = new ArrayList<>();
+        for (int g=0;g<=crf.getNumClasses();g++){
+            members.add(new ArrayList<>());
+        }
+        for (int c=0;c<numSupports;c++){
+            members.get(combinationIndex.getNumLabels(c)).add(c);
+        }
+        this.groups = new int[members.size()][];
+        for (int g=0;g<groups.length;g++){
+            groups[g] = members.get(g).stream()
+                    .sorted((c1, c2) -> Double.compare(labelPartScores[c2], labelPartScores[c1]))
+                    .mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    @Override
+    public CMLCRF getModel() {
+        return crf;
+    }
+
+    /**
+     * same as CMLCRF.predict
+     */
+    @Override
+    public MultiLabel predict(Vector vector) {
+        Prediction prediction = predictTopCombinations(vector, 1);
+        return crf.getSupportCombinations().get(prediction.getCombinations()[0]).copy();
+    }
+
+    /**
+     * @param top number of combinations to return
+     * @return the top combinations by score, ties broken by the smaller combination index
+     */
+    public Prediction predictTopCombinations(Vector vector, int top){
+        if (top<1){
+            throw new IllegalArgumentException("top must be positive");
+        }
+        double[] classScores = crf.predictClassScores(vector);
+        double[] sorted = Arrays.copyOf(classScores, classScores.length);
+        Arrays.sort(sorted);
+        // prefix[g] = sum of the g largest class scores
+        double[] prefix = new double[classScores.length+1];
+        for (int g=1;g<prefix.length;g++){
+            prefix[g] = prefix[g-1] + sorted[sorted.length-g];
+        }
+
+        int size = Math.min(top, crf.getNumSupports());
+        int[] topCombinations = new int[size];
+        double[] topScores = new double[size];
+        int numFound = 0;
+        int[] heads = new int[groups.length];
+        int visited = 0;
+        while(true){
+            int bestGroup = -1;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for (int g=0;g<groups.length;g++){
+                if (heads[g]<groups[g].length){
+                    double bound = prefix[g] + labelPartScores[groups[g][heads[g]]];
+                    if (bestGroup==-1 || bound>bestBound){
+                        bestGroup = g;
+                        bestBound = bound;
+                    }
+                }
+            }
+            if (bestGroup==-1){
+                break;
+            }
+            // the bound and the score add up the same numbers in different orders
+            if (numFound==size && bestBound + 1e-9*(1+Math.abs(bestBound)) < topScores[size-1]){
+                break;
+            }
+            int combination = groups[bestGroup][heads[bestGroup]];
+            heads[bestGroup] += 1;
+            visited += 1;
+            double score = combinationIndex.sumLabelScores(combination, classScores);
+            if (crf.considerPair()){
+                score += labelPartScores[combination];
+            }
+            numFound = insert(combination, score, topCombinations, topScores, numFound);
+        }
+        numVisited.addAndGet(visited);
+        numPredictions.incrementAndGet();
+        return new Prediction(topCombinations, topScores, visited);
+    }
+
+    /**
+     * total number of combinations scored by this predictor
+     */
+    public long getNumVisited() {
+        return numVisited.get();
+    }
+
+    /**
+     * average fraction of support combinations scored per prediction
+     */
+    public double getVisitedFraction(){
+        if (numPredictions.get()==0){
+            return 0;
+        }
+        return ((double) numVisited.get())/numPredictions.get()/crf.getNumSupports();
+    }
+
+    /**
+     * insert into the list sorted by score descending, then by index ascending; the list keeps its capacity
+     * @return new number of entries
+     */
+    private static int insert(int combination, double score, int[] combinations, double[] scores, int numFound){
+        int capacity = combinations.length;
+        int position = numFound;
+        while (position>0 && (score>scores[position-1] || (score==scores[position-1] && combination<combinations[position-1]))){
+            position -= 1;
+        }
+        if (position>=capacity){
+            return numFound;
+        }
+        int last = Math.min(numFound, capacity-1);
+        for (int j=last;j>position;j--){
+            combinations[j] = combinations[j-1];
+            scores[j] = scores[j-1];
+        }
+        combinations[position] = combination;
+        scores[position] = score;
+        return Math.min(numFound+1, capacity);
+    }
+
+    public static class Prediction{
+        private int[] combinations;
+        private double[] scores;
+        private int numVisited;
+
+        Prediction(int[] combinations, double[] scores, int numVisited) {
+            this.combinations = combinations;
+            this.scores = scores;
+            this.numVisited = numVisited;
+        }
+
+        /**
+         * indices into the support combinations, best first
+         */
+        public int[] getCombinations() {
+            return combinations;
+        }
+
+        public double[] getScores() {
+            return scores;
+        }
+
+        /**
+         * number of combinations scored for this prediction
+         */
+        public int getNumVisited() {
+            return numVisited;
+        }
+    }
+}
@@ -21,6 +21,22 @@ public class HMLGBLeafOutputCalculator implements LeafOutputCalculator{
             numerator += label*probabilities[i];
             denominator += Math.abs(label) * (1 - Math.abs(label))*probabilities[i];
         }
+        return leafOutput(numerator, denominator);
+    }
+
+    @Override
+    public double getLeafOutput(int[] dataIndices, double[] probabilities, double[] labels) {
+        double numerator = 0;
+        double denominator = 0;
+        for (int p=0;p<dataIndices.length;p++) {
+            double label = labels[dataIndices[p]];
+            numerator += label*probabilities[p];
+            denominator += Math.abs(label) * (1 - Math.abs(label))*probabilities[p];
+        }
+        return leafOutput(numerator, denominator);
+    }
+
+    private double leafOutput(double numerator, double denominator){
         double out;
         if (denominator == 0) {
             out = 0;
@@ -16,6 +16,7 @@ import org.apache.mahout.math.Vector;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 import java.util.stream.IntStream;
 
@@ -156,6 +157,23 @@ public class HMLGBTrainer {
     private void updateClassScores(Regressor regressor, int k){
         DataSet dataSet= this.config.getDataSet();
         int numDataPoints = dataSet.getNumDataPoints();
+        // leaf values are added directly for data points whose leaves are known from training
+        Optional<double[]> trainingPredictions = Optional.empty();
+        if (regressor instanceof RegressionTree){
+            trainingPredictions = ((RegressionTree) regressor).consumeTrainingPredictions();
+        }
+        if (trainingPredictions.isPresent() && trainingPredictions.get().length==numDataPoints){
+            double[] predictions = trainingPredictions.get();
+            IntStream.range(0, numDataPoints).parallel()
+                    .forEach(dataIndex -> {
+                        if (Double.isNaN(predictions[dataIndex])){
+                            this.updateClassScore(regressor, k, dataIndex);
+                        } else {
+                            this.scoreMatrix.increment(dataIndex,k,predictions[dataIndex]);
+                        }
+                    });
+            return;
+        }
         IntStream.range(0, numDataPoints).parallel()
                 .forEach(dataIndex -> this.updateClassScore(regressor, k, dataIndex));
     }
@@ -288,6 +306,7 @@ public class HMLGBTrainer {
         regTreeConfig.setMinDataPerLeaf(this.config.getMinDataPerLeaf());
 
         regTreeConfig.setNumSplitIntervals(this.config.getNumSplitIntervals());
+        regTreeConfig.setRecordLeafMembership(true);
 
         RegressionTree regressionTree = RegTreeTrainer.fit(regTreeConfig,
                 this.config.getDataSet(),
@@ -16,6 +16,7 @@ public class IMLGBConfig {
     private int numSplitIntervals;
     private boolean usePrior;
     private int numActiveFeatures;
+    private boolean useHistogram;
 
     boolean usePrior() {
         return usePrior;
@@ -46,6 +47,10 @@ public class IMLGBConfig {
         return numActiveFeatures;
     }
 
+    boolean useHistogram() {
+        return useHistogram;
+    }
+
     public static class Builder {
         /**
          * required
@@ -61,6 +66,7 @@ public class IMLGBConfig {
         private int numSplitIntervals =100;
         private boolean usePrior = true;
         private int numActiveFeatures=20;
+        private boolean useHistogram = false;
 
         public Builder(MultiLabelClfDataSet dataSet) {
             this.dataSet = dataSet;
@@ -97,6 +103,15 @@ public class IMLGBConfig {
             return this;
         }
 
+        /**
+         * bin the data set once and find splits from per-node histograms
+         * numSplitIntervals is used as the number of bins
+         */
+        public Builder useHistogram(boolean useHistogram) {
+            this.useHistogram = useHistogram;
+            return this;
+        }
+
         //todo add setter for active featureList
 
         public IMLGBConfig build() {
@@ -115,5 +130,6 @@ public class IMLGBConfig {
         this.numSplitIntervals = builder.numSplitIntervals;
         this.usePrior = builder.usePrior;
         this.numActiveFeatures = builder.numActiveFeatures;
+        this.useHistogram = builder.useHistogram;
     }
 }
@@ -2,6 +2,8 @@ package edu.neu.ccs.pyramid.multilabel_classification.imlgb;
 
 import edu.neu.ccs.pyramid.dataset.*;
 import edu.neu.ccs.pyramid.multilabel_classification.MLPriorProbClassifier;
+import edu.neu.ccs.pyramid.optimization.EarlyStopper;
+import edu.neu.ccs.pyramid.optimization.gradient_boosting.Ensemble;
 import edu.neu.ccs.pyramid.regression.ConstantRegressor;
 import edu.neu.ccs.pyramid.regression.Regressor;
 import edu.neu.ccs.pyramid.regression.regression_tree.*;
@@ -11,8 +13,12 @@ import org.apache.logging.log4j.Logger;
 import org.apache.mahout.math.Vector;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -38,6 +44,35 @@ public class IMLGBTrainer {
 
     private boolean[] shouldStop;
 
+    /**
+     * whether the scores of each class are in the score matrix
+     * classes that should stop at construction are not scored
+     */
+    private boolean[] staged;
+
+    /**
+     * nanoseconds spent on each class
+     */
+    private long[] trainingTimes;
+
+    /**
+     * whether a single tree is fit with multiple threads, set when the work set is smaller than the thread pool;
+     * classes are then fit one after another, so that only one level of parallelism runs at a time
+     */
+    private boolean parallelTreeFitting;
+
+    /**
+     * optional, for per-label early stopping
+     */
+    private MultiLabelClfDataSet validSet;
+    private ScoreMatrix validScoreMatrix;
+    private EarlyStopper[] earlyStoppers;
+
+    /**
+     * only used for histogram based training
+     */
+    private BinnedDataSet binnedDataSet;
+
 
     public IMLGBTrainer(IMLGBConfig config,
                         IMLGradientBoosting boosting) {
@@ -56,10 +91,14 @@ public class IMLGBTrainer {
             this.setPriorProbs(dataSet);
         }
         this.initStagedClassScoreMatrix(boosting);
+        if (config.useHistogram()){
+            this.binnedDataSet = BinnedDataSet.build(dataSet, config.getNumSplitIntervals());
+        }
 //        this.gradientMatrix = new FloatGradientMatrix(numDataPoints,numClasses, FloatGradientMatrix.Objective.MAXIMIZE);
 //        List<MultiLabel> assignments = DataSetUtil.gatherMultiLabels(dataSet);
 //        boosting.setAssignments(assignments);
         this.shouldStop = new boolean[numClasses];
+        this.trainingTimes = new long[numClasses];
     }
 
     public IMLGBTrainer(IMLGBConfig config,
@@ -80,7 +119,11 @@ public class IMLGBTrainer {
             this.setPriorProbs(dataSet);
         }
         this.shouldStop = shouldStop;
+        this.trainingTimes = new long[numClasses];
         this.initStagedClassScoreMatrix(boosting, shouldStop);
+        if (config.useHistogram()){
+            this.binnedDataSet = BinnedDataSet.build(dataSet, config.getNumSplitIntervals());
+        }
     }
 
     public void setShouldStop(int classIndex){
@@ -94,89 +137,233 @@ public class IMLGBTrainer {
         return shouldStop;
     }
 
-    public void iterate(){
-
-        List<Integer> allFeatureIndices = IntStream.range(0, this.config.getDataSet().getNumFeatures()).boxed().collect(Collectors.toList());
-
+    /**
+     * average log loss of each label on the training set, computed from the staged scores
+     * labels that were set to stop before the trainer was constructed are not scored and get NaN
+     * @return num classes
+     */
+    public double[] computeLabelLosses(){
+        double[] losses = IMLGradientBoosting.labelLosses(config.getDataSet(), scoreMatrix);
+        for (int k=0;k<losses.length;k++){
+            if (!staged[k]){
+                losses[k] = Double.NaN;
+            }
+        }
+        return losses;
+    }
 
-        IntStream.range(0, this.boosting.getNumClasses()).parallel()
-                .forEach(k->{
-                    if (!shouldStop[k]){
-                        if (logger.isDebugEnabled()){
-                            logger.debug("updating class "+k);
-                        }
-                        Regressor regressor = this.fitClassK(k, allFeatureIndices,false);
-                        this.boosting.addRegressor(regressor, k);
+    /**
+     * incremental training from an existing model
+     * the loss of each label on the new training set is compared with the loss recorded at the end of the previous training;
+     * labels whose loss moved by no more than the tolerance are set to stop, so that the following iterations
+     * only append trees for labels affected by the new data.
+     * If the model has no recorded losses, all labels stay active.
+     * @param tolerance absolute change of the average log loss
+     * @return the number of labels left to train
+     */
+    public int stopUnchangedLabels(double tolerance){
+        double[] previousLosses = boosting.getTrainLabelLosses();
+        int numClasses = boosting.getNumClasses();
+        if (previousLosses!=null && previousLosses.length!=numClasses){
+            throw new IllegalArgumentException("previousLosses.length!=boosting.getNumClasses()");
+        }
+        double[] losses = computeLabelLosses();
+        int numLabelsLeftToTrain = 0;
+        for (int k=0;k<numClasses;k++){
+            if (!shouldStop[k] && previousLosses!=null && Math.abs(losses[k]-previousLosses[k])<=tolerance){
+                setShouldStop(k);
+            }
+            if (!shouldStop[k]){
+                numLabelsLeftToTrain += 1;
+            }
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug(numLabelsLeftToTrain+" labels are left to train");
+        }
+        return numLabelsLeftToTrain;
+    }
 
-                        this.updateStagedClassScores(regressor,k);
-                    }
-                });
+    /**
+     * drop the trailing trees of a class and keep the staged scores consistent
+     * see {@link IMLGradientBoosting#cutTail(int, int)}
+     * @param classIndex
+     * @param numTreesToKeep
+     * @param refit if true, the class is trained again by the following iterations; otherwise it is set to stop
+     */
+    public void cutTail(int classIndex, int numTreesToKeep, boolean refit){
+        List<Regressor> regressors = boosting.getRegressors(classIndex);
+        List<Regressor> removed = new ArrayList<>(regressors.subList(boosting.getNumPriors(classIndex)+numTreesToKeep,
+                regressors.size()));
+        boosting.cutTail(classIndex, numTreesToKeep);
+        if (staged[classIndex]){
+            unstageClassScores(config.getDataSet(), scoreMatrix, removed, classIndex);
+        } else if (refit){
+            restageClassScores(classIndex);
+        }
+        if (validSet!=null){
+            unstageClassScores(validSet, validScoreMatrix, removed, classIndex);
+        }
+        shouldStop[classIndex] = !refit;
     }
 
+    /**
+     * per-label early stopping based on the validation loss
+     * after each new tree, the average log loss of its label on the validation set is given to the label's {@link EarlyStopper},
+     * indexed by the number of trees of the label;
+     * once the stopper fires, the label is rolled back to its best number of trees and removed from the work set
+     * @param validSet
+     * @param patience number of trees without improvement before the label stops
+     * @param minimumIterations labels never stop before they have this number of trees
+     */
+    public void setEarlyStopping(MultiLabelClfDataSet validSet, int patience, int minimumIterations){
+        if (validSet.getNumClasses()!=boosting.getNumClasses()){
+            throw new IllegalArgumentException("validSet.getNumClasses()!=boosting.getNumClasses()");
+        }
+        this.validSet = validSet;
+        this.validScoreMatrix = boosting.predictClassScores(validSet);
+        int numClasses = boosting.getNumClasses();
+        this.earlyStoppers = new EarlyStopper[numClasses];
+        for (int k=0;k<numClasses;k++){
+            earlyStoppers[k] = new EarlyStopper(EarlyStopper.Goal.MINIMIZE, patience);
+            earlyStoppers[k].setMinimumIterations(minimumIterations);
+        }
+    }
 
-    public void iterate(List<Integer>[] activeFeatureLists, boolean fullScan){
-        if (fullScan){
+    public EarlyStopper getEarlyStopper(int classIndex){
+        return earlyStoppers[classIndex];
+    }
 
-            IntStream.range(0, this.boosting.getNumClasses()).parallel()
-                .forEach(k->{
-                    if (!shouldStop[k]){
-                        if (logger.isDebugEnabled()){
-                            logger.debug("updating class "+k);
-                        }
-                        Regressor regressor = this.fitClassK(k, activeFeatureLists[k], true);
-                        this.boosting.addRegressor(regressor, k);
+    /**
+     *
+     * @return number of regressors of each class, including the prior
+     */
+    public int[] getNumTrees(){
+        return IntStream.range(0, boosting.getNumClasses()).map(k -> boosting.getRegressors(k).size()).toArray();
+    }
 
-                        this.updateStagedClassScores(regressor,k);
-                    }
-                });
+    /**
+     *
+     * @return seconds spent on fitting and staging the regressors of each class by this trainer
+     */
+    public double[] getTrainingSeconds(){
+        return Arrays.stream(trainingTimes).mapToDouble(time -> time/1.0E9).toArray();
+    }
 
-        }else{
-            IntStream.range(0, this.boosting.getNumClasses()).parallel()
-                .forEach(k->{
-                    if (!shouldStop[k]){
-                        if (logger.isDebugEnabled()){
-                            logger.debug("updating class "+k);
-                        }
-                        Regressor regressor = this.fitClassK(k, activeFeatureLists[k], false);
-                        this.boosting.addRegressor(regressor, k);
-
-                        this.updateStagedClassScores(regressor,k);
-                    }
-                });
+    /**
+     *
+     * @return one line per class with its number of trees, training time and early stopping status
+     */
+    public String report(){
+        StringBuilder sb = new StringBuilder();
+        int[] numTrees = getNumTrees();
+        double[] seconds = getTrainingSeconds();
+        for (int k=0;k<boosting.getNumClasses();k++){
+            sb.append("class ").append(k).append(": ");
+            sb.append("trees = ").append(numTrees[k]).append(", ");
+            sb.append("seconds = ").append(seconds[k]).append(", ");
+            sb.append("stopped = ").append(shouldStop[k]);
+            if (earlyStoppers!=null){
+                sb.append(", best validation loss = ").append(earlyStoppers[k].getBestValue());
+                sb.append(" with ").append(earlyStoppers[k].getBestIteration()).append(" trees");
+            }
+            sb.append("\n");
         }
+        return sb.toString();
+    }
 
+    public void iterate(){
 
+        List<Integer> allFeatureIndices = IntStream.range(0, this.config.getDataSet().getNumFeatures()).boxed().collect(Collectors.toList());
+
+        updateActiveClasses(k -> {
+            if (binnedDataSet!=null){
+                return this.fitClassKWithHistogram(k);
+            } else {
+                return this.fitClassK(k, allFeatureIndices, false);
+            }
+        }, true);
     }
 
 
-    public void iterateWithoutStagingScores(List<Integer>[] activeFeatureLists, boolean fullScan){
-        if(fullScan){
-            IntStream.range(0, this.boosting.getNumClasses()).parallel()
-                    .forEach(k->{
-                        if (!shouldStop[k]){
-                            if (logger.isDebugEnabled()){
-                                logger.debug("updating class "+k);
-                            }
-                            Regressor regressor = this.fitClassK(k, activeFeatureLists[k], true);
-                            this.boosting.addRegressor(regressor, k);
-                        }
-                    });
+    public void iterate(List<Integer>[] activeFeatureLists, boolean fullScan){
+        updateActiveClasses(k -> this.fitClassK(k, activeFeatureLists[k], fullScan), true);
+    }
 
 
-        }else{
-            IntStream.range(0, this.boosting.getNumClasses()).parallel()
-                    .forEach(k->{
-                        if (!shouldStop[k]){
-                            if (logger.isDebugEnabled()){
-                                logger.debug("updating class "+k);
-                            }
-                            Regressor regressor = this.fitClassK(k, activeFeatureLists[k], false);
-                            this.boosting.addRegressor(regressor, k);
-                        }
-                    });
+    public void iterateWithoutStagingScores(List<Integer>[] activeFeatureLists, boolean fullScan){
+        updateActiveClasses(k -> {
+            RegressionTree regressor = this.fitClassK(k, activeFeatureLists[k], fullScan);
+            regressor.clearLeafMembership();
+            return regressor;
+        }, false);
+    }
 
+    /**
+     * fit one regressor for each class that should not stop
+     * the work set shrinks as classes stop; when it has fewer classes than threads,
+     * the classes are fit one after another and each tree is fit with all threads instead
+     * @param fitter class index to regressor
+     * @param stageScores whether to update the training scores
+     */
+    private void updateActiveClasses(IntFunction<Regressor> fitter, boolean stageScores){
+        int[] activeClasses = IntStream.range(0, this.boosting.getNumClasses()).filter(k -> !shouldStop[k]).toArray();
+        this.parallelTreeFitting = activeClasses.length < ForkJoinPool.getCommonPoolParallelism();
+        IntStream classes = IntStream.of(activeClasses);
+        if (!parallelTreeFitting){
+            classes = classes.parallel();
         }
+        classes.forEach(k->{
+            if (logger.isDebugEnabled()){
+                logger.debug("updating class "+k);
+            }
+            long start = System.nanoTime();
+            Regressor regressor = fitter.apply(k);
+            this.boosting.addRegressor(regressor, k);
+            if (stageScores){
+                this.updateStagedClassScores(regressor,k);
+            } else {
+                staged[k] = false;
+            }
+            trainingTimes[k] += System.nanoTime()-start;
+            if (validSet!=null){
+                this.updateEarlyStopper(regressor, k);
+            }
+        });
+        if (validSet!=null){
+            // the model is shared by all classes, so it is only cut after the parallel loop
+            for (int k: activeClasses){
+                EarlyStopper earlyStopper = earlyStoppers[k];
+                if (earlyStopper.shouldStop() && !shouldStop[k]){
+                    cutTail(k, earlyStopper.getBestIteration(), false);
+                }
+            }
+        }
+    }
 
+    /**
+     * add the new regressor to the validation scores of class k and stop the class if its validation loss converged
+     * a converged class that is past its best iteration is left active, and rolled back after all classes are updated
+     * @param regressor
+     * @param k
+     */
+    private void updateEarlyStopper(Regressor regressor, int k){
+        int numValidData = validSet.getNumDataPoints();
+        double[] predictions = new double[numValidData];
+        regressor.addPredictions(validSet, 0, numValidData, predictions);
+        for (int i=0;i<numValidData;i++){
+            validScoreMatrix.increment(i, k, predictions[i]);
+        }
+        double loss = IMLGradientBoosting.labelLoss(validSet, validScoreMatrix, k);
+        // the prior is not counted, consistent with cutTail
+        int numTrees = boosting.getRegressors(k).size()-boosting.getNumPriors(k);
+        EarlyStopper earlyStopper = earlyStoppers[k];
+        earlyStopper.add(numTrees, loss);
+        if (earlyStopper.shouldStop()){
+            if (earlyStopper.getBestIteration()==numTrees){
+                shouldStop[k] = true;
+            }
+            logger.info("class "+k+" converged with "+earlyStopper.getBestIteration()+" trees, validation loss = "+earlyStopper.getBestValue());
+        }
     }
 
 
@@ -226,15 +413,14 @@ public class IMLGBTrainer {
         this.setPriorProbs(probs);
     }
 
+    /**
+     * one block scored pass over the data set
+     * @param boosting
+     */
     private void initStagedClassScoreMatrix(IMLGradientBoosting boosting){
-        DataSet dataSet = config.getDataSet();
-        IntStream.range(0, dataSet.getNumDataPoints()).parallel()
-                .forEach(i->{
-                    double[] classScores = boosting.predictClassScoresCachedInput(dataSet.getRow(i));
-                    for (int k=0;k<boosting.getNumClasses();k++){
-                        scoreMatrix.setScore(i,k,classScores[k]);
-                    }
-                });
+        boosting.predictClassScores(config.getDataSet(), scoreMatrix);
+        this.staged = new boolean[boosting.getNumClasses()];
+        Arrays.fill(staged, true);
 
 //        int numClasses = this.config.getDataSet().getNumClasses();
 //        IntStream.range(0, numClasses).parallel()
@@ -246,17 +432,52 @@ public class IMLGBTrainer {
 
     }
 
+    /**
+     * one block scored pass over the data set, skipping classes that should stop
+     * @param boosting
+     * @param shouldStop
+     */
     private void initStagedClassScoreMatrix(IMLGradientBoosting boosting, boolean[] shouldStop){
-        DataSet dataSet = config.getDataSet();
-        IntStream.range(0, dataSet.getNumDataPoints()).parallel()
-                .forEach(i->{
-                    double[] classScores = boosting.predictClassScoresCachedInput(dataSet.getRow(i), shouldStop);
-                    for (int k=0;k<boosting.getNumClasses();k++){
-                        if (!shouldStop[k]){
-                            scoreMatrix.setScore(i,k,classScores[k]);
-                        }
-                    }
-                });
+        boosting.predictClassScores(config.getDataSet(), scoreMatrix, shouldStop);
+        this.staged = new boolean[boosting.getNumClasses()];
+        for (int k=0;k<staged.length;k++){
+            staged[k] = !shouldStop[k];
+        }
+    }
+
+    /**
+     * rescore class k from its current regressors
+     * @param k
+     */
+    private void restageClassScores(int k){
+        boolean[] others = new boolean[boosting.getNumClasses()];
+        Arrays.fill(others, true);
+        others[k] = false;
+        boosting.predictClassScores(config.getDataSet(), scoreMatrix, others);
+        staged[k] = true;
+    }
+
+    /**
+     * subtract the predictions of removed regressors from the scores of class k, block by block
+     * @param dataSet
+     * @param scoreMatrix
+     * @param removed
+     * @param k
+     */
+    private static void unstageClassScores(DataSet dataSet, ScoreMatrix scoreMatrix, List<Regressor> removed, int k){
+        int numDataPoints = dataSet.getNumDataPoints();
+        int numBlocks = (numDataPoints+Ensemble.BLOCK_SIZE-1)/Ensemble.BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*Ensemble.BLOCK_SIZE;
+            int toRow = Math.min(numDataPoints, fromRow+Ensemble.BLOCK_SIZE);
+            double[] predictions = new double[toRow-fromRow];
+            for (Regressor regressor: removed){
+                regressor.addPredictions(dataSet, fromRow, toRow, predictions);
+            }
+            for (int i=fromRow;i<toRow;i++){
+                scoreMatrix.increment(i, k, -predictions[i-fromRow]);
+            }
+        });
     }
 
 
@@ -269,6 +490,22 @@ public class IMLGBTrainer {
     private void updateStagedClassScores(Regressor regressor, int k){
         DataSet dataSet= this.config.getDataSet();
         int numDataPoints = dataSet.getNumDataPoints();
+        // leaf values are added directly for data points whose leaves are known from training
+        Optional<double[]> trainingPredictions = Optional.empty();
+        if (regressor instanceof RegressionTree){
+            trainingPredictions = ((RegressionTree) regressor).consumeTrainingPredictions();
+        }
+        if (trainingPredictions.isPresent() && trainingPredictions.get().length==numDataPoints){
+            double[] predictions = trainingPredictions.get();
+            for (int dataIndex=0;dataIndex<numDataPoints;dataIndex++){
+                if (Double.isNaN(predictions[dataIndex])){
+                    this.updateStagedClassScore(regressor, k, dataIndex);
+                } else {
+                    this.scoreMatrix.increment(dataIndex,k,predictions[dataIndex]);
+                }
+            }
+            return;
+        }
         IntStream.range(0, numDataPoints)
                 .forEach(dataIndex -> this.updateStagedClassScore(regressor, k, dataIndex));
     }
@@ -319,6 +556,35 @@ public class IMLGBTrainer {
         return gradient;
     }
 
+    /**
+     * find the best regression tree for class k from the pre-binned data set
+     * apply learning rate
+     * @param k class index
+     * @return regression tree, shrunk
+     */
+    private RegressionTree fitClassKWithHistogram(int k){
+        double[] gradients = computeGradientForClass(k);
+        double[] weights = new double[gradients.length];
+        Arrays.fill(weights,1.0);
+        LeafOutputCalculator leafOutputCalculator = new AverageOutputCalculator();
+
+        RegTreeConfig regTreeConfig = new RegTreeConfig();
+        regTreeConfig.setMaxNumLeaves(this.config.getNumLeaves());
+        regTreeConfig.setMinDataPerLeaf(this.config.getMinDataPerLeaf());
+        regTreeConfig.setNumSplitIntervals(this.config.getNumSplitIntervals());
+        regTreeConfig.setParallel(parallelTreeFitting);
+        regTreeConfig.setRecordLeafMembership(true);
+
+        RegressionTree regressionTree = RegTreeTrainer.fit(regTreeConfig,
+                this.config.getDataSet(),
+                binnedDataSet,
+                gradients,
+                weights,
+                leafOutputCalculator);
+        regressionTree.shrink(this.config.getLearningRate());
+        return regressionTree;
+    }
+
     /**
      * parallel
      * find the best regression tree for class k
@@ -340,7 +606,8 @@ public class IMLGBTrainer {
             regTreeConfig.setMinDataPerLeaf(this.config.getMinDataPerLeaf());
 
             regTreeConfig.setNumSplitIntervals(this.config.getNumSplitIntervals());
-            regTreeConfig.setParallel(false);
+            regTreeConfig.setParallel(parallelTreeFitting);
+            regTreeConfig.setRecordLeafMembership(true);
             regTreeConfig.setNumActiveFeatures(this.config.getNumActiveFeatures());
 
             RegressionTree regressionTree = ActiveRegTreeTrainer.fit(regTreeConfig,
@@ -365,7 +632,8 @@ public class IMLGBTrainer {
             regTreeConfig.setMinDataPerLeaf(this.config.getMinDataPerLeaf());
 
             regTreeConfig.setNumSplitIntervals(this.config.getNumSplitIntervals());
-            regTreeConfig.setParallel(false);
+            regTreeConfig.setParallel(parallelTreeFitting);
+            regTreeConfig.setRecordLeafMembership(true);
             regTreeConfig.setNumActiveFeatures(this.config.getNumActiveFeatures());
 
             RegressionTree regressionTree = ActiveRegTreeTrainer.fit(regTreeConfig,
@@ -1,10 +1,16 @@
 package edu.neu.ccs.pyramid.multilabel_classification.imlgb;
 
 import edu.neu.ccs.pyramid.dataset.CachedAccessOnlyVector;
+import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.ScoreMatrix;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
+import edu.neu.ccs.pyramid.optimization.gradient_boosting.CompiledEnsemble;
+import edu.neu.ccs.pyramid.optimization.gradient_boosting.Ensemble;
+import edu.neu.ccs.pyramid.regression.ConstantRegressor;
 import edu.neu.ccs.pyramid.regression.Regressor;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.mahout.math.DenseVector;
@@ -13,6 +19,7 @@ import org.apache.mahout.math.Vector;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.IntStream;
 
@@ -34,6 +41,19 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
     private LabelTranslator labelTranslator;
     @Deprecated
     private PredictFashion predictFashion = PredictFashion.INDEPENDENT;
+    /**
+     * flattened form of the regressors for fast inference, see {@link #compile()}
+     */
+    private transient CompiledEnsemble[] compiledEnsembles;
+    /**
+     * number of regressors of each class at compile time
+     */
+    private transient int[] compiledSizes;
+    /**
+     * average log loss of each label on the training set at the end of training, optional
+     * used by incremental training to find the labels affected by new data
+     */
+    private double[] trainLabelLosses;
 
     public IMLGradientBoosting(int numClasses) {
         this.numClasses = numClasses;
@@ -56,6 +76,14 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
         this.assignments = assignments;
     }
 
+    public double[] getTrainLabelLosses() {
+        return trainLabelLosses;
+    }
+
+    public void setTrainLabelLosses(double[] trainLabelLosses) {
+        this.trainLabelLosses = trainLabelLosses;
+    }
+
     void addRegressor(Regressor regressor, int k){
         this.regressors.get(k).add(regressor);
     }
@@ -95,6 +123,9 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
      * @return
      */
     public double predictClassScore(Vector vector, int k){
+        if (isCompiled()){
+            return compiledEnsembles[k].score(vector);
+        }
         List<Regressor> regressorsClassK = this.regressors.get(k);
         double score = 0;
         for (Regressor regressor: regressorsClassK){
@@ -104,6 +135,9 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
     }
 
     public double[] predictClassScores(Vector vector){
+        if (isCompiled()){
+            return CompiledEnsemble.scores(compiledEnsembles, vector);
+        }
         int numClasses = this.numClasses;
         double[] scores = new double[numClasses];
         for (int k=0;k<numClasses;k++){
@@ -124,12 +158,177 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
     }
 
 
+    /**
+     * block scoring
+     * blocks of {@link Ensemble#BLOCK_SIZE} rows are scored in parallel;
+     * within a block, each regressor scores all rows before moving to the next one
+     * @param dataSet
+     * @return num data * num classes
+     */
+    public ScoreMatrix predictClassScores(DataSet dataSet){
+        ScoreMatrix scoreMatrix = new ScoreMatrix(dataSet.getNumDataPoints(), numClasses);
+        predictClassScores(dataSet, scoreMatrix);
+        return scoreMatrix;
+    }
+
+    /**
+     * block scoring
+     * @param dataSet
+     * @param scoreMatrix output, num data * num classes
+     */
+    public void predictClassScores(DataSet dataSet, ScoreMatrix scoreMatrix){
+        predictClassScores(dataSet, scoreMatrix, new boolean[numClasses]);
+    }
+
+    /**
+     * block scoring of the classes that should not stop
+     * scores of the other classes are left untouched in the score matrix
+     * @param dataSet
+     * @param scoreMatrix output, num data * num classes
+     * @param shouldStop classes to skip
+     */
+    public void predictClassScores(DataSet dataSet, ScoreMatrix scoreMatrix, boolean[] shouldStop){
+        int numDataPoints = dataSet.getNumDataPoints();
+        if (scoreMatrix.getNumDataPoints()!=numDataPoints || scoreMatrix.getNumClasses()!=numClasses){
+            throw new IllegalArgumentException("score matrix size does not match");
+        }
+        int numBlocks = (numDataPoints+Ensemble.BLOCK_SIZE-1)/Ensemble.BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*Ensemble.BLOCK_SIZE;
+            int toRow = Math.min(numDataPoints, fromRow+Ensemble.BLOCK_SIZE);
+            double[][] scores = predictClassScores(dataSet, fromRow, toRow, shouldStop);
+            for (int i=fromRow;i<toRow;i++){
+                for (int k=0;k<numClasses;k++){
+                    if (!shouldStop[k]){
+                        scoreMatrix.setScore(i, k, scores[i-fromRow][k]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * block scoring of consecutive rows
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive
+     * @return [row-fromRow][class]
+     */
+    public double[][] predictClassScores(DataSet dataSet, int fromRow, int toRow){
+        return predictClassScores(dataSet, fromRow, toRow, new boolean[numClasses]);
+    }
+
+    /**
+     * scores of classes that should stop are 0, unless the compiled form is used
+     */
+    private double[][] predictClassScores(DataSet dataSet, int fromRow, int toRow, boolean[] shouldStop){
+        double[][] scores = new double[toRow-fromRow][];
+        if (isCompiled()){
+            for (int i=fromRow;i<toRow;i++){
+                scores[i-fromRow] = CompiledEnsemble.scores(compiledEnsembles, dataSet.getRow(i));
+            }
+            return scores;
+        }
+        for (int i=fromRow;i<toRow;i++){
+            scores[i-fromRow] = new double[numClasses];
+        }
+        double[] classScores = new double[toRow-fromRow];
+        for (int k=0;k<numClasses;k++){
+            if (shouldStop[k]){
+                continue;
+            }
+            Arrays.fill(classScores, 0);
+            for (Regressor regressor: regressors.get(k)){
+                regressor.addPredictions(dataSet, fromRow, toRow, classScores);
+            }
+            for (int i=fromRow;i<toRow;i++){
+                scores[i-fromRow][k] = classScores[i-fromRow];
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * average log loss of each label, with block scoring
+     * @param dataSet
+     * @return num classes
+     */
+    public double[] labelLosses(MultiLabelClfDataSet dataSet){
+        return labelLosses(dataSet, predictClassScores(dataSet));
+    }
+
+    /**
+     * average log loss of each label from given scores
+     * @param dataSet
+     * @param scoreMatrix num data * num classes
+     * @return num classes
+     */
+    static double[] labelLosses(MultiLabelClfDataSet dataSet, ScoreMatrix scoreMatrix){
+        return IntStream.range(0, scoreMatrix.getNumClasses()).parallel()
+                .mapToDouble(k -> labelLoss(dataSet, scoreMatrix, k)).toArray();
+    }
+
+    /**
+     * average log loss of class k from given scores
+     * @param dataSet
+     * @param scoreMatrix num data * num classes
+     * @param k class index
+     * @return
+     */
+    static double labelLoss(MultiLabelClfDataSet dataSet, ScoreMatrix scoreMatrix, int k){
+        int numDataPoints = dataSet.getNumDataPoints();
+        MultiLabel[] multiLabels = dataSet.getMultiLabels();
+        double sum = 0;
+        for (int i=0;i<numDataPoints;i++){
+            double score = scoreMatrix.getScoresForData(i)[k];
+            // -log p(y_k) = log(1+exp(-score)) for positives and log(1+exp(score)) for negatives
+            double margin = multiLabels[i].matchClass(k) ? -score : score;
+            sum += Math.max(margin, 0) + Math.log1p(Math.exp(-Math.abs(margin)));
+        }
+        return numDataPoints==0 ? 0 : sum/numDataPoints;
+    }
+
+    /**
+     * Hamming Loss optimal prediction with block scoring
+     * @param dataSet
+     * @return
+     */
+    @Override
+    public MultiLabel[] predict(MultiLabelClfDataSet dataSet) {
+        int numDataPoints = dataSet.getNumDataPoints();
+        MultiLabel[] predictions = new MultiLabel[numDataPoints];
+        int numBlocks = (numDataPoints+Ensemble.BLOCK_SIZE-1)/Ensemble.BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*Ensemble.BLOCK_SIZE;
+            int toRow = Math.min(numDataPoints, fromRow+Ensemble.BLOCK_SIZE);
+            double[][] scores = predictClassScores(dataSet, fromRow, toRow);
+            for (int i=fromRow;i<toRow;i++){
+                MultiLabel prediction = new MultiLabel();
+                for (int k=0;k<numClasses;k++){
+                    if (scores[i-fromRow][k] > 0){
+                        prediction.addLabel(k);
+                    }
+                }
+                predictions[i] = prediction;
+            }
+        });
+        return predictions;
+    }
+
     double[] predictClassScoresCachedInput(Vector vector){
+        // the compiled form reads every non-zero once anyway
+        // other vectors, e.g. dense or compressed ones, have cheap random access already
+        if (isCompiled() || !(vector instanceof RandomAccessSparseVector)){
+            return predictClassScores(vector);
+        }
         Vector cachedVector = new CachedAccessOnlyVector((RandomAccessSparseVector) vector);
         return predictClassScores(cachedVector);
     }
 
     double[] predictClassScoresCachedInput(Vector vector, boolean[] shouldStop){
+        if (isCompiled() || !(vector instanceof RandomAccessSparseVector)){
+            return predictClassScores(vector, shouldStop);
+        }
         Vector cachedVector = new CachedAccessOnlyVector((RandomAccessSparseVector) vector);
         return predictClassScores(cachedVector, shouldStop);
     }
@@ -139,10 +338,60 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
         return this.regressors.get(k);
     }
 
+    /**
+     *
+     * @return 1 if the regressors of the class start with a constant prior, 0 otherwise
+     */
+    public int getNumPriors(int classIndex){
+        List<Regressor> regressorsClassK = getRegressors(classIndex);
+        if (!regressorsClassK.isEmpty() && regressorsClassK.get(0) instanceof ConstantRegressor){
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * keep the prior, if any, and the first numTreesToKeep trees of the class
+     * not thread-safe; call it when no other thread trains or scores with this model
+     */
     public void cutTail(int classIndex, int numTreesToKeep){
-        int size = getRegressors(classIndex).size();
-        // assuming the first regressor is the prior
-        getRegressors(classIndex).subList(numTreesToKeep+1, size).clear();
+        List<Regressor> regressorsClassK = getRegressors(classIndex);
+        regressorsClassK.subList(getNumPriors(classIndex)+numTreesToKeep, regressorsClassK.size()).clear();
+        this.compiledEnsembles = null;
+    }
+
+    /**
+     * flatten the regressors of all classes into primitive arrays for fast inference
+     * should be called again if regressors are modified in place after compilation;
+     * newly added regressors are detected and make scoring fall back to the original regressors
+     */
+    public void compile(){
+        CompiledEnsemble[] compiledEnsembles = new CompiledEnsemble[numClasses];
+        int[] compiledSizes = new int[numClasses];
+        for (int k=0;k<numClasses;k++){
+            List<Regressor> regressorsClassK = this.regressors.get(k);
+            compiledEnsembles[k] = CompiledEnsemble.compile(regressorsClassK);
+            compiledSizes[k] = regressorsClassK.size();
+        }
+        this.compiledSizes = compiledSizes;
+        this.compiledEnsembles = compiledEnsembles;
+    }
+
+    /**
+     *
+     * @return whether the compiled form is available and up to date
+     */
+    public boolean isCompiled(){
+        CompiledEnsemble[] compiledEnsembles = this.compiledEnsembles;
+        if (compiledEnsembles==null){
+            return false;
+        }
+        for (int k=0;k<numClasses;k++){
+            if (this.regressors.get(k).size()!=compiledSizes[k]){
+                return false;
+            }
+        }
+        return true;
     }
 
 
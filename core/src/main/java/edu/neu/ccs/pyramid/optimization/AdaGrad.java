@@ -0,0 +1,34 @@
+package edu.neu.ccs.pyramid.optimization;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * Duchi, John, Elad Hazan, and Yoram Singer.
+ * "Adaptive subgradient methods for online learning and stochastic optimization."
+ * Journal of Machine Learning Research 12 (2011): 2121-2159.
+ * per parameter learning rates, scaled by the accumulated squared gradients
+ */
+public class AdaGrad extends StochasticOptimizer{
+    private double epsilon = 1e-8;
+    private double[] squareSums;
+
+    public AdaGrad(Optimizable.ByBatchGradient function) {
+        super(function);
+    }
+
+    @Override
+    protected void update(double[] parameters, Vector gradient) {
+        if (squareSums==null || squareSums.length!=parameters.length){
+            squareSums = new double[parameters.length];
+        }
+        for (int i=0;i<parameters.length;i++){
+            double g = gradient.getQuick(i);
+            squareSums[i] += g*g;
+            parameters[i] -= learningRate*g/(Math.sqrt(squareSums[i])+epsilon);
+        }
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+}
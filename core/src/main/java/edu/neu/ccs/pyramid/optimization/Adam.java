@@ -0,0 +1,55 @@
+package edu.neu.ccs.pyramid.optimization;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * Kingma, Diederik, and Jimmy Ba.
+ * "Adam: A method for stochastic optimization."
+ * arXiv preprint arXiv:1412.6980 (2014).
+ * Algorithm 1, with bias-corrected first and second moment estimates
+ */
+public class Adam extends StochasticOptimizer{
+    private double beta1 = 0.9;
+    private double beta2 = 0.999;
+    private double epsilon = 1e-8;
+    private double[] firstMoments;
+    private double[] secondMoments;
+    private int numSteps;
+
+    public Adam(Optimizable.ByBatchGradient function) {
+        super(function);
+        this.learningRate = 0.001;
+    }
+
+    @Override
+    protected void update(double[] parameters, Vector gradient) {
+        if (firstMoments==null || firstMoments.length!=parameters.length){
+            firstMoments = new double[parameters.length];
+            secondMoments = new double[parameters.length];
+            numSteps = 0;
+        }
+        numSteps += 1;
+        double correction1 = 1-Math.pow(beta1, numSteps);
+        double correction2 = 1-Math.pow(beta2, numSteps);
+        for (int i=0;i<parameters.length;i++){
+            double g = gradient.getQuick(i);
+            firstMoments[i] = beta1*firstMoments[i] + (1-beta1)*g;
+            secondMoments[i] = beta2*secondMoments[i] + (1-beta2)*g*g;
+            double m = firstMoments[i]/correction1;
+            double v = secondMoments[i]/correction2;
+            parameters[i] -= learningRate*m/(Math.sqrt(v)+epsilon);
+        }
+    }
+
+    public void setBeta1(double beta1) {
+        this.beta1 = beta1;
+    }
+
+    public void setBeta2(double beta2) {
+        this.beta2 = beta2;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+}
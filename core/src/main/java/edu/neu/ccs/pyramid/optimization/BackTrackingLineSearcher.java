@@ -87,6 +87,62 @@ public class BackTrackingLineSearcher {
         return moveInfo;
     }
 
+    /**
+     * allocation-free version for optimizers that keep their own buffers; the step is not set in the returned info
+     * trial parameters are assigned to the function's own parameter vector in place
+     * @param position current parameters, unchanged
+     * @param searchDirection replaced in place by the negative gradient if it is not a descent direction
+     * @param target receives the new parameters
+     */
+    MoveInfo moveAlongDirection(double[] position, double[] searchDirection, double[] target){
+        MoveInfo moveInfo = new MoveInfo();
+
+        double stepLength = initialStepLength;
+        double value = function.getValue();
+        moveInfo.setOldValue(value);
+        Vector gradient = function.getGradient();
+        double product = 0;
+        for (int i=0;i<searchDirection.length;i++){
+            product += gradient.getQuick(i)*searchDirection[i];
+        }
+        if (product >= 0){
+            if (logger.isWarnEnabled()) {
+                logger.warn("Bad search direction! Use negative gradient instead. Product of gradient and search direction = " + product);
+            }
+            product = 0;
+            for (int i=0;i<searchDirection.length;i++){
+                double g = gradient.getQuick(i);
+                searchDirection[i] = -g;
+                product -= g*g;
+            }
+        }
+
+        Vector parameters = function.getParameters();
+        while(true){
+            for (int i=0;i<target.length;i++){
+                target[i] = position[i] + stepLength*searchDirection[i];
+            }
+            parameters.assign(target);
+            // lets the function drop its caches
+            function.setParameters(parameters);
+
+            double targetValue = function.getValue();
+            if (logger.isDebugEnabled()){
+                logger.debug("step length = "+stepLength+", target value = "+targetValue);
+            }
+            if ((targetValue <= value + c*stepLength*product && value<Double.POSITIVE_INFINITY )|| stepLength==0){
+                moveInfo.setStepLength(stepLength);
+                moveInfo.setNewValue(targetValue);
+                break;
+            }
+            stepLength *= shrinkage;
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug("line search done. "+moveInfo);
+        }
+        return moveInfo;
+    }
+
 
 
     public void setInitialStepLength(double initialStepLength) {
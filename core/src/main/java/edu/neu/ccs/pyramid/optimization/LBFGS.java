@@ -1,12 +1,12 @@
 package edu.neu.ccs.pyramid.optimization;
 
+import edu.neu.ccs.pyramid.util.MathUtil;
+import edu.neu.ccs.pyramid.util.Vectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 
 /**
@@ -16,6 +16,11 @@ import java.util.LinkedList;
  * "A regularized limited memory BFGS method for nonconvex unconstrained minimization."
  * Numerical Algorithms 65.2 (2014): 305-323.
  * Formula 2.7
+ *
+ * the s/y history is kept in a ring of preallocated arrays, and the two-loop recursion runs in place,
+ * so an iteration does not allocate parameter-sized objects
+ * trial parameters are written into the function's own parameter vector in place;
+ * copy function.getParameters() to keep a snapshot
  * Created by chengli on 12/9/14.
  */
 public class LBFGS extends GradientValueOptimizer implements Optimizer{
@@ -25,27 +30,45 @@ public class LBFGS extends GradientValueOptimizer implements Optimizer{
      * history length;
      */
     private double m = 5;
-    private LinkedList<Vector> sQueue;
-    private LinkedList<Vector> yQueue;
-    private LinkedList<Double> rhoQueue;
 
+    /**
+     * ring buffers of the last m steps and gradient changes; slots are allocated when first used
+     */
+    private double[][] sHistory;
+    private double[][] yHistory;
+    private double[] rhos;
+    private double[] alphas;
+    /**
+     * number of stored pairs
+     */
+    private int numPairs;
+    /**
+     * slot of the latest pair
+     */
+    private int latest;
+    /**
+     * scaling factor of the initial inverse Hessian, from the latest pair
+     */
+    private double gamma = 1;
+
+    private double[] direction;
+    /**
+     * the parameters at the start of the iteration, and the trial parameters of the line search
+     */
+    private double[] position;
+    private double[] target;
 
 
     public LBFGS(Optimizable.ByGradientValue function) {
         super(function);
         this.lineSearcher = new BackTrackingLineSearcher(function);
         lineSearcher.setInitialStepLength(1);
-        this.sQueue = new LinkedList<>();
-        this.yQueue = new LinkedList<>();
-        this.rhoQueue = new LinkedList<>();
-
     }
 
 
     private void reset(){
-        this.sQueue = new LinkedList<>();
-        this.yQueue = new LinkedList<>();
-        this.rhoQueue = new LinkedList<>();
+        this.numPairs = 0;
+        this.gamma = 1;
     }
 
 
@@ -53,19 +76,42 @@ public class LBFGS extends GradientValueOptimizer implements Optimizer{
         if (logger.isDebugEnabled()){
             logger.debug("start one iteration");
         }
+        int numParameters = function.getParameters().size();
+        if (direction==null || direction.length!=numParameters){
+            allocate(numParameters);
+        }
+        // re-read every iteration, as the parameters may be set from outside between iterations
+        Vectors.copy(function.getParameters(), position);
 
-        // we need to make a copy of the gradient; should not use pointer
-        Vector oldGradient = new DenseVector(function.getGradient());
-        Vector direction = findDirection();
+        Vector oldGradient = function.getGradient();
+        findDirection(oldGradient);
         if (logger.isDebugEnabled()){
-            logger.debug("norm of direction = "+direction.norm(2));
+            logger.debug("norm of direction = "+ MathUtil.l2Norm(direction));
+        }
+
+        // the new pair goes to the slot of the oldest one, which is no longer needed
+        int slot = (latest+1)%rhos.length;
+        if (sHistory[slot]==null){
+            sHistory[slot] = new double[numParameters];
+            yHistory[slot] = new double[numParameters];
         }
-        BackTrackingLineSearcher.MoveInfo moveInfo = lineSearcher.moveAlongDirection(direction);
+        double[] s = sHistory[slot];
+        double[] y = yHistory[slot];
+        // we need to make a copy of the gradient; should not use pointer
+        Vectors.copy(oldGradient, y);
+
+        BackTrackingLineSearcher.MoveInfo moveInfo = lineSearcher.moveAlongDirection(position, direction, target);
 
-        Vector s = moveInfo.getStep();
+        double stepLength = moveInfo.getStepLength();
         Vector newGradient = function.getGradient();
-        Vector y = newGradient.minus(oldGradient);
-        double denominator = y.dot(s);
+        double denominator = 0;
+        double yy = 0;
+        for (int i=0;i<numParameters;i++){
+            s[i] = stepLength*direction[i];
+            y[i] = newGradient.getQuick(i) - y[i];
+            denominator += y[i]*s[i];
+            yy += y[i]*y[i];
+        }
 
         //todo what to do if denominator is not positive?
         // round-off errors and an ill-conditioned inverse Hessian
@@ -88,20 +134,20 @@ public class LBFGS extends GradientValueOptimizer implements Optimizer{
 
 
         if (logger.isDebugEnabled()){
-            if (y.size()<100){
-                logger.debug("y= "+y);
-                logger.debug("s= " + s);
+            if (numParameters<100){
+                logger.debug("y= "+ Arrays.toString(y));
+                logger.debug("s= " + Arrays.toString(s));
             }
             logger.debug("denominator = "+denominator);
             logger.debug("rho = "+rho);
         }
-        sQueue.add(s);
-        yQueue.add(y);
-        rhoQueue.add(rho);
-        if (sQueue.size()>m){
-            sQueue.remove();
-            yQueue.remove();
-            rhoQueue.remove();
+        rhos[slot] = rho;
+        latest = slot;
+        numPairs = Math.min(numPairs+1, rhos.length);
+        if (yy>0){
+            gamma = denominator/yy;
+        } else {
+            gamma = 1;
         }
         double value = function.getValue();
         terminator.add(value);
@@ -110,73 +156,106 @@ public class LBFGS extends GradientValueOptimizer implements Optimizer{
         }
     }
 
-    Vector findDirection(){
-        Vector g = function.getGradient();
-        // todo
-//        if (rhoQueue.size()==0){
-//            if (logger.isDebugEnabled()){
-//                logger.debug("use negative gradient as search direction");
-//            }
-//            return g.times(-1);
-//        }
-
-        //using dense vector is much faster
-        Vector q = new DenseVector(g.size());
-        q.assign(g);
-        Iterator<Double> rhoDesIterator = rhoQueue.descendingIterator();
-        Iterator<Vector> sDesIterator = sQueue.descendingIterator();
-        Iterator<Vector> yDesIterator = yQueue.descendingIterator();
-
-        LinkedList<Double> alphaQueue = new LinkedList<>();
-
-        while(rhoDesIterator.hasNext()){
-            double rho = rhoDesIterator.next();
-            Vector s = sDesIterator.next();
-            Vector y = yDesIterator.next();
-            double alpha = s.dot(q) * rho;
-            alphaQueue.addFirst(alpha);
-            //seems no need to use "assign"
-            q = q.minus(y.times(alpha));
+    /**
+     * two-loop recursion, writes -H*gradient into direction
+     * the recursion is linear, so it starts from -gradient and needs no final negation
+     * each history step fuses its update with the dot product needed by the next step
+     */
+    private void findDirection(Vector gradient){
+        double[] q = direction;
+        Vectors.copy(gradient, q);
+        for (int i=0;i<q.length;i++){
+            q[i] = -q[i];
+        }
+        if (numPairs==0){
+            return;
+        }
+        int size = rhos.length;
+        // from the latest pair to the oldest one
+        double sq = dot(sHistory[latest], q);
+        for (int t=0;t<numPairs;t++){
+            int slot = (latest-t+size)%size;
+            double alpha = rhos[slot]*sq;
+            alphas[slot] = alpha;
+            if (t+1<numPairs){
+                int next = (slot-1+size)%size;
+                sq = axpyDot(-alpha, yHistory[slot], q, sHistory[next]);
+            } else {
+                axpyDot(-alpha, yHistory[slot], q, null);
+            }
         }
 
-        double gamma = gamma();
         //use H_k^0 = gamma I
-        Vector r = q.times(gamma);
-        Iterator<Double> rhoIterator = rhoQueue.iterator();
-        Iterator<Vector> sIterator = sQueue.iterator();
-        Iterator<Vector> yIterator = yQueue.iterator();
-        Iterator<Double> alphaIterator = alphaQueue.iterator();
-        while(rhoIterator.hasNext()){
-            double rho = rhoIterator.next();
-            Vector s = sIterator.next();
-            Vector y = yIterator.next();
-            double alpha = alphaIterator.next();
-            double beta = y.dot(r) * rho;
-            r = r.plus(s.times(alpha - beta));
-        }
-
-        return r.times(-1);
+        int oldest = (latest-numPairs+1+size)%size;
+        double yr = scaleDot(gamma, q, yHistory[oldest]);
+        // from the oldest pair to the latest one
+        for (int t=0;t<numPairs;t++){
+            int slot = (oldest+t)%size;
+            double beta = rhos[slot]*yr;
+            if (t+1<numPairs){
+                int next = (slot+1)%size;
+                yr = axpyDot(alphas[slot]-beta, sHistory[slot], q, yHistory[next]);
+            } else {
+                axpyDot(alphas[slot]-beta, sHistory[slot], q, null);
+            }
+        }
+    }
+
+    /**
+     * x += a*y, then returns z.x (0 if z is null)
+     */
+    private static double axpyDot(double a, double[] y, double[] x, double[] z){
+        double product = 0;
+        if (z==null){
+            for (int i=0;i<x.length;i++){
+                x[i] += a*y[i];
+            }
+        } else {
+            for (int i=0;i<x.length;i++){
+                x[i] += a*y[i];
+                product += z[i]*x[i];
+            }
+        }
+        return product;
     }
 
     /**
-     * scaling factor
-     * @return
+     * x *= a, then returns z.x
      */
-    double gamma(){
-        if (sQueue.isEmpty()){
-            return 1;
+    private static double scaleDot(double a, double[] x, double[] z){
+        double product = 0;
+        for (int i=0;i<x.length;i++){
+            x[i] *= a;
+            product += z[i]*x[i];
         }
-        Vector s = sQueue.getLast();
-        Vector y = yQueue.getLast();
-        double denominator = y.dot(y);
-        if (denominator<=0){
-            return 1;
+        return product;
+    }
+
+    private static double dot(double[] x, double[] y){
+        double product = 0;
+        for (int i=0;i<x.length;i++){
+            product += x[i]*y[i];
         }
-        return (s.dot(y)) / (y.dot(y));
+        return product;
+    }
+
+    private void allocate(int numParameters){
+        int size = Math.max(1, (int) m);
+        this.sHistory = new double[size][];
+        this.yHistory = new double[size][];
+        this.rhos = new double[size];
+        this.alphas = new double[size];
+        this.latest = size-1;
+        this.direction = new double[numParameters];
+        this.position = new double[numParameters];
+        this.target = new double[numParameters];
+        reset();
     }
 
     public void setHistory(double m) {
         this.m = m;
+        // buffers are re-allocated with the new length in the next iteration
+        this.direction = null;
     }
 
 
@@ -27,4 +27,19 @@ public interface Optimizable{
 
     }
 
+    /**
+     * the value is a sum of per data point losses plus a penalty, so the gradient can be estimated on a subset of rows
+     */
+    public interface ByBatchGradient extends Optimizable.ByGradientValue{
+        int getNumDataPoints();
+
+        /**
+         * average gradient of the per data point losses over the given data points,
+         * plus the penalty gradient divided by the number of data points;
+         * an unbiased estimate of the gradient of getValue()/getNumDataPoints()
+         * @param dataIndices indices of the data points in the batch
+         */
+        Vector getBatchGradient(int[] dataIndices);
+    }
+
 }
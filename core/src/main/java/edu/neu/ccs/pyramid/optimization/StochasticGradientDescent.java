@@ -0,0 +1,34 @@
+package edu.neu.ccs.pyramid.optimization;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * mini-batch gradient descent with momentum
+ * v = momentum*v - learningRate*g; w = w + v
+ */
+public class StochasticGradientDescent extends StochasticOptimizer{
+    private double momentum = 0.9;
+    private double[] velocity;
+
+    public StochasticGradientDescent(Optimizable.ByBatchGradient function) {
+        super(function);
+    }
+
+    @Override
+    protected void update(double[] parameters, Vector gradient) {
+        if (velocity==null || velocity.length!=parameters.length){
+            velocity = new double[parameters.length];
+        }
+        for (int i=0;i<parameters.length;i++){
+            velocity[i] = momentum*velocity[i] - learningRate*gradient.getQuick(i);
+            parameters[i] += velocity[i];
+        }
+    }
+
+    /**
+     * 0 gives plain stochastic gradient descent
+     */
+    public void setMomentum(double momentum) {
+        this.momentum = momentum;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.neu.ccs.pyramid.optimization;
+
+import edu.neu.ccs.pyramid.util.Vectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * mini-batch optimizers; each step only touches the rows of one batch
+ * one iteration is one epoch over a shuffled order of the data points;
+ * the shuffling only depends on the seed, so runs are reproducible
+ * the full objective is evaluated once per epoch for the terminator
+ */
+public abstract class StochasticOptimizer implements Optimizer{
+    private static final Logger logger = LogManager.getLogger();
+    protected Optimizable.ByBatchGradient function;
+    protected Terminator terminator;
+    protected double learningRate = 0.01;
+    private int batchSize = 100;
+    private long seed = 0;
+    private Random random;
+    private int[] order;
+    private int numEpochs;
+
+    private double[] parameters;
+    private Vector parameterVector;
+
+    public StochasticOptimizer(Optimizable.ByBatchGradient function) {
+        this.function = function;
+        this.terminator = new Terminator();
+        this.terminator.setGoal(Terminator.Goal.MINIMIZE);
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void optimize() {
+        while(true){
+            iterate();
+            if (terminator.shouldTerminate()){
+                break;
+            }
+        }
+    }
+
+    /**
+     * one epoch
+     */
+    public void iterate(){
+        int numDataPoints = function.getNumDataPoints();
+        if (order==null || order.length!=numDataPoints){
+            order = new int[numDataPoints];
+            for (int i=0;i<numDataPoints;i++){
+                order[i] = i;
+            }
+        }
+        shuffle();
+        syncParameters();
+        for (int from=0;from<numDataPoints;from+=batchSize){
+            int[] batch = Arrays.copyOfRange(order, from, Math.min(numDataPoints, from+batchSize));
+            Vector gradient = function.getBatchGradient(batch);
+            update(parameters, gradient);
+            // parameters are updated in place; setting them again invalidates the caches of the function
+            function.setParameters(parameterVector);
+        }
+        numEpochs += 1;
+        double value = function.getValue();
+        terminator.add(value);
+        if (logger.isDebugEnabled()){
+            logger.debug("finish epoch "+numEpochs+". loss = "+value);
+        }
+    }
+
+    /**
+     * move the parameters in place by one step
+     * @param parameters
+     * @param gradient batch gradient at the parameters
+     */
+    protected abstract void update(double[] parameters, Vector gradient);
+
+    @Override
+    public double getFinalObjective() {
+        return terminator.getLastValue();
+    }
+
+    @Override
+    public Terminator getTerminator() {
+        return terminator;
+    }
+
+    public int getNumEpochs() {
+        return numEpochs;
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize<1){
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * restart the shuffling sequence
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    //========================== PRIVATE ============================
+
+    /**
+     * Fisher-Yates
+     */
+    private void shuffle(){
+        for (int i=order.length-1;i>0;i--){
+            int j = random.nextInt(i+1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    /**
+     * the function keeps the parameter vector it is given; re-read it unless it still holds ours
+     */
+    private void syncParameters(){
+        Vector current = function.getParameters();
+        if (parameters==null || parameters.length!=current.size()){
+            parameters = new double[current.size()];
+            parameterVector = new DenseVector(parameters, true);
+        }
+        if (current!=parameterVector){
+            Vectors.copy(current, parameters);
+            function.setParameters(parameterVector);
+        }
+    }
+}
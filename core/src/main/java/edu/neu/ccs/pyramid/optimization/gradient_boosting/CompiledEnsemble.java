@@ -0,0 +1,240 @@
+package edu.neu.ccs.pyramid.optimization.gradient_boosting;
+
+import edu.neu.ccs.pyramid.regression.ConstantRegressor;
+import edu.neu.ccs.pyramid.regression.Regressor;
+import edu.neu.ccs.pyramid.regression.regression_tree.Node;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * compiled inference form of a list of regressors, scored on a dense feature array
+ * all trees are flattened into primitive arrays in pre-order, so the left child of node n is n+1;
+ * constant regressors are folded into a single bias
+ * other regressors are kept as they are and scored through the Vector interface
+ * the compiled form is a snapshot; it does not follow later changes of the regressors
+ */
+public class CompiledEnsemble implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<double[]> buffers = ThreadLocal.withInitial(() -> new double[0]);
+
+    private double bias;
+    /**
+     * root node of each tree
+     */
+    private int[] roots;
+    /**
+     * -1 for leaves
+     */
+    private int[] featureIndices;
+    private double[] thresholds;
+    private int[] rightChildren;
+    /**
+     * leaf outputs
+     */
+    private double[] values;
+    /**
+     * for missing values
+     */
+    private double[] leftProbs;
+    private double[] rightProbs;
+    private List<Regressor> others;
+
+    private CompiledEnsemble() {
+    }
+
+    public static CompiledEnsemble compile(List<Regressor> regressors){
+        CompiledEnsemble compiled = new CompiledEnsemble();
+        compiled.others = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> roots = new ArrayList<>();
+        for (Regressor regressor: regressors){
+            if (regressor instanceof ConstantRegressor){
+                compiled.bias += ((ConstantRegressor) regressor).getScore();
+            } else if (regressor instanceof RegressionTree){
+                roots.add(nodes.size());
+                nodes.addAll(preOrder((RegressionTree) regressor));
+            } else {
+                compiled.others.add(regressor);
+            }
+        }
+
+        int numNodes = nodes.size();
+        compiled.roots = roots.stream().mapToInt(Integer::intValue).toArray();
+        compiled.featureIndices = new int[numNodes];
+        compiled.thresholds = new double[numNodes];
+        compiled.rightChildren = new int[numNodes];
+        compiled.values = new double[numNodes];
+        compiled.leftProbs = new double[numNodes];
+        compiled.rightProbs = new double[numNodes];
+        for (int t=0;t<compiled.roots.length;t++){
+            int start = compiled.roots[t];
+            int end = t+1<compiled.roots.length ? compiled.roots[t+1] : numNodes;
+            // position of each node in the flattened array, to locate right children
+            Map<Node,Integer> positions = new IdentityHashMap<>();
+            for (int n=start;n<end;n++){
+                positions.put(nodes.get(n), n);
+            }
+            for (int n=start;n<end;n++){
+                Node node = nodes.get(n);
+                if (node.isLeaf()){
+                    compiled.featureIndices[n] = -1;
+                    compiled.values[n] = node.getValue();
+                } else {
+                    compiled.featureIndices[n] = node.getFeatureIndex();
+                    compiled.thresholds[n] = node.getThreshold();
+                    compiled.rightChildren[n] = positions.get(node.getRightChild());
+                    compiled.leftProbs[n] = node.getLeftProb();
+                    compiled.rightProbs[n] = node.getRightProb();
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * allocation-free scoring, as long as all regressors are trees or constants
+     * @param denseRow feature values of one data point, including NaN for missing values;
+     *                 its length is the number of features seen by the other regressors, which get a copy of it
+     * @return sum of all regressor outputs
+     */
+    public double score(double[] denseRow){
+        if (others.isEmpty()){
+            return score(denseRow, null);
+        }
+        return score(denseRow, new DenseVector(denseRow));
+    }
+
+    /**
+     * the vector is expanded into a thread-local dense buffer
+     * @param vector
+     * @return
+     */
+    public double score(Vector vector){
+        double[] denseRow = load(vector);
+        double score = score(denseRow, vector);
+        unload(vector, denseRow);
+        return score;
+    }
+
+    /**
+     * score the same data point with several ensembles, expanding the vector only once
+     * @param ensembles
+     * @param vector
+     * @return
+     */
+    public static double[] scores(CompiledEnsemble[] ensembles, Vector vector){
+        double[] denseRow = load(vector);
+        double[] scores = new double[ensembles.length];
+        for (int k=0;k<ensembles.length;k++){
+            scores[k] = ensembles[k].score(denseRow, vector);
+        }
+        unload(vector, denseRow);
+        return scores;
+    }
+
+    /**
+     * number of compiled trees
+     */
+    public int getNumTrees(){
+        return roots.length;
+    }
+
+    //========================== PRIVATE ============================
+
+    /**
+     * @param denseRow trees read this; it may be a buffer longer than the data point
+     * @param vector the same data point, for the other regressors
+     */
+    private double score(double[] denseRow, Vector vector){
+        double score = bias;
+        int[] featureIndices = this.featureIndices;
+        double[] thresholds = this.thresholds;
+        int[] rightChildren = this.rightChildren;
+        for (int root: roots){
+            int node = root;
+            int featureIndex;
+            while ((featureIndex = featureIndices[node])>=0){
+                double featureValue = denseRow[featureIndex];
+                if (featureValue<=thresholds[node]){
+                    node = node+1;
+                } else if (featureValue>thresholds[node]){
+                    node = rightChildren[node];
+                } else {
+                    // missing value
+                    break;
+                }
+            }
+            if (featureIndex>=0){
+                score += scoreWithMissingValue(denseRow, node);
+            } else {
+                score += values[node];
+            }
+        }
+        for (Regressor regressor: others){
+            score += regressor.predict(vector);
+        }
+        return score;
+    }
+
+    /**
+     * go to both branches probabilistically at missing values
+     */
+    private double scoreWithMissingValue(double[] denseRow, int node){
+        int featureIndex = featureIndices[node];
+        if (featureIndex<0){
+            return values[node];
+        }
+        double featureValue = denseRow[featureIndex];
+        if (featureValue<=thresholds[node]){
+            return scoreWithMissingValue(denseRow, node+1);
+        }
+        if (featureValue>thresholds[node]){
+            return scoreWithMissingValue(denseRow, rightChildren[node]);
+        }
+        return leftProbs[node]*scoreWithMissingValue(denseRow, node+1)
+                + rightProbs[node]*scoreWithMissingValue(denseRow, rightChildren[node]);
+    }
+
+    private static List<Node> preOrder(RegressionTree tree){
+        List<Node> list = new ArrayList<>();
+        Deque<Node> deque = new ArrayDeque<>();
+        deque.addFirst(tree.getRoot());
+        while(deque.size()!=0){
+            Node visit = deque.removeFirst();
+            list.add(visit);
+            if (!visit.isLeaf()){
+                deque.addFirst(visit.getRightChild());
+                deque.addFirst(visit.getLeftChild());
+            }
+        }
+        return list;
+    }
+
+    private static double[] load(Vector vector){
+        double[] denseRow = buffers.get();
+        if (denseRow.length<vector.size()){
+            denseRow = new double[vector.size()];
+            buffers.set(denseRow);
+        }
+        for (Vector.Element element: vector.nonZeroes()){
+            denseRow[element.index()] = element.get();
+        }
+        return denseRow;
+    }
+
+    private static void unload(Vector vector, double[] denseRow){
+        for (Vector.Element element: vector.nonZeroes()){
+            denseRow[element.index()] = 0;
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package edu.neu.ccs.pyramid.optimization.gradient_boosting;
 
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.ScoreMatrix;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.regression.Regressor;
 import org.apache.mahout.math.Vector;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -15,6 +18,11 @@ import java.util.List;
 public class Ensemble implements Serializable{
     private static final long serialVersionUID = 1L;
 
+    /**
+     * number of consecutive rows scored together by block scoring
+     */
+    public static final int BLOCK_SIZE = 256;
+
     private List<Regressor> regressors;
 
     public Ensemble() {
@@ -41,6 +49,36 @@ public class Ensemble implements Serializable{
         return res;
     }
 
+    /**
+     * score a block of consecutive rows, one regressor at a time
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive
+     * @param scores output, scores[i-fromRow] is the score of row i
+     */
+    public void score(DataSet dataSet, int fromRow, int toRow, double[] scores){
+        Arrays.fill(scores, 0, toRow-fromRow, 0);
+        for (Regressor regressor: regressors){
+            regressor.addPredictions(dataSet, fromRow, toRow, scores);
+        }
+    }
+
+    /**
+     * score a block of consecutive rows, one regressor at a time, and write the scores into one column of the score matrix
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive
+     * @param scoreMatrix
+     * @param columnIndex
+     */
+    public void score(DataSet dataSet, int fromRow, int toRow, ScoreMatrix scoreMatrix, int columnIndex){
+        double[] scores = new double[toRow-fromRow];
+        score(dataSet, fromRow, toRow, scores);
+        for (int i=fromRow;i<toRow;i++){
+            scoreMatrix.setScore(i, columnIndex, scores[i-fromRow]);
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("Ensemble{");
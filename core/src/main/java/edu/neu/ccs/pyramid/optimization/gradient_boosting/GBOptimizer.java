@@ -5,10 +5,12 @@ import edu.neu.ccs.pyramid.dataset.GradientMatrix;
 import edu.neu.ccs.pyramid.dataset.ScoreMatrix;
 import edu.neu.ccs.pyramid.regression.Regressor;
 import edu.neu.ccs.pyramid.regression.RegressorFactory;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeFactory;
 import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
 import org.apache.mahout.math.Vector;
 
 import java.util.Arrays;
+import java.util.Optional;
 import java.util.stream.IntStream;
 
 /**
@@ -31,6 +33,10 @@ public abstract class GBOptimizer {
         this.dataSet = dataSet;
         this.weights = weights;
         boosting.featureList = dataSet.getFeatureList();
+        // staged scores are updated from the leaf membership, see updateStagedScores
+        if (factory instanceof RegTreeFactory){
+            ((RegTreeFactory) factory).setRecordLeafMembership(true);
+        }
     }
 
     protected GBOptimizer(GradientBoosting boosting, DataSet dataSet,  RegressorFactory factory){
@@ -82,8 +88,28 @@ public abstract class GBOptimizer {
         this.scoreMatrix.increment(dataIndex,ensembleIndex,score);
     }
 
+    /**
+     * for a newly trained regression tree, leaf values are added directly using the leaf membership recorded by the trainer;
+     * only data points not reaching any leaf during training are predicted
+     */
     protected void updateStagedScores(Regressor regressor, int ensembleIndex){
         int numDataPoints = dataSet.getNumDataPoints();
+        Optional<double[]> trainingPredictions = Optional.empty();
+        if (regressor instanceof RegressionTree){
+            trainingPredictions = ((RegressionTree) regressor).consumeTrainingPredictions();
+        }
+        if (trainingPredictions.isPresent() && trainingPredictions.get().length==numDataPoints){
+            double[] predictions = trainingPredictions.get();
+            IntStream.range(0, numDataPoints).parallel()
+                    .forEach(dataIndex -> {
+                        if (Double.isNaN(predictions[dataIndex])){
+                            this.updateStagedScore(regressor,ensembleIndex,dataIndex);
+                        } else {
+                            this.scoreMatrix.increment(dataIndex,ensembleIndex,predictions[dataIndex]);
+                        }
+                    });
+            return;
+        }
         IntStream.range(0, numDataPoints).parallel()
                 .forEach(dataIndex -> this.updateStagedScore(regressor,ensembleIndex,dataIndex));
     }
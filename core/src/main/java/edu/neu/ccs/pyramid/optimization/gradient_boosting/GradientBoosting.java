@@ -1,11 +1,15 @@
 package edu.neu.ccs.pyramid.optimization.gradient_boosting;
 
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.ScoreMatrix;
 import edu.neu.ccs.pyramid.feature.FeatureList;
+import edu.neu.ccs.pyramid.regression.Regressor;
 import org.apache.mahout.math.Vector;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Created by chengli on 10/1/15.
@@ -15,6 +19,14 @@ public class GradientBoosting implements Serializable{
     protected int numEnsembles;
     protected List<Ensemble> ensembles;
     protected FeatureList featureList;
+    /**
+     * flattened form of the ensembles for fast inference, see {@link #compile()}
+     */
+    private transient CompiledEnsemble[] compiledEnsembles;
+    /**
+     * number of regressors in each ensemble at compile time
+     */
+    private transient int[] compiledSizes;
 
     
     public GradientBoosting(int numEnsembles) {
@@ -34,11 +46,17 @@ public class GradientBoosting implements Serializable{
     }
 
     public double score(Vector vector, int ensembleIndex){
+        if (isCompiled()){
+            return compiledEnsembles[ensembleIndex].score(vector);
+        }
         return ensembles.get(ensembleIndex).score(vector);
     }
 
 
     public double[] scores(Vector vector){
+        if (isCompiled()){
+            return CompiledEnsemble.scores(compiledEnsembles, vector);
+        }
         double[] scores = new double[numEnsembles];
         for (int k=0;k<numEnsembles;k++){
             scores[k] = score(vector,k);
@@ -46,6 +64,104 @@ public class GradientBoosting implements Serializable{
         return scores;
     }
 
+    /**
+     * block scoring of a data set
+     * @param dataSet
+     * @return num data * num ensembles
+     */
+    public ScoreMatrix scores(DataSet dataSet){
+        ScoreMatrix scoreMatrix = new ScoreMatrix(dataSet.getNumDataPoints(), numEnsembles);
+        scores(dataSet, scoreMatrix);
+        return scoreMatrix;
+    }
+
+    /**
+     * block scoring of a data set
+     * blocks of {@link Ensemble#BLOCK_SIZE} rows are scored in parallel;
+     * within a block, each regressor scores all rows before moving to the next one
+     * @param dataSet
+     * @param scoreMatrix output, num data * num ensembles
+     */
+    public void scores(DataSet dataSet, ScoreMatrix scoreMatrix){
+        int numDataPoints = dataSet.getNumDataPoints();
+        if (scoreMatrix.getNumDataPoints()!=numDataPoints || scoreMatrix.getNumClasses()!=numEnsembles){
+            throw new IllegalArgumentException("score matrix size does not match");
+        }
+        int numBlocks = (numDataPoints+Ensemble.BLOCK_SIZE-1)/Ensemble.BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            int fromRow = b*Ensemble.BLOCK_SIZE;
+            int toRow = Math.min(numDataPoints, fromRow+Ensemble.BLOCK_SIZE);
+            double[][] scores = scores(dataSet, fromRow, toRow);
+            for (int i=fromRow;i<toRow;i++){
+                for (int k=0;k<numEnsembles;k++){
+                    scoreMatrix.setScore(i, k, scores[i-fromRow][k]);
+                }
+            }
+        });
+    }
+
+    /**
+     * block scoring of consecutive rows
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive
+     * @return [row-fromRow][ensemble]
+     */
+    public double[][] scores(DataSet dataSet, int fromRow, int toRow){
+        double[][] scores = new double[toRow-fromRow][];
+        if (isCompiled()){
+            for (int i=fromRow;i<toRow;i++){
+                scores[i-fromRow] = CompiledEnsemble.scores(compiledEnsembles, dataSet.getRow(i));
+            }
+            return scores;
+        }
+        for (int i=fromRow;i<toRow;i++){
+            scores[i-fromRow] = new double[numEnsembles];
+        }
+        double[] ensembleScores = new double[toRow-fromRow];
+        for (int k=0;k<numEnsembles;k++){
+            ensembles.get(k).score(dataSet, fromRow, toRow, ensembleScores);
+            for (int i=fromRow;i<toRow;i++){
+                scores[i-fromRow][k] = ensembleScores[i-fromRow];
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * flatten all ensembles into primitive arrays for fast inference
+     * should be called again if regressors are modified in place after compilation;
+     * newly added regressors are detected and make scoring fall back to the original ensembles
+     */
+    public void compile(){
+        CompiledEnsemble[] compiledEnsembles = new CompiledEnsemble[numEnsembles];
+        int[] compiledSizes = new int[numEnsembles];
+        for (int k=0;k<numEnsembles;k++){
+            List<Regressor> regressors = ensembles.get(k).getRegressors();
+            compiledEnsembles[k] = CompiledEnsemble.compile(regressors);
+            compiledSizes[k] = regressors.size();
+        }
+        this.compiledSizes = compiledSizes;
+        this.compiledEnsembles = compiledEnsembles;
+    }
+
+    /**
+     *
+     * @return whether the compiled form is available and up to date
+     */
+    public boolean isCompiled(){
+        CompiledEnsemble[] compiledEnsembles = this.compiledEnsembles;
+        if (compiledEnsembles==null){
+            return false;
+        }
+        for (int k=0;k<numEnsembles;k++){
+            if (ensembles.get(k).getRegressors().size()!=compiledSizes[k]){
+                return false;
+            }
+        }
+        return true;
+    }
+
     public FeatureList getFeatureList() {
         return featureList;
     }
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.regression;
 
 
+import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import org.apache.mahout.math.Vector;
@@ -29,6 +30,13 @@ public class ConstantRegressor implements Regressor, Serializable{
         return this.score;
     }
 
+    @Override
+    public void addPredictions(DataSet dataSet, int fromRow, int toRow, double[] scores) {
+        for (int i=fromRow;i<toRow;i++){
+            scores[i-fromRow] += this.score;
+        }
+    }
+
     @Override
     public String toString() {
         return "ConstantRegressor{" +
@@ -28,4 +28,19 @@ public interface Regressor extends Serializable {
         return intStream.mapToDouble(i -> predict(dataSet.getRow(i))).toArray();
     }
 
+    /**
+     * add the predictions of a block of consecutive rows to scores;
+     * scores[i-fromRow] accumulates the prediction of row i
+     * implementations can keep their model in cache for the whole block
+     * @param dataSet
+     * @param fromRow inclusive
+     * @param toRow exclusive
+     * @param scores length at least toRow-fromRow
+     */
+    default void addPredictions(DataSet dataSet, int fromRow, int toRow, double[] scores){
+        for (int i=fromRow;i<toRow;i++){
+            scores[i-fromRow] += predict(dataSet.getRow(i));
+        }
+    }
+
 }
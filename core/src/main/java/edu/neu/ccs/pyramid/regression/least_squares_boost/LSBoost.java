@@ -17,7 +17,7 @@ public class LSBoost extends GradientBoosting implements Regressor {
 
     @Override
     public double predict(Vector vector) {
-        return getEnsemble(0).score(vector);
+        return score(vector, 0);
     }
 
 }
@@ -2,8 +2,6 @@ package edu.neu.ccs.pyramid.regression.regression_tree;
 
 import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.RegDataSet;
-import org.apache.mahout.math.DenseVector;
-import org.apache.mahout.math.Vector;
 
 import java.util.*;
 import java.util.stream.IntStream;
@@ -57,13 +55,11 @@ public class ActiveRegTreeTrainer {
 
 
             //root gets all active data points
-            double[] rootProbs = new double[dataSet.getNumDataPoints()];
-            for (int dataPoint=0; dataPoint<dataSet.getNumDataPoints();dataPoint++){
-                rootProbs[dataPoint]=weights[dataPoint];
-            }
-            tree.root.setProbs(rootProbs);
+            tree.root.setData(RegTreeTrainer.rootDataIndices(weights),null);
+            // probabilities of the node being examined, reset after each use
+            double[] probs = new double[dataSet.getNumDataPoints()];
             //parallel
-            updateNode(tree.root, regTreeConfig,dataSet,labels,activeFeatures,true);
+            updateNode(tree.root, regTreeConfig,dataSet,labels,weights,probs,activeFeatures,true);
             tree.leaves.add(tree.root);
             tree.root.setLeaf(true);
             tree.allNodes.add(tree.root);
@@ -79,14 +75,17 @@ public class ActiveRegTreeTrainer {
                 Optional<Node> leafToSplitOptional = findLeafToSplit(tree.leaves);
                 if (leafToSplitOptional.isPresent()){
                     Node leafToSplit = leafToSplitOptional.get();
-                    splitNode(tree, leafToSplit,regTreeConfig,dataSet,labels, activeFeatures);
+                    splitNode(tree, leafToSplit,regTreeConfig,dataSet,labels,weights,probs,activeFeatures);
                 } else {
                     break;
                 }
             }
 
             //parallel
-            setLeavesOutputs(regTreeConfig, tree.leaves,leafOutputCalculator, labels);
+            setLeavesOutputs(regTreeConfig, tree.leaves,leafOutputCalculator, labels, weights);
+            if (regTreeConfig.isRecordLeafMembership()){
+                RegTreeTrainer.recordLeafMembership(tree, dataSet.getNumDataPoints());
+            }
             cleanLeaves(tree.leaves);
             normalizeReductions(tree,dataSet);
             return tree;
@@ -103,13 +102,11 @@ public class ActiveRegTreeTrainer {
 
 
             //root gets all active data points
-            double[] rootProbs = new double[dataSet.getNumDataPoints()];
-            for (int dataPoint=0; dataPoint<dataSet.getNumDataPoints();dataPoint++){
-                rootProbs[dataPoint]=weights[dataPoint];
-            }
-            tree.root.setProbs(rootProbs);
+            tree.root.setData(RegTreeTrainer.rootDataIndices(weights),null);
+            // probabilities of the node being examined, reset after each use
+            double[] probs = new double[dataSet.getNumDataPoints()];
             //parallel
-            updateNode(tree.root, regTreeConfig,dataSet,labels,activeFeatures,false);
+            updateNode(tree.root, regTreeConfig,dataSet,labels,weights,probs,activeFeatures,false);
             tree.leaves.add(tree.root);
             tree.root.setLeaf(true);
             tree.allNodes.add(tree.root);
@@ -125,14 +122,17 @@ public class ActiveRegTreeTrainer {
                 Optional<Node> leafToSplitOptional = findLeafToSplit(tree.leaves);
                 if (leafToSplitOptional.isPresent()){
                     Node leafToSplit = leafToSplitOptional.get();
-                    splitNode(tree, leafToSplit,regTreeConfig,dataSet,labels,activeFeatures);
+                    splitNode(tree, leafToSplit,regTreeConfig,dataSet,labels,weights,probs,activeFeatures);
                 } else {
                     break;
                 }
             }
 
             //parallel
-            setLeavesOutputs(regTreeConfig, tree.leaves,leafOutputCalculator, labels);
+            setLeavesOutputs(regTreeConfig, tree.leaves,leafOutputCalculator, labels, weights);
+            if (regTreeConfig.isRecordLeafMembership()){
+                RegTreeTrainer.recordLeafMembership(tree, dataSet.getNumDataPoints());
+            }
             cleanLeaves(tree.leaves);
             normalizeReductions(tree,dataSet);
             return tree;
@@ -166,21 +166,8 @@ public class ActiveRegTreeTrainer {
      * @param dataSet
      */
     private static void splitNode(RegressionTree tree, Node leafToSplit, RegTreeConfig regTreeConfig,
-                                  DataSet dataSet, double[] labels, List<Integer> activeFeatures) {
-        int numDataPoints = dataSet.getNumDataPoints();
-
-        /**
-         * split this leaf node
-         */
-        int featureIndex = leafToSplit.getFeatureIndex();
-        double threshold = leafToSplit.getThreshold();
-        Vector inputVector = dataSet.getColumn(featureIndex);
-        Vector columnVector;
-        if (inputVector.isDense()){
-            columnVector = inputVector;
-        } else {
-            columnVector = new DenseVector(inputVector);
-        }
+                                  DataSet dataSet, double[] labels, double[] weights, double[] probs,
+                                  List<Integer> activeFeatures) {
         /**
          * create children
          */
@@ -191,41 +178,18 @@ public class ActiveRegTreeTrainer {
         rightChild.setId(tree.numNodes);
         tree.numNodes += 1;
 
-        double[] parentProbs = leafToSplit.getProbs();
-        double[] leftProbs = new double[numDataPoints];
-        double[] rightProbs = new double[numDataPoints];
-        IntStream intStream = IntStream.range(0,numDataPoints);
-        if (regTreeConfig.isParallel()){
-            intStream = intStream.parallel();
-        }
-        intStream.forEach(i->{
-            double featureValue = columnVector.get(i);
-            if (Double.isNaN(featureValue)){
-                // go to both branches probabilistically
-                leftProbs[i] = parentProbs[i]*leafToSplit.getLeftProb();
-                rightProbs[i] = parentProbs[i]*leafToSplit.getRightProb();
-            } else {
-                //<= go left, > go right
-                if (featureValue<=threshold){
-                    leftProbs[i] = parentProbs[i];
-                    rightProbs[i] = 0;
-                } else {
-                    leftProbs[i] = 0;
-                    rightProbs[i] = parentProbs[i];
-                }
-            }
-        });
-
-        leftChild.setProbs(leftProbs);
-        rightChild.setProbs(rightProbs);
+        /**
+         * split this leaf node
+         */
+        RegTreeTrainer.partition(leafToSplit,leftChild,rightChild,dataSet,regTreeConfig.isParallel());
 
 
         //the last two leaves need not to be updated completely
         //as we don't need to split them later
         int maxNumLeaves = regTreeConfig.getMaxNumLeaves();
         if (tree.leaves.size()!=maxNumLeaves-1){
-            updateNode(leftChild,regTreeConfig,dataSet,labels, activeFeatures,false);
-            updateNode(rightChild,regTreeConfig,dataSet,labels, activeFeatures,false);
+            updateNode(leftChild,regTreeConfig,dataSet,labels,weights,probs,activeFeatures,false);
+            updateNode(rightChild,regTreeConfig,dataSet,labels,weights,probs,activeFeatures,false);
         }
 
 
@@ -239,7 +203,7 @@ public class ActiveRegTreeTrainer {
          * update leaves, remove the parent, and add children
          */
         leafToSplit.setLeaf(false);
-        leafToSplit.clearProbs();
+        leafToSplit.clearData();
         tree.leaves.remove(leafToSplit);
         leftChild.setLeaf(true);
         rightChild.setLeaf(true);
@@ -257,10 +221,13 @@ public class ActiveRegTreeTrainer {
     private static void updateNode(Node node,
                                    RegTreeConfig regTreeConfig,
                                    DataSet dataSet,
-                                   double[] labels, List<Integer> activeFeatures, boolean fullScan) {
+                                   double[] labels, double[] weights, double[] probs,
+                                   List<Integer> activeFeatures, boolean fullScan) {
         if(fullScan){
+            RegTreeTrainer.fillProbs(node,weights,probs);
             Optional<SplitResult> splitResultOptional = Splitter.split(regTreeConfig,
-                    dataSet,labels,node.getProbs(),activeFeatures,true);
+                    dataSet,labels,probs,node.getDataIndices(),activeFeatures,true);
+            RegTreeTrainer.resetProbs(node,probs);
             if (splitResultOptional.isPresent()){
                 SplitResult splitResult = splitResultOptional.get();
                 node.setFeatureIndex(splitResult.getFeatureIndex());
@@ -277,8 +244,10 @@ public class ActiveRegTreeTrainer {
             }
 
         }else{
+            RegTreeTrainer.fillProbs(node,weights,probs);
             Optional<SplitResult> splitResultOptional = Splitter.split(regTreeConfig,
-                    dataSet,labels,node.getProbs(),activeFeatures,false);
+                    dataSet,labels,probs,node.getDataIndices(),activeFeatures,false);
+            RegTreeTrainer.resetProbs(node,probs);
             if (splitResultOptional.isPresent()){
                 SplitResult splitResult = splitResultOptional.get();
                 node.setFeatureIndex(splitResult.getFeatureIndex());
@@ -299,7 +268,7 @@ public class ActiveRegTreeTrainer {
 
     private static void cleanLeaves(List<Node> leaves){
         for (Node leaf: leaves){
-            leaf.clearProbs();
+            leaf.clearData();
         }
     }
 
@@ -307,19 +276,14 @@ public class ActiveRegTreeTrainer {
     /**
      * parallel
      */
-    private static void setLeavesOutputs(RegTreeConfig regTreeConfig, List<Node> leaves, LeafOutputCalculator calculator, double[] labels){
+    private static void setLeavesOutputs(RegTreeConfig regTreeConfig, List<Node> leaves, LeafOutputCalculator calculator,
+                                         double[] labels, double[] weights){
         Stream<Node> stream = leaves.stream();
         if (regTreeConfig.isParallel()){
             stream = stream.parallel();
         }
 
-        stream.forEach(leaf -> setLeafOutput(leaf, calculator, labels));
-    }
-
-    private static void setLeafOutput(Node leaf, LeafOutputCalculator calculator, double[] labels){
-        double[] probs = leaf.getProbs();
-        double output = calculator.getLeafOutput(probs, labels);
-        leaf.setValue(output);
+        stream.forEach(leaf -> RegTreeTrainer.setLeafOutput(leaf, calculator, labels, weights));
     }
 
     private static Optional<Node> findLeafToSplit(List<Node> leaves){
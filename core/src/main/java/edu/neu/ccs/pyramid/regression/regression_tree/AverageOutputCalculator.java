@@ -18,4 +18,15 @@ public class AverageOutputCalculator implements LeafOutputCalculator{
         }
         return sum/count;
     }
+
+    @Override
+    public double getLeafOutput(int[] dataIndices, double[] probabilities, double[] labels) {
+        double sum = 0;
+        double count = 0;
+        for (int p=0;p<dataIndices.length;p++){
+            sum += labels[dataIndices[p]]*probabilities[p];
+            count += probabilities[p];
+        }
+        return sum/count;
+    }
 }
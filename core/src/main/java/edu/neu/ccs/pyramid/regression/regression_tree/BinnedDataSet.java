@@ -0,0 +1,223 @@
+package edu.neu.ccs.pyramid.regression.regression_tree;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import org.apache.mahout.math.Vector;
+
+import java.io.Serializable;
+import java.util.stream.IntStream;
+
+/**
+ * a pre-binned copy of a data set for histogram based split finding
+ * each feature column is quantized once into numBins equal-width intervals over [min,max] of the column;
+ * bin codes are stored row by row in a compressed sparse row layout, using one byte per entry when possible
+ * zero values are not stored; they all fall into the zero bin of the feature
+ * missing values are stored with code numBins
+ * features with a single present value can never be split and are not stored at all
+ */
+public class BinnedDataSet implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int numDataPoints;
+    private int numFeatures;
+    private int numBins;
+
+    /**
+     * lower bound of the first interval, per feature
+     */
+    private double[] mins;
+    /**
+     * length of each interval, per feature; 0 if the feature is not binned
+     */
+    private double[] binLengths;
+    /**
+     * bin containing value 0, per feature; -1 if the feature has no zero value
+     */
+    private int[] zeroBins;
+
+    /**
+     * entries of row i are stored in positions [rowOffsets[i], rowOffsets[i+1])
+     */
+    private int[] rowOffsets;
+    private int[] featureIndices;
+    // exactly one of the two code arrays is used
+    private byte[] byteCodes;
+    private short[] shortCodes;
+
+    private BinnedDataSet() {
+    }
+
+    /**
+     *
+     * @param dataSet
+     * @param numBins number of equal-width intervals per feature,
+     *                usually the same as {@link RegTreeConfig#setNumSplitIntervals(int)}
+     * @return
+     */
+    public static BinnedDataSet build(DataSet dataSet, int numBins){
+        if (numBins<=1){
+            throw new IllegalArgumentException("numBins must be greater than 1");
+        }
+        // the extra code is for missing values
+        if (numBins+1 > 65536){
+            throw new IllegalArgumentException("numBins is too large");
+        }
+        BinnedDataSet binned = new BinnedDataSet();
+        int numDataPoints = dataSet.getNumDataPoints();
+        int numFeatures = dataSet.getNumFeatures();
+        binned.numDataPoints = numDataPoints;
+        binned.numFeatures = numFeatures;
+        binned.numBins = numBins;
+        binned.mins = new double[numFeatures];
+        binned.binLengths = new double[numFeatures];
+        binned.zeroBins = new int[numFeatures];
+
+        IntStream.range(0, numFeatures).parallel()
+                .forEach(j -> binned.setRange(j, dataSet.getColumn(j)));
+
+        binned.rowOffsets = new int[numDataPoints+1];
+        for (int i=0;i<numDataPoints;i++){
+            binned.rowOffsets[i+1] = binned.rowOffsets[i] + binned.numStoredEntries(dataSet.getRow(i));
+        }
+        int numEntries = binned.rowOffsets[numDataPoints];
+        binned.featureIndices = new int[numEntries];
+        if (numBins+1 <= 256){
+            binned.byteCodes = new byte[numEntries];
+        } else {
+            binned.shortCodes = new short[numEntries];
+        }
+
+        IntStream.range(0, numDataPoints).parallel()
+                .forEach(i -> binned.encodeRow(i, dataSet.getRow(i)));
+        return binned;
+    }
+
+    public int getNumDataPoints() {
+        return numDataPoints;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * code used for missing values
+     */
+    int getNanBin(){
+        return numBins;
+    }
+
+    boolean isBinned(int featureIndex){
+        return binLengths[featureIndex]>0;
+    }
+
+    int getZeroBin(int featureIndex){
+        return zeroBins[featureIndex];
+    }
+
+    double getLower(int featureIndex, int bin){
+        return mins[featureIndex] + bin*binLengths[featureIndex];
+    }
+
+    double getUpper(int featureIndex, int bin){
+        return getLower(featureIndex, bin) + binLengths[featureIndex];
+    }
+
+    int getRowStart(int dataPointIndex){
+        return rowOffsets[dataPointIndex];
+    }
+
+    int getRowEnd(int dataPointIndex){
+        return rowOffsets[dataPointIndex+1];
+    }
+
+    int getFeatureIndex(int position){
+        return featureIndices[position];
+    }
+
+    int getBin(int position){
+        if (byteCodes!=null){
+            return byteCodes[position] & 0xFF;
+        }
+        return shortCodes[position] & 0xFFFF;
+    }
+
+    //========================== PRIVATE ============================
+
+    private void setRange(int featureIndex, Vector column){
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int numStored = 0;
+        // the iterator considers non zero and NaN
+        for (Vector.Element element: column.nonZeroes()){
+            numStored += 1;
+            double value = element.get();
+            if (!Double.isNaN(value)){
+                if (value < min){
+                    min = value;
+                }
+                if (value > max){
+                    max = value;
+                }
+            }
+        }
+        boolean hasZero = numStored < numDataPoints;
+        if (hasZero && min>0){
+            min = 0;
+        }
+        if (hasZero && max<0){
+            max = 0;
+        }
+        // no present value or no range
+        if (min == Double.POSITIVE_INFINITY || min >= max){
+            mins[featureIndex] = 0;
+            binLengths[featureIndex] = 0;
+            zeroBins[featureIndex] = -1;
+            return;
+        }
+        mins[featureIndex] = min;
+        binLengths[featureIndex] = (max-min)/numBins;
+        if (hasZero){
+            zeroBins[featureIndex] = IntervalSplitter.getIntervalIndex(0, min, binLengths[featureIndex], numBins);
+        } else {
+            zeroBins[featureIndex] = -1;
+        }
+    }
+
+    private int numStoredEntries(Vector row){
+        int count = 0;
+        for (Vector.Element element: row.nonZeroes()){
+            if (isBinned(element.index())){
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private void encodeRow(int dataPointIndex, Vector row){
+        int position = rowOffsets[dataPointIndex];
+        for (Vector.Element element: row.nonZeroes()){
+            int featureIndex = element.index();
+            if (!isBinned(featureIndex)){
+                continue;
+            }
+            double value = element.get();
+            int bin;
+            if (Double.isNaN(value)){
+                bin = numBins;
+            } else {
+                bin = IntervalSplitter.getIntervalIndex(value, mins[featureIndex], binLengths[featureIndex], numBins);
+            }
+            featureIndices[position] = featureIndex;
+            if (byteCodes!=null){
+                byteCodes[position] = (byte)bin;
+            } else {
+                shortCodes[position] = (short)bin;
+            }
+            position += 1;
+        }
+    }
+}
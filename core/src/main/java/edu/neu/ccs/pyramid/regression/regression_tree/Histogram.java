@@ -0,0 +1,175 @@
+package edu.neu.ccs.pyramid.regression.regression_tree;
+
+/**
+ * per-node gradient histograms over the bins of a {@link BinnedDataSet}
+ * for each feature and each bin, keeps the probabilistic count, the weighted label sum and the binary count;
+ * the last slot of each feature holds missing values
+ * arrays are only allocated for features with at least one stored entry at the node;
+ * a feature without arrays has all its data at the node in the zero bin
+ */
+class Histogram {
+    private BinnedDataSet binnedDataSet;
+    private int numBins;
+
+    //\sum _i p_i * y_i
+    private double weightedLabelSum;
+    // \sum _i p_i
+    private double probabilisticCount;
+    // number of elements with non-zero probabilities
+    private int binaryCount;
+
+    private double[][] probabilisticCounts;
+    private double[][] weightedLabelSums;
+    private int[][] binaryCounts;
+
+    private Histogram(BinnedDataSet binnedDataSet) {
+        this.binnedDataSet = binnedDataSet;
+        this.numBins = binnedDataSet.getNumBins();
+        int numFeatures = binnedDataSet.getNumFeatures();
+        this.probabilisticCounts = new double[numFeatures][];
+        this.weightedLabelSums = new double[numFeatures][];
+        this.binaryCounts = new int[numFeatures][];
+    }
+
+    /**
+     * scan the data points at a node
+     * cost is linear in the number of stored entries of these data points
+     * @param binnedDataSet
+     * @param labels
+     * @param weights
+     * @param dataIndices data points at the node
+     * @param fractions fractions of the data points at the node, aligned with dataIndices; null means all 1
+     * @return
+     */
+    static Histogram build(BinnedDataSet binnedDataSet, double[] labels, double[] weights,
+                           int[] dataIndices, double[] fractions){
+        Histogram histogram = new Histogram(binnedDataSet);
+        for (int p=0;p<dataIndices.length;p++){
+            int i = dataIndices[p];
+            double prob = weights[i];
+            if (fractions!=null){
+                prob *= fractions[p];
+            }
+            if (prob>0){
+                histogram.add(i, labels[i], prob);
+            }
+        }
+        histogram.fillZeroBins();
+        return histogram;
+    }
+
+    /**
+     * turn the parent histogram into the histogram of one child, given the histogram of the other child
+     * the parent histogram is modified in place and should not be used as the parent any more
+     * @param sibling
+     */
+    void subtract(Histogram sibling){
+        this.probabilisticCount -= sibling.probabilisticCount;
+        this.weightedLabelSum -= sibling.weightedLabelSum;
+        this.binaryCount -= sibling.binaryCount;
+        for (int j=0;j<binaryCounts.length;j++){
+            if (binaryCounts[j]==null){
+                continue;
+            }
+            if (sibling.binaryCounts[j]==null){
+                // everything of the sibling is in the zero bin
+                int zeroBin = binnedDataSet.getZeroBin(j);
+                probabilisticCounts[j][zeroBin] -= sibling.probabilisticCount;
+                weightedLabelSums[j][zeroBin] -= sibling.weightedLabelSum;
+                binaryCounts[j][zeroBin] -= sibling.binaryCount;
+            } else {
+                double[] counts = probabilisticCounts[j];
+                double[] sums = weightedLabelSums[j];
+                int[] binaries = binaryCounts[j];
+                double[] siblingCounts = sibling.probabilisticCounts[j];
+                double[] siblingSums = sibling.weightedLabelSums[j];
+                int[] siblingBinaries = sibling.binaryCounts[j];
+                for (int b=0;b<=numBins;b++){
+                    counts[b] -= siblingCounts[b];
+                    sums[b] -= siblingSums[b];
+                    binaries[b] -= siblingBinaries[b];
+                }
+            }
+        }
+    }
+
+    boolean hasFeature(int featureIndex){
+        return binaryCounts[featureIndex]!=null;
+    }
+
+    double[] getProbabilisticCounts(int featureIndex){
+        return probabilisticCounts[featureIndex];
+    }
+
+    double[] getWeightedLabelSums(int featureIndex){
+        return weightedLabelSums[featureIndex];
+    }
+
+    int[] getBinaryCounts(int featureIndex){
+        return binaryCounts[featureIndex];
+    }
+
+    int getNumFeatures(){
+        return binaryCounts.length;
+    }
+
+    double getWeightedLabelSum() {
+        return weightedLabelSum;
+    }
+
+    double getProbabilisticCount() {
+        return probabilisticCount;
+    }
+
+    int getBinaryCount() {
+        return binaryCount;
+    }
+
+    //========================== PRIVATE ============================
+
+    private void add(int dataPointIndex, double label, double prob){
+        double weightedLabel = label*prob;
+        probabilisticCount += prob;
+        weightedLabelSum += weightedLabel;
+        binaryCount += 1;
+        int end = binnedDataSet.getRowEnd(dataPointIndex);
+        for (int p=binnedDataSet.getRowStart(dataPointIndex);p<end;p++){
+            int featureIndex = binnedDataSet.getFeatureIndex(p);
+            if (binaryCounts[featureIndex]==null){
+                probabilisticCounts[featureIndex] = new double[numBins+1];
+                weightedLabelSums[featureIndex] = new double[numBins+1];
+                binaryCounts[featureIndex] = new int[numBins+1];
+            }
+            int bin = binnedDataSet.getBin(p);
+            probabilisticCounts[featureIndex][bin] += prob;
+            weightedLabelSums[featureIndex][bin] += weightedLabel;
+            binaryCounts[featureIndex][bin] += 1;
+        }
+    }
+
+    /**
+     * zero values are not stored, so they are recovered from the node totals
+     */
+    private void fillZeroBins(){
+        for (int j=0;j<binaryCounts.length;j++){
+            if (binaryCounts[j]==null){
+                continue;
+            }
+            double storedCount = 0;
+            double storedSum = 0;
+            int storedBinary = 0;
+            for (int b=0;b<=numBins;b++){
+                storedCount += probabilisticCounts[j][b];
+                storedSum += weightedLabelSums[j][b];
+                storedBinary += binaryCounts[j][b];
+            }
+            int zeroBinary = binaryCount - storedBinary;
+            if (zeroBinary>0){
+                int zeroBin = binnedDataSet.getZeroBin(j);
+                probabilisticCounts[j][zeroBin] += probabilisticCount - storedCount;
+                weightedLabelSums[j][zeroBin] += weightedLabelSum - storedSum;
+                binaryCounts[j][zeroBin] += zeroBinary;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.neu.ccs.pyramid.regression.regression_tree;
+
+import java.util.Optional;
+
+/**
+ * histogram counterpart of {@link IntervalSplitter}
+ * bins are fixed for the whole data set, so each candidate split only reads the node histogram
+ * missing values and empty bins are handled in the same way as in {@link IntervalSplitter}
+ */
+class HistogramSplitter {
+
+    static Optional<SplitResult> split(RegTreeConfig regTreeConfig,
+                                       BinnedDataSet binnedDataSet,
+                                       Histogram histogram,
+                                       int featureIndex){
+        if (!histogram.hasFeature(featureIndex)){
+            return Optional.empty();
+        }
+        int numBins = binnedDataSet.getNumBins();
+        int nanBin = binnedDataSet.getNanBin();
+        double[] counts = histogram.getProbabilisticCounts(featureIndex);
+        double[] sums = histogram.getWeightedLabelSums(featureIndex);
+        int[] binaries = histogram.getBinaryCounts(featureIndex);
+
+        // only non-empty bins are candidates
+        int[] nonEmptyBins = new int[numBins];
+        int numNonEmpty = 0;
+        for (int b=0;b<numBins;b++){
+            if (binaries[b]>0){
+                nonEmptyBins[numNonEmpty] = b;
+                numNonEmpty += 1;
+            }
+        }
+        if (numNonEmpty<2){
+            return Optional.empty();
+        }
+
+        // assign missing values to every bin probabilistically, following estimated percentages
+        double totalProbCount = histogram.getProbabilisticCount();
+        double nanCount = 0;
+        double nanSum = 0;
+        if (binaries[nanBin]>0){
+            nanCount = counts[nanBin];
+            nanSum = sums[nanBin];
+        }
+
+        double totalSum = 0;
+        double totalCount = 0;
+        for (int n=0;n<numNonEmpty;n++){
+            int b = nonEmptyBins[n];
+            double percentage = counts[b]/totalProbCount;
+            totalCount += counts[b] + percentage*nanCount;
+            totalSum += sums[b] + percentage*nanSum;
+        }
+
+        int minDataPerLeaf = regTreeConfig.getMinDataPerLeaf();
+        double leftSum = 0;
+        double leftCount = 0;
+        int bestPosition = -1;
+        double bestReduction = Double.NEGATIVE_INFINITY;
+        double bestLeftCount = 0;
+        double bestRightCount = 0;
+        for (int n=0;n<=numNonEmpty-2;n++){
+            int b = nonEmptyBins[n];
+            double percentage = counts[b]/totalProbCount;
+            leftCount += counts[b] + percentage*nanCount;
+            leftSum += sums[b] + percentage*nanSum;
+            double rightSum = totalSum - leftSum;
+            double rightCount = totalCount - leftCount;
+            if (leftCount < minDataPerLeaf || rightCount < minDataPerLeaf){
+                continue;
+            }
+            double reduction = leftSum * leftSum / leftCount +
+                    rightSum * rightSum / rightCount
+                    - totalSum * totalSum / totalCount;
+            if (reduction > bestReduction){
+                bestReduction = reduction;
+                bestPosition = n;
+                bestLeftCount = leftCount;
+                bestRightCount = rightCount;
+            }
+        }
+        if (bestPosition == -1){
+            return Optional.empty();
+        }
+
+        // extend boundaries over empty bins, as in IntervalSplitter.compress
+        int bin = nonEmptyBins[bestPosition];
+        int nextBin = nonEmptyBins[bestPosition+1];
+        double threshold;
+        if (nextBin == bin+1){
+            threshold = binnedDataSet.getUpper(featureIndex, bin);
+        } else {
+            threshold = (binnedDataSet.getLower(featureIndex, bin+1)
+                    + binnedDataSet.getUpper(featureIndex, nextBin-1))/2;
+        }
+
+        SplitResult splitResult = new SplitResult();
+        splitResult.setFeatureIndex(featureIndex)
+                .setLeftCount(bestLeftCount)
+                .setRightCount(bestRightCount)
+                .setReduction(bestReduction)
+                .setThreshold(threshold);
+        return Optional.of(splitResult);
+    }
+}
@@ -21,7 +21,19 @@ class IntervalSplitter {
                                        double[] probs,
                                        int featureIndex,
                                        Splitter.GlobalStats globalStats){
-        Vector featureValues = dataSet.getColumn(featureIndex);
+        return split(regTreeConfig, dataSet.getColumn(featureIndex), labels, probs, featureIndex, globalStats);
+    }
+
+    /**
+     * @param featureValues column of the feature; only entries with non-zero probabilities are used,
+     *                      so it may be restricted to the data points at the node
+     */
+    static Optional<SplitResult> split(RegTreeConfig regTreeConfig,
+                                       Vector featureValues,
+                                       double[] labels,
+                                       double[] probs,
+                                       int featureIndex,
+                                       Splitter.GlobalStats globalStats){
         if (featureValues.getNumNonZeroElements()==0){
             return Optional.empty();
         }
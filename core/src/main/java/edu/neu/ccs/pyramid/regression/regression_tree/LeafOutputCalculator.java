@@ -14,4 +14,19 @@ public interface LeafOutputCalculator {
      * @return output of the leaf node
      */
     double getLeafOutput(double[] probabilities, double[] labels);
+
+    /**
+     * only the data points reaching the leaf are given
+     * by default, expand them into dense probabilities
+     * @param dataIndices indices of the data points reaching the leaf
+     * @param probabilities probabilities of these data points, aligned with dataIndices
+     * @return output of the leaf node
+     */
+    default double getLeafOutput(int[] dataIndices, double[] probabilities, double[] labels){
+        double[] denseProbabilities = new double[labels.length];
+        for (int p=0;p<dataIndices.length;p++){
+            denseProbabilities[dataIndices[p]] = probabilities[p];
+        }
+        return getLeafOutput(denseProbabilities, labels);
+    }
 }
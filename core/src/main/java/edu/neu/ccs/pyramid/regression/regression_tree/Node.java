@@ -44,8 +44,24 @@ public class Node implements Serializable {
     private double rightProb;
 
 
-    //todo this should be transient? maybe doesn't matter as it is cleaned
-    private double[] probs;
+    /**
+     * indices of data points reaching the node, in increasing order
+     * only used during training, cleaned after split
+     */
+    private transient int[] dataIndices;
+
+    /**
+     * for missing values
+     * the fraction of each data point (aligned with dataIndices) that falls into the node
+     * null if every data point falls into the node completely
+     * only used during training, cleaned after split
+     */
+    private transient double[] fractions;
+
+    /**
+     * only used by histogram based training, cleaned after split
+     */
+    private transient Histogram histogram;
 
     boolean isSplitable() {
         return splitable;
@@ -85,7 +101,7 @@ public class Node implements Serializable {
         return this;
     }
 
-    boolean isLeaf() {
+    public boolean isLeaf() {
         return leaf;
     }
 
@@ -98,15 +114,27 @@ public class Node implements Serializable {
         return this;
     }
 
-    double[] getProbs() {
-        return probs;
+    int[] getDataIndices() {
+        return dataIndices;
+    }
+
+    double[] getFractions() {
+        return fractions;
     }
 
-    Node setProbs(double[] probs) {
-        this.probs = probs;
+    Node setData(int[] dataIndices, double[] fractions) {
+        this.dataIndices = dataIndices;
+        this.fractions = fractions;
         return this;
     }
 
+    /**
+     * number of data points reaching the node
+     */
+    int getDataSize(){
+        return dataIndices.length;
+    }
+
     public double getValue() {
         return value;
     }
@@ -145,11 +173,24 @@ public class Node implements Serializable {
     /**
      * after split, free memory
      */
-    void clearProbs(){
-        this.probs=null;
+    void clearData(){
+        this.dataIndices=null;
+        this.fractions=null;
+    }
+
+    Histogram getHistogram() {
+        return histogram;
+    }
+
+    void setHistogram(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+    void clearHistogram(){
+        this.histogram=null;
     }
 
-    double getLeftProb() {
+    public double getLeftProb() {
         return leftProb;
     }
 
@@ -157,7 +198,7 @@ public class Node implements Serializable {
         this.leftProb = leftProb;
     }
 
-    double getRightProb() {
+    public double getRightProb() {
         return rightProb;
     }
 
@@ -12,6 +12,7 @@ public class RegTreeConfig {
     private int minDataPerLeaf=0;
     private boolean parallel=true;
     private int numActiveFeatures=10;
+    private boolean recordLeafMembership=false;
 
 
     public RegTreeConfig setMaxNumLeaves(int maxNumLeaves) {
@@ -42,6 +43,15 @@ public class RegTreeConfig {
         return this;
     }
 
+    /**
+     * keep the training data points of each leaf in the tree, see {@link RegressionTree#consumeTrainingPredictions()}
+     * only useful when the caller updates scores of the training data, e.g. in boosting
+     */
+    public RegTreeConfig setRecordLeafMembership(boolean recordLeafMembership) {
+        this.recordLeafMembership = recordLeafMembership;
+        return this;
+    }
+
     int getMaxNumLeaves() {
         return maxNumLeaves;
     }
@@ -64,4 +74,8 @@ public class RegTreeConfig {
     public boolean isParallel() {
         return parallel;
     }
+
+    boolean isRecordLeafMembership() {
+        return recordLeafMembership;
+    }
 }
@@ -4,15 +4,25 @@ import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.regression.Regressor;
 import edu.neu.ccs.pyramid.regression.RegressorFactory;
 
+import java.util.Arrays;
+
 /**
  * Created by chengli on 7/5/15.
  */
 public class RegTreeFactory implements RegressorFactory {
     private RegTreeConfig regTreeConfig;
     private LeafOutputCalculator leafOutputCalculator;
+    private boolean useHistogram;
+    private boolean recordLeafMembership;
+    /**
+     * binned copy of the last data set seen, reused across trees
+     */
+    private BinnedDataSet binnedDataSet;
+    private DataSet binnedSource;
 
     public RegTreeFactory(RegTreeConfig regTreeConfig) {
         this.regTreeConfig = regTreeConfig;
+        this.recordLeafMembership = regTreeConfig.isRecordLeafMembership();
         this.leafOutputCalculator = new AverageOutputCalculator();
     }
 
@@ -20,13 +30,45 @@ public class RegTreeFactory implements RegressorFactory {
         this.leafOutputCalculator = leafOutputCalculator;
     }
 
+    /**
+     * see {@link RegTreeConfig#setRecordLeafMembership(boolean)}; only applies to trees fitted by this factory,
+     * the config passed to the constructor is not modified
+     */
+    public void setRecordLeafMembership(boolean recordLeafMembership) {
+        this.recordLeafMembership = recordLeafMembership;
+    }
+
+    /**
+     * use histogram based split finding
+     * the data set is binned once when first seen, so it should not be modified during training
+     * @param useHistogram
+     */
+    public void setUseHistogram(boolean useHistogram) {
+        this.useHistogram = useHistogram;
+    }
+
     @Override
     public Regressor fit(DataSet dataSet, double[] labels) {
-        return RegTreeTrainer.fit(regTreeConfig,dataSet,labels,leafOutputCalculator);
+        return fit(dataSet,labels,defaultWeights(labels.length));
     }
 
     @Override
     public Regressor fit(DataSet dataSet, double[] labels, double[] weights) {
-        return RegTreeTrainer.fit(regTreeConfig,dataSet,labels,weights, leafOutputCalculator);
+        BinnedDataSet binned = useHistogram? getBinnedDataSet(dataSet) : null;
+        return RegTreeTrainer.fit(regTreeConfig,dataSet,binned,labels,weights,leafOutputCalculator,recordLeafMembership);
+    }
+
+    private synchronized BinnedDataSet getBinnedDataSet(DataSet dataSet){
+        if (binnedSource!=dataSet){
+            binnedDataSet = BinnedDataSet.build(dataSet,regTreeConfig.getNumSplitIntervals());
+            binnedSource = dataSet;
+        }
+        return binnedDataSet;
+    }
+
+    private static double[] defaultWeights(int numData){
+        double[] weights = new double[numData];
+        Arrays.fill(weights,1.0);
+        return weights;
     }
 }
@@ -2,7 +2,6 @@ package edu.neu.ccs.pyramid.regression.regression_tree;
 
 import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.RegDataSet;
-import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
 import java.util.*;
@@ -13,6 +12,9 @@ import java.util.stream.Stream;
  * Created by chengli on 8/11/14.
  */
 public class RegTreeTrainer {
+    private static final byte LEFT = 0;
+    private static final byte RIGHT = 1;
+    private static final byte BOTH = 2;
 
     public static RegressionTree fit(RegTreeConfig regTreeConfig,
                                      RegDataSet regDataSet){
@@ -41,6 +43,39 @@ public class RegTreeTrainer {
                                      double[] labels,
                                      double[] weights,
                                      LeafOutputCalculator leafOutputCalculator){
+        return fit(regTreeConfig,dataSet,null,labels,weights,leafOutputCalculator);
+    }
+
+    /**
+     * histogram based training
+     * @param binnedDataSet pre-binned copy of dataSet, built by {@link BinnedDataSet#build(DataSet, int)};
+     *                      can be reused across trees; if null, splits are found by {@link IntervalSplitter}
+     */
+    public static RegressionTree fit(RegTreeConfig regTreeConfig,
+                                     DataSet dataSet,
+                                     BinnedDataSet binnedDataSet,
+                                     double[] labels,
+                                     double[] weights,
+                                     LeafOutputCalculator leafOutputCalculator){
+        return fit(regTreeConfig,dataSet,binnedDataSet,labels,weights,leafOutputCalculator,
+                regTreeConfig.isRecordLeafMembership());
+    }
+
+    /**
+     * @param recordLeafMembership overrides the flag of regTreeConfig, so that a caller can record leaf membership
+     *                             without modifying a config shared with others
+     */
+    static RegressionTree fit(RegTreeConfig regTreeConfig,
+                              DataSet dataSet,
+                              BinnedDataSet binnedDataSet,
+                              double[] labels,
+                              double[] weights,
+                              LeafOutputCalculator leafOutputCalculator,
+                              boolean recordLeafMembership){
+        if (binnedDataSet!=null && (binnedDataSet.getNumDataPoints()!=dataSet.getNumDataPoints()
+                || binnedDataSet.getNumFeatures()!=dataSet.getNumFeatures())){
+            throw new IllegalArgumentException("binnedDataSet does not match dataSet");
+        }
         RegressionTree tree = new RegressionTree();
         tree.setFeatureList(dataSet.getFeatureList());
 
@@ -51,13 +86,18 @@ public class RegTreeTrainer {
 
 
         //root gets all active data points
-        double[] rootProbs = new double[dataSet.getNumDataPoints()];
-        for (int dataPoint=0; dataPoint<dataSet.getNumDataPoints();dataPoint++){
-            rootProbs[dataPoint]=weights[dataPoint];
+        tree.root.setData(rootDataIndices(weights),null);
+        // probabilities of the node being examined by the interval splitter
+        // only entries of the node's data points are non-zero; reset after each use
+        double[] probs = null;
+        if (binnedDataSet==null){
+            probs = new double[dataSet.getNumDataPoints()];
+        } else {
+            tree.root.setHistogram(Histogram.build(binnedDataSet,labels,weights,
+                    tree.root.getDataIndices(),tree.root.getFractions()));
         }
-        tree.root.setProbs(rootProbs);
         //parallel
-        updateNode(tree.root, regTreeConfig,dataSet,labels);
+        updateNode(tree.root, regTreeConfig,dataSet,binnedDataSet,labels,weights,probs);
         tree.leaves.add(tree.root);
         tree.root.setLeaf(true);
         tree.allNodes.add(tree.root);
@@ -73,14 +113,17 @@ public class RegTreeTrainer {
             Optional<Node> leafToSplitOptional = findLeafToSplit(tree.leaves);
             if (leafToSplitOptional.isPresent()){
                 Node leafToSplit = leafToSplitOptional.get();
-                splitNode(tree, leafToSplit,regTreeConfig,dataSet,labels);
+                splitNode(tree, leafToSplit,regTreeConfig,dataSet,binnedDataSet,labels,weights,probs);
             } else {
                 break;
             }
         }
 
         //parallel
-        setLeavesOutputs(regTreeConfig, tree.leaves,leafOutputCalculator, labels);
+        setLeavesOutputs(regTreeConfig, tree.leaves,leafOutputCalculator, labels, weights);
+        if (recordLeafMembership){
+            recordLeafMembership(tree, dataSet.getNumDataPoints());
+        }
         cleanLeaves(tree.leaves);
         normalizeReductions(tree,dataSet);
         return tree;
@@ -103,21 +146,8 @@ public class RegTreeTrainer {
      * @param dataSet
      */
     private static void splitNode(RegressionTree tree, Node leafToSplit, RegTreeConfig regTreeConfig,
-                                  DataSet dataSet, double[] labels) {
-        int numDataPoints = dataSet.getNumDataPoints();
-
-        /**
-         * split this leaf node
-         */
-        int featureIndex = leafToSplit.getFeatureIndex();
-        double threshold = leafToSplit.getThreshold();
-        Vector inputVector = dataSet.getColumn(featureIndex);
-        Vector columnVector;
-        if (inputVector.isDense()){
-            columnVector = inputVector;
-        } else {
-            columnVector = new DenseVector(inputVector);
-        }
+                                  DataSet dataSet, BinnedDataSet binnedDataSet, double[] labels,
+                                  double[] weights, double[] probs) {
         /**
          * create children
          */
@@ -128,41 +158,21 @@ public class RegTreeTrainer {
         rightChild.setId(tree.numNodes);
         tree.numNodes += 1;
 
-        double[] parentProbs = leafToSplit.getProbs();
-        double[] leftProbs = new double[numDataPoints];
-        double[] rightProbs = new double[numDataPoints];
-        IntStream intStream = IntStream.range(0,numDataPoints);
-        if (regTreeConfig.isParallel()){
-            intStream = intStream.parallel();
-        }
-        intStream.forEach(i->{
-            double featureValue = columnVector.get(i);
-            if (Double.isNaN(featureValue)){
-                // go to both branches probabilistically
-                leftProbs[i] = parentProbs[i]*leafToSplit.getLeftProb();
-                rightProbs[i] = parentProbs[i]*leafToSplit.getRightProb();
-            } else {
-                //<= go left, > go right
-                if (featureValue<=threshold){
-                    leftProbs[i] = parentProbs[i];
-                    rightProbs[i] = 0;
-                } else {
-                    leftProbs[i] = 0;
-                    rightProbs[i] = parentProbs[i];
-                }
-            }
-        });
-
-        leftChild.setProbs(leftProbs);
-        rightChild.setProbs(rightProbs);
+        /**
+         * split this leaf node
+         */
+        partition(leafToSplit,leftChild,rightChild,dataSet,regTreeConfig.isParallel());
 
 
         //the last two leaves need not to be updated completely
         //as we don't need to split them later
         int maxNumLeaves = regTreeConfig.getMaxNumLeaves();
         if (tree.leaves.size()!=maxNumLeaves-1){
-            updateNode(leftChild,regTreeConfig,dataSet,labels);
-            updateNode(rightChild,regTreeConfig,dataSet,labels);
+            if (binnedDataSet!=null){
+                setChildrenHistograms(leafToSplit,leftChild,rightChild,binnedDataSet,labels,weights);
+            }
+            updateNode(leftChild,regTreeConfig,dataSet,binnedDataSet,labels,weights,probs);
+            updateNode(rightChild,regTreeConfig,dataSet,binnedDataSet,labels,weights,probs);
         }
 
 
@@ -176,7 +186,8 @@ public class RegTreeTrainer {
          * update leaves, remove the parent, and add children
          */
         leafToSplit.setLeaf(false);
-        leafToSplit.clearProbs();
+        leafToSplit.clearData();
+        leafToSplit.clearHistogram();
         tree.leaves.remove(leafToSplit);
         leftChild.setLeaf(true);
         rightChild.setLeaf(true);
@@ -186,17 +197,168 @@ public class RegTreeTrainer {
         tree.allNodes.add(rightChild);
     }
 
+    /**
+     * distribute the data points of a node to its children
+     * cost is linear in the number of data points at the node
+     * <= go left, > go right, missing values go to both branches probabilistically
+     * @param parent node with feature index, threshold and left/right probabilities set
+     */
+    static void partition(Node parent, Node leftChild, Node rightChild,
+                          DataSet dataSet, boolean parallel){
+        int featureIndex = parent.getFeatureIndex();
+        double threshold = parent.getThreshold();
+        Vector columnVector = dataSet.getColumn(featureIndex);
+        int[] parentIndices = parent.getDataIndices();
+        double[] parentFractions = parent.getFractions();
+        int parentSize = parentIndices.length;
+
+        byte[] directions = new byte[parentSize];
+        IntStream intStream = IntStream.range(0,parentSize);
+        if (parallel){
+            intStream = intStream.parallel();
+        }
+        intStream.forEach(p->{
+            double featureValue = columnVector.get(parentIndices[p]);
+            if (Double.isNaN(featureValue)){
+                directions[p] = BOTH;
+            } else if (featureValue<=threshold){
+                directions[p] = LEFT;
+            } else {
+                directions[p] = RIGHT;
+            }
+        });
+
+        double leftProb = parent.getLeftProb();
+        double rightProb = parent.getRightProb();
+        int leftSize = 0;
+        int rightSize = 0;
+        boolean hasMissing = false;
+        for (byte direction: directions){
+            if (direction==BOTH){
+                hasMissing = true;
+                if (leftProb>0){
+                    leftSize += 1;
+                }
+                if (rightProb>0){
+                    rightSize += 1;
+                }
+            } else if (direction==LEFT){
+                leftSize += 1;
+            } else {
+                rightSize += 1;
+            }
+        }
+
+        int[] leftIndices = new int[leftSize];
+        int[] rightIndices = new int[rightSize];
+        double[] leftFractions = null;
+        double[] rightFractions = null;
+        if (hasMissing || parentFractions!=null){
+            leftFractions = new double[leftSize];
+            rightFractions = new double[rightSize];
+        }
+        int leftPosition = 0;
+        int rightPosition = 0;
+        for (int p=0;p<parentSize;p++){
+            double fraction = 1;
+            if (parentFractions!=null){
+                fraction = parentFractions[p];
+            }
+            byte direction = directions[p];
+            if (direction==LEFT || (direction==BOTH && leftProb>0)){
+                leftIndices[leftPosition] = parentIndices[p];
+                if (leftFractions!=null){
+                    leftFractions[leftPosition] = direction==BOTH ? fraction*leftProb : fraction;
+                }
+                leftPosition += 1;
+            }
+            if (direction==RIGHT || (direction==BOTH && rightProb>0)){
+                rightIndices[rightPosition] = parentIndices[p];
+                if (rightFractions!=null){
+                    rightFractions[rightPosition] = direction==BOTH ? fraction*rightProb : fraction;
+                }
+                rightPosition += 1;
+            }
+        }
+        leftChild.setData(leftIndices,leftFractions);
+        rightChild.setData(rightIndices,rightFractions);
+    }
+
+    /**
+     * data points with positive weights
+     */
+    static int[] rootDataIndices(double[] weights){
+        return IntStream.range(0,weights.length).filter(i->weights[i]>0).toArray();
+    }
+
+    /**
+     * probabilities of the node's data points, aligned with the node's data indices
+     */
+    static double[] nodeProbs(Node node, double[] weights){
+        int[] dataIndices = node.getDataIndices();
+        double[] fractions = node.getFractions();
+        double[] nodeProbs = new double[dataIndices.length];
+        for (int p=0;p<dataIndices.length;p++){
+            nodeProbs[p] = weights[dataIndices[p]];
+            if (fractions!=null){
+                nodeProbs[p] *= fractions[p];
+            }
+        }
+        return nodeProbs;
+    }
+
+    /**
+     * fill the dense probabilities of the node's data points
+     */
+    static void fillProbs(Node node, double[] weights, double[] probs){
+        int[] dataIndices = node.getDataIndices();
+        double[] fractions = node.getFractions();
+        for (int p=0;p<dataIndices.length;p++){
+            int i = dataIndices[p];
+            probs[i] = weights[i];
+            if (fractions!=null){
+                probs[i] *= fractions[p];
+            }
+        }
+    }
+
+    /**
+     * reset the dense probabilities of the node's data points to 0
+     */
+    static void resetProbs(Node node, double[] probs){
+        for (int i: node.getDataIndices()){
+            probs[i] = 0;
+        }
+    }
+
+    static void setLeafOutput(Node leaf, LeafOutputCalculator calculator, double[] labels, double[] weights){
+        double[] nodeProbs = nodeProbs(leaf, weights);
+        double output = calculator.getLeafOutput(leaf.getDataIndices(), nodeProbs, labels);
+        leaf.setValue(output);
+    }
+
     /**
      * parallel
-     * given probs, fill other information
+     * given the node data, fill other information
      * @param node
      */
     private static void updateNode(Node node,
                                    RegTreeConfig regTreeConfig,
                                    DataSet dataSet,
-                                   double[] labels) {
-        Optional<SplitResult> splitResultOptional = Splitter.split(regTreeConfig,
-                dataSet,labels,node.getProbs());
+                                   BinnedDataSet binnedDataSet,
+                                   double[] labels,
+                                   double[] weights,
+                                   double[] probs) {
+        Optional<SplitResult> splitResultOptional;
+        if (binnedDataSet==null){
+            fillProbs(node,weights,probs);
+            splitResultOptional = Splitter.split(regTreeConfig,
+                    dataSet,labels,probs,node.getDataIndices());
+            resetProbs(node,probs);
+        } else {
+            splitResultOptional = Splitter.split(regTreeConfig,
+                    binnedDataSet,node.getHistogram());
+        }
         if (splitResultOptional.isPresent()){
             SplitResult splitResult = splitResultOptional.get();
             node.setFeatureIndex(splitResult.getFeatureIndex());
@@ -213,9 +375,51 @@ public class RegTreeTrainer {
         }
     }
 
+    /**
+     * only scan the child with fewer data points;
+     * the histogram of the other child is obtained by subtracting it from the parent histogram
+     */
+    private static void setChildrenHistograms(Node parent, Node leftChild, Node rightChild,
+                                              BinnedDataSet binnedDataSet, double[] labels, double[] weights){
+        Node smaller;
+        Node larger;
+        if (leftChild.getDataSize()<=rightChild.getDataSize()){
+            smaller = leftChild;
+            larger = rightChild;
+        } else {
+            smaller = rightChild;
+            larger = leftChild;
+        }
+        Histogram smallerHistogram = Histogram.build(binnedDataSet,labels,weights,
+                smaller.getDataIndices(),smaller.getFractions());
+        Histogram largerHistogram = parent.getHistogram();
+        largerHistogram.subtract(smallerHistogram);
+        smaller.setHistogram(smallerHistogram);
+        larger.setHistogram(largerHistogram);
+        parent.clearHistogram();
+    }
+
+    /**
+     * move the data points of each leaf into the tree
+     * so that staged scores of training data can be updated without visiting the data again
+     * should be called before leaves are cleaned
+     */
+    static void recordLeafMembership(RegressionTree tree, int numDataPoints){
+        int numLeaves = tree.leaves.size();
+        int[][] leafDataIndices = new int[numLeaves][];
+        double[][] leafFractions = new double[numLeaves][];
+        for (int l=0;l<numLeaves;l++){
+            Node leaf = tree.leaves.get(l);
+            leafDataIndices[l] = leaf.getDataIndices();
+            leafFractions[l] = leaf.getFractions();
+        }
+        tree.setLeafMembership(leafDataIndices, leafFractions, numDataPoints);
+    }
+
     private static void cleanLeaves(List<Node> leaves){
         for (Node leaf: leaves){
-            leaf.clearProbs();
+            leaf.clearData();
+            leaf.clearHistogram();
         }
     }
 
@@ -223,19 +427,14 @@ public class RegTreeTrainer {
     /**
      * parallel
      */
-    private static void setLeavesOutputs(RegTreeConfig regTreeConfig, List<Node> leaves, LeafOutputCalculator calculator, double[] labels){
+    private static void setLeavesOutputs(RegTreeConfig regTreeConfig, List<Node> leaves, LeafOutputCalculator calculator,
+                                         double[] labels, double[] weights){
         Stream<Node> stream = leaves.stream();
         if (regTreeConfig.isParallel()){
             stream = stream.parallel();
         }
 
-        stream.forEach(leaf -> setLeafOutput(leaf, calculator, labels));
-    }
-
-    private static void setLeafOutput(Node leaf, LeafOutputCalculator calculator, double[] labels){
-        double[] probs = leaf.getProbs();
-        double output = calculator.getLeafOutput(probs, labels);
-        leaf.setValue(output);
+        stream.forEach(leaf -> setLeafOutput(leaf, calculator, labels, weights));
     }
 
     private static Optional<Node> findLeafToSplit(List<Node> leaves){
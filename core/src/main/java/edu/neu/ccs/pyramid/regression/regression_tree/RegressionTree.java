@@ -1,5 +1,6 @@
 package edu.neu.ccs.pyramid.regression.regression_tree;
 
+import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.regression.GeneralTreeRule;
 import edu.neu.ccs.pyramid.regression.Regressor;
@@ -50,6 +51,18 @@ public class RegressionTree implements Regressor, Serializable {
 
     private FeatureList featureList;
 
+    /**
+     * training data points of each leaf, aligned with leaves
+     * recorded by the trainer and released once used, see {@link #consumeTrainingPredictions()}
+     */
+    private transient int[][] leafDataIndices;
+    /**
+     * fractions of training data points sent to both branches at missing values, aligned with leafDataIndices;
+     * null for a leaf whose data points fall into it completely
+     */
+    private transient double[][] leafFractions;
+    private transient int numTrainingDataPoints;
+
     protected RegressionTree() {
         this.numNodes = 0;
         this.leaves = new ArrayList<>();
@@ -64,6 +77,54 @@ public class RegressionTree implements Regressor, Serializable {
         }
     }
 
+    void setLeafMembership(int[][] leafDataIndices, double[][] leafFractions, int numTrainingDataPoints){
+        this.leafDataIndices = leafDataIndices;
+        this.leafFractions = leafFractions;
+        this.numTrainingDataPoints = numTrainingDataPoints;
+    }
+
+    /**
+     * outputs of the tree on its training data, from the leaf membership recorded during training
+     * this avoids traversing the tree for each training data point;
+     * leaf values are read at call time, so shrinkage applied after training is respected
+     * the membership is released afterwards, so this can only be called once
+     * @return empty if no membership is available;
+     * otherwise outputs of all training data points, NaN for data points not reaching any leaf (e.g. with zero weight)
+     */
+    public synchronized Optional<double[]> consumeTrainingPredictions(){
+        if (leafDataIndices==null){
+            return Optional.empty();
+        }
+        double[] predictions = new double[numTrainingDataPoints];
+        Arrays.fill(predictions, Double.NaN);
+        for (int l=0;l<leafDataIndices.length;l++){
+            double value = leaves.get(l).getValue();
+            int[] dataIndices = leafDataIndices[l];
+            double[] fractions = leafFractions[l];
+            for (int p=0;p<dataIndices.length;p++){
+                int i = dataIndices[p];
+                double prediction = fractions==null ? value : fractions[p]*value;
+                if (Double.isNaN(predictions[i])){
+                    predictions[i] = prediction;
+                } else {
+                    // data point with missing values, reaching several leaves
+                    predictions[i] += prediction;
+                }
+            }
+        }
+        this.leafDataIndices = null;
+        this.leafFractions = null;
+        return Optional.of(predictions);
+    }
+
+    /**
+     * release the leaf membership recorded during training, if it will not be used
+     */
+    public synchronized void clearLeafMembership(){
+        this.leafDataIndices = null;
+        this.leafFractions = null;
+    }
+
     //todo deal with reduction and probabilities
     public static RegressionTree newStump(int featureIndex, double threshold,
                                           double leftOutput, double rightOutput){
@@ -111,6 +172,33 @@ public class RegressionTree implements Regressor, Serializable {
         return predictionNoMissing.orElseGet(() -> predictWithMissingValue(vector));
     }
 
+    /**
+     * walk the tree for a block of rows, so the nodes stay in cache
+     */
+    @Override
+    public void addPredictions(DataSet dataSet, int fromRow, int toRow, double[] scores){
+        for (int i=fromRow;i<toRow;i++){
+            Vector vector = dataSet.getRow(i);
+            Node node = root;
+            while(!node.isLeaf()){
+                double featureValue = vector.get(node.getFeatureIndex());
+                if (featureValue<=node.getThreshold()){
+                    node = node.getLeftChild();
+                } else if (featureValue>node.getThreshold()){
+                    node = node.getRightChild();
+                } else {
+                    // missing value
+                    break;
+                }
+            }
+            if (node.isLeaf()){
+                scores[i-fromRow] += node.getValue();
+            } else {
+                scores[i-fromRow] += predictWithMissingValue(vector);
+            }
+        }
+    }
+
     // prediction method designed for input with missing values
     private double predictWithMissingValue(Vector vector){
         // use as a simple cache
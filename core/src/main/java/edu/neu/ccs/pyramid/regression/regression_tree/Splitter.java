@@ -5,6 +5,8 @@ import edu.neu.ccs.pyramid.dataset.DataSet;
 import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
 
 
 import java.util.*;
@@ -22,20 +24,29 @@ public class Splitter {
     /**
      *
      * @param regTreeConfig
-     * @param probs
+     * @param probs dense probabilities, non-zero only for data points at the node
+     * @param dataIndices data points at the node
      * @return best valid splitResult, possibly nothing
      */
 
     static Optional<SplitResult> split(RegTreeConfig regTreeConfig,
                                        DataSet dataSet,
                                        double[] labels,
-                                       double[] probs){
-        GlobalStats globalStats = new GlobalStats(labels,probs);
+                                       double[] probs,
+                                       int[] dataIndices){
+        GlobalStats globalStats = new GlobalStats(labels,probs,dataIndices);
         if (logger.isDebugEnabled()){
             logger.debug("global statistics = "+globalStats);
         }
 
-        List<Integer> featureIndices = IntStream.range(0, dataSet.getNumFeatures()).boxed().collect(Collectors.toList());
+        Map<Integer,Vector> nodeColumns = nodeColumns(dataSet, dataIndices);
+        // features without values at the node have no split
+        List<Integer> featureIndices;
+        if (nodeColumns==null){
+            featureIndices = IntStream.range(0, dataSet.getNumFeatures()).boxed().collect(Collectors.toList());
+        } else {
+            featureIndices = new ArrayList<>(nodeColumns.keySet());
+        }
 
 
         Stream<Integer> stream = featureIndices.stream();
@@ -43,7 +54,80 @@ public class Splitter {
             stream = stream.parallel();
         }
         // the list might be empty
-        return stream.map(featureIndex -> split(regTreeConfig, dataSet, labels, probs, featureIndex, globalStats))
+        return stream.map(featureIndex -> split(regTreeConfig, dataSet, nodeColumns, labels, probs, featureIndex, globalStats))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .max(Comparator.comparing(SplitResult::getReduction));
+    }
+
+    /**
+     * columns restricted to the data points at the node, built from their rows,
+     * so that scanning all features costs the non-zeros of the node instead of those of the data set
+     * only features with values at the node get a column; the work is proportional to the non-zeros of the node
+     * only entries of data points at the node contribute to the statistics, so they are unchanged
+     * up to the rounding of sums taken in a different order
+     * @return feature index to column, in ascending feature order,
+     * or null when the node holds more than half of the data points; the full columns are scanned then
+     */
+    static Map<Integer,Vector> nodeColumns(DataSet dataSet, int[] dataIndices){
+        if (2L*dataIndices.length>dataSet.getNumDataPoints()){
+            return null;
+        }
+        int numEntries = 0;
+        for (int i: dataIndices){
+            numEntries += dataSet.getRow(i).getNumNondefaultElements();
+        }
+        // feature in the high bits, entry in the low bits, so that sorting groups the entries by feature in row order
+        long[] keys = new long[numEntries];
+        int[] rows = new int[numEntries];
+        double[] values = new double[numEntries];
+        int numNonZeros = 0;
+        for (int i: dataIndices){
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                keys[numNonZeros] = ((long) element.index()<<32)|numNonZeros;
+                rows[numNonZeros] = i;
+                values[numNonZeros] = element.get();
+                numNonZeros += 1;
+            }
+        }
+        Arrays.sort(keys, 0, numNonZeros);
+        Map<Integer,Vector> columns = new LinkedHashMap<>();
+        int start = 0;
+        while (start<numNonZeros){
+            int feature = (int) (keys[start]>>>32);
+            int end = start;
+            while (end<numNonZeros && (int) (keys[end]>>>32)==feature){
+                end += 1;
+            }
+            Vector column = new SequentialAccessSparseVector(dataSet.getNumDataPoints(), end-start);
+            for (int e=start;e<end;e++){
+                int entry = (int) keys[e];
+                column.setQuick(rows[entry], values[entry]);
+            }
+            columns.put(feature, column);
+            start = end;
+        }
+        return columns;
+    }
+
+
+
+    /**
+     * histogram based split finding
+     * @param regTreeConfig
+     * @param binnedDataSet
+     * @param histogram histogram of the node
+     * @return best valid splitResult, possibly nothing
+     */
+    static Optional<SplitResult> split(RegTreeConfig regTreeConfig,
+                                       BinnedDataSet binnedDataSet,
+                                       Histogram histogram){
+        IntStream intStream = IntStream.range(0, binnedDataSet.getNumFeatures());
+        if (regTreeConfig.isParallel()){
+            intStream = intStream.parallel();
+        }
+        // the list might be empty
+        return intStream.mapToObj(featureIndex -> HistogramSplitter.split(regTreeConfig, binnedDataSet, histogram, featureIndex))
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .max(Comparator.comparing(SplitResult::getReduction));
@@ -57,10 +141,11 @@ public class Splitter {
                                        DataSet dataSet,
                                        double[] labels,
                                        double[] probs,
+                                       int[] dataIndices,
                                        List<Integer> activeFeatures,
                                        boolean fullScan){
         if(fullScan){
-            GlobalStats globalStats = new GlobalStats(labels,probs);
+            GlobalStats globalStats = new GlobalStats(labels,probs,dataIndices);
             if (logger.isDebugEnabled()){
                 logger.debug("global statistics = "+globalStats);
             }
@@ -68,8 +153,12 @@ public class Splitter {
             Comparator<Optional<SplitResult>> comparator = Comparator.comparing(optional -> -1*optional.get().getReduction());
             PriorityQueue<Optional<SplitResult>> fQueue = new PriorityQueue<>(comparator);
 
-            for(int i=0;i<dataSet.getNumFeatures();i++){
-                Optional<SplitResult> singleFeatureBest=split(regTreeConfig,dataSet,labels,probs,i,globalStats);
+            Map<Integer,Vector> nodeColumns = nodeColumns(dataSet, dataIndices);
+            // features without values at the node have no split
+            Iterable<Integer> scannedFeatures = nodeColumns==null ?
+                    IntStream.range(0, dataSet.getNumFeatures()).boxed().collect(Collectors.toList()) : nodeColumns.keySet();
+            for(int i: scannedFeatures){
+                Optional<SplitResult> singleFeatureBest=split(regTreeConfig,dataSet,nodeColumns,labels,probs,i,globalStats);
                 if (singleFeatureBest.isPresent()){
                     fQueue.add(singleFeatureBest);
                 }
@@ -88,7 +177,7 @@ public class Splitter {
             return result;
 
         }else{
-            GlobalStats globalStats = new GlobalStats(labels,probs);
+            GlobalStats globalStats = new GlobalStats(labels,probs,dataIndices);
             if (logger.isDebugEnabled()){
                 logger.debug("global statistics = "+globalStats);
             }
@@ -98,7 +187,8 @@ public class Splitter {
                 stream = stream.parallel();
             }
             // the list might be empty
-            return stream.map(featureIndex -> split(regTreeConfig, dataSet, labels, probs, featureIndex, globalStats))
+            // only a few features are scanned, so the full columns are used
+            return stream.map(featureIndex -> split(regTreeConfig, dataSet, null, labels, probs, featureIndex, globalStats))
                     .filter(Optional::isPresent)
                     .map(Optional::get)
                     .max(Comparator.comparing(SplitResult::getReduction));
@@ -111,14 +201,18 @@ public class Splitter {
 
 
 
+    /**
+     * @param nodeColumns see {@link #nodeColumns(DataSet, int[])}, null to scan the full column
+     */
     private static Optional<SplitResult> split(RegTreeConfig regTreeConfig,
                                        DataSet dataSet,
+                                       Map<Integer,Vector> nodeColumns,
                                        double[] labels,
                                        double[] probs,
                                        int featureIndex,
                                        GlobalStats globalStats){
-
-        return IntervalSplitter.split(regTreeConfig,dataSet,labels,
+        Vector featureValues = nodeColumns==null ? dataSet.getColumn(featureIndex) : nodeColumns.get(featureIndex);
+        return IntervalSplitter.split(regTreeConfig,featureValues,labels,
                     probs,featureIndex, globalStats);
     }
 
@@ -133,7 +227,16 @@ public class Splitter {
 
         GlobalStats(double[] labels,
                     double[] probs) {
-            for (int i=0;i<labels.length;i++){
+            this(labels,probs,IntStream.range(0,labels.length).toArray());
+        }
+
+        /**
+         * only scan data points at the node
+         */
+        GlobalStats(double[] labels,
+                    double[] probs,
+                    int[] dataIndices) {
+            for (int i: dataIndices){
                 double label = labels[i];
                 double prob = probs[i];
                 WeightedLabelSum += label*prob;
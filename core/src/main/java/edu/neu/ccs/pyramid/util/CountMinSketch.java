@@ -0,0 +1,70 @@
+package edu.neu.ccs.pyramid.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * count-min sketch over long keys, safe for concurrent updates
+ * estimates never undercount; an estimate exceeds the true count by more than e*N/width
+ * with probability at most exp(-depth), where N is the total count added
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[] seeds;
+    /**
+     * depth rows of width counters
+     */
+    private final AtomicIntegerArray counts;
+
+    public CountMinSketch(int width, int depth) {
+        if (width<1 || depth<1){
+            throw new IllegalArgumentException("width and depth should be positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.seeds = new long[depth];
+        for (int row=0;row<depth;row++){
+            seeds[row] = mix(0x9E3779B97F4A7C15L*(row+1));
+        }
+        this.counts = new AtomicIntegerArray(width*depth);
+    }
+
+    public void add(long key){
+        for (int row=0;row<depth;row++){
+            counts.incrementAndGet(index(key, row));
+        }
+    }
+
+    public int estimate(long key){
+        int min = Integer.MAX_VALUE;
+        for (int row=0;row<depth;row++){
+            min = Math.min(min, counts.get(index(key, row)));
+        }
+        return min;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private int index(long key, int row){
+        long hash = mix(key^seeds[row]);
+        return row*width + (int)((hash>>>1)%width);
+    }
+
+    /**
+     * finalizer of murmur3
+     */
+    private static long mix(long key){
+        key ^= key>>>33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key>>>33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key>>>33;
+        return key;
+    }
+}
@@ -0,0 +1,64 @@
+package edu.neu.ccs.pyramid.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * thread-safe interning of terms to consecutive int ids, starting from 0
+ * lookups of existing terms do not lock
+ */
+public class TermDictionary {
+    /**
+     * rough size of an interned term besides its chars: string object, map entry, boxed id and array slot
+     */
+    private static final int TERM_OVERHEAD = 112;
+    private final Map<String,Integer> termIds = new ConcurrentHashMap<>();
+    /**
+     * grown under the lock; an id is only published after its term is written
+     */
+    private volatile String[] terms = new String[1024];
+    private int numTerms;
+    private volatile long numBytes;
+
+    public int intern(String term){
+        Integer termId = termIds.get(term);
+        if (termId!=null){
+            return termId;
+        }
+        synchronized (this){
+            termId = termIds.get(term);
+            if (termId==null){
+                if (numTerms==terms.length){
+                    terms = Arrays.copyOf(terms, 2*terms.length);
+                }
+                terms[numTerms] = term;
+                termId = numTerms;
+                numTerms += 1;
+                numBytes += TERM_OVERHEAD+2*term.length();
+                termIds.put(term, termId);
+            }
+            return termId;
+        }
+    }
+
+    /**
+     *
+     * @param termId an id returned by intern
+     */
+    public String getTerm(int termId){
+        return terms[termId];
+    }
+
+    public int size(){
+        return termIds.size();
+    }
+
+    /**
+     *
+     * @return estimated bytes taken by the interned terms
+     */
+    public long getNumBytes(){
+        return numBytes;
+    }
+}
@@ -5,6 +5,8 @@ import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.SequentialAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
+import java.util.Arrays;
+
 /**
  * Created by chengli on 1/3/16.
  */
@@ -77,6 +79,25 @@ public class Vectors {
     }
 
 
+    /**
+     * copy the vector into a dense array of the same size
+     */
+    public static void copy(Vector vector, double[] array){
+        if (vector.size()!=array.length){
+            throw new IllegalArgumentException("vector.size()!=array.length");
+        }
+        if (vector.isDense()){
+            for (int d=0;d<array.length;d++){
+                array[d] = vector.getQuick(d);
+            }
+        } else {
+            Arrays.fill(array, 0);
+            for (Vector.Element element: vector.nonZeroes()){
+                array[element.index()] = element.get();
+            }
+        }
+    }
+
     public static double dot(Vector vector1, Vector vector2){
         if (vector1.size()!=vector2.size()){
             throw new IllegalArgumentException("vector1.size()!=vector2.size()");
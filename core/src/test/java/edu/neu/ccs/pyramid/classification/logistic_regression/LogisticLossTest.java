@@ -0,0 +1,64 @@
+package edu.neu.ccs.pyramid.classification.logistic_regression;
+
+import edu.neu.ccs.pyramid.dataset.ClfDataSet;
+import edu.neu.ccs.pyramid.dataset.ClfDataSetBuilder;
+import org.apache.mahout.math.Vector;
+
+import java.util.Random;
+
+public class LogisticLossTest {
+    public static void main(String[] args) {
+        test1(true, false);
+        test1(true, true);
+        test1(false, false);
+        test1(false, true);
+    }
+
+    /**
+     * the row gradient matches the column gradient, with and without probabilities cached by the column path,
+     * and the value computed without cached probabilities matches the one computed with them
+     */
+    private static void test1(boolean dense, boolean parallel){
+        Random random = new Random(1);
+        int numDataPoints = 500;
+        int numFeatures = 30;
+        int numClasses = 3;
+        ClfDataSet dataSet = ClfDataSetBuilder.getBuilder().numDataPoints(numDataPoints)
+                .numFeatures(numFeatures).numClasses(numClasses).dense(dense).build();
+        for (int i=0;i<numDataPoints;i++){
+            for (int j=0;j<numFeatures;j++){
+                if (random.nextDouble()<0.2){
+                    dataSet.setFeatureValue(i,j,random.nextGaussian());
+                }
+            }
+            dataSet.setLabel(i,random.nextInt(numClasses));
+        }
+        double[] weights = new double[numDataPoints];
+        double[][] targets = new double[numDataPoints][numClasses];
+        for (int i=0;i<numDataPoints;i++){
+            weights[i] = i%7==0 ? 0 : random.nextDouble();
+            targets[i][dataSet.getLabels()[i]] = 1;
+        }
+        LogisticRegression logisticRegression = new LogisticRegression(numClasses, numFeatures, true);
+
+        LogisticLoss columnLoss = new LogisticLoss(logisticRegression, dataSet, weights, targets, 2, parallel);
+        columnLoss.setRowGradient(false);
+        Vector expected = columnLoss.getGradient();
+        double expectedValue = columnLoss.getValue();
+
+        LogisticLoss rowLoss = new LogisticLoss(logisticRegression, dataSet, weights, targets, 2, parallel);
+        Vector withoutCache = rowLoss.getGradient();
+        double valueWithoutCache = rowLoss.getValue();
+
+        LogisticLoss cachedLoss = new LogisticLoss(logisticRegression, dataSet, weights, targets, 2, parallel);
+        cachedLoss.setRowGradient(false);
+        cachedLoss.getValue();
+        cachedLoss.setRowGradient(true);
+        Vector withCache = cachedLoss.getGradient();
+
+        System.out.println("dense = "+dense+", parallel = "+parallel);
+        System.out.println("difference without cache = "+expected.minus(withoutCache).norm(Double.POSITIVE_INFINITY));
+        System.out.println("difference with cache = "+expected.minus(withCache).norm(Double.POSITIVE_INFINITY));
+        System.out.println("value difference without cache = "+Math.abs(expectedValue-valueWithoutCache));
+    }
+}
@@ -0,0 +1,106 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import edu.neu.ccs.pyramid.util.Serialization;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class BinaryFormatTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+    }
+
+    private static MultiLabelClfDataSet randomDataSet(){
+        Random random = new Random(1);
+        MultiLabelClfDataSet dataSet = new SparseMLClfDataSet(200,30,true,5);
+        for (int i=0;i<200;i++){
+            for (int j=0;j<30;j++){
+                double u = random.nextDouble();
+                if (u<0.05){
+                    dataSet.setFeatureValue(i,j,Double.NaN);
+                } else if (u<0.3){
+                    dataSet.setFeatureValue(i,j,random.nextInt(100)/4.0);
+                }
+            }
+            for (int k=0;k<5;k++){
+                if (random.nextDouble()<0.3){
+                    dataSet.addLabel(i,k);
+                }
+            }
+        }
+        IdTranslator idTranslator = new IdTranslator();
+        for (int i=0;i<200;i++){
+            idTranslator.addData(i,"doc"+i);
+        }
+        dataSet.setIdTranslator(idTranslator);
+        dataSet.setLabelTranslator(new LabelTranslator(new String[]{"a","b","c","d","e"}));
+        return dataSet;
+    }
+
+    private static boolean same(DataSet dataSet1, DataSet dataSet2){
+        boolean same = true;
+        for (int i=0;i<dataSet1.getNumDataPoints();i++){
+            for (int j=0;j<dataSet1.getNumFeatures();j++){
+                double expected = dataSet1.getRow(i).get(j);
+                same &= Double.compare(expected, dataSet2.getRow(i).get(j))==0;
+                same &= Double.compare(expected, dataSet2.getColumn(j).get(i))==0;
+            }
+        }
+        return same;
+    }
+
+    /**
+     * save and load a multi-label data set
+     */
+    private static void test1() throws Exception{
+        MultiLabelClfDataSet dataSet = randomDataSet();
+        File folder = Files.createTempDirectory("binary_format_test").toFile();
+        BinaryFormat.save(dataSet, folder);
+        MultiLabelClfDataSet loaded = BinaryFormat.loadMultiLabelClfDataSet(folder);
+        System.out.println(loaded.getMetaInfo());
+        System.out.println("same values = "+same(dataSet, loaded));
+        boolean sameLabels = true;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            sameLabels &= dataSet.getMultiLabels()[i].equals(loaded.getMultiLabels()[i]);
+        }
+        System.out.println("same labels = "+sameLabels);
+        System.out.println("ext id of 7 = "+loaded.getIdTranslator().toExtId(7));
+        System.out.println("ext label of 2 = "+loaded.getLabelTranslator().toExtLabel(2));
+
+        // only the file path is serialized
+        File serialized = new File(folder, "data_set.ser");
+        Serialization.serialize(loaded, serialized);
+        MultiLabelClfDataSet deserialized = (MultiLabelClfDataSet) Serialization.deserialize(serialized);
+        System.out.println("serialized size = "+serialized.length()+", matrix size = "
+                +((MappedDataSet)loaded).getMatrixFile().length());
+        System.out.println("same values after deserialization = "+same(dataSet, deserialized));
+    }
+
+    /**
+     * save and load a dense regression data set
+     */
+    private static void test2() throws Exception{
+        Random random = new Random(2);
+        RegDataSet dataSet = new DenseRegDataSet(50,10,false);
+        for (int i=0;i<50;i++){
+            for (int j=0;j<10;j++){
+                if (random.nextBoolean()){
+                    dataSet.setFeatureValue(i,j,random.nextInt(10));
+                }
+            }
+            dataSet.setLabel(i,random.nextGaussian());
+        }
+        File folder = Files.createTempDirectory("binary_format_test").toFile();
+        BinaryFormat.save(dataSet, folder);
+        RegDataSet loaded = BinaryFormat.loadRegDataSet(folder);
+        System.out.println(loaded.getMetaInfo());
+        System.out.println("same values = "+same(dataSet, loaded));
+        boolean sameLabels = true;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            sameLabels &= dataSet.getLabels()[i]==loaded.getLabels()[i];
+        }
+        System.out.println("same labels = "+sameLabels);
+    }
+}
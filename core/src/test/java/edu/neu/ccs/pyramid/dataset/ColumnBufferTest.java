@@ -0,0 +1,67 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class ColumnBufferTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    private static double value(int i, int j){
+        Random random = new Random(i*31L+j);
+        if (random.nextDouble()<0.1){
+            return random.nextGaussian();
+        }
+        return 0;
+    }
+
+    /**
+     * columns written from many threads
+     */
+    private static void test1(){
+        int numDataPoints = 1000;
+        int numFeatures = 300;
+        ColumnBuffer columnBuffer = new ColumnBuffer(numDataPoints, numFeatures);
+        IntStream.range(0, numFeatures).parallel().forEach(j -> {
+            for (int i=0;i<numDataPoints;i++){
+                double value = value(i,j);
+                if (value!=0){
+                    columnBuffer.setFeatureValue(i,j,value);
+                }
+            }
+        });
+        for (Density density: Density.values()){
+            MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(numDataPoints)
+                    .numFeatures(numFeatures).numClasses(2).density(density).build(columnBuffer);
+            boolean same = true;
+            for (int i=0;i<numDataPoints;i++){
+                for (int j=0;j<numFeatures;j++){
+                    double expected = value(i,j);
+                    if (density==Density.SPARSE_COMPRESSED){
+                        expected = (float) expected;
+                    }
+                    same &= dataSet.getRow(i).get(j)==expected;
+                    same &= dataSet.getColumn(j).get(i)==expected;
+                }
+            }
+            System.out.println(density+": "+dataSet.getClass().getSimpleName()+", same = "+same);
+        }
+    }
+
+    /**
+     * later values override earlier ones; cells not in the buffer are kept
+     */
+    private static void test2(){
+        DataSet dataSet = DataSetBuilder.getBuilder().numDataPoints(3).numFeatures(3)
+                .density(Density.SPARSE_RANDOM).build();
+        dataSet.setFeatureValue(0,0,5);
+        ColumnBuffer columnBuffer = new ColumnBuffer(3,3);
+        columnBuffer.setFeatureValue(1,2,1);
+        columnBuffer.setFeatureValue(1,2,2);
+        columnBuffer.fill(dataSet);
+        System.out.println("(0,0) = "+dataSet.getRow(0).get(0)+", expected 5");
+        System.out.println("(1,2) = "+dataSet.getRow(1).get(2)+", "+dataSet.getColumn(2).get(1)+", expected 2");
+    }
+}
@@ -0,0 +1,80 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeConfig;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeTrainer;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.Random;
+
+public class CompressedDataSetTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    private static SparseRegDataSet randomDataSet(){
+        Random random = new Random(1);
+        SparseRegDataSet dataSet = new SparseRegDataSet(300,20,true);
+        for (int i=0;i<300;i++){
+            for (int j=0;j<20;j++){
+                double u = random.nextDouble();
+                if (u<0.05){
+                    dataSet.setFeatureValue(i,j,Double.NaN);
+                } else if (u<0.3){
+                    // exactly representable as float
+                    dataSet.setFeatureValue(i,j,random.nextInt(100)/4.0);
+                }
+            }
+            dataSet.setLabel(i,random.nextGaussian());
+        }
+        return dataSet;
+    }
+
+    /**
+     * rows and columns should be the same as the original ones
+     */
+    private static void test1(){
+        SparseRegDataSet dataSet = randomDataSet();
+        CompressedRegDataSet compressed = new CompressedRegDataSet(dataSet);
+        System.out.println(compressed.getMetaInfo());
+        boolean same = true;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                double expected = dataSet.getRow(i).get(j);
+                same &= Double.compare(expected, compressed.getRow(i).get(j))==0;
+                same &= Double.compare(expected, compressed.getColumn(j).get(i))==0;
+            }
+        }
+        System.out.println("same values = "+same);
+
+        Vector weights = new DenseVector(dataSet.getNumFeatures());
+        weights.assign(0.5);
+        Vector row = compressed.getRow(3);
+        int numNonZeros = 0;
+        double sum = 0;
+        for (Vector.Element element: row.nonZeroes()){
+            numNonZeros += 1;
+            sum += element.get()*0.5;
+        }
+        System.out.println("number of non-zeros in row 3 = "+numNonZeros+", original = "+dataSet.getRow(3).getNumNondefaultElements());
+        System.out.println("dot = "+row.dot(weights)+", expected = "+sum);
+    }
+
+    /**
+     * trees trained on both data sets should be the same
+     */
+    private static void test2(){
+        SparseRegDataSet dataSet = randomDataSet();
+        CompressedRegDataSet compressed = new CompressedRegDataSet(dataSet);
+        RegTreeConfig regTreeConfig = new RegTreeConfig().setMaxNumLeaves(6);
+        RegressionTree tree1 = RegTreeTrainer.fit(regTreeConfig,dataSet);
+        RegressionTree tree2 = RegTreeTrainer.fit(regTreeConfig,compressed);
+        double maxDiff = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            maxDiff = Math.max(maxDiff,Math.abs(tree1.predict(dataSet.getRow(i))-tree2.predict(compressed.getRow(i))));
+        }
+        System.out.println("max prediction difference = "+maxDiff);
+    }
+}
@@ -0,0 +1,80 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class ParallelTextParserTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+    }
+
+    private static MultiLabelClfDataSet randomDataSet(){
+        Random random = new Random(1);
+        MultiLabelClfDataSet dataSet = new SparseMLClfDataSet(500,40,false,6);
+        for (int i=0;i<500;i++){
+            for (int j=0;j<40;j++){
+                if (random.nextDouble()<0.2){
+                    // exactly representable as float
+                    dataSet.setFeatureValue(i,j,random.nextInt(100)/4.0);
+                }
+            }
+            for (int k=0;k<6;k++){
+                if (random.nextDouble()<0.3){
+                    dataSet.addLabel(i,k);
+                }
+            }
+        }
+        return dataSet;
+    }
+
+    private static boolean same(MultiLabelClfDataSet dataSet1, MultiLabelClfDataSet dataSet2){
+        boolean same = dataSet1.getNumDataPoints()==dataSet2.getNumDataPoints();
+        for (int i=0;i<dataSet1.getNumDataPoints();i++){
+            same &= dataSet1.getMultiLabels()[i].equals(dataSet2.getMultiLabels()[i]);
+            for (int j=0;j<dataSet1.getNumFeatures();j++){
+                same &= dataSet1.getRow(i).get(j)==dataSet2.getRow(i).get(j);
+                same &= dataSet1.getColumn(j).get(i)==dataSet2.getColumn(j).get(i);
+            }
+        }
+        return same;
+    }
+
+    /**
+     * TREC round trip
+     */
+    private static void test1() throws Exception{
+        MultiLabelClfDataSet dataSet = randomDataSet();
+        File folder = Files.createTempDirectory("parallel_text_parser_test").toFile();
+        TRECFormat.save(dataSet, folder);
+        for (DataSetType dataSetType: new DataSetType[]{DataSetType.ML_CLF_SPARSE, DataSetType.ML_CLF_DENSE,
+                DataSetType.ML_CLF_SEQ_SPARSE, DataSetType.ML_CLF_COMPRESSED}){
+            MultiLabelClfDataSet loaded = TRECFormat.loadMultiLabelClfDataSet(folder, dataSetType, true);
+            System.out.println(dataSetType+" same = "+same(dataSet, loaded));
+        }
+    }
+
+    /**
+     * lines should not be lost or split at chunk boundaries
+     */
+    private static void test2() throws Exception{
+        MultiLabelClfDataSet dataSet = randomDataSet();
+        File folder = Files.createTempDirectory("parallel_text_parser_test").toFile();
+        TRECFormat.save(dataSet, folder);
+        File matrixFile = new File(folder, "feature_matrix.txt");
+        for (int chunkSize: new int[]{1, 7, 100, 4096, Integer.MAX_VALUE}){
+            ParallelTextParser.Result result = ParallelTextParser.parse(matrixFile, (line, chunk) -> {
+                int end = ParallelTextParser.tokenEnd(line, 0);
+                ParallelTextParser.parseLabels(line, 0, end, 0, chunk);
+                ParallelTextParser.parseFeatures(line, end, 0, chunk);
+                return true;
+            }, chunkSize);
+            MultiLabelClfDataSet loaded = new SparseMLClfDataSet(result.getNumRows(), dataSet.getNumFeatures(),
+                    false, dataSet.getNumClasses());
+            result.fillFeatures(loaded);
+            result.fillMultiLabels(loaded);
+            System.out.println("chunk size = "+chunkSize+", same = "+same(dataSet, loaded));
+        }
+    }
+}
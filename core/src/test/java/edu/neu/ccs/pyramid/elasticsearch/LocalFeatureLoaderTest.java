@@ -0,0 +1,106 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import edu.neu.ccs.pyramid.dataset.IdTranslator;
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.feature.*;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LocalFeatureLoaderTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+    }
+
+    /**
+     * features of a small two-segment index with a deleted document and a document outside the data set
+     */
+    private static void test1() throws Exception{
+        File folder = Files.createTempDirectory("local_index").toFile();
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(folder.toPath()), new IndexWriterConfig(new WhitespaceAnalyzer()))){
+            writer.addDocument(document("d0", "a b c a b", "x", "{\"age\":3.5}"));
+            writer.addDocument(document("d1", "b a c", "y", "{}"));
+            writer.addDocument(document("d2", "a x b", "x", "{\"age\":1}"));
+            writer.commit();
+            writer.addDocument(document("d3", "a b", "x", "{\"age\":7}"));
+            writer.addDocument(document("d4", "a b a b a b", "x", "{\"age\":7}"));
+            writer.addDocument(document("d5", "c c", "y", "{\"age\":2}"));
+            writer.commit();
+            writer.deleteDocuments(new Term("_uid", "document#d3"));
+            writer.commit();
+        }
+
+        IdTranslator idTranslator = new IdTranslator();
+        String[] ids = {"d0", "d1", "d2", "d3", "d5"};
+        for (int i=0;i<ids.length;i++){
+            idTranslator.addData(i, ids[i]);
+        }
+
+        FeatureList features = new FeatureList();
+        Ngram bigram = new Ngram();
+        bigram.setNgram("a b");
+        bigram.setField("body");
+        bigram.setSlop(0);
+        features.add(bigram);
+        Ngram unigram = new Ngram();
+        // analyzed as match_phrase is
+        unigram.setNgram("C");
+        unigram.setField("body");
+        features.add(unigram);
+        CategoricalFeature categoricalFeature = new CategoricalFeature();
+        categoricalFeature.setVariableName("category");
+        categoricalFeature.setCategory("x");
+        features.add(categoricalFeature);
+        Feature age = new Feature();
+        age.setName("age");
+        age.getSettings().put("source", "field");
+        features.add(age);
+        features.add(new CodeDescription(Arrays.asList("A", "c", "z"), 60, "body"));
+
+        try (LocalFeatureLoader loader = new LocalFeatureLoader(Collections.singletonList(folder))){
+            System.out.println("number of documents = "+loader.getNumDocs());
+            for (FeatureLoader.MatchScoreType matchScoreType: FeatureLoader.MatchScoreType.values()){
+                if (matchScoreType==FeatureLoader.MatchScoreType.TFIFL){
+                    continue;
+                }
+                MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder()
+                        .numDataPoints(ids.length).numFeatures(features.size()).numClasses(1)
+                        .missingValue(true).build();
+                loader.loadFeatures(dataSet, features, idTranslator, matchScoreType, null);
+                System.out.println(matchScoreType);
+                for (int i=0;i<ids.length;i++){
+                    System.out.println(ids[i]+": "+dataSet.getRow(i));
+                }
+            }
+            System.out.println("expected with FREQUENCY: d0 {0:2,1:1,2:1,3:3.5,4:2}, d1 {1:1,3:NaN,4:2}, d2 {2:1,3:1,4:1}, d3 {}, d5 {1:2,3:2,4:1}");
+            System.out.println("age = "+Arrays.toString(loader.loadFloatField(idTranslator, "age")));
+        }
+        for (File file: folder.listFiles()){
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    private static Document document(String id, String body, String category, String source){
+        Document document = new Document();
+        document.add(new StringField("_uid", "document#"+id, Field.Store.YES));
+        document.add(new TextField("body", body, Field.Store.NO));
+        document.add(new StringField("category", category, Field.Store.NO));
+        document.add(new StoredField("_source", source.getBytes(StandardCharsets.UTF_8)));
+        return document;
+    }
+}
@@ -0,0 +1,86 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TermVectorCacheTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+        test4();
+    }
+
+    /**
+     * term vectors with position gaps survive the round trip, and terms are shared across documents and fields
+     */
+    private static void test1(){
+        TermVectorCache cache = new TermVectorCache(1024*1024);
+        Map<Integer,String> termVector = new HashMap<>();
+        termVector.put(0, "a");
+        termVector.put(1, "b");
+        termVector.put(3, "a");
+        termVector.put(7, "c");
+        cache.put("body", "d0", termVector);
+        Map<Integer,String> other = new HashMap<>();
+        other.put(0, "c");
+        other.put(1, "a");
+        cache.put("title", "d0", other);
+        System.out.println("encoded = "+Arrays.toString(cache.encode(termVector)));
+        System.out.println("round trip equal = "+termVector.equals(cache.get("body", "d0")));
+        System.out.println("other field equal = "+other.equals(cache.get("title", "d0")));
+        System.out.println("missing = "+cache.get("body", "d1"));
+        System.out.println("number of terms = "+cache.getNumTerms()+", expected 3");
+    }
+
+    /**
+     * the cache evicts by estimated bytes rather than by number of documents
+     */
+    private static void test2(){
+        long maxBytes = 1024*1024;
+        TermVectorCache cache = new TermVectorCache(maxBytes);
+        for (int d=0;d<10000;d++){
+            Map<Integer,String> termVector = new HashMap<>();
+            for (int position=0;position<100;position++){
+                termVector.put(position, "term"+((d+position)%500));
+            }
+            cache.put("body", "d"+d, termVector);
+        }
+        System.out.println("cached docs = "+cache.size()+", bytes = "+cache.getNumBytes()+", max bytes = "+maxBytes);
+        System.out.println("number of terms = "+cache.getNumTerms()+", expected 500");
+        System.out.println("latest doc cached = "+(cache.get("body", "d9999")!=null));
+    }
+
+    /**
+     * the term dictionary counts against the budget even when every document brings new terms
+     */
+    private static void test3(){
+        long maxBytes = 1024*1024;
+        TermVectorCache cache = new TermVectorCache(maxBytes);
+        for (int d=0;d<10000;d++){
+            Map<Integer,String> termVector = new HashMap<>();
+            for (int position=0;position<100;position++){
+                termVector.put(position, "term"+d+"_"+position);
+            }
+            cache.put("body", "d"+d, termVector);
+        }
+        System.out.println("bytes = "+cache.getNumBytes()+", max bytes = "+maxBytes);
+        System.out.println("number of terms = "+cache.getNumTerms()+", less than 1000000");
+        Map<Integer,String> latest = new HashMap<>();
+        latest.put(0, "latest");
+        cache.put("body", "d10000", latest);
+        System.out.println("latest doc equal = "+latest.equals(cache.get("body", "d10000")));
+    }
+
+    /**
+     * a cache of 0 bytes, the default of ESIndex, keeps nothing
+     */
+    private static void test4(){
+        TermVectorCache cache = new TermVectorCache(0);
+        Map<Integer,String> termVector = new HashMap<>();
+        termVector.put(0, "a");
+        cache.put("body", "d0", termVector);
+        System.out.println("disabled cache = "+cache.get("body", "d0")+", size = "+cache.size()+", terms = "+cache.getNumTerms());
+    }
+}
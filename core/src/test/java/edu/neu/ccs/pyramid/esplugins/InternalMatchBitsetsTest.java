@@ -0,0 +1,84 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class InternalMatchBitsetsTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+    }
+
+    /**
+     * dense and sparse bitsets survive serialization, and the sparse one is sent as rows
+     */
+    private static void test1() throws Exception{
+        Random random = new Random(0);
+        int numRows = 10000;
+        String[] ids = new String[numRows];
+        for (int i=0;i<numRows;i++){
+            ids[i] = "d"+i;
+        }
+        FixedBitSet dense = new FixedBitSet(numRows);
+        FixedBitSet sparse = new FixedBitSet(numRows);
+        for (int i=0;i<numRows;i++){
+            if (random.nextDouble()<0.3){
+                dense.set(i);
+            }
+            if (random.nextDouble()<0.001){
+                sparse.set(i);
+            }
+        }
+        InternalMatchBitsets bitsets = new InternalMatchBitsets("bitsets", ids, new FixedBitSet[]{dense, sparse},
+                Collections.emptyList(), null);
+        BytesStreamOutput out = new BytesStreamOutput();
+        bitsets.writeTo(out);
+        InternalMatchBitsets copy = new InternalMatchBitsets(out.bytes().streamInput());
+
+        BytesStreamOutput idsOnly = new BytesStreamOutput();
+        idsOnly.writeStringArray(ids);
+        System.out.println("dense equal = "+dense.equals(copy.getMatches(0))+", sparse equal = "+sparse.equals(copy.getMatches(1)));
+        System.out.println("bytes for the bitsets = "+(out.bytes().length()-idsOnly.bytes().length())
+                +", dense words alone = "+8*FixedBitSet.bits2words(numRows)+", sparse cardinality = "+sparse.cardinality());
+    }
+
+    /**
+     * shard results are concatenated by the reduce
+     */
+    private static void test2() throws Exception{
+        InternalMatchBitsets shard1 = new InternalMatchBitsets("bitsets", new String[]{"d0", "d1", "d2"},
+                new FixedBitSet[]{bits(3, 0, 2), bits(3, 1)}, Collections.emptyList(), null);
+        InternalMatchBitsets shard2 = new InternalMatchBitsets("bitsets", new String[]{"d3", "d4"},
+                new FixedBitSet[]{bits(2, 1), bits(2, 0, 1)}, Collections.emptyList(), null);
+        BytesStreamOutput out = new BytesStreamOutput();
+        shard1.writeTo(out);
+        InternalMatchBitsets copy = new InternalMatchBitsets(out.bytes().streamInput());
+        InternalMatchBitsets reduced = (InternalMatchBitsets) copy.doReduce(Arrays.asList(copy, shard2), null);
+        System.out.println("ids = "+Arrays.toString(reduced.getIds()));
+        for (int f=0;f<reduced.getNumFilters();f++){
+            List<Integer> rows = new ArrayList<>();
+            FixedBitSet matches = reduced.getMatches(f);
+            for (int row = InternalMatchBitsets.nextRow(matches, 0); row != DocIdSetIterator.NO_MORE_DOCS;
+                 row = InternalMatchBitsets.nextRow(matches, row+1)){
+                rows.add(row);
+            }
+            System.out.println("filter "+f+": rows = "+rows);
+        }
+        System.out.println("expected: filter 0 rows [0, 2, 4]; filter 1 rows [1, 3, 4]");
+    }
+
+    private static FixedBitSet bits(int numRows, int... rows){
+        FixedBitSet bits = new FixedBitSet(numRows);
+        for (int row: rows){
+            bits.set(row);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,112 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class MultiPhraseCounterTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+    }
+
+    /**
+     * counts of random phrases with shared terms agree with PhraseCountQuery, over several segments
+     */
+    private static void test1() throws Exception{
+        Random random = new Random(0);
+        String[] vocabulary = {"a", "b", "c", "d", "e"};
+        RAMDirectory directory = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()))){
+            for (int d=0;d<300;d++){
+                StringBuilder body = new StringBuilder();
+                for (int position=0;position<20;position++){
+                    body.append(vocabulary[random.nextInt(vocabulary.length)]).append(" ");
+                }
+                Document document = new Document();
+                document.add(new TextField("body", body.toString(), Field.Store.NO));
+                writer.addDocument(document);
+                if (d%100==99){
+                    writer.commit();
+                }
+            }
+        }
+
+        for (boolean weightedCount: new boolean[]{false, true}){
+            List<PhraseCountQuery> phrases = new ArrayList<>();
+            for (int p=0;p<60;p++){
+                int length = 1+random.nextInt(3);
+                String[] terms = new String[length];
+                for (int t=0;t<length;t++){
+                    terms[t] = vocabulary[random.nextInt(vocabulary.length)];
+                }
+                phrases.add(PhraseCountQueryBuilder.toQuery("body", String.join(" ", terms), random.nextInt(3),
+                        random.nextBoolean(), weightedCount));
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)){
+                IndexSearcher searcher = new IndexSearcher(reader);
+                float[][] expected = new float[phrases.size()][reader.maxDoc()];
+                for (int p=0;p<phrases.size();p++){
+                    for (ScoreDoc scoreDoc: searcher.search(phrases.get(p), reader.maxDoc()).scoreDocs){
+                        expected[p][scoreDoc.doc] = scoreDoc.score;
+                    }
+                }
+                float maxDifference = 0;
+                int numTerms = 0;
+                int[] found = new int[phrases.size()];
+                float[] foundCounts = new float[phrases.size()];
+                float[] counts = new float[phrases.size()];
+                for (LeafReaderContext leaf: reader.leaves()){
+                    MultiPhraseCounter counter = new MultiPhraseCounter(leaf.reader(), phrases);
+                    numTerms = Math.max(numTerms, counter.getNumTerms());
+                    for (int doc=0;doc<leaf.reader().maxDoc();doc++){
+                        Arrays.fill(counts, 0);
+                        int numFound = counter.count(doc, found, foundCounts);
+                        for (int i=0;i<numFound;i++){
+                            counts[found[i]] = foundCounts[i];
+                        }
+                        for (int p=0;p<phrases.size();p++){
+                            maxDifference = Math.max(maxDifference, Math.abs(counts[p]-expected[p][leaf.docBase+doc]));
+                        }
+                    }
+                }
+                System.out.println("weighted = "+weightedCount+", segments = "+reader.leaves().size()
+                        +", shared terms = "+numTerms+", max difference to PhraseCountQuery = "+maxDifference);
+            }
+        }
+    }
+
+    /**
+     * the columnar result survives serialization, and shard results are concatenated by the reduce
+     */
+    private static void test2() throws Exception{
+        InternalPhraseCounts shard1 = new InternalPhraseCounts("counts", new String[]{"d0", "d1", "d2"},
+                new int[][]{{0, 2}, {1}}, new float[][]{{1, 3}, {2}}, Collections.emptyList(), null);
+        InternalPhraseCounts shard2 = new InternalPhraseCounts("counts", new String[]{"d3", "d4"},
+                new int[][]{{1}, {0, 1}}, new float[][]{{5}, {1, 1}}, Collections.emptyList(), null);
+        BytesStreamOutput out = new BytesStreamOutput();
+        shard1.writeTo(out);
+        InternalPhraseCounts copy = new InternalPhraseCounts(out.bytes().streamInput());
+        InternalPhraseCounts reduced = (InternalPhraseCounts) copy.doReduce(Arrays.asList(copy, shard2), null);
+        System.out.println("ids = "+Arrays.toString(reduced.getIds()));
+        for (int p=0;p<reduced.getNumPhrases();p++){
+            System.out.println("phrase "+p+": rows = "+Arrays.toString(reduced.getRows(p))+", counts = "+Arrays.toString(reduced.getCounts(p)));
+        }
+        System.out.println("expected: phrase 0 rows [0, 2, 4] counts [1, 3, 5]; phrase 1 rows [1, 3, 4] counts [2, 1, 1]");
+    }
+}
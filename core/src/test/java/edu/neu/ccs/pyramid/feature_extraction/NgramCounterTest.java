@@ -0,0 +1,99 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import edu.neu.ccs.pyramid.util.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class NgramCounterTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    /**
+     * parallel counting of contiguous trigrams matches counting by strings, with and without the sketch
+     */
+    private static void test1(){
+        List<Map<Integer,String>> termVectors = randomTermVectors(5000, 1);
+        int n = 3;
+        int minDf = 20;
+        Map<String,Integer> expected = new HashMap<>();
+        for (Map<Integer,String> termVector: termVectors){
+            for (String ngram: NgramEnumerator.getNgramCounts(termVector, n).keySet()){
+                expected.merge(ngram, 1, Integer::sum);
+            }
+        }
+        Map<String,Integer> expectedFrequent = expected.entrySet().stream().filter(entry -> entry.getValue()>=minDf)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+        NgramCounter counter = new NgramCounter(n);
+        termVectors.parallelStream().forEach(counter::count);
+        Map<String,Integer> counts = counter.getCounts(minDf);
+
+        NgramCounter pruned = new NgramCounter(n);
+        pruned.setSketch(new CountMinSketch(2000, 4), minDf);
+        termVectors.parallelStream().forEach(pruned::sketch);
+        termVectors.parallelStream().forEach(pruned::count);
+        Map<String,Integer> prunedCounts = pruned.getCounts(minDf);
+
+        System.out.println("distinct trigrams = "+expected.size()+", frequent = "+expectedFrequent.size());
+        System.out.println("exact counts equal = "+expectedFrequent.equals(counts));
+        System.out.println("counts with sketch equal = "+expectedFrequent.equals(prunedCounts));
+    }
+
+    /**
+     * skip-gram templates give the same ngrams as the string enumeration
+     */
+    private static void test2(){
+        List<Map<Integer,String>> termVectors = randomTermVectors(2000, 2);
+        NgramTemplate template = new NgramTemplate("body", 2, 1);
+        Map<String,Integer> expected = new HashMap<>();
+        for (Map<Integer,String> termVector: termVectors){
+            List<String> source = termVector.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                    .map(Map.Entry::getValue).collect(Collectors.toList());
+            Map<String,Integer> local = new HashMap<>();
+            for (List<Integer> positions: template.getPositionTemplate()){
+                for (int i=0;i+positions.get(positions.size()-1)<source.size();i++){
+                    List<String> terms = new ArrayList<>();
+                    for (int offset: positions){
+                        terms.add(source.get(i+offset));
+                    }
+                    local.put(String.join(" ", terms), 1);
+                }
+            }
+            for (String ngram: local.keySet()){
+                expected.merge(ngram, 1, Integer::sum);
+            }
+        }
+        NgramCounter counter = new NgramCounter(template.getPositionTemplate(), false);
+        termVectors.parallelStream().forEach(counter::count);
+        System.out.println("templates = "+template.getPositionTemplate());
+        System.out.println("skip-gram counts equal = "+expected.equals(counter.getCounts(1)));
+    }
+
+    /**
+     * documents of 50 to 150 terms from a skewed vocabulary of 200 terms, with about 10 percent of positions missing
+     */
+    private static List<Map<Integer,String>> randomTermVectors(int numDocs, long seed){
+        Random random = new Random(seed);
+        List<Map<Integer,String>> termVectors = new ArrayList<>();
+        for (int d=0;d<numDocs;d++){
+            Map<Integer,String> termVector = new HashMap<>();
+            int length = 50+random.nextInt(100);
+            for (int position=0;position<length;position++){
+                if (random.nextDouble()<0.1){
+                    continue;
+                }
+                int term = (int)(200*Math.pow(random.nextDouble(), 3));
+                termVector.put(position, "t"+term);
+            }
+            termVectors.add(termVector);
+        }
+        return termVectors;
+    }
+}
@@ -0,0 +1,103 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.simulation.MultiLabelSynthesizer;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+
+public class CBMPosteriorEngineTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    /**
+     * the engine gives the same posteriors, marginals and predictions as the per-row code
+     */
+    private static void test1(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(1000, 20, 6);
+        CBM cbm = CBM.getBuilder()
+                .setNumClasses(dataSet.getNumClasses())
+                .setNumComponents(5)
+                .setNumFeatures(dataSet.getNumFeatures())
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+        LRCBMOptimizer optimizer = new LRCBMOptimizer(cbm, dataSet);
+        optimizer.initialize();
+        optimizer.iterate();
+
+        optimizer.updateGamma();
+        double[][] batched = Arrays.stream(optimizer.getGammas()).map(double[]::clone).toArray(double[][]::new);
+        for (int n=0;n<dataSet.getNumDataPoints();n++){
+            optimizer.updateGamma(n);
+        }
+        double[][] perRow = optimizer.getGammas();
+        double maxGammaDifference = 0;
+        for (int n=0;n<dataSet.getNumDataPoints();n++){
+            for (int k=0;k<cbm.getNumComponents();k++){
+                maxGammaDifference = Math.max(maxGammaDifference, Math.abs(batched[n][k]-perRow[n][k]));
+            }
+        }
+
+        double maxMarginalDifference = 0;
+        boolean samePredictions = true;
+        MultiLabel[] predictions = cbm.predict(dataSet);
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            Vector x = dataSet.getRow(i);
+            double[] expected = new BMDistribution(cbm, x, 0.1).marginals();
+            double[] marginals = cbm.predictClassProbs(x);
+            for (int l=0;l<expected.length;l++){
+                maxMarginalDifference = Math.max(maxMarginalDifference, Math.abs(expected[l]-marginals[l]));
+            }
+            MultiLabel prediction = new CBMPredictor(new BMDistribution(cbm, x)).predictByDynamic();
+            samePredictions = samePredictions && prediction.equals(predictions[i]) && prediction.equals(cbm.predict(x));
+        }
+        System.out.println("block size = "+cbm.getPosteriorEngine().getBlockSize());
+        System.out.println("max gamma difference = "+maxGammaDifference);
+        System.out.println("max marginal difference = "+maxMarginalDifference);
+        System.out.println("same predictions = "+samePredictions);
+    }
+
+    /**
+     * sparse E steps keep each row a distribution and stay close to full E steps
+     */
+    private static void test2(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(1000, 20, 6);
+        LRCBMOptimizer full = newOptimizer(dataSet);
+        LRCBMOptimizer sparse = newOptimizer(dataSet);
+        sparse.setFullEStepInterval(4);
+        for (int iteration=0;iteration<3;iteration++){
+            full.iterate();
+            sparse.iterate();
+        }
+        double maxSumError = 0;
+        double maxDifference = 0;
+        for (int n=0;n<dataSet.getNumDataPoints();n++){
+            maxSumError = Math.max(maxSumError, Math.abs(Arrays.stream(sparse.getGammas()[n]).sum()-1));
+            for (int k=0;k<full.getGammas()[n].length;k++){
+                maxDifference = Math.max(maxDifference, Math.abs(full.getGammas()[n][k]-sparse.getGammas()[n][k]));
+            }
+        }
+        System.out.println("sparse E steps: max |sum of gammas - 1| = "+maxSumError);
+        System.out.println("sparse E steps: max gamma difference to full E steps = "+maxDifference);
+    }
+
+    private static LRCBMOptimizer newOptimizer(MultiLabelClfDataSet dataSet){
+        LRCBMOptimizer optimizer = new LRCBMOptimizer(newCBM(dataSet), dataSet);
+        optimizer.initialize();
+        return optimizer;
+    }
+
+    private static CBM newCBM(MultiLabelClfDataSet dataSet){
+        return CBM.getBuilder()
+                .setNumClasses(dataSet.getNumClasses())
+                .setNumComponents(5)
+                .setNumFeatures(dataSet.getNumFeatures())
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+    }
+}
@@ -0,0 +1,104 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.DataSetUtil;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.eval.Accuracy;
+import edu.neu.ccs.pyramid.simulation.MultiLabelSynthesizer;
+import edu.neu.ccs.pyramid.util.Serialization;
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class DistributedCBMOptimizerTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+    }
+
+    /**
+     * training with 3 local worker processes gives about the same model as LRCBMOptimizer on all rows
+     */
+    private static void test1() throws Exception{
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(1500, 20, 6);
+        int numWorkers = 3;
+        int numIterations = 5;
+
+        CBM local = newCBM(dataSet);
+        LRCBMOptimizer localOptimizer = new LRCBMOptimizer(local, dataSet);
+        localOptimizer.initialize();
+        for (int iteration=0;iteration<numIterations;iteration++){
+            localOptimizer.iterate();
+        }
+
+        File folder = Files.createTempDirectory("cbm_shards").toFile();
+        List<File> shards = new ArrayList<>();
+        int shardSize = (dataSet.getNumDataPoints()+numWorkers-1)/numWorkers;
+        for (int w=0;w<numWorkers;w++){
+            List<Integer> indices = IntStream.range(w*shardSize, Math.min(dataSet.getNumDataPoints(), (w+1)*shardSize))
+                    .boxed().collect(Collectors.toList());
+            File shard = new File(folder, "shard_"+w);
+            Serialization.serialize(DataSetUtil.sampleData(dataSet, indices), shard);
+            shards.add(shard);
+        }
+
+        CBM distributed = newCBM(dataSet);
+        List<Process> processes = new ArrayList<>();
+        try (DistributedCBMOptimizer optimizer = new DistributedCBMOptimizer(distributed, 0)){
+            // connect one by one so that the shards are in order
+            for (File shard: shards){
+                processes.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"), CBMWorker.class.getName(),
+                        "localhost", String.valueOf(optimizer.getPort()), shard.getPath()).inheritIO().start());
+                optimizer.acceptWorkers(1);
+            }
+            optimizer.initialize();
+            for (int iteration=0;iteration<numIterations;iteration++){
+                optimizer.iterate();
+            }
+        }
+        for (Process process: processes){
+            System.out.println("worker exit code = "+process.waitFor());
+        }
+        for (File shard: shards){
+            shard.delete();
+        }
+        folder.delete();
+
+        Vector localWeights = ((LogisticRegression) local.getMultiClassClassifier()).getWeights().getAllWeights();
+        Vector distributedWeights = ((LogisticRegression) distributed.getMultiClassClassifier()).getWeights().getAllWeights();
+        System.out.println("local accuracy = "+Accuracy.accuracy(local, dataSet));
+        System.out.println("distributed accuracy = "+Accuracy.accuracy(distributed, dataSet));
+        System.out.println("max difference of multi-class weights = "+localWeights.minus(distributedWeights).norm(Double.POSITIVE_INFINITY));
+        double maxBinaryDifference = 0;
+        boolean sameTypes = true;
+        for (int k=0;k<local.getNumComponents();k++){
+            for (int l=0;l<local.getNumClasses();l++){
+                Object localClassifier = local.binaryClassifiers[k][l];
+                Object distributedClassifier = distributed.binaryClassifiers[k][l];
+                sameTypes = sameTypes && localClassifier.getClass()==distributedClassifier.getClass();
+                if (localClassifier instanceof LogisticRegression && distributedClassifier instanceof LogisticRegression){
+                    Vector difference = ((LogisticRegression) localClassifier).getWeights().getAllWeights()
+                            .minus(((LogisticRegression) distributedClassifier).getWeights().getAllWeights());
+                    maxBinaryDifference = Math.max(maxBinaryDifference, difference.norm(Double.POSITIVE_INFINITY));
+                }
+            }
+        }
+        System.out.println("same binary classifier types = "+sameTypes);
+        System.out.println("max difference of binary weights = "+maxBinaryDifference);
+    }
+
+    private static CBM newCBM(MultiLabelClfDataSet dataSet){
+        return CBM.getBuilder()
+                .setNumClasses(dataSet.getNumClasses())
+                .setNumComponents(4)
+                .setNumFeatures(dataSet.getNumFeatures())
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+    }
+}
@@ -0,0 +1,95 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CombinationIndexTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    /**
+     * the index agrees with the MultiLabels and with the label pair feature numbering of CMLCRF
+     */
+    private static void test1(){
+        int numClasses = 6;
+        Random random = new Random(0);
+        List<MultiLabel> combinations = new ArrayList<>();
+        for (int c=0;c<50;c++){
+            MultiLabel multiLabel = new MultiLabel();
+            for (int l=0;l<numClasses;l++){
+                if (random.nextDouble()<0.4){
+                    multiLabel.addLabel(l);
+                }
+            }
+            combinations.add(multiLabel);
+        }
+        CombinationIndex index = new CombinationIndex(numClasses, combinations);
+
+        boolean labelsMatch = true;
+        boolean pairsMatch = true;
+        for (int c=0;c<combinations.size();c++){
+            MultiLabel multiLabel = combinations.get(c);
+            labelsMatch = labelsMatch && index.getNumLabels(c)==multiLabel.getMatchedLabels().size();
+            for (int l=0;l<numClasses;l++){
+                labelsMatch = labelsMatch && index.contains(c, l)==multiLabel.matchClass(l);
+            }
+            int pair = 0;
+            for (int l1=0;l1<numClasses;l1++){
+                for (int l2=l1+1;l2<numClasses;l2++){
+                    int feature = index.getPairFeature(c, pair);
+                    boolean match1 = (feature%4==1 || feature%4==3);
+                    boolean match2 = (feature%4==2 || feature%4==3);
+                    pairsMatch = pairsMatch && feature/4==pair
+                            && match1==multiLabel.matchClass(l1) && match2==multiLabel.matchClass(l2);
+                    boolean listed = false;
+                    for (int other: index.getCombinations(feature)){
+                        listed = listed || other==c;
+                    }
+                    pairsMatch = pairsMatch && listed;
+                    pair += 1;
+                }
+            }
+        }
+        int totalListed = 0;
+        for (int f=0;f<index.getNumPairFeatures();f++){
+            totalListed += index.getNumCombinations(f);
+        }
+        double[] values = new double[combinations.size()];
+        for (int c=0;c<values.length;c++){
+            values[c] = random.nextDouble();
+        }
+        double[] pairWeights = new double[index.getNumPairFeatures()];
+        for (int f=0;f<pairWeights.length;f++){
+            pairWeights[f] = random.nextGaussian();
+        }
+        double maxSumDifference = 0;
+        for (int f=0;f<index.getNumPairFeatures();f++){
+            double expected = 0;
+            for (int c: index.getCombinations(f)){
+                expected += values[c];
+            }
+            maxSumDifference = Math.max(maxSumDifference, Math.abs(expected-index.sumOverCombinations(f, values)));
+        }
+        for (int c=0;c<combinations.size();c++){
+            double expected = 0;
+            double[] added = new double[index.getNumPairFeatures()];
+            index.addToPairFeatures(c, 1, added, 0);
+            for (int feature: index.getPairFeatures(c)){
+                expected += pairWeights[feature];
+                added[feature] -= 1;
+            }
+            maxSumDifference = Math.max(maxSumDifference, Math.abs(expected-index.sumPairWeights(c, pairWeights)));
+            for (double a: added){
+                maxSumDifference = Math.max(maxSumDifference, Math.abs(a));
+            }
+        }
+        System.out.println("labels match = "+labelsMatch);
+        System.out.println("label pairs match = "+pairsMatch);
+        System.out.println("max difference of the sums to the listed features and combinations = "+maxSumDifference);
+        System.out.println("each combination listed once per label pair = "+(totalListed==combinations.size()*index.getNumLabelPairs()));
+    }
+}
@@ -0,0 +1,64 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class PrunedPredictorTest {
+    public static void main(String[] args) {
+        test1(true);
+        test1(false);
+    }
+
+    /**
+     * the pruned top combinations are the same as the ones from full scoring
+     */
+    private static void test1(boolean considerPair){
+        Random random = new Random(0);
+        int numDataPoints = 2000;
+        int numFeatures = 10;
+        int numClasses = 12;
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(numDataPoints)
+                .numFeatures(numFeatures).numClasses(numClasses).build();
+        for (int i=0;i<numDataPoints;i++){
+            for (int j=0;j<numFeatures;j++){
+                dataSet.setFeatureValue(i,j,random.nextGaussian());
+            }
+            for (int l=0;l<numClasses;l++){
+                if (random.nextDouble()<0.3){
+                    dataSet.addLabel(i,l);
+                }
+            }
+        }
+        CMLCRF cmlcrf = new CMLCRF(dataSet);
+        cmlcrf.setConsiderPair(considerPair);
+        Vector weights = cmlcrf.getWeights().getAllWeights();
+        for (int p=0;p<weights.size();p++){
+            weights.set(p, random.nextGaussian());
+        }
+        cmlcrf.updateCombLabelPartScores();
+
+        PrunedPredictor predictor = new PrunedPredictor(cmlcrf);
+        int top = 5;
+        boolean argmaxSame = true;
+        boolean topSame = true;
+        for (int i=0;i<numDataPoints;i++){
+            Vector row = dataSet.getRow(i);
+            argmaxSame = argmaxSame && predictor.predict(row).equals(cmlcrf.predict(row));
+            double[] scores = cmlcrf.predictCombinationScores(row);
+            int[] expected = IntStream.range(0, scores.length).boxed()
+                    .sorted(Comparator.comparing((Integer c) -> -scores[c]).thenComparing(c -> c))
+                    .limit(top).mapToInt(Integer::intValue).toArray();
+            topSame = topSame && Arrays.equals(expected, predictor.predictTopCombinations(row, top).getCombinations());
+        }
+        System.out.println("consider pair = "+considerPair+", number of supports = "+cmlcrf.getNumSupports());
+        System.out.println("same argmax = "+argmaxSame);
+        System.out.println("same top "+top+" = "+topSame);
+        System.out.println("fraction of combinations visited = "+predictor.getVisitedFraction());
+    }
+}
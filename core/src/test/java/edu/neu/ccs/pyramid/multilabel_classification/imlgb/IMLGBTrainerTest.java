@@ -0,0 +1,115 @@
+package edu.neu.ccs.pyramid.multilabel_classification.imlgb;
+
+import edu.neu.ccs.pyramid.dataset.DataSetUtil;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.simulation.MultiLabelSynthesizer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class IMLGBTrainerTest {
+    public static void main(String[] args) {
+        test1();
+        test2(true);
+        test2(false);
+    }
+
+    /**
+     * incremental training only appends trees to the labels whose loss moved,
+     * and cutting tails keeps the staged scores consistent with the model
+     */
+    private static void test1(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(2000, 20, 5);
+        IMLGradientBoosting boosting = new IMLGradientBoosting(dataSet.getNumClasses());
+        IMLGBTrainer trainer = new IMLGBTrainer(newConfig(dataSet), boosting);
+        for (int iteration=0;iteration<20;iteration++){
+            trainer.iterate();
+        }
+        boosting.setTrainLabelLosses(trainer.computeLabelLosses());
+        System.out.println("label losses = "+Arrays.toString(boosting.getTrainLabelLosses()));
+
+        // new data: label 0 is added to every fifth document
+        List<Integer> indices = IntStream.range(0, dataSet.getNumDataPoints()).boxed().collect(Collectors.toList());
+        MultiLabelClfDataSet newDataSet = DataSetUtil.sampleData(dataSet, indices);
+        for (int i=0;i<newDataSet.getNumDataPoints();i+=5){
+            newDataSet.addLabel(i, 0);
+        }
+        IMLGBTrainer incremental = new IMLGBTrainer(newConfig(newDataSet), boosting);
+        double maxStagedDifference = maxDifference(incremental.computeLabelLosses(), boosting.labelLosses(newDataSet));
+        int numLabelsLeftToTrain = incremental.stopUnchangedLabels(0.000001);
+        int[] sizesBefore = IntStream.range(0, boosting.getNumClasses()).map(k -> boosting.getRegressors(k).size()).toArray();
+        for (int iteration=0;iteration<10;iteration++){
+            incremental.iterate();
+        }
+        int[] sizesAfter = IntStream.range(0, boosting.getNumClasses()).map(k -> boosting.getRegressors(k).size()).toArray();
+        System.out.println("max difference of staged losses to block scoring = "+maxStagedDifference);
+        System.out.println("labels left to train = "+numLabelsLeftToTrain+", should stop = "+Arrays.toString(incremental.getShouldStop()));
+        System.out.println("model sizes before = "+Arrays.toString(sizesBefore)+", after = "+Arrays.toString(sizesAfter));
+        System.out.println("label 0 loss after incremental training = "+incremental.computeLabelLosses()[0]);
+
+        // drop the new trees of label 0 and refit 5 of them
+        incremental.cutTail(0, 20, true);
+        double maxCutDifference = maxDifference(incremental.computeLabelLosses(), boosting.labelLosses(newDataSet));
+        for (int iteration=0;iteration<5;iteration++){
+            incremental.iterate();
+        }
+        System.out.println("max difference of staged losses to block scoring after cutting tail = "+maxCutDifference);
+        System.out.println("model size of label 0 after refitting = "+boosting.getRegressors(0).size());
+        System.out.println("label 0 loss after refitting = "+incremental.computeLabelLosses()[0]);
+    }
+
+    /**
+     * labels stop on their own once their validation loss converges, and are rolled back to their best number of trees,
+     * with or without a prior
+     */
+    private static void test2(boolean usePrior){
+        MultiLabelClfDataSet all = MultiLabelSynthesizer.flipOne(3000, 20, 6);
+        MultiLabelClfDataSet dataSet = DataSetUtil.sampleData(all, IntStream.range(0, 2000).boxed().collect(Collectors.toList()));
+        MultiLabelClfDataSet validSet = DataSetUtil.sampleData(all, IntStream.range(2000, 3000).boxed().collect(Collectors.toList()));
+        IMLGradientBoosting boosting = new IMLGradientBoosting(dataSet.getNumClasses());
+        IMLGBConfig config = new IMLGBConfig.Builder(dataSet)
+                .learningRate(0.5)
+                .minDataPerLeaf(5)
+                .numLeaves(10)
+                .usePrior(usePrior)
+                .build();
+        IMLGBTrainer trainer = new IMLGBTrainer(config, boosting);
+        trainer.setEarlyStopping(validSet, 5, 10);
+        int iteration = 0;
+        while (iteration<500 && IntStream.range(0, boosting.getNumClasses()).anyMatch(k -> !trainer.getShouldStop()[k])){
+            trainer.iterate();
+            iteration += 1;
+        }
+        double[] validLosses = boosting.labelLosses(validSet);
+        double maxDifference = 0;
+        boolean bestSizes = true;
+        for (int k=0;k<boosting.getNumClasses();k++){
+            maxDifference = Math.max(maxDifference, Math.abs(validLosses[k]-trainer.getEarlyStopper(k).getBestValue()));
+            int numTrees = boosting.getRegressors(k).size()-boosting.getNumPriors(k);
+            bestSizes = bestSizes && numTrees==trainer.getEarlyStopper(k).getBestIteration();
+        }
+        System.out.println("use prior = "+usePrior);
+        System.out.println("all labels stopped after "+iteration+" iterations");
+        System.out.print(trainer.report());
+        System.out.println("max difference between best validation losses and losses of the rolled back model = "+maxDifference);
+        System.out.println("rolled back to the best number of trees = "+bestSizes);
+    }
+
+    private static IMLGBConfig newConfig(MultiLabelClfDataSet dataSet){
+        return new IMLGBConfig.Builder(dataSet)
+                .learningRate(0.1)
+                .minDataPerLeaf(5)
+                .numLeaves(5)
+                .build();
+    }
+
+    private static double maxDifference(double[] a, double[] b){
+        double max = 0;
+        for (int k=0;k<a.length;k++){
+            max = Math.max(max, Math.abs(a[k]-b[k]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,133 @@
+package edu.neu.ccs.pyramid.optimization;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticLoss;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.simulation.MultiLabelSynthesizer;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+public class LBFGSTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+    }
+
+    /**
+     * separable quadratic with very different curvatures; history shorter than the number of iterations
+     */
+    private static void test1(){
+        int size = 50;
+        double[] curvatures = new double[size];
+        double[] centers = new double[size];
+        for (int i=0;i<size;i++){
+            curvatures[i] = Math.pow(10, (i%5)-2);
+            centers[i] = i-size/2;
+        }
+        Quadratic quadratic = new Quadratic(curvatures, centers);
+        LBFGS lbfgs = new LBFGS(quadratic);
+        lbfgs.setHistory(3);
+        lbfgs.getTerminator().setMaxIteration(500);
+        lbfgs.optimize();
+        double maxError = 0;
+        for (int i=0;i<size;i++){
+            maxError = Math.max(maxError, Math.abs(quadratic.getParameters().get(i)-centers[i]));
+        }
+        System.out.println("iterations = "+lbfgs.getTerminator().getNumIterations());
+        System.out.println("max distance to the minimum = "+maxError);
+    }
+
+    /**
+     * the loss never goes up
+     */
+    private static void test2(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(2000, 20, 4);
+        double[][] targets = new double[dataSet.getNumDataPoints()][4];
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            MultiLabel multiLabel = dataSet.getMultiLabels()[i];
+            for (int l=0;l<4;l++){
+                targets[i][l] = multiLabel.matchClass(l) ? 1 : 0;
+            }
+            double sum = targets[i][0]+targets[i][1]+targets[i][2]+targets[i][3];
+            for (int l=0;l<4;l++){
+                targets[i][l] = sum==0 ? 0.25 : targets[i][l]/sum;
+            }
+        }
+        LogisticRegression logisticRegression = new LogisticRegression(4, 20);
+        LogisticLoss loss = new LogisticLoss(logisticRegression, dataSet, targets, 1, false);
+        LBFGS lbfgs = new LBFGS(loss);
+        double previous = loss.getValue();
+        boolean decreasing = true;
+        for (int iteration=0;iteration<30;iteration++){
+            lbfgs.iterate();
+            double value = loss.getValue();
+            decreasing = decreasing && value<=previous;
+            previous = value;
+        }
+        System.out.println("final loss = "+previous);
+        System.out.println("decreasing = "+decreasing);
+    }
+
+    /**
+     * the function keeps its own parameter vector, and parameters set from outside between iterations are picked up
+     */
+    private static void test3(){
+        double[] curvatures = {1, 2, 3};
+        double[] centers = {1, -1, 2};
+        Quadratic quadratic = new Quadratic(curvatures, centers);
+        LBFGS lbfgs = new LBFGS(quadratic);
+        Vector own = quadratic.getParameters();
+        lbfgs.iterate();
+        lbfgs.iterate();
+        System.out.println("same parameter vector = "+(quadratic.getParameters()==own));
+        Vector restart = new DenseVector(new double[]{10, 10, 10});
+        quadratic.setParameters(restart);
+        double before = quadratic.getValue();
+        lbfgs.iterate();
+        System.out.println("restarted vector kept = "+(quadratic.getParameters()==restart));
+        System.out.println("decreased from restart = "+(quadratic.getValue()<before));
+    }
+
+    private static class Quadratic implements Optimizable.ByGradientValue {
+        private double[] curvatures;
+        private double[] centers;
+        private Vector parameters;
+
+        Quadratic(double[] curvatures, double[] centers) {
+            this.curvatures = curvatures;
+            this.centers = centers;
+            this.parameters = new DenseVector(curvatures.length);
+        }
+
+        @Override
+        public Vector getParameters() {
+            return parameters;
+        }
+
+        @Override
+        public void setParameters(Vector parameters) {
+            this.parameters = parameters;
+        }
+
+        @Override
+        public double getValue() {
+            double value = 0;
+            for (int i=0;i<curvatures.length;i++){
+                double diff = parameters.get(i)-centers[i];
+                value += 0.5*curvatures[i]*diff*diff;
+            }
+            return value;
+        }
+
+        @Override
+        public Vector getGradient() {
+            Vector gradient = new DenseVector(curvatures.length);
+            for (int i=0;i<curvatures.length;i++){
+                gradient.set(i, curvatures[i]*(parameters.get(i)-centers[i]));
+            }
+            return gradient;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package edu.neu.ccs.pyramid.optimization;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticLoss;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.CMLCRF;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.CRFLoss;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.KLLoss;
+import edu.neu.ccs.pyramid.simulation.MultiLabelSynthesizer;
+import org.apache.mahout.math.Vector;
+
+import java.util.Random;
+
+public class StochasticOptimizerTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+    }
+
+    /**
+     * the batch gradient over all data points is the full gradient divided by the number of data points
+     */
+    private static void test1(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(500, 20, 4);
+        int[] all = new int[dataSet.getNumDataPoints()];
+        for (int i=0;i<all.length;i++){
+            all[i] = i;
+        }
+
+        Random random = new Random(1);
+        LogisticLoss logisticLoss = new LogisticLoss(new LogisticRegression(4, 20), dataSet, targets(dataSet), 1, false);
+        randomize(logisticLoss, random);
+        Vector expected = logisticLoss.getGradient().divide(all.length);
+        System.out.println("logistic loss difference = "+expected.minus(logisticLoss.getBatchGradient(all)).norm(Double.POSITIVE_INFINITY));
+
+        CMLCRF cmlcrf = new CMLCRF(dataSet);
+        CRFLoss crfLoss = new CRFLoss(cmlcrf, dataSet, 1);
+        randomize(crfLoss, random);
+        expected = crfLoss.getGradient().divide(all.length);
+        System.out.println("crf loss difference = "+expected.minus(crfLoss.getBatchGradient(all)).norm(Double.POSITIVE_INFINITY));
+
+        double[][] targetDistribution = new double[all.length][cmlcrf.getNumSupports()];
+        for (int i=0;i<all.length;i++){
+            double sum = 0;
+            for (int c=0;c<targetDistribution[i].length;c++){
+                targetDistribution[i][c] = random.nextDouble();
+                sum += targetDistribution[i][c];
+            }
+            for (int c=0;c<targetDistribution[i].length;c++){
+                targetDistribution[i][c] /= sum;
+            }
+        }
+        KLLoss klLoss = new KLLoss(cmlcrf, dataSet, targetDistribution, 1);
+        expected = klLoss.getGradient().divide(all.length);
+        System.out.println("kl loss difference = "+expected.minus(klLoss.getBatchGradient(all)).norm(Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * each optimizer reduces the loss
+     */
+    private static void test2(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(2000, 20, 4);
+        double[][] targets = targets(dataSet);
+        for (String name: new String[]{"sgd","adagrad","adam"}){
+            LogisticLoss loss = new LogisticLoss(new LogisticRegression(4, 20), dataSet, targets, 1, false);
+            double initial = loss.getValue();
+            StochasticOptimizer optimizer = create(name, loss);
+            optimizer.getTerminator().setMaxIteration(10);
+            optimizer.optimize();
+            System.out.println(name+": initial loss = "+initial+", final loss = "+optimizer.getFinalObjective());
+        }
+    }
+
+    /**
+     * the same seed gives the same parameters
+     */
+    private static void test3(){
+        MultiLabelClfDataSet dataSet = MultiLabelSynthesizer.flipOne(1000, 20, 4);
+        double[][] targets = targets(dataSet);
+        Vector[] results = new Vector[2];
+        for (int run=0;run<2;run++){
+            LogisticLoss loss = new LogisticLoss(new LogisticRegression(4, 20), dataSet, targets, 1, false);
+            StochasticOptimizer optimizer = create("adam", loss);
+            optimizer.setSeed(17);
+            optimizer.setBatchSize(32);
+            optimizer.getTerminator().setMaxIteration(3);
+            optimizer.optimize();
+            results[run] = loss.getParameters();
+        }
+        System.out.println("difference between runs = "+results[0].minus(results[1]).norm(Double.POSITIVE_INFINITY));
+    }
+
+    private static void randomize(Optimizable function, Random random){
+        Vector parameters = function.getParameters().like();
+        for (int i=0;i<parameters.size();i++){
+            parameters.set(i, random.nextGaussian()*0.1);
+        }
+        function.setParameters(parameters);
+    }
+
+    private static StochasticOptimizer create(String name, Optimizable.ByBatchGradient function){
+        switch (name){
+            case "sgd":
+                StochasticGradientDescent sgd = new StochasticGradientDescent(function);
+                sgd.setLearningRate(0.1);
+                return sgd;
+            case "adagrad":
+                AdaGrad adaGrad = new AdaGrad(function);
+                adaGrad.setLearningRate(0.1);
+                return adaGrad;
+            case "adam":
+                Adam adam = new Adam(function);
+                adam.setLearningRate(0.01);
+                return adam;
+            default:
+                throw new IllegalArgumentException("unknown optimizer "+name);
+        }
+    }
+
+    private static double[][] targets(MultiLabelClfDataSet dataSet){
+        int numClasses = dataSet.getNumClasses();
+        double[][] targets = new double[dataSet.getNumDataPoints()][numClasses];
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            MultiLabel multiLabel = dataSet.getMultiLabels()[i];
+            int count = multiLabel.getMatchedLabels().size();
+            for (int l=0;l<numClasses;l++){
+                if (count==0){
+                    targets[i][l] = 1.0/numClasses;
+                } else if (multiLabel.matchClass(l)){
+                    targets[i][l] = 1.0/count;
+                }
+            }
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.neu.ccs.pyramid.optimization.gradient_boosting;
+
+import edu.neu.ccs.pyramid.dataset.RegDataSet;
+import edu.neu.ccs.pyramid.dataset.RegDataSetBuilder;
+import edu.neu.ccs.pyramid.regression.ConstantRegressor;
+import edu.neu.ccs.pyramid.regression.Regressor;
+import edu.neu.ccs.pyramid.regression.linear_regression.LinearRegression;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeConfig;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeTrainer;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CompiledEnsembleTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    /**
+     * compiled scores should be the same as the original ones, with and without missing values
+     */
+    private static void test1(){
+        Random random = new Random(1);
+        int numData = 500;
+        int numFeatures = 10;
+        RegDataSet dataSet = RegDataSetBuilder.getBuilder().numDataPoints(numData).numFeatures(numFeatures)
+                .dense(false).missingValue(true).build();
+        for (int i=0;i<numData;i++){
+            for (int j=0;j<numFeatures;j++){
+                double u = random.nextDouble();
+                if (u<0.05){
+                    dataSet.setFeatureValue(i,j,Double.NaN);
+                } else if (u<0.6){
+                    dataSet.setFeatureValue(i,j,random.nextGaussian());
+                }
+            }
+            dataSet.setLabel(i,random.nextGaussian());
+        }
+        RegTreeConfig regTreeConfig = new RegTreeConfig().setMaxNumLeaves(8);
+        List<Regressor> regressors = new ArrayList<>();
+        regressors.add(new ConstantRegressor(0.5));
+        for (int t=0;t<20;t++){
+            double[] labels = new double[numData];
+            for (int i=0;i<numData;i++){
+                labels[i] = random.nextGaussian();
+            }
+            regressors.add(RegTreeTrainer.fit(regTreeConfig,dataSet,labels));
+        }
+        CompiledEnsemble compiledEnsemble = CompiledEnsemble.compile(regressors);
+
+        double maxDiff = 0;
+        for (int i=0;i<numData;i++){
+            double original = 0;
+            for (Regressor regressor: regressors){
+                original += regressor.predict(dataSet.getRow(i));
+            }
+            maxDiff = Math.max(maxDiff,Math.abs(original-compiledEnsemble.score(dataSet.getRow(i))));
+        }
+        System.out.println("number of trees = "+compiledEnsemble.getNumTrees());
+        System.out.println("max difference = "+maxDiff);
+    }
+
+    /**
+     * non-tree regressors see the data point itself, even after the dense buffer has grown for wider vectors
+     */
+    private static void test2(){
+        Random random = new Random(2);
+        int numFeatures = 10;
+        Vector weights = new DenseVector(numFeatures+1);
+        for (int j=0;j<numFeatures+1;j++){
+            weights.set(j, random.nextGaussian());
+        }
+        List<Regressor> regressors = new ArrayList<>();
+        regressors.add(new ConstantRegressor(0.5));
+        regressors.add(new LinearRegression(numFeatures, weights));
+        CompiledEnsemble compiledEnsemble = CompiledEnsemble.compile(regressors);
+        // grow the thread-local buffer beyond the number of features
+        CompiledEnsemble.compile(new ArrayList<>()).score(new RandomAccessSparseVector(100));
+
+        double maxDiff = 0;
+        for (int i=0;i<100;i++){
+            Vector vector = new RandomAccessSparseVector(numFeatures);
+            double[] denseRow = new double[numFeatures];
+            for (int j=0;j<numFeatures;j++){
+                if (random.nextDouble()<0.5){
+                    vector.set(j, random.nextGaussian());
+                    denseRow[j] = vector.get(j);
+                }
+            }
+            double original = 0;
+            for (Regressor regressor: regressors){
+                original += regressor.predict(vector);
+            }
+            maxDiff = Math.max(maxDiff,Math.abs(original-compiledEnsemble.score(vector)));
+            maxDiff = Math.max(maxDiff,Math.abs(original-compiledEnsemble.score(denseRow)));
+            maxDiff = Math.max(maxDiff,Math.abs(original-CompiledEnsemble.scores(new CompiledEnsemble[]{compiledEnsemble}, vector)[0]));
+        }
+        System.out.println("with a linear regressor, max difference = "+maxDiff);
+    }
+}
@@ -0,0 +1,60 @@
+package edu.neu.ccs.pyramid.optimization.gradient_boosting;
+
+import edu.neu.ccs.pyramid.dataset.RegDataSet;
+import edu.neu.ccs.pyramid.dataset.RegDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.ScoreMatrix;
+import edu.neu.ccs.pyramid.regression.ConstantRegressor;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeConfig;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeTrainer;
+
+import java.util.Random;
+
+public class EnsembleTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    /**
+     * block scoring should be the same as row by row scoring
+     */
+    private static void test1(){
+        Random random = new Random(1);
+        int numData = 600;
+        int numFeatures = 10;
+        RegDataSet dataSet = RegDataSetBuilder.getBuilder().numDataPoints(numData).numFeatures(numFeatures)
+                .dense(false).missingValue(true).build();
+        for (int i=0;i<numData;i++){
+            for (int j=0;j<numFeatures;j++){
+                double u = random.nextDouble();
+                if (u<0.05){
+                    dataSet.setFeatureValue(i,j,Double.NaN);
+                } else if (u<0.6){
+                    dataSet.setFeatureValue(i,j,random.nextGaussian());
+                }
+            }
+            dataSet.setLabel(i,random.nextGaussian());
+        }
+        RegTreeConfig regTreeConfig = new RegTreeConfig().setMaxNumLeaves(8);
+        Ensemble ensemble = new Ensemble();
+        ensemble.add(new ConstantRegressor(0.5));
+        for (int t=0;t<20;t++){
+            double[] labels = new double[numData];
+            for (int i=0;i<numData;i++){
+                labels[i] = random.nextGaussian();
+            }
+            ensemble.add(RegTreeTrainer.fit(regTreeConfig,dataSet,labels));
+        }
+
+        ScoreMatrix scoreMatrix = new ScoreMatrix(numData,1);
+        for (int fromRow=0;fromRow<numData;fromRow+=Ensemble.BLOCK_SIZE){
+            int toRow = Math.min(numData,fromRow+Ensemble.BLOCK_SIZE);
+            ensemble.score(dataSet,fromRow,toRow,scoreMatrix,0);
+        }
+        double maxDiff = 0;
+        for (int i=0;i<numData;i++){
+            double score = ensemble.score(dataSet.getRow(i));
+            maxDiff = Math.max(maxDiff,Math.abs(score-scoreMatrix.getScoresForData(i)[0]));
+        }
+        System.out.println("max difference = "+maxDiff);
+    }
+}
@@ -0,0 +1,47 @@
+package edu.neu.ccs.pyramid.regression.regression_tree;
+
+import edu.neu.ccs.pyramid.dataset.RegDataSet;
+import edu.neu.ccs.pyramid.dataset.RegDataSetBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class HistogramSplitterTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    /**
+     * at the root, bins are the same as intervals, so both splitters should agree
+     */
+    private static void test1(){
+        Random random = new Random(1);
+        int numData = 1000;
+        RegDataSet dataSet = RegDataSetBuilder.getBuilder().numDataPoints(numData).numFeatures(10)
+                .dense(false).missingValue(true).build();
+        for (int i=0;i<numData;i++){
+            for (int j=0;j<10;j++){
+                double u = random.nextDouble();
+                if (u<0.05){
+                    dataSet.setFeatureValue(i,j,Double.NaN);
+                } else if (u<0.5){
+                    dataSet.setFeatureValue(i,j,random.nextGaussian());
+                }
+            }
+            double value = dataSet.getRow(i).get(3);
+            if (Double.isNaN(value)){
+                value = 0;
+            }
+            dataSet.setLabel(i,2*value+0.1*random.nextGaussian());
+        }
+        RegTreeConfig regTreeConfig = new RegTreeConfig().setNumSplitIntervals(100);
+        double[] probs = new double[numData];
+        Arrays.fill(probs,1);
+        int[] dataIndices = IntStream.range(0,numData).toArray();
+        BinnedDataSet binnedDataSet = BinnedDataSet.build(dataSet,100);
+        Histogram histogram = Histogram.build(binnedDataSet,dataSet.getLabels(),probs,dataIndices,null);
+        System.out.println(Splitter.split(regTreeConfig,binnedDataSet,histogram));
+        System.out.println(Splitter.split(regTreeConfig,dataSet,dataSet.getLabels(),probs,dataIndices));
+    }
+}
@@ -6,6 +6,9 @@ import org.apache.mahout.math.Vector;
 
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
 
 public class IntervalSplitterTest {
     public static void main(String[] args) {
@@ -21,6 +24,7 @@ public class IntervalSplitterTest {
 //        test10();
 //        test11();
         test12();
+        test13();
     }
 
 
@@ -205,6 +209,45 @@ public class IntervalSplitterTest {
 
     }
 
+    /**
+     * splits on node columns built from the rows of a small node are the same as splits on the full columns,
+     * up to the rounding of sums taken in a different order
+     */
+    static void test13(){
+        Random random = new Random(0);
+        int numDataPoints = 1000;
+        int numFeatures = 500;
+        SparseDataSet dataSet = new SparseDataSet(numDataPoints, numFeatures, true);
+        double[] labels = new double[numDataPoints];
+        for (int i=0;i<numDataPoints;i++){
+            for (int j=0;j<numFeatures;j++){
+                if (random.nextDouble()<0.02){
+                    dataSet.setFeatureValue(i, j, random.nextDouble()<0.05 ? Double.NaN : random.nextInt(5)+1);
+                }
+            }
+            labels[i] = random.nextGaussian();
+        }
+        int[] dataIndices = java.util.stream.IntStream.range(0, numDataPoints).filter(i -> i%3==0).toArray();
+        double[] probs = new double[numDataPoints];
+        for (int i: dataIndices){
+            probs[i] = 1;
+        }
+        RegTreeConfig regTreeConfig = new RegTreeConfig().setMinDataPerLeaf(3).setNumSplitIntervals(10);
+        Splitter.GlobalStats globalStats = new Splitter.GlobalStats(labels, probs, dataIndices);
+        Map<Integer,Vector> nodeColumns = Splitter.nodeColumns(dataSet, dataIndices);
+        boolean same = true;
+        for (int j=0;j<numFeatures;j++){
+            Optional<SplitResult> full = IntervalSplitter.split(regTreeConfig, dataSet, labels, probs, j, globalStats);
+            Optional<SplitResult> node = nodeColumns.containsKey(j) ?
+                    IntervalSplitter.split(regTreeConfig, nodeColumns.get(j), labels, probs, j, globalStats) : Optional.empty();
+            same = same && full.isPresent()==node.isPresent()
+                    && (!full.isPresent() || (full.get().getThreshold()==node.get().getThreshold()
+                    && Math.abs(full.get().getReduction()-node.get().getReduction())<1E-9));
+        }
+        System.out.println("features with columns at the node = "+nodeColumns.size()+" of "+numFeatures);
+        System.out.println("same splits as full columns = "+same);
+    }
+
     static void test12(){
         RegTreeConfig regTreeConfig = new RegTreeConfig().setNumSplitIntervals(2);
         Vector vector = new DenseVector(4);
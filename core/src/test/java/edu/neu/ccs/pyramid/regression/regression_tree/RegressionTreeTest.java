@@ -1,8 +1,12 @@
 package edu.neu.ccs.pyramid.regression.regression_tree;
 
+import edu.neu.ccs.pyramid.dataset.RegDataSet;
+import edu.neu.ccs.pyramid.dataset.RegDataSetBuilder;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
+import java.util.Random;
+
 public class RegressionTreeTest {
 
     public static void main(String[] args) {
@@ -11,6 +15,7 @@ public class RegressionTreeTest {
 //        test3();
 //        test4();
         test5();
+        test6();
     }
 
     private static void test1(){
@@ -280,4 +285,44 @@ public class RegressionTreeTest {
         vector.set(10,0.6);
         System.out.println(tree.predict(vector));
     }
-}
\ No newline at end of file
+
+    /**
+     * predictions from leaf membership should match tree traversal
+     */
+    private static void test6(){
+        Random random = new Random(1);
+        int numData = 500;
+        RegDataSet dataSet = RegDataSetBuilder.getBuilder()
+                .numDataPoints(numData).numFeatures(5).dense(false).missingValue(true).build();
+        double[] weights = new double[numData];
+        for (int i=0;i<numData;i++){
+            for (int j=0;j<5;j++){
+                double u = random.nextDouble();
+                if (u<0.1){
+                    dataSet.setFeatureValue(i,j,Double.NaN);
+                } else if (u<0.7){
+                    dataSet.setFeatureValue(i,j,random.nextGaussian());
+                }
+            }
+            dataSet.setLabel(i,random.nextGaussian());
+            // some data points are not used in training
+            weights[i] = random.nextDouble()<0.1 ? 0 : 1;
+        }
+        RegTreeConfig regTreeConfig = new RegTreeConfig().setMaxNumLeaves(10).setRecordLeafMembership(true);
+        RegressionTree tree = RegTreeTrainer.fit(regTreeConfig,dataSet,dataSet.getLabels(),weights,new AverageOutputCalculator());
+        tree.shrink(0.1);
+        double[] predictions = tree.consumeTrainingPredictions().get();
+        double maxDiff = 0;
+        int numNotReached = 0;
+        for (int i=0;i<numData;i++){
+            if (Double.isNaN(predictions[i])){
+                numNotReached += 1;
+            } else {
+                maxDiff = Math.max(maxDiff,Math.abs(predictions[i]-tree.predict(dataSet.getRow(i))));
+            }
+        }
+        System.out.println("max difference = "+maxDiff);
+        System.out.println("number of data points not reached = "+numNotReached);
+        System.out.println("membership released = "+!tree.consumeTrainingPredictions().isPresent());
+    }
+}
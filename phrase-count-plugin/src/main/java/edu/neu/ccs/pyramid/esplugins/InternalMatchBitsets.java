@@ -0,0 +1,160 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filter memberships as one bitset over the rows per filter; rows index the document ids.
+ * On the wire each bitset is sent either as its words or, when sparse, as delta-encoded rows,
+ * whichever is smaller. Shard results are reduced by concatenating the rows.
+ */
+public class InternalMatchBitsets extends InternalAggregation {
+
+    /**
+     * a bitset is sent as words once more than one row in this many is set,
+     * roughly where 2 bytes per set row exceed 1 bit per row
+     */
+    private static final int DENSE_RATIO = 16;
+
+    private final String[] ids;
+    private final FixedBitSet[] matches;
+
+    public InternalMatchBitsets(String name, String[] ids, FixedBitSet[] matches,
+                                List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.ids = ids;
+        this.matches = matches;
+    }
+
+    public InternalMatchBitsets(StreamInput in) throws IOException {
+        super(in);
+        ids = in.readStringArray();
+        int numFilters = in.readVInt();
+        matches = new FixedBitSet[numFilters];
+        for (int f = 0; f < numFilters; f++) {
+            boolean dense = in.readBoolean();
+            if (dense) {
+                matches[f] = new FixedBitSet(in.readLongArray(), ids.length);
+            } else {
+                FixedBitSet bits = new FixedBitSet(ids.length);
+                int[] deltas = in.readVIntArray();
+                int row = 0;
+                for (int delta : deltas) {
+                    row += delta;
+                    bits.set(row);
+                }
+                matches[f] = bits;
+            }
+        }
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeStringArray(ids);
+        out.writeVInt(matches.length);
+        for (FixedBitSet bits : matches) {
+            int cardinality = bits.cardinality();
+            boolean dense = (long) cardinality * DENSE_RATIO > ids.length;
+            out.writeBoolean(dense);
+            if (dense) {
+                out.writeLongArray(bits.getBits());
+            } else {
+                int[] deltas = new int[cardinality];
+                int previous = 0;
+                int i = 0;
+                for (int row = nextRow(bits, 0); row != DocIdSetIterator.NO_MORE_DOCS; row = nextRow(bits, row + 1)) {
+                    deltas[i++] = row - previous;
+                    previous = row;
+                }
+                out.writeVIntArray(deltas);
+            }
+        }
+    }
+
+    @Override
+    public String getWriteableName() {
+        return MatchBitsetAggregationBuilder.NAME;
+    }
+
+    /** Ids of the documents matching at least one filter, indexed by row. */
+    public String[] getIds() {
+        return ids;
+    }
+
+    public int getNumFilters() {
+        return matches.length;
+    }
+
+    /** Rows of the documents matching the filter; the bitset has one bit per id. */
+    public FixedBitSet getMatches(int filter) {
+        return matches[filter];
+    }
+
+    /**
+     * The first row at or after from in the bitset, or {@link DocIdSetIterator#NO_MORE_DOCS} if there is none.
+     */
+    public static int nextRow(FixedBitSet bits, int from) {
+        return from < bits.length() ? bits.nextSetBit(from) : DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    @Override
+    public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        int numIds = 0;
+        for (InternalAggregation aggregation : aggregations) {
+            numIds += ((InternalMatchBitsets) aggregation).ids.length;
+        }
+        String[] reducedIds = new String[numIds];
+        FixedBitSet[] reducedMatches = new FixedBitSet[matches.length];
+        for (int f = 0; f < matches.length; f++) {
+            reducedMatches[f] = new FixedBitSet(numIds);
+        }
+        int offset = 0;
+        for (InternalAggregation aggregation : aggregations) {
+            InternalMatchBitsets shard = (InternalMatchBitsets) aggregation;
+            System.arraycopy(shard.ids, 0, reducedIds, offset, shard.ids.length);
+            for (int f = 0; f < matches.length; f++) {
+                FixedBitSet bits = shard.matches[f];
+                for (int row = nextRow(bits, 0); row != DocIdSetIterator.NO_MORE_DOCS; row = nextRow(bits, row + 1)) {
+                    reducedMatches[f].set(row + offset);
+                }
+            }
+            offset += shard.ids.length;
+        }
+        return new InternalMatchBitsets(name, reducedIds, reducedMatches, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public Object getProperty(List<String> path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        builder.array("ids", ids);
+        builder.startArray("filters");
+        for (FixedBitSet bits : matches) {
+            int[] rows = new int[bits.cardinality()];
+            int i = 0;
+            for (int row = nextRow(bits, 0); row != DocIdSetIterator.NO_MORE_DOCS; row = nextRow(bits, row + 1)) {
+                rows[i++] = row;
+            }
+            builder.startObject();
+            builder.array("rows", rows);
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+}
@@ -0,0 +1,143 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Phrase counts in columnar form: for each phrase, the rows of the documents containing it
+ * (increasing, delta-encoded on the wire) and the counts; rows index the document ids.
+ * Shard results are reduced by concatenating the rows.
+ */
+public class InternalPhraseCounts extends InternalAggregation {
+
+    private final String[] ids;
+    private final int[][] rows;
+    private final float[][] counts;
+
+    public InternalPhraseCounts(String name, String[] ids, int[][] rows, float[][] counts,
+                                List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.ids = ids;
+        this.rows = rows;
+        this.counts = counts;
+    }
+
+    public InternalPhraseCounts(StreamInput in) throws IOException {
+        super(in);
+        ids = in.readStringArray();
+        int numPhrases = in.readVInt();
+        rows = new int[numPhrases][];
+        counts = new float[numPhrases][];
+        for (int p = 0; p < numPhrases; p++) {
+            int[] column = in.readVIntArray();
+            for (int i = 1; i < column.length; i++) {
+                column[i] += column[i - 1];
+            }
+            rows[p] = column;
+            counts[p] = in.readFloatArray();
+        }
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeStringArray(ids);
+        out.writeVInt(rows.length);
+        for (int p = 0; p < rows.length; p++) {
+            int[] deltas = new int[rows[p].length];
+            for (int i = 0; i < deltas.length; i++) {
+                deltas[i] = (i == 0) ? rows[p][i] : rows[p][i] - rows[p][i - 1];
+            }
+            out.writeVIntArray(deltas);
+            out.writeFloatArray(counts[p]);
+        }
+    }
+
+    @Override
+    public String getWriteableName() {
+        return PhraseCountAggregationBuilder.NAME;
+    }
+
+    /** Ids of the documents with at least one phrase, indexed by row. */
+    public String[] getIds() {
+        return ids;
+    }
+
+    public int getNumPhrases() {
+        return rows.length;
+    }
+
+    /** Rows of the documents containing the phrase, in increasing order. */
+    public int[] getRows(int phrase) {
+        return rows[phrase];
+    }
+
+    /** Counts of the phrase, aligned with its rows. */
+    public float[] getCounts(int phrase) {
+        return counts[phrase];
+    }
+
+    @Override
+    public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        int numIds = 0;
+        int[] columnLengths = new int[rows.length];
+        for (InternalAggregation aggregation : aggregations) {
+            InternalPhraseCounts shard = (InternalPhraseCounts) aggregation;
+            numIds += shard.ids.length;
+            for (int p = 0; p < rows.length; p++) {
+                columnLengths[p] += shard.rows[p].length;
+            }
+        }
+        String[] reducedIds = new String[numIds];
+        int[][] reducedRows = new int[rows.length][];
+        float[][] reducedCounts = new float[rows.length][];
+        for (int p = 0; p < rows.length; p++) {
+            reducedRows[p] = new int[columnLengths[p]];
+            reducedCounts[p] = new float[columnLengths[p]];
+        }
+        int offset = 0;
+        int[] filled = new int[rows.length];
+        for (InternalAggregation aggregation : aggregations) {
+            InternalPhraseCounts shard = (InternalPhraseCounts) aggregation;
+            System.arraycopy(shard.ids, 0, reducedIds, offset, shard.ids.length);
+            for (int p = 0; p < rows.length; p++) {
+                int[] shardRows = shard.rows[p];
+                for (int i = 0; i < shardRows.length; i++) {
+                    reducedRows[p][filled[p] + i] = shardRows[i] + offset;
+                }
+                System.arraycopy(shard.counts[p], 0, reducedCounts[p], filled[p], shardRows.length);
+                filled[p] += shardRows.length;
+            }
+            offset += shard.ids.length;
+        }
+        return new InternalPhraseCounts(name, reducedIds, reducedRows, reducedCounts, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public Object getProperty(List<String> path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        builder.array("ids", ids);
+        builder.startArray("phrases");
+        for (int p = 0; p < rows.length; p++) {
+            builder.startObject();
+            builder.array("rows", rows[p]);
+            builder.array("counts", counts[p]);
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+}
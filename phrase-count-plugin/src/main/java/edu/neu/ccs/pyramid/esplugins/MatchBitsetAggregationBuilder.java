@@ -0,0 +1,138 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Tests a batch of filters against every document matching the query, in one pass over each segment.
+ * Only membership is returned: one bitset over the rows per filter, with the ids of the rows.
+ * Rows follow the document order of the shards, so no hits are fetched or scored.
+ *
+ * sample usage:
+ * <pre>
+ * "aggs": {
+ *   "features": {
+ *     "match_bitsets": {
+ *       "filters": [
+ *         {"term": {"gender": "female"}},
+ *         {"match_phrase": {"body": {"query": "term1 term2", "slop": 1}}}
+ *       ]
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+public class MatchBitsetAggregationBuilder extends AbstractAggregationBuilder<MatchBitsetAggregationBuilder> {
+    public static final String NAME = "match_bitsets";
+    public static final ParseField FILTERS_FIELD = new ParseField("filters");
+
+    private final List<QueryBuilder> filters = new ArrayList<>();
+
+    public MatchBitsetAggregationBuilder(String name) {
+        super(name);
+    }
+
+    public MatchBitsetAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        filters.addAll(in.readNamedWriteableList(QueryBuilder.class));
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteableList(filters);
+    }
+
+    public MatchBitsetAggregationBuilder addFilter(QueryBuilder filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires filter");
+        }
+        filters.add(filter);
+        return this;
+    }
+
+    public List<QueryBuilder> filters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    @Override
+    protected AggregatorFactory<?> doBuild(SearchContext context, AggregatorFactory<?> parent,
+                                           AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        QueryShardContext shardContext = context.getQueryShardContext();
+        List<org.apache.lucene.search.Query> queries = new ArrayList<>(filters.size());
+        for (QueryBuilder filter : filters) {
+            queries.add(QueryBuilder.rewriteQuery(filter, shardContext).toFilter(shardContext));
+        }
+        return new MatchBitsetAggregatorFactory(name, queries, context, parent, subFactoriesBuilder, metaData);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.startArray(FILTERS_FIELD.getPreferredName());
+        for (QueryBuilder filter : filters) {
+            filter.toXContent(builder, params);
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(filters);
+    }
+
+    @Override
+    protected boolean doEquals(Object obj) {
+        MatchBitsetAggregationBuilder other = (MatchBitsetAggregationBuilder) obj;
+        return Objects.equals(filters, other.filters);
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    public static MatchBitsetAggregationBuilder parse(String aggregationName, QueryParseContext parseContext) throws IOException {
+        XContentParser parser = parseContext.parser();
+        MatchBitsetAggregationBuilder builder = new MatchBitsetAggregationBuilder(aggregationName);
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY && FILTERS_FIELD.match(currentFieldName)) {
+                while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    Optional<QueryBuilder> filter = parseContext.parseInnerQueryBuilder();
+                    if (!filter.isPresent()) {
+                        throw new ParsingException(parser.getTokenLocation(),
+                            "[" + NAME + "] expects queries in [" + currentFieldName + "]");
+                    }
+                    builder.filters.add(filter.get());
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),
+                    "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,142 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import com.carrotsearch.hppc.IntArrayList;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the filter memberships of the documents of one shard.
+ * A document gets a row only if it matches at least one filter; rows are assigned in document order.
+ * For each segment, the matches of every filter are read from its scorer once, and their union
+ * decides which collected documents get a row; the matches are turned into rows when the segment is done.
+ */
+public class MatchBitsetAggregator extends MetricsAggregator {
+
+    private final Weight[] weights;
+    private final List<String> ids = new ArrayList<>();
+    private final FixedBitSet[] matches;
+
+    /** the segment being collected: documents matched by each filter, and collected documents with a row */
+    private IntArrayList[] segmentMatches;
+    private final IntArrayList segmentDocs = new IntArrayList();
+    private int segmentFirstRow;
+
+    public MatchBitsetAggregator(String name, Weight[] weights, SearchContext context, Aggregator parent,
+                                 List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.weights = weights;
+        this.matches = new FixedBitSet[weights.length];
+        for (int f = 0; f < weights.length; f++) {
+            matches[f] = new FixedBitSet(64);
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    @Override
+    public LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        finishSegment();
+        final LeafReader reader = ctx.reader();
+        final String[] segmentIds = SegmentIds.of(reader);
+        final FixedBitSet union = new FixedBitSet(reader.maxDoc());
+        segmentMatches = new IntArrayList[weights.length];
+        for (int f = 0; f < weights.length; f++) {
+            segmentMatches[f] = new IntArrayList();
+            Scorer scorer = weights[f].scorer(ctx);
+            if (scorer == null) {
+                continue;
+            }
+            // may include deleted documents, which are never collected
+            DocIdSetIterator iterator = scorer.iterator();
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                segmentMatches[f].add(doc);
+                union.set(doc);
+            }
+        }
+        segmentDocs.clear();
+        segmentFirstRow = ids.size();
+        return new LeafBucketCollectorBase(sub, null) {
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                if (union.get(doc)) {
+                    segmentDocs.add(doc);
+                    ids.add(SegmentIds.get(reader, segmentIds, doc));
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void doPostCollection() throws IOException {
+        finishSegment();
+    }
+
+    /**
+     * rows of the matches of each filter in the last segment; both lists are in document order
+     */
+    private void finishSegment() {
+        if (segmentMatches == null) {
+            return;
+        }
+        int[] docs = segmentDocs.buffer;
+        int numDocs = segmentDocs.size();
+        for (int f = 0; f < segmentMatches.length; f++) {
+            IntArrayList filterDocs = segmentMatches[f];
+            if (filterDocs.isEmpty() || numDocs == 0) {
+                continue;
+            }
+            matches[f] = FixedBitSet.ensureCapacity(matches[f], segmentFirstRow + numDocs);
+            int from = 0;
+            for (int i = 0; i < filterDocs.size() && from < numDocs; i++) {
+                int position = Arrays.binarySearch(docs, from, numDocs, filterDocs.get(i));
+                if (position >= 0) {
+                    matches[f].set(segmentFirstRow + position);
+                    from = position + 1;
+                } else {
+                    from = -position - 1;
+                }
+            }
+        }
+        segmentMatches = null;
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long bucket) throws IOException {
+        int numRows = ids.size();
+        FixedBitSet[] trimmed = new FixedBitSet[matches.length];
+        for (int f = 0; f < matches.length; f++) {
+            long[] words = Arrays.copyOf(matches[f].getBits(), FixedBitSet.bits2words(numRows));
+            trimmed[f] = new FixedBitSet(words, numRows);
+        }
+        return new InternalMatchBitsets(name, ids.toArray(new String[numRows]), trimmed, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        FixedBitSet[] empty = new FixedBitSet[weights.length];
+        for (int f = 0; f < empty.length; f++) {
+            empty[f] = new FixedBitSet(0);
+        }
+        return new InternalMatchBitsets(name, new String[0], empty, pipelineAggregators(), metaData());
+    }
+}
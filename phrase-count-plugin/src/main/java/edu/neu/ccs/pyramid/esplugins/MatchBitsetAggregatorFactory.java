@@ -0,0 +1,39 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class MatchBitsetAggregatorFactory extends AggregatorFactory<MatchBitsetAggregatorFactory> {
+
+    private final Weight[] weights;
+
+    public MatchBitsetAggregatorFactory(String name, List<Query> filters, SearchContext context,
+                                        AggregatorFactory<?> parent, AggregatorFactories.Builder subFactoriesBuilder,
+                                        Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, subFactoriesBuilder, metaData);
+        weights = new Weight[filters.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = context.searcher().createNormalizedWeight(filters.get(i), false);
+        }
+    }
+
+    @Override
+    protected Aggregator createInternal(Aggregator parent, boolean collectsFromSingleBucket,
+                                        List<PipelineAggregator> pipelineAggregators,
+                                        Map<String, Object> metaData) throws IOException {
+        // rows are documents, so the bitsets only make sense at the top level
+        if (parent != null) {
+            throw new IllegalArgumentException("[" + MatchBitsetAggregationBuilder.NAME + "] cannot be nested under [" + parent.name() + "]");
+        }
+        return new MatchBitsetAggregator(name, weights, context, parent, pipelineAggregators, metaData);
+    }
+}
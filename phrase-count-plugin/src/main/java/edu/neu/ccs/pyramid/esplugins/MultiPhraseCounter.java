@@ -0,0 +1,299 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.spans.NearSpansOrdered;
+import org.apache.lucene.search.spans.SpanCollector;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts many phrases in the documents of one segment.
+ * Each distinct term is read from a single postings enum, and its positions in the current document
+ * are buffered and shared by all phrases containing the term. Phrases are then matched over the
+ * buffered positions with the same spans as {@link PhraseCountQuery}, so the counts agree with it.
+ * The postings of the first terms of the phrases are kept in a queue ordered by document,
+ * so a document only visits the phrases whose first term it contains.
+ * Documents must be counted in increasing order.
+ */
+public class MultiPhraseCounter {
+
+    private final SharedPostings[] postings;
+    /** for each phrase, the indices of its terms in postings */
+    private final int[][] phraseTerms;
+    /** for each phrase of at least two terms, the spans over the buffered positions; null for single terms */
+    private final Spans[] spans;
+    private final TwoPhaseIterator[] twoPhaseIterators;
+    private final boolean[] weightedCount;
+    /** for each term, the phrases starting with it */
+    private final int[][] phrasesByFirstTerm;
+    /** postings of the first terms that occur in the segment, by current document */
+    private final PriorityQueue<SharedPostings> firstTerms;
+    private final List<SharedPostings> present = new ArrayList<>();
+
+    public MultiPhraseCounter(LeafReader reader, List<PhraseCountQuery> phrases) throws IOException {
+        int numPhrases = phrases.size();
+        this.phraseTerms = new int[numPhrases][];
+        this.spans = new Spans[numPhrases];
+        this.twoPhaseIterators = new TwoPhaseIterator[numPhrases];
+        this.weightedCount = new boolean[numPhrases];
+        Map<Term, Integer> termIndices = new HashMap<>();
+        List<SharedPostings> postingsList = new ArrayList<>();
+        for (int p = 0; p < numPhrases; p++) {
+            PhraseCountQuery phrase = phrases.get(p);
+            CustomSpanQuery[] clauses = phrase.getClauses();
+            phraseTerms[p] = new int[clauses.length];
+            List<Spans> subSpans = new ArrayList<>(clauses.length);
+            for (int c = 0; c < clauses.length; c++) {
+                Term term = ((CustomSpanTermQuery) clauses[c]).getTerm();
+                Integer index = termIndices.get(term);
+                if (index == null) {
+                    index = postingsList.size();
+                    postingsList.add(new SharedPostings(reader, term));
+                    termIndices.put(term, index);
+                }
+                phraseTerms[p][c] = index;
+                subSpans.add(new BufferedTermSpans(postingsList.get(index)));
+            }
+            if (clauses.length > 1) {
+                spans[p] = phrase.isInOrder() ? new NearSpansOrdered(phrase.getSlop(), subSpans)
+                        : new CustomNearSpansUnordered(phrase.getSlop(), subSpans);
+                twoPhaseIterators[p] = spans[p].asTwoPhaseIterator();
+            }
+            weightedCount[p] = phrase.isWeightedCount();
+        }
+        this.postings = postingsList.toArray(new SharedPostings[postingsList.size()]);
+        int[] numStarting = new int[postings.length];
+        for (int[] terms : phraseTerms) {
+            if (terms.length > 0) {
+                numStarting[terms[0]]++;
+            }
+        }
+        this.phrasesByFirstTerm = new int[postings.length][];
+        int numFirstTerms = 0;
+        for (int t = 0; t < postings.length; t++) {
+            phrasesByFirstTerm[t] = new int[numStarting[t]];
+            postings[t].index = t;
+            if (numStarting[t] > 0 && postings[t].postings != null) {
+                numFirstTerms++;
+            }
+        }
+        int[] filled = new int[postings.length];
+        for (int p = 0; p < numPhrases; p++) {
+            if (phraseTerms[p].length > 0) {
+                int first = phraseTerms[p][0];
+                phrasesByFirstTerm[first][filled[first]++] = p;
+            }
+        }
+        this.firstTerms = new PriorityQueue<SharedPostings>(Math.max(1, numFirstTerms)) {
+            @Override
+            protected boolean lessThan(SharedPostings a, SharedPostings b) {
+                return a.postings.docID() < b.postings.docID();
+            }
+        };
+        for (int t = 0; t < postings.length; t++) {
+            if (numStarting[t] > 0 && postings[t].postings != null) {
+                firstTerms.add(postings[t]);
+            }
+        }
+    }
+
+    /** Number of distinct terms whose postings are shared by the phrases. */
+    public int getNumTerms() {
+        return postings.length;
+    }
+
+    /**
+     * Counts the phrases that occur in a document.
+     * @param doc segment-level doc id, greater than the previous one
+     * @param phrases filled with the indices of the phrases found, in no particular order
+     * @param counts filled with the count of each phrase found, or the sum of slop factors if the phrase is weighted;
+     *               both arrays need one entry per phrase
+     * @return the number of phrases found
+     */
+    public int count(int doc, int[] phrases, float[] counts) throws IOException {
+        while (firstTerms.size() > 0 && firstTerms.top().postings.docID() < doc) {
+            if (firstTerms.top().postings.advance(doc) == DocIdSetIterator.NO_MORE_DOCS) {
+                firstTerms.pop();
+            } else {
+                firstTerms.updateTop();
+            }
+        }
+        present.clear();
+        while (firstTerms.size() > 0 && firstTerms.top().postings.docID() == doc) {
+            present.add(firstTerms.pop());
+        }
+        int found = 0;
+        for (SharedPostings first : present) {
+            for (int p : phrasesByFirstTerm[first.index]) {
+                float count = count(doc, p);
+                if (count != 0) {
+                    phrases[found] = p;
+                    counts[found] = count;
+                    found++;
+                }
+            }
+            firstTerms.add(first);
+        }
+        return found;
+    }
+
+    private float count(int doc, int p) throws IOException {
+        for (int index : phraseTerms[p]) {
+            if (!postings[index].advanceTo(doc)) {
+                return 0;
+            }
+        }
+        if (spans[p] == null) {
+            return postings[phraseTerms[p][0]].freq;
+        }
+        TwoPhaseIterator twoPhaseIterator = twoPhaseIterators[p];
+        if (twoPhaseIterator.approximation().advance(doc) != doc || !twoPhaseIterator.matches()) {
+            return 0;
+        }
+        float count = 0;
+        Spans phraseSpans = spans[p];
+        while (phraseSpans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+            // same slop factor as the default similarities
+            count += weightedCount[p] ? 1.0f / (phraseSpans.width() + 1) : 1;
+        }
+        return count;
+    }
+
+    /**
+     * Postings of one term, with the positions of the current document buffered for all readers.
+     */
+    private static class SharedPostings {
+        private final PostingsEnum postings;
+        private int index;
+        private int[] positions = new int[16];
+        private int freq;
+        private int bufferedDoc = -1;
+
+        SharedPostings(LeafReader reader, Term term) throws IOException {
+            PostingsEnum postingsEnum = null;
+            Terms terms = reader.terms(term.field());
+            if (terms != null) {
+                if (terms.hasPositions() == false) {
+                    throw new IllegalStateException("field \"" + term.field() + "\" was indexed without position data; cannot count phrases (term=" + term.text() + ")");
+                }
+                TermsEnum termsEnum = terms.iterator();
+                if (termsEnum.seekExact(term.bytes())) {
+                    postingsEnum = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                }
+            }
+            this.postings = postingsEnum;
+        }
+
+        /**
+         * @return true if the term is in the document, whose positions are then buffered
+         */
+        boolean advanceTo(int doc) throws IOException {
+            if (postings == null) {
+                return false;
+            }
+            if (bufferedDoc == doc) {
+                return true;
+            }
+            if (postings.docID() < doc) {
+                postings.advance(doc);
+            }
+            if (postings.docID() != doc) {
+                return false;
+            }
+            freq = postings.freq();
+            if (freq > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(freq, 2 * positions.length));
+            }
+            for (int i = 0; i < freq; i++) {
+                positions[i] = postings.nextPosition();
+            }
+            bufferedDoc = doc;
+            return true;
+        }
+    }
+
+    /**
+     * Spans of one phrase clause over the buffered positions of a term.
+     * Only advanced to documents that contain the term.
+     */
+    private static class BufferedTermSpans extends Spans {
+        private final SharedPostings postings;
+        private int doc = -1;
+        private int index = -1;
+        private int position = -1;
+
+        BufferedTermSpans(SharedPostings postings) {
+            this.postings = postings;
+        }
+
+        @Override
+        public int nextStartPosition() throws IOException {
+            index++;
+            position = index < postings.freq ? postings.positions[index] : NO_MORE_POSITIONS;
+            return position;
+        }
+
+        @Override
+        public int startPosition() {
+            return position;
+        }
+
+        @Override
+        public int endPosition() {
+            return (position == -1) ? -1
+                    : (position != NO_MORE_POSITIONS) ? position + 1
+                    : NO_MORE_POSITIONS;
+        }
+
+        @Override
+        public int width() {
+            return 0;
+        }
+
+        @Override
+        public void collect(SpanCollector collector) throws IOException {
+
+        }
+
+        @Override
+        public float positionsCost() {
+            return 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        /** the next document is not known here; the counter only advances to given documents */
+        @Override
+        public int nextDoc() throws IOException {
+            return doc = NO_MORE_DOCS;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            index = -1;
+            position = -1;
+            return doc = target;
+        }
+
+        @Override
+        public long cost() {
+            return 1;
+        }
+    }
+}
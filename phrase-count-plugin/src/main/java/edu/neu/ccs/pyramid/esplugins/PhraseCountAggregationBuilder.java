@@ -0,0 +1,296 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Counts a batch of phrases in every document matching the query, in one pass over each segment.
+ * The result is columnar: one column of (row, count) pairs per phrase, with the ids of the rows.
+ *
+ * sample usage:
+ * <pre>
+ * "aggs": {
+ *   "features": {
+ *     "phrase_counts": {
+ *       "weighted_count": false,
+ *       "phrases": [
+ *         {"field": "body", "query": "term1 term2", "slop": 1, "in_order": true},
+ *         {"field": "body", "query": "term3"}
+ *       ]
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+public class PhraseCountAggregationBuilder extends AbstractAggregationBuilder<PhraseCountAggregationBuilder> {
+    public static final String NAME = "phrase_counts";
+    public static final ParseField PHRASES_FIELD = new ParseField("phrases");
+    public static final ParseField FIELD_FIELD = new ParseField("field");
+
+    private final List<Phrase> phrases = new ArrayList<>();
+    private boolean weightedCount = false;
+
+    public PhraseCountAggregationBuilder(String name) {
+        super(name);
+    }
+
+    public PhraseCountAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        weightedCount = in.readBoolean();
+        phrases.addAll(in.readList(Phrase::new));
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeBoolean(weightedCount);
+        out.writeList(phrases);
+    }
+
+    public PhraseCountAggregationBuilder addPhrase(String fieldName, int slop, boolean inOrder, String... terms) {
+        if (terms == null || terms.length == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires terms");
+        }
+        phrases.add(new Phrase(fieldName, String.join(" ", terms), slop, inOrder));
+        return this;
+    }
+
+    public List<Phrase> phrases() {
+        return Collections.unmodifiableList(phrases);
+    }
+
+    public PhraseCountAggregationBuilder weightedCount(boolean weightedCount) {
+        this.weightedCount = weightedCount;
+        return this;
+    }
+
+    public boolean weightedCount() {
+        return weightedCount;
+    }
+
+    /**
+     * Matches every document in which some phrase can occur: those with the first term of a phrase,
+     * split and lowercased as the phrases are. Adding it to the request query restricts the collected
+     * documents to the postings of these terms.
+     */
+    public QueryBuilder firstTermsQuery() {
+        Map<String, Set<String>> firstTerms = new TreeMap<>();
+        for (Phrase phrase : phrases) {
+            CustomSpanQuery[] clauses = PhraseCountQueryBuilder.toQuery(phrase.fieldName, phrase.value, phrase.slop,
+                phrase.inOrder, weightedCount).getClauses();
+            if (clauses.length > 0) {
+                firstTerms.computeIfAbsent(phrase.fieldName, field -> new TreeSet<>())
+                    .add(((CustomSpanTermQuery) clauses[0]).getTerm().text());
+            }
+        }
+        BoolQueryBuilder query = QueryBuilders.boolQuery().minimumShouldMatch(1);
+        for (Map.Entry<String, Set<String>> entry : firstTerms.entrySet()) {
+            query.should(QueryBuilders.termsQuery(entry.getKey(), entry.getValue()));
+        }
+        return query;
+    }
+
+    @Override
+    protected AggregatorFactory<?> doBuild(SearchContext context, AggregatorFactory<?> parent,
+                                           AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        List<PhraseCountQuery> queries = new ArrayList<>(phrases.size());
+        for (Phrase phrase : phrases) {
+            queries.add(PhraseCountQueryBuilder.toQuery(phrase.fieldName, phrase.value, phrase.slop, phrase.inOrder, weightedCount));
+        }
+        return new PhraseCountAggregatorFactory(name, queries, context, parent, subFactoriesBuilder, metaData);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(PhraseCountQueryBuilder.WEIGHTED_COUNT_FIELD.getPreferredName(), weightedCount);
+        builder.startArray(PHRASES_FIELD.getPreferredName());
+        for (Phrase phrase : phrases) {
+            phrase.toXContent(builder, params);
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(phrases, weightedCount);
+    }
+
+    @Override
+    protected boolean doEquals(Object obj) {
+        PhraseCountAggregationBuilder other = (PhraseCountAggregationBuilder) obj;
+        return Objects.equals(phrases, other.phrases) && weightedCount == other.weightedCount;
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    public static PhraseCountAggregationBuilder parse(String aggregationName, QueryParseContext parseContext) throws IOException {
+        XContentParser parser = parseContext.parser();
+        PhraseCountAggregationBuilder builder = new PhraseCountAggregationBuilder(aggregationName);
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY && PHRASES_FIELD.match(currentFieldName)) {
+                while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    if (token != XContentParser.Token.START_OBJECT) {
+                        throw new ParsingException(parser.getTokenLocation(),
+                            "[" + NAME + "] expects objects in [" + currentFieldName + "]");
+                    }
+                    builder.phrases.add(Phrase.parse(parser));
+                }
+            } else if (token.isValue() && PhraseCountQueryBuilder.WEIGHTED_COUNT_FIELD.match(currentFieldName)) {
+                builder.weightedCount = parser.booleanValue();
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),
+                    "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * One phrase to count; the query text is split by whitespace and lowercased as in {@link PhraseCountQueryBuilder}.
+     */
+    public static class Phrase implements Writeable, ToXContent {
+        private final String fieldName;
+        private final String value;
+        private final int slop;
+        private final boolean inOrder;
+
+        public Phrase(String fieldName, String value, int slop, boolean inOrder) {
+            if (Strings.isEmpty(fieldName)) {
+                throw new IllegalArgumentException("[" + NAME + "] requires fieldName");
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("[" + NAME + "] requires query value");
+            }
+            if (slop < 0) {
+                throw new IllegalArgumentException("No negative slop allowed.");
+            }
+            this.fieldName = fieldName;
+            this.value = value;
+            this.slop = slop;
+            this.inOrder = inOrder;
+        }
+
+        public Phrase(StreamInput in) throws IOException {
+            fieldName = in.readString();
+            value = in.readString();
+            slop = in.readVInt();
+            inOrder = in.readBoolean();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(fieldName);
+            out.writeString(value);
+            out.writeVInt(slop);
+            out.writeBoolean(inOrder);
+        }
+
+        public String fieldName() {
+            return fieldName;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        public int slop() {
+            return slop;
+        }
+
+        public boolean inOrder() {
+            return inOrder;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field(FIELD_FIELD.getPreferredName(), fieldName);
+            builder.field(PhraseCountQueryBuilder.QUERY_FIELD.getPreferredName(), value);
+            builder.field(PhraseCountQueryBuilder.SLOP_FIELD.getPreferredName(), slop);
+            builder.field(PhraseCountQueryBuilder.IN_ORDER_FIELD.getPreferredName(), inOrder);
+            builder.endObject();
+            return builder;
+        }
+
+        static Phrase parse(XContentParser parser) throws IOException {
+            String fieldName = null;
+            String value = null;
+            int slop = 0;
+            boolean inOrder = false;
+            String currentFieldName = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token.isValue()) {
+                    if (FIELD_FIELD.match(currentFieldName)) {
+                        fieldName = parser.text();
+                    } else if (PhraseCountQueryBuilder.QUERY_FIELD.match(currentFieldName)) {
+                        value = parser.text();
+                    } else if (PhraseCountQueryBuilder.SLOP_FIELD.match(currentFieldName)) {
+                        slop = parser.intValue();
+                    } else if (PhraseCountQueryBuilder.IN_ORDER_FIELD.match(currentFieldName)) {
+                        inOrder = parser.booleanValue();
+                    } else {
+                        throw new ParsingException(parser.getTokenLocation(),
+                            "[" + NAME + "] phrase does not support [" + currentFieldName + "]");
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),
+                        "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+                }
+            }
+            return new Phrase(fieldName, value, slop, inOrder);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Phrase phrase = (Phrase) o;
+            return slop == phrase.slop &&
+                inOrder == phrase.inOrder &&
+                Objects.equals(fieldName, phrase.fieldName) &&
+                Objects.equals(value, phrase.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fieldName, value, slop, inOrder);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import com.carrotsearch.hppc.FloatArrayList;
+import com.carrotsearch.hppc.IntArrayList;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the counts of all phrases for the documents of one shard.
+ * A document gets a row only if at least one phrase occurs in it.
+ */
+public class PhraseCountAggregator extends MetricsAggregator {
+
+    private final List<PhraseCountQuery> phrases;
+    private final List<String> ids = new ArrayList<>();
+    private final IntArrayList[] rows;
+    private final FloatArrayList[] counts;
+
+    public PhraseCountAggregator(String name, List<PhraseCountQuery> phrases, SearchContext context, Aggregator parent,
+                                 List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.phrases = phrases;
+        this.rows = new IntArrayList[phrases.size()];
+        this.counts = new FloatArrayList[phrases.size()];
+        for (int p = 0; p < phrases.size(); p++) {
+            rows[p] = new IntArrayList();
+            counts[p] = new FloatArrayList();
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    @Override
+    public LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        final LeafReader reader = ctx.reader();
+        final MultiPhraseCounter counter = new MultiPhraseCounter(reader, phrases);
+        final String[] segmentIds = SegmentIds.of(reader);
+        final int[] docPhrases = new int[phrases.size()];
+        final float[] docCounts = new float[phrases.size()];
+        return new LeafBucketCollectorBase(sub, null) {
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                int found = counter.count(doc, docPhrases, docCounts);
+                if (found == 0) {
+                    return;
+                }
+                int row = ids.size();
+                ids.add(SegmentIds.get(reader, segmentIds, doc));
+                for (int i = 0; i < found; i++) {
+                    rows[docPhrases[i]].add(row);
+                    counts[docPhrases[i]].add(docCounts[i]);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long bucket) throws IOException {
+        int[][] rowArrays = new int[phrases.size()][];
+        float[][] countArrays = new float[phrases.size()][];
+        for (int p = 0; p < phrases.size(); p++) {
+            rowArrays[p] = rows[p].toArray();
+            countArrays[p] = counts[p].toArray();
+        }
+        return new InternalPhraseCounts(name, ids.toArray(new String[ids.size()]), rowArrays, countArrays,
+            pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalPhraseCounts(name, new String[0], new int[phrases.size()][0], new float[phrases.size()][0],
+            pipelineAggregators(), metaData());
+    }
+}
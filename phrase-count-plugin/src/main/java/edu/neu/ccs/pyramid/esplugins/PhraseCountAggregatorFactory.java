@@ -0,0 +1,34 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class PhraseCountAggregatorFactory extends AggregatorFactory<PhraseCountAggregatorFactory> {
+
+    private final List<PhraseCountQuery> phrases;
+
+    public PhraseCountAggregatorFactory(String name, List<PhraseCountQuery> phrases, SearchContext context,
+                                        AggregatorFactory<?> parent, AggregatorFactories.Builder subFactoriesBuilder,
+                                        Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, subFactoriesBuilder, metaData);
+        this.phrases = phrases;
+    }
+
+    @Override
+    protected Aggregator createInternal(Aggregator parent, boolean collectsFromSingleBucket,
+                                        List<PipelineAggregator> pipelineAggregators,
+                                        Map<String, Object> metaData) throws IOException {
+        // rows are documents, so the counts only make sense at the top level
+        if (parent != null) {
+            throw new IllegalArgumentException("[" + PhraseCountAggregationBuilder.NAME + "] cannot be nested under [" + parent.name() + "]");
+        }
+        return new PhraseCountAggregator(name, phrases, context, parent, pipelineAggregators, metaData);
+    }
+}
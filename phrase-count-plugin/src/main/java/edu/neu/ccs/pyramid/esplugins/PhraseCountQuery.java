@@ -79,6 +79,9 @@ public class PhraseCountQuery extends CustomSpanQuery implements Cloneable {
     /** Return true if matches are required to be in-order.*/
     public boolean isInOrder() { return inOrder; }
 
+    /** Return true if matches are weighted by their slop factor.*/
+    public boolean isWeightedCount() { return weightedCount; }
+
     @Override
     public String getField() { return field; }
 
@@ -170,6 +170,13 @@ public class PhraseCountQueryBuilder extends AbstractQueryBuilder<PhraseCountQue
     }
 
     protected Query doToQuery(QueryShardContext context) throws IOException {
+        return toQuery(fieldName, value, slop, inOrder, weightedCount);
+    }
+
+    /**
+     * the phrase is split by whitespace and lowercased; also used for the phrases of PhraseCountAggregationBuilder
+     */
+    static PhraseCountQuery toQuery(String fieldName, String value, int slop, boolean inOrder, boolean weightedCount) {
 //        Analyzer analyzer = context.getMapperService().searchAnalyzer();
         Analyzer analyzer = new WhitespaceAnalyzer();
         try (TokenStream source = analyzer.tokenStream(fieldName, value.toString())) {
@@ -3,6 +3,7 @@ package edu.neu.ccs.pyramid.esplugins;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.SearchPlugin;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -16,4 +17,15 @@ public class PhraseCountQueryPlugin extends Plugin implements SearchPlugin {
         list.add(new QuerySpec<>(PhraseCountQueryBuilder.NAME, PhraseCountQueryBuilder::new, PhraseCountQueryBuilder::fromXContent));
         return list;
     }
+
+    @Override
+    public List<AggregationSpec> getAggregations() {
+        return Arrays.asList(
+                new AggregationSpec(PhraseCountAggregationBuilder.NAME,
+                        PhraseCountAggregationBuilder::new, PhraseCountAggregationBuilder::parse)
+                        .addResultReader(InternalPhraseCounts::new),
+                new AggregationSpec(MatchBitsetAggregationBuilder.NAME,
+                        MatchBitsetAggregationBuilder::new, MatchBitsetAggregationBuilder::parse)
+                        .addResultReader(InternalMatchBitsets::new));
+    }
 }
@@ -0,0 +1,60 @@
+package edu.neu.ccs.pyramid.esplugins;
+
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.LeafReader;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.UidFieldMapper;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Ids of the documents of recently read segments, filled on demand, so that the blocks of one feature load
+ * read the stored id of a document once. A segment is dropped when it is closed,
+ * or when no request has read it for a while.
+ */
+final class SegmentIds {
+
+    private static final Cache<Object, String[]> CACHE = CacheBuilder.<Object, String[]>builder()
+        .setExpireAfterAccess(TimeValue.timeValueMinutes(10))
+        .build();
+
+    private SegmentIds() {
+    }
+
+    /**
+     * @return the ids of the segment, null for the documents not read yet
+     */
+    static String[] of(LeafReader reader) throws IOException {
+        try {
+            return CACHE.computeIfAbsent(reader.getCoreCacheKey(), key -> {
+                reader.addCoreClosedListener(CACHE::invalidate);
+                return new String[reader.maxDoc()];
+            });
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @param ids the ids of the segment of the reader
+     */
+    static String get(LeafReader reader, String[] ids, int doc) throws IOException {
+        String id = ids[doc];
+        if (id == null) {
+            // concurrent requests may both read it, and store the same value
+            id = readId(reader, doc);
+            ids[doc] = id;
+        }
+        return id;
+    }
+
+    private static String readId(LeafReader reader, int doc) throws IOException {
+        DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(UidFieldMapper.NAME);
+        reader.document(doc, visitor);
+        return Uid.createUid(visitor.getDocument().get(UidFieldMapper.NAME)).id();
+    }
+}